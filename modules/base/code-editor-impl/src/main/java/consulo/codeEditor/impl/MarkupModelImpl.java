@@ -32,6 +32,7 @@ import consulo.logging.Logger;
 import consulo.ui.UIAccess;
 import consulo.util.dataholder.UserDataHolderBase;
 import consulo.util.lang.BitUtil;
+import consulo.util.lang.SystemProperties;
 import org.jspecify.annotations.Nullable;
 
 import javax.swing.*;
@@ -42,6 +43,11 @@ import java.util.function.Predicate;
 
 public class MarkupModelImpl extends UserDataHolderBase implements MarkupModelEx {
     private static final Logger LOG = Logger.getInstance(MarkupModelImpl.class);
+    /**
+     * When enabled, {@link #processRangeHighlightersOverlappingWith} called outside EDT processes immutable snapshots of the highlighter trees
+     * instead of holding their read locks. Controlled by {@code idea.markup.model.snapshot.reads}.
+     */
+    private static final boolean SNAPSHOT_READS = SystemProperties.getBooleanProperty("idea.markup.model.snapshot.reads", false);
     private final DocumentEx myDocument;
 
     private volatile RangeHighlighter[] myCachedHighlighters;
@@ -335,7 +341,7 @@ public class MarkupModelImpl extends UserDataHolderBase implements MarkupModelEx
 
     @Override
     public boolean processRangeHighlightersOverlappingWith(int start, int end, Predicate<? super RangeHighlighterEx> processor) {
-        MarkupIterator<RangeHighlighterEx> iterator = overlappingIterator(start, end);
+        MarkupIterator<RangeHighlighterEx> iterator = SNAPSHOT_READS && !UIAccess.isUIThread() ? snapshotOverlappingIterator(start, end) : overlappingIterator(start, end);
         try {
             while (iterator.hasNext()) {
                 if (!processor.test(iterator.next())) {
@@ -364,6 +370,17 @@ public class MarkupModelImpl extends UserDataHolderBase implements MarkupModelEx
                 RangeHighlighterEx.BY_AFFECTED_START_OFFSET);
     }
 
+    /**
+     * Iterates over tree snapshots, so background processors don't hold the tree read locks and don't block highlighter updates in EDT
+     */
+    private MarkupIterator<RangeHighlighterEx> snapshotOverlappingIterator(int startOffset, int endOffset) {
+        startOffset = Math.max(0, startOffset);
+        endOffset = Math.max(startOffset, endOffset);
+        return IntervalTreeImpl
+            .mergingOverlappingSnapshotIterator(myHighlighterTree, new TextRangeInterval(startOffset, endOffset), myHighlighterTreeForLines,
+                roundToLineBoundaries(getDocument(), startOffset, endOffset), RangeHighlighterEx.BY_AFFECTED_START_OFFSET);
+    }
+
     
     @Override
     public MarkupIterator<RangeHighlighterEx> overlappingIterator(int startOffset, int endOffset, boolean onlyRenderedInGutter, boolean onlyRenderedInScrollBar) {
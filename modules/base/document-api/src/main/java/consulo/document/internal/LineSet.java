@@ -7,38 +7,84 @@ import consulo.util.lang.BitUtil;
 import consulo.util.lang.CharArrayUtil;
 import consulo.util.lang.MergingCharSequence;
 import consulo.util.lang.StringUtil;
+import consulo.util.lang.SystemProperties;
 import it.unimi.dsi.fastutil.bytes.ByteArrayList;
 import it.unimi.dsi.fastutil.bytes.ByteList;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.ints.IntList;
 
+import org.jetbrains.annotations.TestOnly;
+import org.jspecify.annotations.Nullable;
+
 import java.util.Arrays;
 
 /**
  * Data structure specialized for working with document text lines, i.e. stores information about line mapping to document
  * offsets and provides convenient ways to work with that information like retrieving target line by document offset etc.
  * <p/>
+ * Texts longer than {@code -Didea.document.chunked.line.set.threshold} chars (1 MB by default) keep lines in chunks of
+ * {@link #CHUNK_SIZE} lines with offsets relative to the chunk, so an edit copies only the chunks of the changed lines
+ * and the offsets of the chunks instead of the offsets of all lines.
+ * <p/>
  * Immutable.
  */
 public final class LineSet {
     private static final int MODIFIED_MASK = 0x4;
     private static final int SEPARATOR_MASK = 0x3;
 
+    private static final int CHUNKED_THRESHOLD = SystemProperties.getIntProperty("idea.document.chunked.line.set.threshold", 1024 * 1024);
+    private static final int CHUNK_SIZE = 1024;
+
     private final int[] myStarts;
     private final byte[] myFlags; // MODIFIED_MASK bit is for is/setModified(line); SEPARATOR_MASK 2 bits stores line separator length: 0..2
     private final int myLength;
 
-    private LineSet(int[] starts, byte[] flags, int length) {
+    // not null for a chunked line set, myStarts and myFlags are empty then
+    private final LineSet @Nullable [] myChunks;
+    private final int[] myChunkOffsets;
+    private final int[] myChunkFirstLines;
+    private final int myLineCount; // stored lines, the last empty line after a line separator isn't stored
+    private final int myChunkedThreshold;
+
+    private LineSet(int[] starts, byte[] flags, int length, int chunkedThreshold) {
         myStarts = starts;
         myFlags = flags;
         myLength = length;
+        myChunks = null;
+        myChunkOffsets = ArrayUtil.EMPTY_INT_ARRAY;
+        myChunkFirstLines = ArrayUtil.EMPTY_INT_ARRAY;
+        myLineCount = starts.length;
+        myChunkedThreshold = chunkedThreshold;
+    }
+
+    private LineSet(LineSet[] chunks, int[] chunkOffsets, int[] chunkFirstLines, int lineCount, int length, int chunkedThreshold) {
+        myStarts = ArrayUtil.EMPTY_INT_ARRAY;
+        myFlags = ArrayUtil.EMPTY_BYTE_ARRAY;
+        myLength = length;
+        myChunks = chunks;
+        myChunkOffsets = chunkOffsets;
+        myChunkFirstLines = chunkFirstLines;
+        myLineCount = lineCount;
+        myChunkedThreshold = chunkedThreshold;
     }
 
     public static LineSet createLineSet(CharSequence text) {
-        return createLineSet(text, false);
+        return createLineSet(text, CHUNKED_THRESHOLD);
     }
 
-    private static LineSet createLineSet(CharSequence text, boolean markModified) {
+    /**
+     * @param chunkedThreshold length of the text from which the line set and the line sets updated from it are chunked
+     */
+    @TestOnly
+    static LineSet createLineSet(CharSequence text, int chunkedThreshold) {
+        return createLineSet(text, false, chunkedThreshold);
+    }
+
+    private static LineSet createLineSet(CharSequence text, boolean markModified, int chunkedThreshold) {
+        return chunkIfLarge(createFlatLineSet(text, markModified, chunkedThreshold));
+    }
+
+    private static LineSet createFlatLineSet(CharSequence text, boolean markModified, int chunkedThreshold) {
         IntList starts = new IntArrayList();
         ByteList flags = new ByteArrayList();
 
@@ -48,12 +94,12 @@ public final class LineSet {
             flags.add((byte) (lineTokenizer.getLineSeparatorLength() | (markModified ? MODIFIED_MASK : 0)));
             lineTokenizer.advance();
         }
-        return new LineSet(starts.toIntArray(), flags.toByteArray(), text.length());
+        return new LineSet(starts.toIntArray(), flags.toByteArray(), text.length(), chunkedThreshold);
     }
 
     public LineSet update(CharSequence prevText, int start, int end, CharSequence replacement, boolean wholeTextReplaced) {
         if (myLength == 0) {
-            return createLineSet(replacement, !wholeTextReplaced);
+            return createLineSet(replacement, !wholeTextReplaced, myChunkedThreshold);
         }
 
         // if we're breaking or creating a '\r\n' pair, expand the changed range to include it fully
@@ -70,13 +116,156 @@ public final class LineSet {
             end++;
         }
 
-        LineSet result = isSingleLineChange(start, end, replacement)
-            ? updateInsideOneLine(findLineIndex(start), replacement.length() - (end - start))
-            : genericUpdate(start, end, replacement);
+        LineSet result;
+        if (myChunks == null) {
+            result = chunkIfLarge(isSingleLineChange(start, end, replacement)
+                ? updateInsideOneLine(findLineIndex(start), replacement.length() - (end - start))
+                : genericUpdate(start, end, replacement));
+        }
+        else {
+            result = chunkedUpdate(start, end, replacement);
+        }
 
         return wholeTextReplaced ? result.clearModificationFlags() : result;
     }
 
+    /**
+     * Joins the chunks of the changed lines into a flat line set, updates it as the whole text would be updated
+     * (the chunks end with whole lines, so it looks the same from the changed lines) and splits it into chunks again.
+     * The following chunks are only shifted.
+     */
+    private LineSet chunkedUpdate(int start, int end, CharSequence replacement) {
+        if (start == 0 && end == myLength) {
+            return createLineSet(replacement, true, myChunkedThreshold);
+        }
+
+        int startLine = findLineIndex(start);
+        int endLine = findLineIndex(end);
+        boolean singleLineChange = startLine == endLine && !CharArrayUtil.containLineBreaks(replacement) && !isLastEmptyLine(startLine);
+
+        int firstChunk = findChunk(startLine);
+        int lastChunk = findChunk(endLine);
+        int windowOffset = myChunkOffsets[firstChunk];
+        int windowFirstLine = myChunkFirstLines[firstChunk];
+        LineSet window = joinChunks(firstChunk, lastChunk);
+        LineSet updatedWindow = singleLineChange
+            ? window.updateInsideOneLine(startLine - windowFirstLine, replacement.length() - (end - start))
+            : window.genericUpdate(start - windowOffset, end - windowOffset, replacement);
+
+        LineSet result = withWindow(firstChunk, lastChunk, updatedWindow);
+        // not at the threshold itself, so that typing around it doesn't switch the representation back and forth
+        return result.myLength < myChunkedThreshold / 2 ? result.flatten() : result;
+    }
+
+    private LineSet withWindow(int firstChunk, int lastChunk, LineSet window) {
+        LineSet[] chunks = myChunks;
+        assert chunks != null;
+        int windowOffset = myChunkOffsets[firstChunk];
+        int windowFirstLine = myChunkFirstLines[firstChunk];
+        int oldWindowLength = (lastChunk + 1 < chunks.length ? myChunkOffsets[lastChunk + 1] : myLength) - windowOffset;
+        int oldWindowLines = (lastChunk + 1 < chunks.length ? myChunkFirstLines[lastChunk + 1] : myLineCount) - windowFirstLine;
+        int lengthShift = window.myLength - oldWindowLength;
+        int lineShift = window.myStarts.length - oldWindowLines;
+
+        int windowChunks = (window.myStarts.length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        int tail = chunks.length - lastChunk - 1;
+        int chunkCount = firstChunk + windowChunks + tail;
+        LineSet[] newChunks = new LineSet[chunkCount];
+        int[] offsets = new int[chunkCount];
+        int[] firstLines = new int[chunkCount];
+
+        System.arraycopy(chunks, 0, newChunks, 0, firstChunk);
+        System.arraycopy(myChunkOffsets, 0, offsets, 0, firstChunk);
+        System.arraycopy(myChunkFirstLines, 0, firstLines, 0, firstChunk);
+
+        for (int i = 0; i < windowChunks; i++) {
+            int from = i * CHUNK_SIZE;
+            int to = Math.min(from + CHUNK_SIZE, window.myStarts.length);
+            int chunkOffset = window.myStarts[from];
+            int chunkEnd = to < window.myStarts.length ? window.myStarts[to] : window.myLength;
+            newChunks[firstChunk + i] = window.subLineSet(from, to, chunkOffset, chunkEnd);
+            offsets[firstChunk + i] = windowOffset + chunkOffset;
+            firstLines[firstChunk + i] = windowFirstLine + from;
+        }
+
+        int dst = firstChunk + windowChunks;
+        System.arraycopy(chunks, lastChunk + 1, newChunks, dst, tail);
+        for (int i = 0; i < tail; i++) {
+            offsets[dst + i] = myChunkOffsets[lastChunk + 1 + i] + lengthShift;
+            firstLines[dst + i] = myChunkFirstLines[lastChunk + 1 + i] + lineShift;
+        }
+        return new LineSet(newChunks, offsets, firstLines, myLineCount + lineShift, myLength + lengthShift, myChunkedThreshold);
+    }
+
+    private LineSet subLineSet(int fromLine, int toLine, int offset, int end) {
+        int[] starts = Arrays.copyOfRange(myStarts, fromLine, toLine);
+        for (int i = 0; i < starts.length; i++) {
+            starts[i] -= offset;
+        }
+        return new LineSet(starts, Arrays.copyOfRange(myFlags, fromLine, toLine), end - offset, myChunkedThreshold);
+    }
+
+    private LineSet joinChunks(int firstChunk, int lastChunk) {
+        LineSet[] chunks = myChunks;
+        assert chunks != null;
+        int windowOffset = myChunkOffsets[firstChunk];
+        int windowFirstLine = myChunkFirstLines[firstChunk];
+        int lineCount = (lastChunk + 1 < chunks.length ? myChunkFirstLines[lastChunk + 1] : myLineCount) - windowFirstLine;
+        int length = (lastChunk + 1 < chunks.length ? myChunkOffsets[lastChunk + 1] : myLength) - windowOffset;
+        if (firstChunk == lastChunk) {
+            return chunks[firstChunk];
+        }
+
+        int[] starts = new int[lineCount];
+        byte[] flags = new byte[lineCount];
+        for (int c = firstChunk; c <= lastChunk; c++) {
+            LineSet chunk = chunks[c];
+            int dst = myChunkFirstLines[c] - windowFirstLine;
+            int shift = myChunkOffsets[c] - windowOffset;
+            System.arraycopy(chunk.myFlags, 0, flags, dst, chunk.myFlags.length);
+            for (int i = 0; i < chunk.myStarts.length; i++) {
+                starts[dst + i] = chunk.myStarts[i] + shift;
+            }
+        }
+        return new LineSet(starts, flags, length, myChunkedThreshold);
+    }
+
+    private static LineSet chunkIfLarge(LineSet lineSet) {
+        if (lineSet.myChunks != null || lineSet.myLength < lineSet.myChunkedThreshold || lineSet.myStarts.length <= CHUNK_SIZE) {
+            return lineSet;
+        }
+        LineSet singleChunk =
+            new LineSet(new LineSet[]{lineSet}, new int[]{0}, new int[]{0}, lineSet.myStarts.length, lineSet.myLength, lineSet.myChunkedThreshold);
+        return singleChunk.withWindow(0, 0, lineSet);
+    }
+
+    private LineSet flatten() {
+        return myChunks == null ? this : joinChunks(0, myChunks.length - 1);
+    }
+
+    private int findChunk(int line) {
+        int bsResult = Arrays.binarySearch(myChunkFirstLines, line);
+        return Math.min(bsResult >= 0 ? bsResult : -bsResult - 2, myChunkFirstLines.length - 1);
+    }
+
+    private int getStoredLineStart(int line) {
+        LineSet[] chunks = myChunks;
+        if (chunks == null) {
+            return myStarts[line];
+        }
+        int chunk = findChunk(line);
+        return myChunkOffsets[chunk] + chunks[chunk].myStarts[line - myChunkFirstLines[chunk]];
+    }
+
+    private byte getStoredLineFlags(int line) {
+        LineSet[] chunks = myChunks;
+        if (chunks == null) {
+            return myFlags[line];
+        }
+        int chunk = findChunk(line);
+        return chunks[chunk].myFlags[line - myChunkFirstLines[chunk]];
+    }
+
     private static boolean hasChar(CharSequence s, int index, char c) {
         return index >= 0 && index < s.length() && s.charAt(index) == c;
     }
@@ -98,14 +287,14 @@ public final class LineSet {
 
         byte[] flags = myFlags.clone();
         flags[line] |= MODIFIED_MASK;
-        return new LineSet(starts, flags, myLength + lengthDelta);
+        return new LineSet(starts, flags, myLength + lengthDelta, myChunkedThreshold);
     }
 
     private LineSet genericUpdate(int startOffset, int endOffset, CharSequence replacement) {
         int startLine = findLineIndex(startOffset);
         int endLine = findLineIndex(endOffset);
 
-        LineSet patch = createLineSet(replacement, true);
+        LineSet patch = createFlatLineSet(replacement, true, myChunkedThreshold);
 
         int lengthShift = patch.myLength - (endOffset - startOffset);
 
@@ -146,7 +335,7 @@ public final class LineSet {
 
         shiftData(starts, flags, endLine + 1, toIndex, myStarts.length - (endLine + 1), lengthShift);
 
-        return new LineSet(starts, flags, myLength + lengthShift);
+        return new LineSet(starts, flags, myLength + lengthShift, myChunkedThreshold);
     }
 
     private int shiftData(int[] dstStarts, byte[] dstFlags, int srcOffset, int dstOffset, int count, int offsetDelta) {
@@ -172,8 +361,15 @@ public final class LineSet {
             return getLineCount() - 1;
         }
 
-        int bsResult = Arrays.binarySearch(myStarts, offset);
-        return bsResult >= 0 ? bsResult : -bsResult - 2;
+        LineSet[] chunks = myChunks;
+        if (chunks == null) {
+            int bsResult = Arrays.binarySearch(myStarts, offset);
+            return bsResult >= 0 ? bsResult : -bsResult - 2;
+        }
+        int chunkResult = Arrays.binarySearch(myChunkOffsets, offset);
+        int chunk = chunkResult >= 0 ? chunkResult : -chunkResult - 2;
+        int bsResult = Arrays.binarySearch(chunks[chunk].myStarts, offset - myChunkOffsets[chunk]);
+        return myChunkFirstLines[chunk] + (bsResult >= 0 ? bsResult : -bsResult - 2);
     }
 
     public LineIterator createIterator() {
@@ -182,11 +378,11 @@ public final class LineSet {
 
     public int getLineStart(int index) {
         checkLineIndex(index);
-        return isLastEmptyLine(index) ? myLength : myStarts[index];
+        return isLastEmptyLine(index) ? myLength : getStoredLineStart(index);
     }
 
     private boolean isLastEmptyLine(int index) {
-        return index == myFlags.length && hasEol(index - 1);
+        return index == myLineCount && hasEol(index - 1);
     }
 
     private boolean hasEol(int lineIndex) {
@@ -195,7 +391,7 @@ public final class LineSet {
 
     public int getLineEnd(int index) {
         checkLineIndex(index);
-        return index >= myStarts.length - 1 ? myLength : myStarts[index + 1];
+        return index >= myLineCount - 1 ? myLength : getStoredLineStart(index + 1);
     }
 
     private void checkLineIndex(int index) {
@@ -206,7 +402,7 @@ public final class LineSet {
 
     public boolean isModified(int index) {
         checkLineIndex(index);
-        return !isLastEmptyLine(index) && BitUtil.isSet(myFlags[index], MODIFIED_MASK);
+        return !isLastEmptyLine(index) && BitUtil.isSet(getStoredLineFlags(index), MODIFIED_MASK);
     }
 
     
@@ -221,12 +417,30 @@ public final class LineSet {
             }
         }
 
+        LineSet[] chunks = myChunks;
+        if (chunks != null) {
+            LineSet[] newChunks = chunks.clone();
+            for (int i = 0; i < indices.size(); i++) {
+                int index = indices.getInt(i);
+                int chunk = findChunk(index);
+                if (newChunks[chunk] == chunks[chunk]) {
+                    newChunks[chunk] = chunks[chunk].copyFlags();
+                }
+                newChunks[chunk].myFlags[index - myChunkFirstLines[chunk]] |= MODIFIED_MASK;
+            }
+            return new LineSet(newChunks, myChunkOffsets, myChunkFirstLines, myLineCount, myLength, myChunkedThreshold);
+        }
+
         byte[] flags = myFlags.clone();
         for (int i = 0; i < indices.size(); i++) {
             int index = indices.getInt(i);
             flags[index] |= MODIFIED_MASK;
         }
-        return new LineSet(myStarts, flags, myLength);
+        return new LineSet(myStarts, flags, myLength, myChunkedThreshold);
+    }
+
+    private LineSet copyFlags() {
+        return new LineSet(myStarts, myFlags.clone(), myLength, myChunkedThreshold);
     }
 
     
@@ -244,11 +458,27 @@ public final class LineSet {
             return this;
         }
 
+        LineSet[] chunks = myChunks;
+        if (chunks != null) {
+            LineSet[] newChunks = chunks.clone();
+            int lastChunk = findChunk(endLine - 1);
+            for (int chunk = findChunk(startLine); chunk <= lastChunk; chunk++) {
+                int firstLine = myChunkFirstLines[chunk];
+                int from = Math.max(startLine - firstLine, 0);
+                int to = Math.min(endLine - firstLine, chunks[chunk].myStarts.length);
+                newChunks[chunk] = chunks[chunk].copyFlags();
+                for (int i = from; i < to; i++) {
+                    newChunks[chunk].myFlags[i] &= ~MODIFIED_MASK;
+                }
+            }
+            return new LineSet(newChunks, myChunkOffsets, myChunkFirstLines, myLineCount, myLength, myChunkedThreshold);
+        }
+
         byte[] flags = myFlags.clone();
         for (int i = startLine; i < endLine; i++) {
             flags[i] &= ~MODIFIED_MASK;
         }
-        return new LineSet(myStarts, flags, myLength);
+        return new LineSet(myStarts, flags, myLength, myChunkedThreshold);
     }
 
     
@@ -262,11 +492,11 @@ public final class LineSet {
     }
 
     private int getSeparatorLengthUnsafe(int index) {
-        return index < myFlags.length ? myFlags[index] & SEPARATOR_MASK : 0;
+        return index < myLineCount ? getStoredLineFlags(index) & SEPARATOR_MASK : 0;
     }
 
     public int getLineCount() {
-        return myStarts.length + (isLastEmptyLine(myStarts.length) ? 1 : 0);
+        return myLineCount + (isLastEmptyLine(myLineCount) ? 1 : 0);
     }
 
     public int getLength() {
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.document.internal;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Applies the same random edits to a chunked line set and to a flat one and compares them after every edit.
+ */
+public class LineSetTest {
+    private static final int FLAT = Integer.MAX_VALUE;
+    private static final String[] FRAGMENTS = {"a", "bc", "def ", "\n", "\r", "\r\n", "\n\n", "x\ny", "z\r\n\r\n", "long line of text"};
+
+    @Test
+    void testChunkedUpdatesMatchFlat() {
+        Random random = new Random(42);
+        String text = randomText(random, 3000);
+        // always chunked, whatever the length becomes
+        check(random, text, 1, 30000);
+    }
+
+    @Test
+    void testSwitchingRepresentationMatchesFlat() {
+        Random random = new Random(43);
+        String text = randomText(random, 3000);
+        // edits around the threshold switch the line set between chunked and flat storage
+        check(random, text, text.length(), 30000);
+    }
+
+    @Test
+    void testEditsAcrossChunksMatchFlat() {
+        Random random = new Random(44);
+        String text = randomText(random, 5000);
+        for (int i = 0; i < 200; i++) {
+            LineSet chunked = LineSet.createLineSet(text, 1);
+            LineSet flat = LineSet.createLineSet(text, FLAT);
+            // long deletions and replacements, which join several chunks
+            int start = random.nextInt(text.length() / 2);
+            int end = start + random.nextInt(text.length() - start);
+            String replacement = random.nextBoolean() ? "" : randomText(random, random.nextInt(3000));
+            String newText = text.substring(0, start) + replacement + text.substring(end);
+
+            assertSame(chunked.update(text, start, end, replacement, false), flat.update(text, start, end, replacement, false), newText);
+        }
+    }
+
+    private static void check(Random random, String text, int chunkedThreshold, int edits) {
+        int initialLength = text.length();
+        LineSet chunked = LineSet.createLineSet(text, chunkedThreshold);
+        LineSet flat = LineSet.createLineSet(text, FLAT);
+        assertSame(chunked, flat, text);
+
+        for (int i = 1; i <= edits; i++) {
+            int action = random.nextInt(20);
+            if (action == 0) {
+                IntList lines = new IntArrayList();
+                for (int j = random.nextInt(5); j >= 0; j--) {
+                    lines.add(random.nextInt(flat.getLineCount()));
+                }
+                chunked = chunked.setModified(lines);
+                flat = flat.setModified(lines);
+            }
+            else if (action == 1) {
+                int startLine = random.nextInt(flat.getLineCount());
+                int endLine = startLine + 1 + random.nextInt(flat.getLineCount() - startLine);
+                chunked = chunked.clearModificationFlags(startLine, endLine);
+                flat = flat.clearModificationFlags(startLine, endLine);
+            }
+            else {
+                // mostly typing and small deletions, sometimes large deletions and insertions which keep the length around the initial one
+                if (text.length() > 2 * initialLength) {
+                    action = 2;
+                }
+                else if (text.length() < initialLength / 4) {
+                    action = 3;
+                }
+                int start = random.nextInt(text.length() + 1);
+                int end = Math.min(text.length(), start + random.nextInt(action == 2 ? initialLength / 2 : 5));
+                String replacement = action == 2 ? "" : action == 3 ? randomText(random, random.nextInt(1000)) : randomFragments(random, random.nextInt(3));
+                boolean wholeTextReplaced = random.nextInt(1000) == 0;
+                if (wholeTextReplaced) {
+                    start = 0;
+                    end = text.length();
+                    replacement = randomText(random, 2000 + random.nextInt(2000));
+                }
+
+                chunked = chunked.update(text, start, end, replacement, wholeTextReplaced);
+                flat = flat.update(text, start, end, replacement, wholeTextReplaced);
+                text = text.substring(0, start) + replacement + text.substring(end);
+            }
+
+            if (i % 500 == 0) {
+                assertSame(chunked, flat, text);
+            }
+            else {
+                assertSameSample(random, chunked, flat, text);
+            }
+        }
+        assertSame(chunked, flat, text);
+    }
+
+    private static void assertSame(LineSet chunked, LineSet flat, String text) {
+        assertSameSize(chunked, flat, text);
+        LineSet created = LineSet.createLineSet(text, FLAT);
+        assertThat(flat.getLineCount()).isEqualTo(created.getLineCount());
+        for (int line = 0; line < flat.getLineCount(); line++) {
+            assertThat(flat.getLineStart(line)).as("start of line %d", line).isEqualTo(created.getLineStart(line));
+            assertThat(flat.getSeparatorLength(line)).as("separator of line %d", line).isEqualTo(created.getSeparatorLength(line));
+        }
+        for (int line = 0; line < flat.getLineCount(); line++) {
+            assertSameLine(chunked, flat, line);
+        }
+        for (int offset = 0; offset <= text.length(); offset++) {
+            assertThat(chunked.findLineIndex(offset)).as("line at %d", offset).isEqualTo(flat.findLineIndex(offset));
+        }
+    }
+
+    private static void assertSameSample(Random random, LineSet chunked, LineSet flat, String text) {
+        assertSameSize(chunked, flat, text);
+        for (int i = 0; i < 10; i++) {
+            assertSameLine(chunked, flat, random.nextInt(flat.getLineCount()));
+            int offset = random.nextInt(text.length() + 1);
+            assertThat(chunked.findLineIndex(offset)).as("line at %d", offset).isEqualTo(flat.findLineIndex(offset));
+        }
+    }
+
+    private static void assertSameSize(LineSet chunked, LineSet flat, String text) {
+        assertThat(flat.getLength()).isEqualTo(text.length());
+        assertThat(chunked.getLength()).isEqualTo(flat.getLength());
+        assertThat(chunked.getLineCount()).isEqualTo(flat.getLineCount());
+    }
+
+    private static void assertSameLine(LineSet chunked, LineSet flat, int line) {
+        assertThat(chunked.getLineStart(line)).as("start of line %d", line).isEqualTo(flat.getLineStart(line));
+        assertThat(chunked.getLineEnd(line)).as("end of line %d", line).isEqualTo(flat.getLineEnd(line));
+        assertThat(chunked.getSeparatorLength(line)).as("separator of line %d", line).isEqualTo(flat.getSeparatorLength(line));
+        assertThat(chunked.isModified(line)).as("modification of line %d", line).isEqualTo(flat.isModified(line));
+    }
+
+    private static String randomText(Random random, int lines) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            builder.append(randomFragments(random, random.nextInt(3)));
+            String[] separators = {"\n", "\n", "\r\n", "\r"};
+            builder.append(separators[random.nextInt(separators.length)]);
+        }
+        return builder.toString();
+    }
+
+    private static String randomFragments(Random random, int count) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+        }
+        return builder.toString();
+    }
+}
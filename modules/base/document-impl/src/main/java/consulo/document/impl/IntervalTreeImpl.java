@@ -17,7 +17,9 @@ import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -28,7 +30,8 @@ public abstract class IntervalTreeImpl<T> extends RedBlackTree<T> implements Int
     static final Logger LOG = Logger.getInstance(IntervalTreeImpl.class);
     static final boolean DEBUG = LOG.isDebugEnabled() || ApplicationManager.getApplication() != null && ApplicationManager.getApplication().isUnitTestMode();
     private int keySize; // number of all intervals, counting all duplicates, some of them maybe gced
-    final ReadWriteLock l = new ReentrantReadWriteLock();
+    final ReadWriteLock l = new VersionedReadWriteLock();
+    private volatile @Nullable IntervalTreeSnapshot<T> mySnapshot; // up-to-date snapshot or null, dropped on every write lock release
 
     protected abstract int compareEqualStartIntervals(IntervalNode<T> i1, IntervalNode<T> i2);
 
@@ -486,6 +489,49 @@ public abstract class IntervalTreeImpl<T> extends RedBlackTree<T> implements Int
         }
     }
 
+    /**
+     * Returns an immutable copy of the tree which can be queried without the tree lock, e.g. to run long processors
+     * in background threads without blocking writers. The snapshot is cached until the tree changes, the first call after a change
+     * copies the whole tree.
+     */
+    public IntervalTreeSnapshot<T> getSnapshot() {
+        IntervalTreeSnapshot<T> snapshot = mySnapshot;
+        if (snapshot != null) {
+            return snapshot;
+        }
+        l.readLock().lock();
+        try {
+            snapshot = mySnapshot;
+            if (snapshot == null) {
+                IntervalTreeSnapshot.Builder<T> builder = new IntervalTreeSnapshot.Builder<>(keySize);
+                collectSnapshot(getRoot(), 0, builder);
+                snapshot = builder.build(((VersionedReadWriteLock) l).myVersion);
+                mySnapshot = snapshot;
+            }
+            return snapshot;
+        }
+        finally {
+            l.readLock().unlock();
+        }
+    }
+
+    private void collectSnapshot(@Nullable IntervalNode<T> root, int deltaUpToRootExclusive, IntervalTreeSnapshot.Builder<T> builder) {
+        if (root == null) {
+            return;
+        }
+        int delta = deltaUpToRootExclusive + (root.isValid() ? root.delta : 0);
+        collectSnapshot(root.getLeft(), delta, builder);
+        if (root.isValid()) {
+            int start = root.intervalStart() + delta;
+            int end = root.intervalEnd() + delta;
+            //noinspection ForLoopReplaceableByForEach
+            for (int i = 0; i < root.intervals.size(); i++) {
+                builder.add(start, end, root.intervals.get(i));
+            }
+        }
+        collectSnapshot(root.getRight(), delta, builder);
+    }
+
     private boolean process(@Nullable IntervalNode<T> root,
                             int modCountBefore,
                             Predicate<? super T> processor) {
@@ -1490,6 +1536,64 @@ public abstract class IntervalTreeImpl<T> extends RedBlackTree<T> implements Int
         }
     }
 
+    /**
+     * Read-write lock which drops the cached {@link #getSnapshot() snapshot} and counts versions on every write lock release.
+     */
+    private final class VersionedReadWriteLock implements ReadWriteLock {
+        private final ReentrantReadWriteLock myDelegate = new ReentrantReadWriteLock();
+        private volatile long myVersion; // modified under the write lock only
+        private final Lock myWriteLock = new Lock() {
+            @Override
+            public void lock() {
+                myDelegate.writeLock().lock();
+            }
+
+            @Override
+            public void lockInterruptibly() throws InterruptedException {
+                myDelegate.writeLock().lockInterruptibly();
+            }
+
+            @Override
+            public boolean tryLock() {
+                return myDelegate.writeLock().tryLock();
+            }
+
+            @Override
+            public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+                return myDelegate.writeLock().tryLock(time, unit);
+            }
+
+            @Override
+            public void unlock() {
+                if (myDelegate.isWriteLockedByCurrentThread()) {
+                    myVersion++;
+                    mySnapshot = null;
+                }
+                myDelegate.writeLock().unlock();
+            }
+
+            @Override
+            public Condition newCondition() {
+                return myDelegate.writeLock().newCondition();
+            }
+
+            @Override
+            public String toString() {
+                return myDelegate.writeLock().toString();
+            }
+        };
+
+        @Override
+        public Lock readLock() {
+            return myDelegate.readLock();
+        }
+
+        @Override
+        public Lock writeLock() {
+            return myWriteLock;
+        }
+    }
+
     private static class IntervalTreeGuide<T extends MutableInterval> implements WalkingState.TreeGuide<IntervalNode<T>> {
         private static final IntervalTreeGuide<?> INSTANCE = new IntervalTreeGuide<>();
 
@@ -1548,6 +1652,20 @@ public abstract class IntervalTreeImpl<T> extends RedBlackTree<T> implements Int
         return MarkupIterator.mergeIterators(exact, lines, comparator);
     }
 
+    /**
+     * Same as {@link #mergingOverlappingIterator} but iterates over {@link #getSnapshot() snapshots} of the trees, without holding their locks.
+     */
+    public static <T> MarkupIterator<T> mergingOverlappingSnapshotIterator(
+        IntervalTreeImpl<T> tree1,
+        TextRange tree1Range,
+        IntervalTreeImpl<T> tree2,
+        TextRange tree2Range,
+        Comparator<? super T> comparator) {
+        MarkupIterator<T> exact = tree1.getSnapshot().overlappingIterator(tree1Range);
+        MarkupIterator<T> lines = tree2.getSnapshot().overlappingIterator(tree2Range);
+        return MarkupIterator.mergeIterators(exact, lines, comparator);
+    }
+
     T findRangeMarkerAfter(T marker) {
         l.readLock().lock();
         try {
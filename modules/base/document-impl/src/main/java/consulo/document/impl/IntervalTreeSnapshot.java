@@ -0,0 +1,208 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.document.impl;
+
+import consulo.document.MarkupIterator;
+import consulo.document.RangeMarker;
+import consulo.document.util.TextRange;
+import org.jspecify.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Immutable copy of an {@link IntervalTreeImpl} at some version: intervals with their offsets at that version, sorted by start offset.
+ * Queries don't take the tree lock, so processors don't block writers and may modify the tree. Intervals garbage collected
+ * or removed from the tree (e.g. disposed highlighters) since the snapshot was taken aren't reported.
+ *
+ * @see IntervalTreeImpl#getSnapshot()
+ */
+public final class IntervalTreeSnapshot<T> {
+    private static final int BLOCK_SIZE = 32;
+
+    private final long myVersion;
+    private final int mySize;
+    private final int[] myStarts;
+    private final int[] myEnds;
+    private final Supplier<? extends T>[] myIntervals;
+    private final int[] myBlockMaxEnds; // max end of the intervals in every block of BLOCK_SIZE intervals
+
+    private IntervalTreeSnapshot(long version, int size, int[] starts, int[] ends, Supplier<? extends T>[] intervals) {
+        myVersion = version;
+        mySize = size;
+        myStarts = starts;
+        myEnds = ends;
+        myIntervals = intervals;
+        myBlockMaxEnds = new int[(size + BLOCK_SIZE - 1) / BLOCK_SIZE];
+        Arrays.fill(myBlockMaxEnds, Integer.MIN_VALUE);
+        for (int i = 0; i < size; i++) {
+            myBlockMaxEnds[i / BLOCK_SIZE] = Math.max(myBlockMaxEnds[i / BLOCK_SIZE], ends[i]);
+        }
+    }
+
+    public long getVersion() {
+        return myVersion;
+    }
+
+    /**
+     * @return number of intervals in the snapshot, some of them may be garbage collected already
+     */
+    public int size() {
+        return mySize;
+    }
+
+    public boolean processAll(Predicate<? super T> processor) {
+        for (int i = 0; i < mySize; i++) {
+            T t = getAlive(i);
+            if (t != null && !processor.test(t)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean processOverlappingWith(int start, int end, Predicate<? super T> processor) {
+        for (int i = nextOverlapping(0, start, end); i >= 0; i = nextOverlapping(i + 1, start, end)) {
+            T t = getAlive(i);
+            if (t != null && !processor.test(t)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean processContaining(int offset, Predicate<? super T> processor) {
+        for (int i = nextOverlapping(0, offset, offset); i >= 0; i = nextOverlapping(i + 1, offset, offset)) {
+            if (offset >= myEnds[i]) {
+                continue;
+            }
+            T t = getAlive(i);
+            if (t != null && !processor.test(t)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return iterator over intervals intersecting with the range in the order of their start offsets, {@link MarkupIterator#dispose()} is not needed
+     */
+    public MarkupIterator<T> overlappingIterator(TextRange range) {
+        int start = range.getStartOffset();
+        int end = range.getEndOffset();
+        return new MarkupIterator<>() {
+            private int myIndex = -1;
+            private @Nullable T myCurrent;
+
+            @Override
+            public boolean hasNext() {
+                while (myCurrent == null) {
+                    myIndex = nextOverlapping(myIndex + 1, start, end);
+                    if (myIndex < 0) {
+                        return false;
+                    }
+                    myCurrent = getAlive(myIndex);
+                }
+                return true;
+            }
+
+            @Override
+            public T next() {
+                T t = peek();
+                myCurrent = null;
+                return t;
+            }
+
+            @Override
+            public T peek() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return myCurrent;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void dispose() {
+            }
+        };
+    }
+
+    /**
+     * @return the interval unless it was garbage collected or removed from the tree after the snapshot was taken
+     */
+    private @Nullable T getAlive(int index) {
+        T t = myIntervals[index].get();
+        return t instanceof RangeMarker marker && !marker.isValid() ? null : t;
+    }
+
+    /**
+     * @return index of the first interval starting from {@code from} which intersects with [start, end], or -1
+     */
+    private int nextOverlapping(int from, int start, int end) {
+        for (int i = from; i < mySize && myStarts[i] <= end; i++) {
+            if (i % BLOCK_SIZE == 0 && myBlockMaxEnds[i / BLOCK_SIZE] < start) {
+                i += BLOCK_SIZE - 1; // the whole block ends before the range
+                continue;
+            }
+            if (myEnds[i] >= start) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static final class Builder<T> {
+        private int mySize;
+        private int[] myStarts;
+        private int[] myEnds;
+        private Supplier<? extends T>[] myIntervals;
+
+        @SuppressWarnings("unchecked")
+        Builder(int expectedSize) {
+            int capacity = Math.max(expectedSize, 16);
+            myStarts = new int[capacity];
+            myEnds = new int[capacity];
+            myIntervals = new Supplier[capacity];
+        }
+
+        /**
+         * Intervals must be added in the order of their start offsets.
+         */
+        void add(int start, int end, Supplier<? extends T> interval) {
+            if (mySize == myStarts.length) {
+                int capacity = mySize * 2;
+                myStarts = Arrays.copyOf(myStarts, capacity);
+                myEnds = Arrays.copyOf(myEnds, capacity);
+                myIntervals = Arrays.copyOf(myIntervals, capacity);
+            }
+            myStarts[mySize] = start;
+            myEnds[mySize] = end;
+            myIntervals[mySize] = interval;
+            mySize++;
+        }
+
+        IntervalTreeSnapshot<T> build(long version) {
+            return new IntervalTreeSnapshot<>(version, mySize, myStarts, myEnds, myIntervals);
+        }
+    }
+}
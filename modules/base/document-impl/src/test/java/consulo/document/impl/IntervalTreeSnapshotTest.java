@@ -0,0 +1,201 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.document.impl;
+
+import consulo.document.MarkupIterator;
+import consulo.document.internal.RangeMarkerEx;
+import consulo.document.util.TextRange;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class IntervalTreeSnapshotTest {
+    private static final int TEXT_LENGTH = 2000;
+    private static final int READERS = 4;
+
+    @Test
+    void testRemovedIntervalsAreSkipped() {
+        DocumentImpl document = new DocumentImpl("a".repeat(100), true);
+        RangeMarkerTree<RangeMarkerEx> tree = new RangeMarkerTree<>(document);
+        RangeMarkerEx first = addMarker(document, tree, 0, 5);
+        RangeMarkerEx second = addMarker(document, tree, 2, 8);
+        RangeMarkerEx third = addMarker(document, tree, 10, 12);
+
+        IntervalTreeSnapshot<RangeMarkerEx> snapshot = tree.getSnapshot();
+        tree.removeInterval(second);
+
+        assertThat(snapshot.size()).isEqualTo(3);
+        assertThat(collect(snapshot.overlappingIterator(new TextRange(0, 20)))).containsExactly(first, third);
+        List<RangeMarkerEx> processed = new ArrayList<>();
+        snapshot.processOverlappingWith(0, 20, processed::add);
+        assertThat(processed).containsExactly(first, third);
+        processed.clear();
+        snapshot.processAll(processed::add);
+        assertThat(processed).containsExactly(first, third);
+        processed.clear();
+        snapshot.processContaining(3, processed::add);
+        assertThat(processed).containsExactly(first);
+    }
+
+    @Test
+    void testSnapshotKeepsOffsetsOfItsVersion() {
+        DocumentImpl document = new DocumentImpl("a".repeat(100), true);
+        RangeMarkerTree<RangeMarkerEx> tree = new RangeMarkerTree<>(document);
+        RangeMarkerEx marker = addMarker(document, tree, 10, 12);
+
+        IntervalTreeSnapshot<RangeMarkerEx> snapshot = tree.getSnapshot();
+        document.insertString(0, "bbbbb");
+
+        assertThat(marker.getStartOffset()).isEqualTo(15);
+        assertThat(collect(snapshot.overlappingIterator(new TextRange(10, 11)))).containsExactly(marker);
+        assertThat(collect(tree.getSnapshot().overlappingIterator(new TextRange(10, 11)))).isEmpty();
+        assertThat(tree.getSnapshot().getVersion()).isGreaterThan(snapshot.getVersion());
+    }
+
+    @Test
+    void testSnapshotsAgreeWithTreeWhileItChanges() throws Exception {
+        DocumentImpl document = new DocumentImpl("a".repeat(TEXT_LENGTH), true);
+        RangeMarkerTree<RangeMarkerEx> tree = new RangeMarkerTree<>(document);
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicInteger comparisons = new AtomicInteger();
+
+        ExecutorService executor = Executors.newFixedThreadPool(READERS + 1);
+        try {
+            List<Future<?>> readers = new ArrayList<>();
+            for (int r = 0; r < READERS; r++) {
+                int seed = r;
+                readers.add(executor.submit(() -> {
+                    Random random = new Random(seed);
+                    while (writing.get()) {
+                        if (checkSnapshot(tree, random)) {
+                            comparisons.incrementAndGet();
+                        }
+                    }
+                    return null;
+                }));
+            }
+
+            Future<?> writer = executor.submit(() -> {
+                Random random = new Random(42);
+                List<RangeMarkerEx> markers = new ArrayList<>();
+                for (int i = 0; i < 20000; i++) {
+                    int action = random.nextInt(10);
+                    if (action < 4 || markers.isEmpty()) {
+                        int start = random.nextInt(document.getTextLength() + 1);
+                        int end = Math.min(document.getTextLength(), start + random.nextInt(50));
+                        markers.add(addMarker(document, tree, start, end));
+                    }
+                    else if (action < 7) {
+                        tree.removeInterval(markers.remove(random.nextInt(markers.size())));
+                    }
+                    else if (action < 9 || document.getTextLength() < TEXT_LENGTH / 2) {
+                        document.insertString(random.nextInt(document.getTextLength() + 1), "b".repeat(1 + random.nextInt(20)));
+                    }
+                    else {
+                        int start = random.nextInt(document.getTextLength());
+                        document.deleteString(start, Math.min(document.getTextLength(), start + 1 + random.nextInt(20)));
+                    }
+                    if (markers.size() > 1000) {
+                        tree.removeInterval(markers.remove(0));
+                    }
+                    if (i % 100 == 0) {
+                        // give readers a chance to see an unchanged tree
+                        Thread.sleep(1);
+                    }
+                }
+                return null;
+            });
+
+            try {
+                writer.get(2, TimeUnit.MINUTES);
+            }
+            finally {
+                writing.set(false);
+            }
+            for (Future<?> reader : readers) {
+                reader.get(1, TimeUnit.MINUTES);
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+
+        Random random = new Random(0);
+        for (int i = 0; i < 100; i++) {
+            assertThat(checkSnapshot(tree, random)).isTrue();
+        }
+        assertThat(comparisons.get()).isPositive();
+    }
+
+    /**
+     * Queries a snapshot without the tree lock and, if the tree didn't change since, compares the result with the tree.
+     *
+     * @return whether the result was compared
+     */
+    private static boolean checkSnapshot(RangeMarkerTree<RangeMarkerEx> tree, Random random) {
+        IntervalTreeSnapshot<RangeMarkerEx> snapshot = tree.getSnapshot();
+        int start = random.nextInt(TEXT_LENGTH * 2);
+        int end = start + random.nextInt(100);
+        List<RangeMarkerEx> found = collect(snapshot.overlappingIterator(new TextRange(start, end)));
+
+        tree.l.readLock().lock();
+        try {
+            // the cached snapshot is dropped on every change
+            if (tree.getSnapshot() != snapshot) {
+                return false;
+            }
+            List<RangeMarkerEx> expected = new ArrayList<>();
+            tree.processOverlappingWith(start, end, expected::add);
+            assertThat(new HashSet<>(found)).isEqualTo(new HashSet<>(expected));
+            assertThat(found).hasSameSizeAs(expected);
+            for (int i = 0; i < found.size(); i++) {
+                assertThat(found.get(i).isValid()).isTrue();
+                if (i > 0) {
+                    assertThat(found.get(i).getStartOffset()).isGreaterThanOrEqualTo(found.get(i - 1).getStartOffset());
+                }
+            }
+            return true;
+        }
+        finally {
+            tree.l.readLock().unlock();
+        }
+    }
+
+    private static RangeMarkerEx addMarker(DocumentImpl document, RangeMarkerTree<RangeMarkerEx> tree, int start, int end) {
+        RangeMarkerImpl marker = new RangeMarkerImpl(document, start, end, false, true);
+        tree.addInterval(marker, start, end, false, false, false, 0);
+        return marker;
+    }
+
+    private static List<RangeMarkerEx> collect(MarkupIterator<RangeMarkerEx> iterator) {
+        List<RangeMarkerEx> result = new ArrayList<>();
+        while (iterator.hasNext()) {
+            result.add(iterator.next());
+        }
+        return result;
+    }
+}
@@ -4,10 +4,12 @@ package consulo.ide.impl.idea.find.impl;
 import consulo.annotation.access.RequiredReadAction;
 import consulo.application.ReadAction;
 import consulo.application.impl.internal.progress.CoreProgressManager;
+import consulo.application.internal.SensitiveProgressWrapper;
 import consulo.application.internal.TooManyUsagesStatus;
 import consulo.application.progress.EmptyProgressIndicator;
 import consulo.application.progress.ProgressIndicator;
 import consulo.application.progress.ProgressManager;
+import consulo.application.util.concurrent.AppExecutorUtil;
 import consulo.application.util.registry.Registry;
 import consulo.component.ProcessCanceledException;
 import consulo.content.ContentIterator;
@@ -55,10 +57,16 @@ import consulo.virtualFileSystem.util.VirtualFileVisitor;
 import org.jspecify.annotations.Nullable;
 
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
@@ -72,6 +80,10 @@ class FindInProjectTask {
             .thenComparing(VirtualFile::getPath);
     private static final Logger LOG = Logger.getInstance(FindInProjectTask.class);
     private static final int FILES_SIZE_LIMIT = 70 * 1024 * 1024; // megabytes.
+    // non-indexed files are searched in batches while the scope is still being enumerated
+    private static final int FIRST_BATCH_SIZE = 16;
+    private static final int MAX_BATCH_SIZE = 1024;
+    private static final int MAX_QUEUED_BATCHES = 4;
     private final FindModel myFindModel;
     
     private final Project myProject;
@@ -85,6 +97,7 @@ class FindInProjectTask {
     private final Set<VirtualFile> myLargeFiles = Collections.synchronizedSet(new HashSet<>());
     private final Set<? extends VirtualFile> myFilesToScanInitially;
     private final AtomicLong myTotalFilesSize = new AtomicLong();
+    private final AtomicInteger myOccurrenceCount = new AtomicInteger();
     private final
     
     List<FindInProjectSearchEngine.FindInProjectSearcher> mySearchers;
@@ -134,15 +147,12 @@ class FindInProjectTask {
             myProgress.setIndeterminate(true);
             myProgress.setText(FindLocalize.progressTextScanningNonIndexedFiles());
             boolean canRelyOnIndices = canRelyOnSearchers();
-            Collection<VirtualFile> otherFiles = collectFilesInScope(filesForFastWordSearch, canRelyOnIndices);
-            myProgress.setIndeterminate(false);
+            long start = System.currentTimeMillis();
+            Collection<VirtualFile> otherFiles = searchInFilesWhileCollecting(filesForFastWordSearch, canRelyOnIndices, processPresentation, consumer);
 
             if (LOG.isDebugEnabled()) {
-                LOG.debug("Searching for " + myFindModel.getStringToFind() + " in " + otherFiles.size() + " non-indexed files");
+                LOG.debug("Searched for " + myFindModel.getStringToFind() + " in " + otherFiles.size() + " non-indexed files");
             }
-            myProgress.checkCanceled();
-            long start = System.currentTimeMillis();
-            searchInFiles(otherFiles, processPresentation, consumer);
             if (canRelyOnIndices && otherFiles.size() > 1000) {
                 long time = System.currentTimeMillis() - start;
                 logStats(otherFiles, time);
@@ -187,7 +197,6 @@ class FindInProjectTask {
         FindUsagesProcessPresentation processPresentation,
         Predicate<? super UsageInfo> consumer
     ) {
-        AtomicInteger occurrenceCount = new AtomicInteger();
         AtomicInteger processedFileCount = new AtomicInteger();
         Map<VirtualFile, Set<UsageInfo>> usagesBeingProcessed = new ConcurrentHashMap<>();
         Predicate<VirtualFile> processor = virtualFile -> {
@@ -211,7 +220,7 @@ class FindInProjectTask {
             }
 
             myProgress.checkCanceled();
-            if (myProgress.isRunning()) {
+            if (myProgress.isRunning() && !myProgress.isIndeterminate()) {
                 double fraction = (double)processedFileCount.incrementAndGet() / virtualFiles.size();
                 myProgress.setFraction(fraction);
             }
@@ -219,7 +228,7 @@ class FindInProjectTask {
                 myFindModel.getStringToFind(),
                 virtualFile.getPresentableUrl()
             ));
-            myProgress.setText2(FindLocalize.findSearchingForStringInFileOccurrencesProgress(occurrenceCount));
+            myProgress.setText2(FindLocalize.findSearchingForStringInFileOccurrencesProgress(myOccurrenceCount));
 
             Pair.NonNull<PsiFile, VirtualFile> pair = ReadAction.compute(() -> findFile(virtualFile));
             if (pair == null) {
@@ -260,7 +269,7 @@ class FindInProjectTask {
                 totalSize = myTotalFilesSize.get();
             }
             else {
-                occurrenceCount.addAndGet(processedUsages.size());
+                myOccurrenceCount.addAndGet(processedUsages.size());
                 totalSize = myTotalFilesSize.addAndGet(fileLength);
             }
 
@@ -299,9 +308,104 @@ class FindInProjectTask {
         );
     }
 
+    /**
+     * Enumerates files of the scope on a pooled thread and searches them as they are found, so results come before the enumeration
+     * of a large scope finishes. The enumeration is bounded by {@link #MAX_QUEUED_BATCHES} batches waiting for the search.
+     *
+     * @return all searched files
+     */
+    private Collection<VirtualFile> searchInFilesWhileCollecting(
+        Set<VirtualFile> alreadySearched,
+        boolean skipIndexed,
+        FindUsagesProcessPresentation processPresentation,
+        Predicate<? super UsageInfo> consumer
+    ) {
+        BlockingQueue<List<VirtualFile>> batches = new ArrayBlockingQueue<>(MAX_QUEUED_BATCHES);
+        // canceled separately when the search stops, the search itself is canceled with myProgress
+        ProgressIndicator collectingProgress = new SensitiveProgressWrapper(myProgress);
+        Future<Collection<VirtualFile>> collecting = AppExecutorUtil.getAppExecutorService().submit(
+            () -> ProgressManager.getInstance().runProcess(() -> {
+                FileBatcher batcher = new FileBatcher(batches, collectingProgress);
+                Collection<VirtualFile> files = collectFilesInScope(alreadySearched, skipIndexed, batcher::add);
+                batcher.flush();
+                return files;
+            }, collectingProgress)
+        );
+
+        try {
+            while (true) {
+                // checked before polling, so no batch can be put after the last poll
+                boolean collected = collecting.isDone();
+                List<VirtualFile> batch = batches.poll(10, TimeUnit.MILLISECONDS);
+                if (batch != null) {
+                    searchInFiles(batch, processPresentation, consumer);
+                }
+                else if (collected) {
+                    break;
+                }
+                myProgress.checkCanceled();
+            }
+            return collecting.get();
+        }
+        catch (InterruptedException e) {
+            throw new ProcessCanceledException(e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new RuntimeException(e.getCause());
+        }
+        finally {
+            collectingProgress.cancel();
+        }
+    }
+
+    /**
+     * Hands files over to the search in batches: small ones first, so the first results don't wait for a large batch,
+     * then larger ones to keep all search threads busy.
+     */
+    private static class FileBatcher {
+        private final BlockingQueue<List<VirtualFile>> myBatches;
+        private final ProgressIndicator myProgress;
+        private List<VirtualFile> myBatch = new ArrayList<>();
+        private int myBatchSize = FIRST_BATCH_SIZE;
+
+        FileBatcher(BlockingQueue<List<VirtualFile>> batches, ProgressIndicator progress) {
+            myBatches = batches;
+            myProgress = progress;
+        }
+
+        void add(VirtualFile file) {
+            myBatch.add(file);
+            if (myBatch.size() >= myBatchSize) {
+                flush();
+                myBatchSize = Math.min(myBatchSize * 2, MAX_BATCH_SIZE);
+            }
+        }
+
+        void flush() {
+            if (myBatch.isEmpty()) {
+                return;
+            }
+            try {
+                while (!myBatches.offer(myBatch, 10, TimeUnit.MILLISECONDS)) {
+                    myProgress.checkCanceled();
+                }
+            }
+            catch (InterruptedException e) {
+                throw new ProcessCanceledException(e);
+            }
+            myBatch = new ArrayList<>();
+        }
+    }
+
     // must return non-binary files
-    
-    private Collection<VirtualFile> collectFilesInScope(final Set<VirtualFile> alreadySearched, final boolean skipIndexed) {
+    private Collection<VirtualFile> collectFilesInScope(
+        final Set<VirtualFile> alreadySearched,
+        final boolean skipIndexed,
+        Consumer<? super VirtualFile> newFileConsumer
+    ) {
         SearchScope customScope = myFindModel.isCustomScope() ? myFindModel.getCustomScope() : null;
         final GlobalSearchScope globalCustomScope =
             customScope == null ? null : GlobalSearchScopeUtil.toGlobalSearchScope(customScope, myProject);
@@ -311,31 +415,28 @@ class FindInProjectTask {
 
             @Override
             public boolean processFile(VirtualFile virtualFile) {
-                ReadAction.run(() -> {
+                VirtualFile sourceVirtualFile = ReadAction.compute(() -> {
                     ProgressManager.checkCanceled();
                     if (virtualFile.isDirectory() || !virtualFile.isValid() || !myFileMask.test(virtualFile) || globalCustomScope != null && !globalCustomScope.contains(
                         virtualFile)) {
-                        return;
+                        return null;
                     }
 
                     if (skipIndexed && ContainerUtil.find(mySearchers, p -> p.isCovered(virtualFile)) != null) {
-                        return;
+                        return null;
                     }
 
                     Pair.NonNull<PsiFile, VirtualFile> pair = findFile(virtualFile);
-                    if (pair == null) {
-                        return;
-                    }
-                    VirtualFile sourceVirtualFile = pair.second;
-
-                    if (sourceVirtualFile != null && !alreadySearched.contains(sourceVirtualFile)) {
-                        myFiles.add(sourceVirtualFile);
-                    }
+                    return pair == null ? null : pair.second;
                 });
+
+                // outside of the read action: waits until the search takes the file
+                if (sourceVirtualFile != null && !alreadySearched.contains(sourceVirtualFile) && myFiles.add(sourceVirtualFile)) {
+                    newFileConsumer.accept(sourceVirtualFile);
+                }
                 return true;
             }
 
-            
             private Collection<VirtualFile> getFiles() {
                 return myFiles;
             }
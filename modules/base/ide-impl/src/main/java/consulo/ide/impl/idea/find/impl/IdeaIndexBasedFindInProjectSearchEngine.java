@@ -2,11 +2,14 @@
 package consulo.ide.impl.idea.find.impl;
 
 import consulo.annotation.access.RequiredReadAction;
+import consulo.application.progress.ProgressManager;
 import consulo.application.util.function.Processors;
 import consulo.find.FindModel;
 import consulo.ide.impl.idea.find.FindInProjectSearchEngine;
 import consulo.language.cacheBuilder.CacheManager;
 import consulo.language.internal.TrigramIndex;
+import consulo.language.internal.TrigramPhraseStarts;
+import consulo.language.internal.TrigramPositionIndex;
 import consulo.language.psi.scope.GlobalSearchScope;
 import consulo.language.psi.scope.GlobalSearchScopeUtil;
 import consulo.language.psi.scope.LocalSearchScope;
@@ -18,6 +21,8 @@ import consulo.module.content.ProjectFileIndex;
 import consulo.project.DumbService;
 import consulo.project.Project;
 import consulo.util.collection.ContainerUtil;
+import consulo.util.collection.primitive.ints.IntList;
+import consulo.util.collection.primitive.ints.IntLists;
 import consulo.util.lang.StringUtil;
 import consulo.util.lang.text.TrigramBuilder;
 import consulo.virtualFileSystem.VirtualFile;
@@ -86,6 +91,14 @@ public class IdeaIndexBasedFindInProjectSearchEngine implements FindInProjectSea
 
             if (!keys.isEmpty()) {
                 List<VirtualFile> hits = new ArrayList<>();
+                if (TrigramPositionIndex.ENABLED) {
+                    FileBasedIndex.getInstance().ignoreDumbMode(
+                        () -> hits.addAll(findFilesWithPhrases(stringToFind, scope)),
+                        DumbModeAccessType.RAW_INDEX_DATA_ACCEPTABLE
+                    );
+                    return Collections.unmodifiableCollection(hits);
+                }
+
                 FileBasedIndex.getInstance().ignoreDumbMode(
                     () -> FileBasedIndex.getInstance().getFilesWithKey(
                         TrigramIndex.INDEX_ID,
@@ -120,6 +133,57 @@ public class IdeaIndexBasedFindInProjectSearchEngine implements FindInProjectSea
             return Collections.unmodifiableCollection(Arrays.asList(filesWithWord));
         }
 
+        /**
+         * Files where the trigrams of every phrase of the string are next to each other, see {@link TrigramPositionIndex}.
+         * The phrase is the whole string for plain text search: it's found verbatim (up to the case, which trigrams ignore).
+         * For a regular expression phrases are runs of literal chars, non-literal parts are replaced by spaces in the string.
+         */
+        private Set<VirtualFile> findFilesWithPhrases(String stringToFind, GlobalSearchScope scope) {
+            Set<VirtualFile> result = null;
+            List<String> phrases = myFindModel.isRegularExpressions() ? StringUtil.split(stringToFind, " ") : List.of(stringToFind);
+            for (String phrase : phrases) {
+                Map<Integer, IntList> trigramOffsets = new LinkedHashMap<>();
+                TrigramBuilder.processTrigramOccurrences(phrase, (trigram, offset) -> {
+                    trigramOffsets.computeIfAbsent(trigram, t -> IntLists.newArrayList(1)).add(offset);
+                    return true;
+                });
+                if (trigramOffsets.isEmpty()) {
+                    continue;
+                }
+
+                // file -> offsets where the phrase can start
+                Map<VirtualFile, IntList> phraseStarts = null;
+                for (Map.Entry<Integer, IntList> entry : trigramOffsets.entrySet()) {
+                    IntList offsetsInPhrase = entry.getValue();
+                    Map<VirtualFile, IntList> previous = phraseStarts;
+                    Set<VirtualFile> filter = previous != null ? previous.keySet() : result;
+                    Map<VirtualFile, IntList> next = new HashMap<>();
+                    myFileBasedIndex.processValues(TrigramPositionIndex.INDEX_ID, entry.getKey(), null, (file, offsets) -> {
+                        ProgressManager.checkCanceled();
+                        if (filter != null && !filter.contains(file)) {
+                            return true;
+                        }
+                        IntList starts = previous != null ? previous.get(file) : null;
+                        for (int i = 0; i < offsetsInPhrase.size(); i++) {
+                            starts = TrigramPhraseStarts.intersect(starts, offsets, offsetsInPhrase.get(i));
+                            if (starts.isEmpty()) {
+                                return true;
+                            }
+                        }
+                        next.put(file, starts);
+                        return true;
+                    }, scope);
+
+                    if (next.isEmpty()) {
+                        return Collections.emptySet();
+                    }
+                    phraseStarts = next;
+                }
+                result = phraseStarts.keySet();
+            }
+            return result != null ? result : Collections.emptySet();
+        }
+
         @Override
         public boolean isReliable() {
             if (DumbService.isDumb(myProject)) {
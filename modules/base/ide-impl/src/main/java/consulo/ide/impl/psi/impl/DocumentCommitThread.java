@@ -10,6 +10,7 @@ import consulo.application.internal.StandardProgressIndicatorBase;
 import consulo.application.progress.EmptyProgressIndicator;
 import consulo.application.progress.ProgressIndicator;
 import consulo.application.progress.ProgressIndicatorProvider;
+import consulo.application.util.concurrent.JobLauncher;
 import consulo.component.ProcessCanceledException;
 import consulo.component.util.PluginExceptionUtil;
 import consulo.disposer.Disposable;
@@ -39,13 +40,17 @@ import consulo.project.Project;
 import consulo.ui.ModalityState;
 import consulo.ui.UIAccess;
 import consulo.util.collection.SmartList;
+import consulo.util.dataholder.UserDataHolderEx;
 import consulo.util.lang.Comparing;
 import consulo.util.lang.StringUtil;
+import consulo.util.lang.SystemProperties;
 import consulo.virtualFileSystem.VirtualFile;
 import org.jspecify.annotations.Nullable;
 import jakarta.inject.Inject;
 import jakarta.inject.Singleton;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.function.BooleanSupplier;
@@ -56,6 +61,13 @@ public final class DocumentCommitThread implements Disposable, DocumentCommitPro
     private static final Logger LOG = Logger.getInstance(DocumentCommitThread.class);
     private static final String SYNC_COMMIT_REASON = "Sync commit";
 
+    /**
+     * Reparse roots of multi-root files concurrently, see {@link #commitFilesConcurrently}. Controlled by {@code idea.commit.parallel.reparse}.
+     */
+    private static final boolean PARALLEL_REPARSE = SystemProperties.getBooleanProperty("idea.commit.parallel.reparse", false);
+
+    private static final CommitLatencies ourLatencies = new CommitLatencies();
+
     private final ExecutorService executor;
     private volatile boolean isDisposed;
 
@@ -143,20 +155,97 @@ public final class DocumentCommitThread implements Disposable, DocumentCommitPro
             finishProcessors.add(handleCommitWithoutPsi(documentManager, task));
         }
         else {
-            for (PsiFile file : viewProvider.getAllFiles()) {
-                FileASTNode oldFileNode = file.getNode();
-                ProperTextRange changedPsiRange = ChangedPsiRangeUtil
-                    .getChangedPsiRange(file, task.document, task.myLastCommittedText, document.getImmutableCharSequence());
-                if (changedPsiRange != null) {
-                    BooleanSupplier finishProcessor = doCommit(task, file, oldFileNode, changedPsiRange, reparseInjectedProcessors);
-                    finishProcessors.add(finishProcessor);
+            long started = System.nanoTime();
+            // read from the document once for all the roots, so that concurrent commits of the roots don't race on the document user data
+            Boolean doNotReparseIncrementally = document.getUserData(BlockSupport.DO_NOT_REPARSE_INCREMENTALLY);
+            List<PsiFile> files = viewProvider.getAllFiles();
+            if (PARALLEL_REPARSE && files.size() > 1) {
+                commitFilesConcurrently(task, files, doNotReparseIncrementally, finishProcessors, reparseInjectedProcessors);
+            }
+            else {
+                for (PsiFile file : files) {
+                    BooleanSupplier finishProcessor = commitFile(task, file, doNotReparseIncrementally, reparseInjectedProcessors);
+                    if (finishProcessor != null) {
+                        finishProcessors.add(finishProcessor);
+                    }
                 }
             }
+            // the flag is consumed by the roots which were reparsed, it's kept for the next commit if none was
+            if (doNotReparseIncrementally != null && !finishProcessors.isEmpty()) {
+                clearDoNotReparseIncrementally(document, doNotReparseIncrementally);
+            }
+            ourLatencies.record(System.nanoTime() - started);
         }
 
         return createFinishCommitRunnable(task, synchronously, finishProcessors, reparseInjectedProcessors);
     }
 
+    private static void clearDoNotReparseIncrementally(Document document, Boolean value) {
+        if (document instanceof UserDataHolderEx holder) {
+            // the flag may have been set again by a change made after this commit started
+            holder.replace(BlockSupport.DO_NOT_REPARSE_INCREMENTALLY, value, null);
+        }
+        else if (document.getUserData(BlockSupport.DO_NOT_REPARSE_INCREMENTALLY) == value) {
+            document.putUserData(BlockSupport.DO_NOT_REPARSE_INCREMENTALLY, null);
+        }
+    }
+
+    static CommitLatencies getCommitLatencies() {
+        return ourLatencies;
+    }
+
+    private static @Nullable BooleanSupplier commitFile(CommitTask task,
+                                                        PsiFile file,
+                                                        @Nullable Boolean doNotReparseIncrementally,
+                                                        List<? super BooleanSupplier> outReparseInjectedProcessors) {
+        FileASTNode oldFileNode = file.getNode();
+        ProperTextRange changedPsiRange = ChangedPsiRangeUtil
+            .getChangedPsiRange(file, task.document, task.myLastCommittedText, task.document.getImmutableCharSequence());
+        return changedPsiRange == null
+            ? null
+            : doCommit(task, file, oldFileNode, changedPsiRange, doNotReparseIncrementally, outReparseInjectedProcessors);
+    }
+
+    /**
+     * Reparses roots of a multi-root file (e.g. a template and its data language) concurrently: their trees are independent
+     * and each root gets its own diff log. Finish processors are collected in the order of roots, so PSI is changed in the same order
+     * as with sequential commit.
+     */
+    private static void commitFilesConcurrently(CommitTask task,
+                                                List<PsiFile> files,
+                                                @Nullable Boolean doNotReparseIncrementally,
+                                                List<? super BooleanSupplier> finishProcessors,
+                                                List<? super BooleanSupplier> reparseInjectedProcessors) {
+        int count = files.size();
+        BooleanSupplier[] fileFinishProcessors = new BooleanSupplier[count];
+        List<List<BooleanSupplier>> fileInjectedProcessors = new ArrayList<>(count);
+        List<Integer> indices = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            fileInjectedProcessors.add(new SmartList<>());
+            indices.add(i);
+        }
+
+        ProgressIndicator indicator = ProgressIndicatorProvider.getGlobalProgressIndicator();
+        boolean completed = JobLauncher.getInstance().invokeConcurrentlyUnderProgress(
+            indices,
+            indicator != null ? indicator : new StandardProgressIndicatorBase(),
+            i -> {
+                fileFinishProcessors[i] = commitFile(task, files.get(i), doNotReparseIncrementally, fileInjectedProcessors.get(i));
+                return true;
+            }
+        );
+        if (!completed) {
+            throw new ProcessCanceledException();
+        }
+
+        for (int i = 0; i < count; i++) {
+            if (fileFinishProcessors[i] != null) {
+                finishProcessors.add(fileFinishProcessors[i]);
+            }
+            reparseInjectedProcessors.addAll(fileInjectedProcessors.get(i));
+        }
+    }
+
     
     private Runnable createFinishCommitRunnable(CommitTask task,
                                                 boolean synchronously,
@@ -286,14 +375,13 @@ public final class DocumentCommitThread implements Disposable, DocumentCommitPro
                                             PsiFile file,
                                             FileASTNode oldFileNode,
                                             ProperTextRange changedPsiRange,
+                                            @Nullable Boolean doNotReparseIncrementally,
                                             List<? super BooleanSupplier> outReparseInjectedProcessors) {
         Document document = task.getDocument();
         CharSequence newDocumentText = document.getImmutableCharSequence();
 
-        Boolean data = document.getUserData(BlockSupport.DO_NOT_REPARSE_INCREMENTALLY);
-        if (data != null) {
-            document.putUserData(BlockSupport.DO_NOT_REPARSE_INCREMENTALLY, null);
-            file.putUserData(BlockSupport.DO_NOT_REPARSE_INCREMENTALLY, data);
+        if (doNotReparseIncrementally != null) {
+            file.putUserData(BlockSupport.DO_NOT_REPARSE_INCREMENTALLY, doNotReparseIncrementally);
         }
 
         PsiDocumentManagerBase documentManager = (PsiDocumentManagerBase) PsiDocumentManager.getInstance(task.project);
@@ -382,4 +470,42 @@ public final class DocumentCommitThread implements Disposable, DocumentCommitPro
         }
     }
 
+    /**
+     * Durations of the last commits in background (reparse and diff of all roots), reported as percentiles to the debug log
+     * and by {@link DocumentCommitUsagesCollector}.
+     */
+    static final class CommitLatencies {
+        private static final int SIZE = 256;
+
+        private final long[] myNanos = new long[SIZE];
+        private long myCount;
+
+        synchronized void record(long nanos) {
+            myNanos[(int) (myCount++ % SIZE)] = nanos;
+            if (myCount % SIZE == 0 && LOG.isDebugEnabled()) {
+                LOG.debug("Commit latency of last " + SIZE + " commits: " + this);
+            }
+        }
+
+        /**
+         * @return duration in nanoseconds which is not exceeded by the given percent of recorded commits, 0 if nothing is recorded
+         */
+        synchronized long percentile(int percent) {
+            int size = (int) Math.min(myCount, SIZE);
+            if (size == 0) {
+                return 0;
+            }
+            long[] sorted = Arrays.copyOf(myNanos, size);
+            Arrays.sort(sorted);
+            return sorted[Math.max(0, (size * percent + 99) / 100 - 1)];
+        }
+
+        @Override
+        public String toString() {
+            return "p50=" + percentile(50) / 1_000_000 + "ms" +
+                ", p90=" + percentile(90) / 1_000_000 + "ms" +
+                ", p99=" + percentile(99) / 1_000_000 + "ms" +
+                ", max=" + percentile(100) / 1_000_000 + "ms";
+        }
+    }
 }
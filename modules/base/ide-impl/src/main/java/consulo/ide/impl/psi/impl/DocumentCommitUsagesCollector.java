@@ -0,0 +1,55 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.ide.impl.psi.impl;
+
+import consulo.annotation.component.ExtensionImpl;
+import consulo.externalService.statistic.CollectUsagesException;
+import consulo.externalService.statistic.UsageDescriptor;
+import consulo.externalService.statistic.UsagesCollector;
+import consulo.project.Project;
+import org.jspecify.annotations.Nullable;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Reports latency percentiles (in milliseconds) of the last background document commits, see {@link DocumentCommitThread.CommitLatencies}.
+ */
+@ExtensionImpl
+public class DocumentCommitUsagesCollector extends UsagesCollector {
+  @Override
+  public Set<UsageDescriptor> getUsages(@Nullable Project project) throws CollectUsagesException {
+    DocumentCommitThread.CommitLatencies latencies = DocumentCommitThread.getCommitLatencies();
+    if (latencies.percentile(100) == 0) {
+      return Collections.emptySet();
+    }
+    return Set.of(
+      new UsageDescriptor("commit.latency.p50", toMillis(latencies.percentile(50))),
+      new UsageDescriptor("commit.latency.p90", toMillis(latencies.percentile(90))),
+      new UsageDescriptor("commit.latency.p99", toMillis(latencies.percentile(99))),
+      new UsageDescriptor("commit.latency.max", toMillis(latencies.percentile(100)))
+    );
+  }
+
+  @Override
+  public String getGroupId() {
+    return "consulo.platform.base:document.commit";
+  }
+
+  private static int toMillis(long nanos) {
+    return (int)Math.min(Integer.MAX_VALUE, nanos / 1_000_000);
+  }
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.index.io;
+
+import consulo.index.io.data.DataExternalizer;
+
+/**
+ * Externalizer which may compress the values itself, e.g. with a {@link CompressionCodec}.
+ * {@link MapIndexStorage} doesn't apply the block compression of the value storage on top of such values.
+ */
+public interface CompressingDataExternalizer<T> extends DataExternalizer<T> {
+  /**
+   * @return true if values are written compressed, must not change while a storage using this externalizer is open
+   */
+  boolean isCompressing();
+}
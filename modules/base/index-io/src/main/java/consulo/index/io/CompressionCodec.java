@@ -0,0 +1,118 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.index.io;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Block compression algorithm used by {@link CompressionUtil}. A storage picks its codec once, see {@link CompressionCodecs#forStorage},
+ * and must fold {@link #getVersion()} into its own format version because data written by one codec can't be read by another.
+ * <p>
+ * Every codec keeps its own ratio counters, and latency counters when {@link CompressionUtil#DUMP_COMPRESSION_STATS} is on;
+ * with that flag the {@link #getStatistics() statistics} are dumped along with the ones of {@link CompressionUtil}.
+ */
+public abstract class CompressionCodec {
+  private final String myName;
+
+  private final AtomicLong myCompressionRequests = new AtomicLong();
+  private final AtomicLong myCompressionTime = new AtomicLong();
+  private final AtomicLong mySizeBeforeCompression = new AtomicLong();
+  private final AtomicLong mySizeAfterCompression = new AtomicLong();
+  private final AtomicLong myDecompressionRequests = new AtomicLong();
+  private final AtomicLong myDecompressionTime = new AtomicLong();
+
+  protected CompressionCodec(String name) {
+    myName = name;
+  }
+
+  public String getName() {
+    return myName;
+  }
+
+  /**
+   * @return value identifying the format produced by this codec, including its settings (e.g. dictionary)
+   */
+  public abstract int getVersion();
+
+  public abstract int maxCompressedLength(int length);
+
+  protected abstract int doCompress(byte[] src, int srcOffset, int length, byte[] dest, int destOffset) throws IOException;
+
+  protected abstract void doDecompress(byte[] src, int srcOffset, int compressedLength, byte[] dest, int destOffset, int originalLength)
+    throws IOException;
+
+  /**
+   * @return size of compressed data written to {@code dest}
+   */
+  public final int compress(byte[] src, int srcOffset, int length, byte[] dest, int destOffset) throws IOException {
+    long started = CompressionUtil.DUMP_COMPRESSION_STATS ? System.nanoTime() : 0;
+    int compressedSize = doCompress(src, srcOffset, length, dest, destOffset);
+    if (CompressionUtil.DUMP_COMPRESSION_STATS) myCompressionTime.addAndGet(System.nanoTime() - started);
+    long requests = myCompressionRequests.incrementAndGet();
+    mySizeBeforeCompression.addAndGet(length);
+    mySizeAfterCompression.addAndGet(compressedSize);
+    if (CompressionUtil.DUMP_COMPRESSION_STATS && (requests & 0x1fff) == 0) {
+      System.out.println(getStatistics());
+    }
+    return compressedSize;
+  }
+
+  public final void decompress(byte[] src, int srcOffset, int compressedLength, byte[] dest, int destOffset, int originalLength) throws IOException {
+    long started = CompressionUtil.DUMP_COMPRESSION_STATS ? System.nanoTime() : 0;
+    doDecompress(src, srcOffset, compressedLength, dest, destOffset, originalLength);
+    if (CompressionUtil.DUMP_COMPRESSION_STATS) myDecompressionTime.addAndGet(System.nanoTime() - started);
+    long requests = myDecompressionRequests.incrementAndGet();
+    if (CompressionUtil.DUMP_COMPRESSION_STATS && (requests & 0x1fff) == 0) {
+      System.out.println(getStatistics());
+    }
+  }
+
+  public long getCompressionRequests() {
+    return myCompressionRequests.get();
+  }
+
+  public long getCompressionTimeNanos() {
+    return myCompressionTime.get();
+  }
+
+  public long getDecompressionRequests() {
+    return myDecompressionRequests.get();
+  }
+
+  public long getDecompressionTimeNanos() {
+    return myDecompressionTime.get();
+  }
+
+  /**
+   * @return compressed to original size ratio of everything compressed so far, 1 if nothing was compressed
+   */
+  public double getCompressionRatio() {
+    long before = mySizeBeforeCompression.get();
+    return before == 0 ? 1 : (double)mySizeAfterCompression.get() / before;
+  }
+
+  public String getStatistics() {
+    return myName + ": compressed " + getCompressionRequests() + " times, ratio " + getCompressionRatio() +
+           " for " + (getCompressionTimeNanos() / 1000000) + "ms, decompressed " + getDecompressionRequests() + " times for " +
+           (getDecompressionTimeNanos() / 1000000) + "ms";
+  }
+
+  @Override
+  public String toString() {
+    return myName;
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.index.io;
+
+import net.jpountz.lz4.LZ4Factory;
+import org.jspecify.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Built-in {@link CompressionCodec}s and per-storage codec selection.
+ * <p>
+ * A storage asks for its codec with {@link #forStorage(String)}, which is configured by
+ * {@code -Didea.compression.codec.<storage>=lz4|none|dictionary:<path to dictionary file>}.
+ */
+public final class CompressionCodecs {
+  private static final Logger LOG = LoggerFactory.getLogger(CompressionCodecs.class);
+
+  public static final CompressionCodec LZ4 = new CompressionCodec("lz4") {
+    @Override
+    public int getVersion() {
+      return 1;
+    }
+
+    @Override
+    public int maxCompressedLength(int length) {
+      return LZ4Factory.fastestJavaInstance().fastCompressor().maxCompressedLength(length);
+    }
+
+    @Override
+    protected int doCompress(byte[] src, int srcOffset, int length, byte[] dest, int destOffset) {
+      return LZ4Factory.fastestJavaInstance().fastCompressor().compress(src, srcOffset, length, dest, destOffset);
+    }
+
+    @Override
+    protected void doDecompress(byte[] src, int srcOffset, int compressedLength, byte[] dest, int destOffset, int originalLength) {
+      int read = LZ4Factory.fastestJavaInstance().fastDecompressor().decompress(src, srcOffset, dest, destOffset, originalLength);
+      assert read == compressedLength;
+    }
+  };
+
+  public static final CompressionCodec NONE = new CompressionCodec("none") {
+    @Override
+    public int getVersion() {
+      return 0;
+    }
+
+    @Override
+    public int maxCompressedLength(int length) {
+      return length;
+    }
+
+    @Override
+    protected int doCompress(byte[] src, int srcOffset, int length, byte[] dest, int destOffset) {
+      System.arraycopy(src, srcOffset, dest, destOffset, length);
+      return length;
+    }
+
+    @Override
+    protected void doDecompress(byte[] src, int srcOffset, int compressedLength, byte[] dest, int destOffset, int originalLength) {
+      System.arraycopy(src, srcOffset, dest, destOffset, originalLength);
+    }
+  };
+
+  private static final Map<String, CompressionCodec> ourStorageCodecs = new ConcurrentHashMap<>();
+
+  private CompressionCodecs() {
+  }
+
+  /**
+   * @return codec configured for the storage or null if the storage should keep its default format
+   */
+  public static @Nullable CompressionCodec forStorage(String storageName) {
+    String spec = System.getProperty("idea.compression.codec." + storageName);
+    if (spec == null) return null;
+    return ourStorageCodecs.computeIfAbsent(storageName, name -> parse(spec));
+  }
+
+  /**
+   * @return value to add to the storage format version: 0 when the storage keeps its default format, otherwise derived from
+   * {@link CompressionCodec#getVersion()} of its codec
+   */
+  public static int storageVersion(String storageName) {
+    CompressionCodec codec = forStorage(storageName);
+    return codec == null ? 0 : codec.getVersion() + 1;
+  }
+
+  public static CompressionCodec parse(String spec) {
+    if (spec.equals("lz4")) return LZ4;
+    if (spec.equals("none")) return NONE;
+    if (spec.startsWith("dictionary:")) {
+      Path path = Path.of(spec.substring("dictionary:".length()));
+      try {
+        return new DictionaryCompressionCodec(Files.readAllBytes(path));
+      }
+      catch (IOException e) {
+        LOG.error("Can't read compression dictionary " + path + ", falling back to lz4", e);
+        return LZ4;
+      }
+    }
+    LOG.error("Unknown compression codec " + spec + ", falling back to lz4");
+    return LZ4;
+  }
+}
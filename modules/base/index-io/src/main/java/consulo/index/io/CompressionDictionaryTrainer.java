@@ -0,0 +1,115 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.index.io;
+
+import consulo.util.io.ByteArraySequence;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Builds a preset dictionary for {@link DictionaryCompressionCodec} from sample records.
+ * <p>
+ * Samples are cut into fixed-size fragments; fragments seen in many different samples are concatenated into the dictionary,
+ * the most frequent ones last because deflate finds near matches cheaper.
+ * <p>
+ * Can be run offline against an existing index storage keyed by file id, e.g. the stub index:
+ * {@code CompressionDictionaryTrainer <storage file> <output dictionary> [dictionary size]}.
+ */
+public class CompressionDictionaryTrainer {
+  public static final int DEFAULT_DICTIONARY_SIZE = 32 * 1024; // deflate window size
+  private static final int FRAGMENT_LENGTH = 16;
+  private static final int MAX_SAMPLES = 50000;
+
+  private final int myDictionarySize;
+  private final Map<ByteArraySequence, int[]> myFragmentCounts = new HashMap<>();
+  private int mySamples;
+
+  public CompressionDictionaryTrainer(int dictionarySize) {
+    myDictionarySize = dictionarySize;
+  }
+
+  public void addSample(byte[] bytes, int offset, int length) {
+    mySamples++;
+    Set<ByteArraySequence> seen = new HashSet<>();
+    for (int i = offset; i + FRAGMENT_LENGTH <= offset + length; i += FRAGMENT_LENGTH / 2) {
+      ByteArraySequence fragment = new ByteArraySequence(bytes, i, FRAGMENT_LENGTH);
+      if (seen.add(fragment)) {
+        myFragmentCounts.computeIfAbsent(fragment, f -> new int[1])[0]++;
+      }
+    }
+  }
+
+  public int getSampleCount() {
+    return mySamples;
+  }
+
+  public byte[] train() {
+    List<Map.Entry<ByteArraySequence, int[]>> fragments = new ArrayList<>();
+    for (Map.Entry<ByteArraySequence, int[]> entry : myFragmentCounts.entrySet()) {
+      if (entry.getValue()[0] > 1) fragments.add(entry);
+    }
+    fragments.sort((e1, e2) -> Integer.compare(e2.getValue()[0], e1.getValue()[0]));
+
+    int count = Math.min(fragments.size(), myDictionarySize / FRAGMENT_LENGTH);
+    ByteArrayOutputStream dictionary = new ByteArrayOutputStream(count * FRAGMENT_LENGTH);
+    for (int i = count - 1; i >= 0; i--) {
+      ByteArraySequence fragment = fragments.get(i).getKey();
+      dictionary.write(fragment.getBytes(), fragment.getOffset(), fragment.getLength());
+    }
+    return dictionary.toByteArray();
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("Usage: CompressionDictionaryTrainer <storage file> <output dictionary> [dictionary size]");
+      System.exit(1);
+    }
+
+    File storageFile = new File(args[0]);
+    File output = new File(args[1]);
+    int dictionarySize = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_DICTIONARY_SIZE;
+
+    CompressionDictionaryTrainer trainer = new CompressionDictionaryTrainer(dictionarySize);
+    PersistentHashMap<Integer, ByteArraySequence> map =
+      new PersistentHashMap<>(storageFile, EnumeratorIntegerDescriptor.INSTANCE, ByteSequenceDataExternalizer.INSTANCE) {
+        @Override
+        protected boolean isReadOnly() {
+          return true;
+        }
+      };
+    try {
+      for (Integer key : map.getAllKeysWithExistingMapping()) {
+        if (trainer.getSampleCount() >= MAX_SAMPLES) break;
+        ByteArraySequence value = map.get(key);
+        if (value != null) trainer.addSample(value.getBytes(), value.getOffset(), value.getLength());
+      }
+    }
+    finally {
+      map.close();
+    }
+
+    byte[] dictionary = trainer.train();
+    Files.write(output.toPath(), dictionary);
+
+    CompressionCodec codec = new DictionaryCompressionCodec(dictionary);
+    System.out.println("Trained " + dictionary.length + " bytes dictionary from " + trainer.getSampleCount() + " samples, use it with" +
+                       " -Didea.compression.codec.<storage>=dictionary:" + output.getAbsolutePath() + " (format version " + codec.getVersion() + ")");
+  }
+}
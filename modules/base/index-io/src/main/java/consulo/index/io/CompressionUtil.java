@@ -41,11 +41,17 @@ public class CompressionUtil {
   private static final ThreadLocalCachedByteArray spareBufferLocal = new ThreadLocalCachedByteArray();
 
   public static int writeCompressed(DataOutput out, byte[] bytes, int start, int length) throws IOException {
-    if (length > COMPRESSION_THRESHOLD) {
-      LZ4Compressor compressor = compressor();
+    return writeCompressed(out, bytes, start, length, CompressionCodecs.LZ4);
+  }
 
-      byte[] compressedOutputBuffer = spareBufferLocal.getBuffer(compressor.maxCompressedLength(length));
-      int compressedSize = compressor.compress(bytes, start, length, compressedOutputBuffer, 0);
+  /**
+   * Writes {@code bytes} compressed by {@code codec} if it is worth it, the result should be read by
+   * {@link #readCompressed(DataInput, CompressionCodec)} with the same codec.
+   */
+  public static int writeCompressed(DataOutput out, byte[] bytes, int start, int length, CompressionCodec codec) throws IOException {
+    if (length > COMPRESSION_THRESHOLD && codec != CompressionCodecs.NONE) {
+      byte[] compressedOutputBuffer = spareBufferLocal.getBuffer(codec.maxCompressedLength(length));
+      int compressedSize = codec.compress(bytes, start, length, compressedOutputBuffer, 0);
       if (compressedSize < length) {
         DataInputOutputUtil.writeINT(out, -compressedSize);
         DataInputOutputUtil.writeINT(out, length - compressedSize);
@@ -123,6 +129,10 @@ public class CompressionUtil {
 
   
   public static byte[] readCompressed(DataInput in) throws IOException {
+    return readCompressed(in, CompressionCodecs.LZ4);
+  }
+
+  public static byte[] readCompressed(DataInput in, CompressionCodec codec) throws IOException {
     int size = DataInputOutputUtil.readINT(in);
     if (size < 0) {
       size = -size;
@@ -130,8 +140,7 @@ public class CompressionUtil {
       int sizeUncompressed = DataInputOutputUtil.readINT(in) + size;
       in.readFully(bytes, 0, size);
       byte[] result = new byte[sizeUncompressed];
-      int decompressed = decompressor().decompress(bytes, 0, result, 0, sizeUncompressed);
-      assert decompressed == size;
+      codec.decompress(bytes, 0, size, result, 0, sizeUncompressed);
       return result;
     }
     else {
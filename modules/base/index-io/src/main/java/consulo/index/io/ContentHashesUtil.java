@@ -32,7 +32,7 @@ public class ContentHashesUtil {
     return DigestUtil.sha1();
   }
 
-  private static final int SIGNATURE_LENGTH = 20;
+  public static final int SIGNATURE_LENGTH = 20;
 
   public static class HashEnumerator extends PersistentBTreeEnumerator<byte[]> {
     public HashEnumerator(File contentsHashesFile) throws IOException {
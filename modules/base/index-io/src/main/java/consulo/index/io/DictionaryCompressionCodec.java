@@ -0,0 +1,91 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.index.io;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflate with a preset dictionary trained by {@link CompressionDictionaryTrainer}. Small records which look alike
+ * (serialized stub trees, for example) compress much better when their common parts are already in the dictionary.
+ */
+public class DictionaryCompressionCodec extends CompressionCodec {
+  private final byte[] myDictionary;
+  private final int myVersion;
+
+  private final ThreadLocal<Deflater> myDeflater = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED, true));
+  private final ThreadLocal<Inflater> myInflater = ThreadLocal.withInitial(() -> new Inflater(true));
+
+  public DictionaryCompressionCodec(byte[] dictionary) {
+    super("dictionary");
+    myDictionary = dictionary;
+    myVersion = 0x100 + (Arrays.hashCode(dictionary) & 0xFFFFFF);
+  }
+
+  @Override
+  public int getVersion() {
+    return myVersion;
+  }
+
+  @Override
+  public int maxCompressedLength(int length) {
+    // zlib's deflateBound() for the default window and memory level, raw deflate has no wrapper bytes
+    return length + (length >> 12) + (length >> 14) + (length >> 25) + 7;
+  }
+
+  @Override
+  protected int doCompress(byte[] src, int srcOffset, int length, byte[] dest, int destOffset) throws IOException {
+    Deflater deflater = myDeflater.get();
+    deflater.reset();
+    deflater.setDictionary(myDictionary);
+    deflater.setInput(src, srcOffset, length);
+    deflater.finish();
+    int size = 0;
+    while (!deflater.finished()) {
+      int deflated = deflater.deflate(dest, destOffset + size, dest.length - destOffset - size);
+      if (deflated == 0) {
+        throw new IOException("Compressed data of " + length + " bytes doesn't fit into " + (dest.length - destOffset) + " bytes");
+      }
+      size += deflated;
+    }
+    return size;
+  }
+
+  @Override
+  protected void doDecompress(byte[] src, int srcOffset, int compressedLength, byte[] dest, int destOffset, int originalLength) throws IOException {
+    Inflater inflater = myInflater.get();
+    inflater.reset();
+    inflater.setDictionary(myDictionary);
+    inflater.setInput(src, srcOffset, compressedLength);
+    try {
+      int size = 0;
+      while (size < originalLength) {
+        int inflated = inflater.inflate(dest, destOffset + size, originalLength - size);
+        if (inflated == 0 && (inflater.finished() || inflater.needsInput())) break;
+        size += inflated;
+      }
+      if (size != originalLength) {
+        throw new IOException("Decompressed " + size + " bytes instead of " + originalLength);
+      }
+    }
+    catch (DataFormatException e) {
+      throw new IOException(e);
+    }
+  }
+}
@@ -3,13 +3,49 @@ package consulo.index.io;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-class IOStatistics {
+import java.util.concurrent.atomic.AtomicLong;
+
+public class IOStatistics {
   static final boolean DEBUG = System.getProperty("io.access.debug") != null;
   static final int MIN_IO_TIME_TO_REPORT = 100;
   static final Logger LOG = LoggerFactory.getLogger(IOStatistics.class);
   static final int KEYS_FACTOR_MASK = 0xFFFF;
 
+  private static final AtomicLong ourCompactions = new AtomicLong();
+  private static final AtomicLong ourCompactionReclaimedBytes = new AtomicLong();
+  private static final AtomicLong ourCompactionPauseMs = new AtomicLong();
+  private static final AtomicLong ourCompactionMaxPauseMs = new AtomicLong();
+
   static void dump(String msg) {
     LOG.info(msg);
   }
+
+  static void compactionFinished(long reclaimedBytes, long pauseMs) {
+    ourCompactions.incrementAndGet();
+    ourCompactionReclaimedBytes.addAndGet(reclaimedBytes);
+    ourCompactionPauseMs.addAndGet(pauseMs);
+    ourCompactionMaxPauseMs.accumulateAndGet(pauseMs, Math::max);
+    if (DEBUG) {
+      dump("Compaction reclaimed " + reclaimedBytes + " bytes, pause " + pauseMs + "ms");
+    }
+  }
+
+  public static long getCompactionCount() {
+    return ourCompactions.get();
+  }
+
+  public static long getCompactionReclaimedBytes() {
+    return ourCompactionReclaimedBytes.get();
+  }
+
+  /**
+   * Total time the compacted maps were blocked for. For incremental compaction only the final swap is counted.
+   */
+  public static long getCompactionPauseMs() {
+    return ourCompactionPauseMs.get();
+  }
+
+  public static long getCompactionMaxPauseMs() {
+    return ourCompactionMaxPauseMs.get();
+  }
 }
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.index.io;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per index counters of indexing work: time spent in {@link DataIndexer#map}, in serialization of indexed data,
+ * in storage writes and in waiting for the index lock, plus number of indexed files and serialized bytes.
+ * Indices which serialize their values while mapping (e.g. stubs) report that time both as map and as serialization time.
+ * <p>
+ * Counters are cumulative since start or since the last {@link #reset()}, compare {@link #snapshot()}s to measure a single run.
+ * Disabled by {@code -Didea.indexing.metrics=false}.
+ */
+public final class IndexingMetrics {
+  public static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("idea.indexing.metrics", "true"));
+
+  private static final ConcurrentMap<String, IndexMetrics> ourMetrics = new ConcurrentHashMap<>();
+
+  private IndexingMetrics() {
+  }
+
+  public static IndexMetrics forIndex(IndexId<?, ?> indexId) {
+    return ourMetrics.computeIfAbsent(indexId.getName(), IndexMetrics::new);
+  }
+
+  public static void reset() {
+    ourMetrics.clear();
+  }
+
+  /**
+   * @return immutable copies of current counters sorted by the time spent in the index, the most expensive first
+   */
+  public static List<Snapshot> snapshot() {
+    List<Snapshot> result = new ArrayList<>(ourMetrics.size());
+    for (IndexMetrics metrics : ourMetrics.values()) {
+      result.add(metrics.snapshot());
+    }
+    result.sort(Comparator.comparingLong(Snapshot::getTotalNanos).reversed());
+    return result;
+  }
+
+  /**
+   * @return difference of two {@link #snapshot()}s, indices without any work in between are skipped
+   */
+  public static List<Snapshot> difference(List<Snapshot> before, List<Snapshot> after) {
+    List<Snapshot> result = new ArrayList<>(after.size());
+    for (Snapshot current : after) {
+      Snapshot previous = null;
+      for (Snapshot snapshot : before) {
+        if (snapshot.getIndexName().equals(current.getIndexName())) {
+          previous = snapshot;
+          break;
+        }
+      }
+      Snapshot diff = previous == null ? current : current.minus(previous);
+      if (diff.getFileCount() != 0 || diff.getTotalNanos() != 0) {
+        result.add(diff);
+      }
+    }
+    result.sort(Comparator.comparingLong(Snapshot::getTotalNanos).reversed());
+    return result;
+  }
+
+  public static String toJson(List<Snapshot> snapshots) {
+    StringBuilder builder = new StringBuilder();
+    builder.append("{\"indices\":[");
+    for (int i = 0; i < snapshots.size(); i++) {
+      if (i > 0) builder.append(',');
+      snapshots.get(i).appendJson(builder);
+    }
+    builder.append("]}");
+    return builder.toString();
+  }
+
+  public static final class IndexMetrics {
+    private final String myIndexName;
+    private final LongAdder myFiles = new LongAdder();
+    private final LongAdder myMapNanos = new LongAdder();
+    private final LongAdder mySerializationNanos = new LongAdder();
+    private final LongAdder myStorageWriteNanos = new LongAdder();
+    private final LongAdder myLockWaitNanos = new LongAdder();
+    private final LongAdder myBytesWritten = new LongAdder();
+
+    private IndexMetrics(String indexName) {
+      myIndexName = indexName;
+    }
+
+    public void mapped(long nanos) {
+      myFiles.increment();
+      myMapNanos.add(nanos);
+    }
+
+    public void serialized(long bytes, long nanos) {
+      myBytesWritten.add(bytes);
+      mySerializationNanos.add(nanos);
+    }
+
+    public void written(long nanos) {
+      myStorageWriteNanos.add(nanos);
+    }
+
+    public void lockAcquired(long waitNanos) {
+      myLockWaitNanos.add(waitNanos);
+    }
+
+    Snapshot snapshot() {
+      return new Snapshot(myIndexName, myFiles.sum(), myMapNanos.sum(), mySerializationNanos.sum(), myStorageWriteNanos.sum(),
+                          myLockWaitNanos.sum(), myBytesWritten.sum());
+    }
+  }
+
+  public static final class Snapshot {
+    private final String myIndexName;
+    private final long myFiles;
+    private final long myMapNanos;
+    private final long mySerializationNanos;
+    private final long myStorageWriteNanos;
+    private final long myLockWaitNanos;
+    private final long myBytesWritten;
+
+    Snapshot(String indexName, long files, long mapNanos, long serializationNanos, long storageWriteNanos, long lockWaitNanos, long bytesWritten) {
+      myIndexName = indexName;
+      myFiles = files;
+      myMapNanos = mapNanos;
+      mySerializationNanos = serializationNanos;
+      myStorageWriteNanos = storageWriteNanos;
+      myLockWaitNanos = lockWaitNanos;
+      myBytesWritten = bytesWritten;
+    }
+
+    public String getIndexName() {
+      return myIndexName;
+    }
+
+    public long getFileCount() {
+      return myFiles;
+    }
+
+    public long getMapNanos() {
+      return myMapNanos;
+    }
+
+    public long getSerializationNanos() {
+      return mySerializationNanos;
+    }
+
+    public long getStorageWriteNanos() {
+      return myStorageWriteNanos;
+    }
+
+    public long getLockWaitNanos() {
+      return myLockWaitNanos;
+    }
+
+    public long getBytesWritten() {
+      return myBytesWritten;
+    }
+
+    public long getTotalNanos() {
+      return myMapNanos + mySerializationNanos + myStorageWriteNanos + myLockWaitNanos;
+    }
+
+    Snapshot minus(Snapshot other) {
+      return new Snapshot(myIndexName, myFiles - other.myFiles, myMapNanos - other.myMapNanos,
+                          mySerializationNanos - other.mySerializationNanos, myStorageWriteNanos - other.myStorageWriteNanos,
+                          myLockWaitNanos - other.myLockWaitNanos, myBytesWritten - other.myBytesWritten);
+    }
+
+    void appendJson(StringBuilder builder) {
+      builder.append("{\"id\":\"");
+      for (int i = 0; i < myIndexName.length(); i++) {
+        char c = myIndexName.charAt(i);
+        if (c == '"' || c == '\\') builder.append('\\');
+        builder.append(c);
+      }
+      builder.append("\",\"files\":").append(myFiles)
+        .append(",\"mapMs\":").append(myMapNanos / 1_000_000)
+        .append(",\"serializationMs\":").append(mySerializationNanos / 1_000_000)
+        .append(",\"storageWriteMs\":").append(myStorageWriteNanos / 1_000_000)
+        .append(",\"lockWaitMs\":").append(myLockWaitNanos / 1_000_000)
+        .append(",\"bytesWritten\":").append(myBytesWritten)
+        .append('}');
+    }
+
+    @Override
+    public String toString() {
+      return myIndexName + ": " + myFiles + " files, map " + myMapNanos / 1_000_000 + "ms, serialization " +
+             mySerializationNanos / 1_000_000 + "ms, storage " + myStorageWriteNanos / 1_000_000 + "ms, lock wait " +
+             myLockWaitNanos / 1_000_000 + "ms, " + myBytesWritten + " bytes";
+    }
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.index.io;
+
+import consulo.util.collection.ShareableKey;
+import org.jspecify.annotations.Nullable;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Direct-mapped snapshot of recent enumerator mappings which can be read without any lock.
+ * Every slot holds an immutable entry; writers replace entries as a whole, so readers see either the old or the new
+ * mapping and never a torn one. Colliding mappings simply evict each other.
+ * <p>
+ * Value-to-id entries must be published only by the thread owning the enumerator write lock, otherwise a stale id
+ * could overwrite the result of a later re-enumeration. Id-to-value entries never become stale because ids are not reused.
+ */
+final class LockFreeEnumeratorCache<Data> {
+  private static final class Entry<Data> {
+    final Data value;
+    final int id;
+
+    Entry(Data value, int id) {
+      this.value = value;
+      this.id = id;
+    }
+  }
+
+  private final KeyDescriptor<Data> myDescriptor;
+  private final AtomicReferenceArray<Entry<Data>> myIdsByValue;
+  private final AtomicReferenceArray<Entry<Data>> myValuesById;
+  private final int myMask;
+
+  LockFreeEnumeratorCache(KeyDescriptor<Data> descriptor, int size) {
+    int capacity = Integer.highestOneBit(Math.max(16, size));
+    myDescriptor = descriptor;
+    myIdsByValue = new AtomicReferenceArray<>(capacity);
+    myValuesById = new AtomicReferenceArray<>(capacity);
+    myMask = capacity - 1;
+  }
+
+  /**
+   * @return cached id of {@code value} or {@link PersistentEnumeratorBase#NULL_ID} if it is not cached
+   */
+  int getId(Data value) {
+    Entry<Data> entry = myIdsByValue.get(valueSlot(myDescriptor.hashCode(value)));
+    return entry != null && myDescriptor.equals(entry.value, value) ? entry.id : PersistentEnumeratorBase.NULL_ID;
+  }
+
+  @Nullable
+  Data getValue(int id) {
+    Entry<Data> entry = myValuesById.get(id & myMask);
+    return entry != null && entry.id == id ? entry.value : null;
+  }
+
+  void putId(Data value, int id) {
+    Entry<Data> entry = new Entry<>(stableCopy(value), id);
+    myIdsByValue.set(valueSlot(myDescriptor.hashCode(value)), entry);
+    myValuesById.set(id & myMask, entry);
+  }
+
+  void putValue(int id, Data value) {
+    myValuesById.set(id & myMask, new Entry<>(stableCopy(value), id));
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <Data> Data stableCopy(Data value) {
+    return value instanceof ShareableKey key ? (Data)key.getStableCopy() : value;
+  }
+
+  private int valueSlot(int hashCode) {
+    return (hashCode ^ (hashCode >>> 16)) & myMask;
+  }
+}
@@ -87,6 +87,10 @@ public abstract class MapIndexStorage<Key, Value> implements IndexStorage<Key, V
     if (myKeyIsUniqueForIndexedFile) {
       PersistentHashMapValueStorage.CreationTimeOptions.HAS_NO_CHUNKS.set(Boolean.TRUE);
     }
+    boolean valuesCompressed = myDataExternalizer instanceof CompressingDataExternalizer<?> externalizer && externalizer.isCompressing();
+    if (valuesCompressed) {
+      PersistentHashMapValueStorage.CreationTimeOptions.DO_COMPRESSION.set(Boolean.FALSE);
+    }
     try {
       map = new ValueContainerMap<Key, Value>(getStorageFile(), myKeyDescriptor, myDataExternalizer, myKeyIsUniqueForIndexedFile, myInputRemapping) {
         @Override
@@ -101,6 +105,9 @@ public abstract class MapIndexStorage<Key, Value> implements IndexStorage<Key, V
       if (myKeyIsUniqueForIndexedFile) {
         PersistentHashMapValueStorage.CreationTimeOptions.HAS_NO_CHUNKS.set(Boolean.FALSE);
       }
+      if (valuesCompressed) {
+        PersistentHashMapValueStorage.CreationTimeOptions.DO_COMPRESSION.remove();
+      }
     }
     myCache = new SLRUCache<Key, ChangeTrackingValueContainer<Value>>(myCacheSize, (int)(Math.ceil(myCacheSize * 0.25)) /* 25% from the main cache size*/, myKeyDescriptor) {
       @Override
@@ -22,6 +22,7 @@ import consulo.index.io.internal.DebugAssertions;
 import consulo.index.io.internal.LowMemoryWatcherInternal;
 import consulo.index.io.internal.ValueContainerImpl;
 import consulo.util.io.BufferExposingByteArrayOutputStream;
+import consulo.util.io.ByteArraySequence;
 import consulo.util.lang.Comparing;
 import consulo.util.lang.ControlFlowException;
 import consulo.util.lang.function.ThrowableRunnable;
@@ -57,6 +58,7 @@ public abstract class MapReduceIndex<Key, Value, Input> implements InvertedIndex
     
     private final ReadWriteLock myLock;
     private final boolean myUseIntForwardIndex;
+    private final IndexingMetrics.@Nullable IndexMetrics myMetrics;
     private volatile boolean myDisposed;
 
     private final Runnable myLowMemoryFlusher = LowMemoryWatcherInternal.register(new Runnable() {
@@ -98,6 +100,7 @@ public abstract class MapReduceIndex<Key, Value, Input> implements InvertedIndex
         }
 
         myLock = lock == null ? new ReentrantReadWriteLock() : lock;
+        myMetrics = IndexingMetrics.ENABLED ? IndexingMetrics.forIndex(myIndexId) : null;
     }
 
     protected MapReduceIndex(IndexExtension<Key, Value, Input> extension,
@@ -274,17 +277,34 @@ public abstract class MapReduceIndex<Key, Value, Input> implements InvertedIndex
 
     
     protected UpdateData<Key, Value> calculateUpdateData(int inputId, @Nullable Input content) {
+        long started = System.nanoTime();
         InputData<Key, Value> data = mapInput(content);
+        if (myMetrics != null && content != null) {
+            myMetrics.mapped(System.nanoTime() - started);
+        }
         return createUpdateData(inputId, data.getKeyValues(), () -> getKeysDiffBuilder(inputId), () -> updateForwardIndex(inputId, data));
     }
 
     protected void updateForwardIndex(int inputId, InputData<Key, Value> data) throws IOException {
         if (myForwardIndex != null) {
+            long started = System.nanoTime();
             if (myUseIntForwardIndex) {
-                ((IntForwardIndex) myForwardIndex).putInt(inputId, ((IntForwardIndexAccessor<Key, Value>) myForwardIndexAccessor).serializeIndexedDataToInt(data));
+                int value = ((IntForwardIndexAccessor<Key, Value>) myForwardIndexAccessor).serializeIndexedDataToInt(data);
+                long serialized = System.nanoTime();
+                ((IntForwardIndex) myForwardIndex).putInt(inputId, value);
+                if (myMetrics != null) {
+                    myMetrics.serialized(Integer.BYTES, serialized - started);
+                    myMetrics.written(System.nanoTime() - serialized);
+                }
             }
             else {
-                myForwardIndex.put(inputId, myForwardIndexAccessor.serializeIndexedData(data));
+                ByteArraySequence value = myForwardIndexAccessor.serializeIndexedData(data);
+                long serialized = System.nanoTime();
+                myForwardIndex.put(inputId, value);
+                if (myMetrics != null) {
+                    myMetrics.serialized(value == null ? 0 : value.getLength(), serialized - started);
+                    myMetrics.written(System.nanoTime() - serialized);
+                }
             }
         }
     }
@@ -355,12 +375,18 @@ public abstract class MapReduceIndex<Key, Value, Input> implements InvertedIndex
     };
 
     public void updateWithMap(AbstractUpdateData<Key, Value> updateData) throws StorageException {
+        long started = System.nanoTime();
         getWriteLock().lock();
         try {
             IndexId<?, ?> oldIndexId = DebugAssertions.DEBUG_INDEX_ID.get();
             try {
                 DebugAssertions.DEBUG_INDEX_ID.set(myIndexId);
+                long locked = System.nanoTime();
                 boolean hasDifference = updateData.iterateKeys(myAddedKeyProcessor, myUpdatedKeyProcessor, myRemovedKeyProcessor);
+                if (myMetrics != null) {
+                    myMetrics.lockAcquired(locked - started);
+                    myMetrics.written(System.nanoTime() - locked);
+                }
                 if (hasDifference) {
                     updateData.updateForwardIndex();
                 }
@@ -15,6 +15,7 @@
  */
 package consulo.index.io;
 
+import consulo.util.lang.ShutDownTracker;
 import consulo.util.lang.SystemProperties;
 import consulo.util.collection.impl.map.LinkedHashMap;
 
@@ -41,9 +42,24 @@ public class PagePool {
   private final Object finalizationMonitor = new Object();
   private final PoolPageKey keyInstance = new PoolPageKey(null, -1);
 
+  private static final int MAX_PENDING_FINALIZATIONS = 5000;
+
   private PoolPageKey lastFinalizedKey = null;
 
+  private final boolean myFlushOnAlloc;
+  private long myRequests = 0;
+  private long myMisses = 0;
+
   public PagePool(final int protectedPagesLimit, final int probationalPagesLimit) {
+    this(protectedPagesLimit, probationalPagesLimit, true);
+  }
+
+  /**
+   * @param flushOnAlloc when false, dirty pages evicted by {@link #alloc} are left in the finalization queue until
+   *                     someone calls {@link #flushFinalizationQueue(int)}, instead of being written under the pool lock
+   */
+  PagePool(final int protectedPagesLimit, final int probationalPagesLimit, boolean flushOnAlloc) {
+    myFlushOnAlloc = flushOnAlloc;
     myProbationalQueue = new LinkedHashMap<>(probationalPagesLimit * 2, 1, true) {
       @Override
       protected boolean removeEldestEntry(Map.Entry<PoolPageKey, Page> eldest) {
@@ -74,11 +90,21 @@ public class PagePool {
   @SuppressWarnings({"FieldAccessedSynchronizedAndUnsynchronized"}) private static int probational_queue_hits = 0;
   @SuppressWarnings({"FieldAccessedSynchronizedAndUnsynchronized"}) private static int finalization_queue_hits = 0;
 
-  public static final PagePool SHARED = new PagePool(
+  public static final PagePool SHARED = createSharedPool(
           SystemProperties.getIntProperty("idea.io.protected.pool.size", 256), // 256 * 8 = 2M
           SystemProperties.getIntProperty("idea.io.probatonal.pool.size", 256)
   );
 
+  private static PagePool createSharedPool(int protectedPagesLimit, int probationalPagesLimit) {
+    if (SystemProperties.getBooleanProperty("idea.io.sharded.pool", false)) {
+      int shards = SystemProperties.getIntProperty("idea.io.sharded.pool.shards", ShardedPagePool.defaultShardCount());
+      ShardedPagePool pool = new ShardedPagePool(shards, protectedPagesLimit, probationalPagesLimit);
+      ShutDownTracker.getInstance().registerShutdownTask(pool::dispose);
+      return pool;
+    }
+    return new PagePool(protectedPagesLimit, probationalPagesLimit);
+  }
+
   private RandomAccessDataFile lastOwner = null;
   private long lastOffset = 0;
   private Page lastHit = null;
@@ -89,6 +115,7 @@ public class PagePool {
     synchronized (lock) {
       offset -= offset % Page.PAGE_SIZE;
       hits++;
+      myRequests++;
 
       if (owner == lastOwner && offset == lastOffset) {
         same_page_hits++;
@@ -99,7 +126,9 @@ public class PagePool {
       lastOwner = owner;
       lastHit = hitQueues(owner, offset);
 
-      flushFinalizationQueue(Integer.MAX_VALUE);
+      if (myFlushOnAlloc || myFinalizationQueue.size() > MAX_PENDING_FINALIZATIONS) {
+        flushFinalizationQueue(Integer.MAX_VALUE);
+      }
 
       return lastHit;
     }
@@ -130,6 +159,7 @@ public class PagePool {
     }
 
     cache_misses++;
+    myMisses++;
     page = new Page(owner, offset);
 
     myProbationalQueue.put(keyForPage(page), page);
@@ -156,6 +186,24 @@ public class PagePool {
     System.out.println("Total writes: " + RandomAccessDataFile.totalWrites + ". Bytes written: " + RandomAccessDataFile.totalWriteBytes);
   }
 
+  boolean hasPendingFinalizations() {
+    synchronized (lock) {
+      return !myFinalizationQueue.isEmpty();
+    }
+  }
+
+  long getRequestCount() {
+    synchronized (lock) {
+      return myRequests;
+    }
+  }
+
+  long getMissCount() {
+    synchronized (lock) {
+      return myMisses;
+    }
+  }
+
   private static PoolPageKey keyForPage(Page page) {
     return page.getKey();
   }
@@ -190,12 +238,17 @@ public class PagePool {
 
       hasFlushes = scanQueue(owner, myProtectedQueue);
       hasFlushes |= scanQueue(owner, myProbationalQueue);
+      // pages evicted earlier may still wait for the background flusher
+      hasFlushes |= hasQueuedPages(owner);
     }
 
     return !hasFlushes || flushFinalizationQueue(maxPagesToFlush);
   }
 
-  private boolean flushFinalizationQueue(int maxPagesToFlush) {
+  /**
+   * @return true if the finalization queue was drained completely.
+   */
+  boolean flushFinalizationQueue(int maxPagesToFlush) {
     int count = 0;
 
     while (count < maxPagesToFlush) {
@@ -226,6 +279,15 @@ public class PagePool {
     return hasFlushes;
   }
 
+  private boolean hasQueuedPages(RandomAccessDataFile owner) {
+    for (PoolPageKey key : myFinalizationQueue.keySet()) {
+      if (key.getOwner() == owner) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   private boolean scheduleFinalization(Page page) {
     int curFinalizationId;
     synchronized (lock) {
@@ -244,7 +306,7 @@ public class PagePool {
       */
 
       myFinalizationQueue.put(keyForPage(page), request);
-      if (myFinalizationQueue.size() > 5000) {
+      if (myFinalizationQueue.size() > MAX_PENDING_FINALIZATIONS) {
         return true;
       }
     }
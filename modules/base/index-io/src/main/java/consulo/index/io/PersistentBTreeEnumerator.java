@@ -47,10 +47,14 @@ public class PersistentBTreeEnumerator<Data> extends PersistentEnumeratorBase<Da
 
   private IntToIntBtree myBTree;
   private final boolean myInlineKeysNoMapping;
+  private final @Nullable LockFreeEnumeratorCache<Data> myReadCache;
   private boolean myExternalKeysNoMapping;
 
   private static final int MAX_DATA_SEGMENT_LENGTH = 128;
 
+  // number of mappings kept in the lock-free read snapshot of each enumerator, 0 disables it
+  private static final int READ_CACHE_SIZE = SystemProperties.getIntProperty("idea.btree.enumerator.read.cache.size", 0);
+
   private static final int VERSION = 8 + IntToIntBtree.version() + BTREE_PAGE_SIZE + INTERNAL_PAGE_SIZE + MAX_DATA_SEGMENT_LENGTH;
   private static final int KEY_SHIFT = 1;
 
@@ -69,6 +73,8 @@ public class PersistentBTreeEnumerator<Data> extends PersistentEnumeratorBase<Da
 
     myInlineKeysNoMapping = myDataDescriptor instanceof InlineKeyDescriptor && !wantKeyMapping();
     myExternalKeysNoMapping = !(myDataDescriptor instanceof InlineKeyDescriptor) && !wantKeyMapping();
+    // inline keys without mapping are rebound by putNonNegativeValue(), which bypasses enumerateImpl()
+    myReadCache = READ_CACHE_SIZE > 0 && !myInlineKeysNoMapping ? new LockFreeEnumeratorCache<>(myDataDescriptor, READ_CACHE_SIZE) : null;
 
     if (myBTree == null) {
       try {
@@ -356,8 +362,35 @@ public class PersistentBTreeEnumerator<Data> extends PersistentEnumeratorBase<Da
     return myDuplicatedValuesPageStart + duplicatedValueOff;
   }
 
+  @Override
+  public int tryEnumerate(Data value) throws IOException {
+    LockFreeEnumeratorCache<Data> readCache = myReadCache;
+    if (readCache != null) {
+      int id = readCache.getId(value);
+      if (id != NULL_ID) return id;
+    }
+    return super.tryEnumerate(value);
+  }
+
+  @Override
+  public int enumerate(Data value) throws IOException {
+    LockFreeEnumeratorCache<Data> readCache = myReadCache;
+    if (readCache != null) {
+      int id = readCache.getId(value);
+      if (id != NULL_ID) return id;
+    }
+    return super.enumerate(value);
+  }
+
   @Override
   protected synchronized int enumerateImpl(Data value, boolean onlyCheckForExisting, boolean saveNewValue) throws IOException {
+    int id = doEnumerateImpl(value, onlyCheckForExisting, saveNewValue);
+    // published under the enumerator monitor so that a re-enumerated key can't be overwritten by its stale id
+    if (myReadCache != null && id != NULL_ID) myReadCache.putId(value, id);
+    return id;
+  }
+
+  private int doEnumerateImpl(Data value, boolean onlyCheckForExisting, boolean saveNewValue) throws IOException {
     try {
       lockStorage();
       if (IntToIntBtree.doDump) System.out.println(value);
@@ -476,7 +509,14 @@ public class PersistentBTreeEnumerator<Data> extends PersistentEnumeratorBase<Da
   @Override
   public Data valueOf(int idx) throws IOException {
     assert !myInlineKeysNoMapping : "No valueOf for inline keys with no mapping option";
-    return super.valueOf(idx);
+    LockFreeEnumeratorCache<Data> readCache = myReadCache;
+    if (readCache != null) {
+      Data cached = readCache.getValue(idx);
+      if (cached != null) return cached;
+    }
+    Data value = super.valueOf(idx);
+    if (readCache != null && value != null) readCache.putValue(idx, value);
+    return value;
   }
 
   private int nextDuplicatedValueRecord() {
@@ -8,6 +8,8 @@ import consulo.index.io.internal.LowMemoryWatcherInternal;
 import consulo.util.collection.ArrayUtil;
 import consulo.util.collection.LimitedPool;
 import consulo.util.collection.SLRUCache;
+import consulo.util.collection.primitive.ints.IntMaps;
+import consulo.util.collection.primitive.ints.IntObjectMap;
 import consulo.util.io.BufferExposingByteArrayOutputStream;
 import consulo.util.io.FilePermissionCopier;
 import consulo.util.io.FileUtil;
@@ -25,6 +27,8 @@ import java.io.*;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 import java.util.function.Predicate;
 
 /**
@@ -84,6 +88,17 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
   private boolean myIntAddressForNewRecord;
   private static final boolean doHardConsistencyChecks = false;
   private volatile boolean myBusyReading;
+  private boolean myBackgroundCompactionScheduled;
+  private boolean myIncrementalCompactionRunning; // guarded by myEnumerator, only one run may write the .new storage
+
+  // when enabled, maps which accumulated enough garbage are compacted by compactIncrementally() on a background thread after force()
+  private static final boolean BACKGROUND_COMPACTION = SystemProperties.getBooleanProperty("idea.persistent.hash.map.background.compaction", false);
+  private static final int BACKGROUND_COMPACTION_BATCH_SIZE = SystemProperties.getIntProperty("idea.persistent.hash.map.background.compaction.batch", 1000);
+  private static final Executor ourBackgroundCompactor = Executors.newSingleThreadExecutor(r -> {
+    Thread thread = new Thread(r, "PersistentHashMap Compactor");
+    thread.setDaemon(true);
+    return thread;
+  });
 
   private static class AppendStream extends DataOutputStream {
     private AppendStream() {
@@ -699,9 +714,29 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
     if (myDoTrace) LOG.info("Forcing " + myStorageFile);
     synchronized (myEnumerator) {
       doForce();
+      if (BACKGROUND_COMPACTION && !myBackgroundCompactionScheduled && !myIncrementalCompactionRunning && makesSenseToCompact()) {
+        scheduleBackgroundCompaction();
+      }
     }
   }
 
+  private void scheduleBackgroundCompaction() {
+    myBackgroundCompactionScheduled = true;
+    ourBackgroundCompactor.execute(() -> {
+      try {
+        compactIncrementally(BACKGROUND_COMPACTION_BATCH_SIZE);
+      }
+      catch (Throwable e) {
+        LOG.warn("Background compaction failed for " + myStorageFile, e);
+      }
+      finally {
+        synchronized (myEnumerator) {
+          myBackgroundCompactionScheduled = false;
+        }
+      }
+    });
+  }
+
   protected void doForce() {
     myEnumerator.lockStorage();
     try {
@@ -788,8 +823,7 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
       long now = System.currentTimeMillis();
 
       File oldDataFile = getDataFile(myEnumerator.myFile);
-      String oldDataFileBaseName = oldDataFile.getName();
-      File[] oldFiles = getFilesInDirectoryWithNameStartingWith(oldDataFile, oldDataFileBaseName);
+      File[] oldFiles = getFilesInDirectoryWithNameStartingWith(oldDataFile, oldDataFile.getName());
 
       String newPath = getDataFile(myEnumerator.myFile).getPath() + ".new";
       PersistentHashMapValueStorage.CreationTimeOptions options = myValueStorage.getOptions();
@@ -825,39 +859,196 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
         newStorage.dispose();
       }
 
-      myValueStorage.dispose();
+      long newSize = swapValueStorage(newStorage, newPath, oldDataFile, oldFiles, options);
+      IOStatistics.compactionFinished(sizeBefore - newSize, System.currentTimeMillis() - now);
+      LOG.info("Compacted " + myEnumerator.myFile.getPath() + ":" + sizeBefore + " bytes into " + newSize + " bytes in " + (System.currentTimeMillis() - now) + "ms.");
+      myEnumerator.putMetaData(myLiveAndGarbageKeysCounter);
+      myEnumerator.putMetaData2(myLargeIndexWatermarkId);
+      if (myDoTrace) {
+        if (!myEnumerator.isDirty()) {
+          LOG.error("assertion failed", new AssertionError());
+        }
+      }
+    }
+  }
+
+  private long swapValueStorage(PersistentHashMapValueStorage newStorage,
+                                String newPath,
+                                File oldDataFile,
+                                File @Nullable [] oldFiles,
+                                PersistentHashMapValueStorage.CreationTimeOptions options) throws IOException {
+    myValueStorage.dispose();
+
+    if (oldFiles != null) {
+      for (File f : oldFiles) {
+        assert FileUtil.deleteWithRenaming(f);
+      }
+    }
+
+    long newSize = newStorage.getSize();
+
+    File newDataFile = new File(newPath);
+    String newBaseName = newDataFile.getName();
+    File[] newFiles = getFilesInDirectoryWithNameStartingWith(newDataFile, newBaseName);
+
+    if (newFiles != null) {
+      File parentFile = newDataFile.getParentFile();
+
+      // newFiles should get the same names as oldDataFiles
+      for (File f : newFiles) {
+        String nameAfterRename = StringUtil.replace(f.getName(), newBaseName, oldDataFile.getName());
+        FileUtil.rename(f, new File(parentFile, nameAfterRename), FilePermissionCopier.BY_NIO2);
+      }
+    }
+
+    myValueStorage = PersistentHashMapValueStorage.create(oldDataFile.getPath(), options);
+    return newSize;
+  }
+
+  /**
+   * Compacts value storage without blocking the map for the whole run: live values are copied into a fresh storage
+   * in batches of {@code batchSize} records, releasing the map between batches. Values which were changed or added
+   * meanwhile are copied again during the final pass, which also swaps the storages and is the only long pause.
+   * Intended to be called from a background thread.
+   *
+   * @return false if the map was closed before compaction finished or another compaction of this map is already running,
+   * in which case the old storage is kept
+   */
+  public boolean compactIncrementally(int batchSize) throws IOException {
+    if (myIsReadOnly) throw new UnsupportedOperationException();
+
+    synchronized (myEnumerator) {
+      if (isClosed() || myIncrementalCompactionRunning) return false;
+      myIncrementalCompactionRunning = true;
+    }
+    try {
+      return doCompactIncrementally(batchSize);
+    }
+    finally {
+      synchronized (myEnumerator) {
+        myIncrementalCompactionRunning = false;
+      }
+    }
+  }
+
+  private boolean doCompactIncrementally(int batchSize) throws IOException {
+    File oldDataFile = getDataFile(myEnumerator.myFile);
+    String newPath = oldDataFile.getPath() + ".new";
+    List<CompactionRecordInfo> infos = new ArrayList<>(10000);
+    PersistentHashMapValueStorage newStorage;
+    PersistentHashMapValueStorage.CreationTimeOptions options;
+    long sizeBefore;
+
+    synchronized (myEnumerator) {
+      if (isClosed()) return false;
+      // not force(): it may schedule another background compaction of this map
+      doForce();
+      options = myValueStorage.getOptions();
+      sizeBefore = myValueStorage.getSize();
+      newStorage = PersistentHashMapValueStorage.create(newPath, options);
+      collectCompactionRecords(infos);
+    }
 
-      if (oldFiles != null) {
-        for (File f : oldFiles) {
-          assert FileUtil.deleteWithRenaming(f);
+    boolean swapped = false;
+    try {
+      for (int start = 0; start < infos.size(); start += batchSize) {
+        synchronized (myEnumerator) {
+          if (isClosed()) return false;
+          copyValues(infos.subList(start, Math.min(infos.size(), start + batchSize)), newStorage);
         }
       }
 
-      long newSize = newStorage.getSize();
+      synchronized (myEnumerator) {
+        if (isClosed()) return false;
+        long pauseStarted = System.currentTimeMillis();
+        doForce();
 
-      File newDataFile = new File(newPath);
-      String newBaseName = newDataFile.getName();
-      File[] newFiles = getFilesInDirectoryWithNameStartingWith(newDataFile, newBaseName);
+        List<CompactionRecordInfo> current = new ArrayList<>(infos.size());
+        collectCompactionRecords(current);
+        IntObjectMap<CompactionRecordInfo> copied = IntMaps.newIntObjectHashMap(infos.size());
+        for (CompactionRecordInfo info : infos) {
+          copied.put(info.address, info);
+        }
+        List<CompactionRecordInfo> changed = new ArrayList<>();
+        for (int i = 0; i < current.size(); i++) {
+          CompactionRecordInfo info = current.get(i);
+          CompactionRecordInfo copy = copied.get(info.address);
+          if (copy != null && copy.valueAddress == info.valueAddress && copy.newValueAddress != NULL_ADDR) {
+            current.set(i, copy);
+          }
+          else {
+            changed.add(info);
+          }
+        }
+        copyValues(changed, newStorage);
 
-      if (newFiles != null) {
-        File parentFile = newDataFile.getParentFile();
+        File[] oldFiles = getFilesInDirectoryWithNameStartingWith(oldDataFile, oldDataFile.getName());
+        myEnumerator.markDirty(true);
+        myLiveAndGarbageKeysCounter = 0;
+        myReadCompactionGarbageSize = 0;
 
-        // newFiles should get the same names as oldDataFiles
-        for (File f : newFiles) {
-          String nameAfterRename = StringUtil.replace(f.getName(), newBaseName, oldDataFileBaseName);
-          FileUtil.rename(f, new File(parentFile, nameAfterRename), FilePermissionCopier.BY_NIO2);
+        myEnumerator.lockStorage();
+        try {
+          for (CompactionRecordInfo info : current) {
+            updateValueId(info.address, info.newValueAddress, info.valueAddress, null, info.key);
+            myLiveAndGarbageKeysCounter += LIVE_KEY_MASK;
+          }
+        }
+        finally {
+          myEnumerator.unlockStorage();
         }
+
+        newStorage.dispose();
+        long newSize = swapValueStorage(newStorage, newPath, oldDataFile, oldFiles, options);
+        swapped = true;
+        myEnumerator.putMetaData(myLiveAndGarbageKeysCounter);
+        myEnumerator.putMetaData2(myLargeIndexWatermarkId);
+
+        long pause = System.currentTimeMillis() - pauseStarted;
+        IOStatistics.compactionFinished(sizeBefore - newSize, pause);
+        LOG.info("Incrementally compacted " + myEnumerator.myFile.getPath() + ":" + sizeBefore + " bytes into " + newSize +
+                 " bytes, final pause " + pause + "ms, records copied again " + changed.size());
+      }
+      return true;
+    }
+    finally {
+      if (!swapped) {
+        newStorage.dispose();
+        deleteFilesStartingWith(new File(newPath));
       }
+    }
+  }
 
-      myValueStorage = PersistentHashMapValueStorage.create(oldDataFile.getPath(), options);
-      LOG.info("Compacted " + myEnumerator.myFile.getPath() + ":" + sizeBefore + " bytes into " + newSize + " bytes in " + (System.currentTimeMillis() - now) + "ms.");
-      myEnumerator.putMetaData(myLiveAndGarbageKeysCounter);
-      myEnumerator.putMetaData2(myLargeIndexWatermarkId);
-      if (myDoTrace) {
-        if (!myEnumerator.isDirty()) {
-          LOG.error("assertion failed", new AssertionError());
+  private void collectCompactionRecords(List<CompactionRecordInfo> infos) throws IOException {
+    traverseAllRecords(new PersistentEnumerator.RecordsProcessor() {
+      @Override
+      public boolean process(int keyId) {
+        long record = readValueId(keyId);
+        if (record != NULL_ADDR) {
+          infos.add(new CompactionRecordInfo(getCurrentKey(), record, keyId));
         }
+        return true;
+      }
+    });
+  }
+
+  private void copyValues(List<CompactionRecordInfo> infos, PersistentHashMapValueStorage newStorage) throws IOException {
+    for (CompactionRecordInfo info : infos) {
+      long record;
+      myEnumerator.lockStorage();
+      try {
+        record = readValueId(info.address);
+      }
+      finally {
+        myEnumerator.unlockStorage();
+      }
+      info.valueAddress = record;
+      if (record == NULL_ADDR) {
+        info.newValueAddress = NULL_ADDR;
+        continue;
       }
+      byte[] bytes = myValueStorage.readBytes(record).buffer;
+      info.newValueAddress = newStorage.appendBytes(bytes, 0, bytes.length, 0);
     }
   }
 
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.index.io;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link PagePool} which splits pages between several independent SLRU pools, each guarded by its own lock.
+ * A page is always served by the shard chosen from its owner and offset, so lookups for different pages
+ * don't contend with each other. Dirty pages evicted from a shard are written by a background flusher thread
+ * instead of the allocating thread; a shard falls back to flushing inline only when its finalization queue overflows.
+ * <p>
+ * Enabled for {@link PagePool#SHARED} with {@code -Didea.io.sharded.pool=true}.
+ */
+public class ShardedPagePool extends PagePool {
+  private static final Logger LOG = LoggerFactory.getLogger(ShardedPagePool.class);
+
+  private static final long FLUSH_INTERVAL_MS = 50;
+
+  private final PagePool[] myShards;
+  private final int myShardMask;
+  private final Thread myFlusher;
+  private volatile boolean myDisposed;
+
+  public ShardedPagePool(int shardCount, int protectedPagesLimit, int probationalPagesLimit) {
+    super(0, 0);
+    int shards = Integer.highestOneBit(Math.max(1, shardCount));
+    myShards = new PagePool[shards];
+    myShardMask = shards - 1;
+    for (int i = 0; i < shards; i++) {
+      myShards[i] = new PagePool(Math.max(1, protectedPagesLimit / shards), Math.max(1, probationalPagesLimit / shards), false);
+    }
+
+    myFlusher = new Thread(this::flushLoop, "PagePool Flusher");
+    myFlusher.setDaemon(true);
+    myFlusher.start();
+  }
+
+  static int defaultShardCount() {
+    return Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()));
+  }
+
+  private PagePool shardFor(RandomAccessDataFile owner, long offset) {
+    int h = System.identityHashCode(owner) * 31 + (int)(offset / Page.PAGE_SIZE);
+    h ^= h >>> 16;
+    return myShards[h & myShardMask];
+  }
+
+  @Override
+  public Page alloc(RandomAccessDataFile owner, long offset) {
+    return shardFor(owner, offset).alloc(owner, offset);
+  }
+
+  @Override
+  public void flushPages(RandomAccessDataFile owner) {
+    flushPages(owner, Integer.MAX_VALUE);
+  }
+
+  /**
+   * @param maxPagesToFlush limit applied to each shard separately
+   * @return true if all the dirty pages where flushed.
+   */
+  @Override
+  public boolean flushPages(RandomAccessDataFile owner, int maxPagesToFlush) {
+    boolean allFlushed = true;
+    for (PagePool shard : myShards) {
+      allFlushed &= shard.flushPages(owner, maxPagesToFlush);
+    }
+    return allFlushed;
+  }
+
+  public int getShardCount() {
+    return myShards.length;
+  }
+
+  /**
+   * @return share of {@link #alloc} calls served without creating a new page, in percents
+   */
+  public double getHitRate() {
+    long requests = 0;
+    long misses = 0;
+    for (PagePool shard : myShards) {
+      requests += shard.getRequestCount();
+      misses += shard.getMissCount();
+    }
+    return requests == 0 ? 0 : (double)(requests - misses) * 100 / requests;
+  }
+
+  /**
+   * Stops the background flusher and writes out everything it has queued. Pages evicted afterwards are flushed
+   * only by explicit {@link #flushPages} calls. Called on shutdown for {@link PagePool#SHARED}.
+   */
+  public void dispose() {
+    if (myDisposed) return;
+    myDisposed = true;
+    myFlusher.interrupt();
+    try {
+      myFlusher.join();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    flushShards();
+  }
+
+  private void flushLoop() {
+    while (!myDisposed) {
+      try {
+        Thread.sleep(FLUSH_INTERVAL_MS);
+      }
+      catch (InterruptedException ignored) {
+      }
+      flushShards();
+    }
+  }
+
+  private void flushShards() {
+    for (PagePool shard : myShards) {
+      if (!shard.hasPendingFinalizations()) continue;
+      try {
+        shard.flushFinalizationQueue(Integer.MAX_VALUE);
+      }
+      catch (Throwable e) {
+        LOG.error("Failed to flush evicted pages", e);
+      }
+    }
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.language.internal;
+
+import consulo.util.collection.primitive.ints.IntList;
+import consulo.util.collection.primitive.ints.IntLists;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Offsets where a phrase can start in a file, found by intersecting the {@link TrigramPositionIndex} offsets of its trigrams.
+ */
+public final class TrigramPhraseStarts {
+    private TrigramPhraseStarts() {
+    }
+
+    /**
+     * @param starts         possible phrase starts found by the previous trigrams of the phrase, {@code null} for the first one
+     * @param offsets        offsets of the trigram in a file
+     * @param offsetInPhrase offset of the trigram in the phrase
+     * @return sorted possible phrase starts which also agree with the trigram
+     */
+    public static IntList intersect(@Nullable IntList starts, IntList offsets, int offsetInPhrase) {
+        IntList result = IntLists.newArrayList(Math.min(offsets.size(), starts != null ? starts.size() : offsets.size()));
+        int i = 0;
+        for (int j = 0; j < offsets.size(); j++) {
+            int start = offsets.get(j) - offsetInPhrase;
+            if (start < 0) {
+                continue;
+            }
+            if (starts == null) {
+                result.add(start);
+                continue;
+            }
+            while (i < starts.size() && starts.get(i) < start) {
+                i++;
+            }
+            if (i == starts.size()) {
+                break;
+            }
+            if (starts.get(i) == start) {
+                result.add(start);
+            }
+        }
+        return result;
+    }
+}
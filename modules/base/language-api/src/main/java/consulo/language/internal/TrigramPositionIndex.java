@@ -0,0 +1,41 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.language.internal;
+
+import consulo.index.io.ID;
+import consulo.language.psi.stub.FileBasedIndexExtension;
+import consulo.util.collection.primitive.ints.IntList;
+import consulo.util.lang.SystemProperties;
+
+/**
+ * Positions of the {@link TrigramIndex} trigrams in a file: the value is the sorted list of offsets where the trigram starts.
+ * <p>
+ * A phrase can start at offset {@code start} of a file only if each of its trigrams, at offset {@code p} in the phrase,
+ * starts at {@code start + p} in the file. So intersecting shifted offsets of all the trigrams drops the files which contain them
+ * all, but not next to each other, without loading the files, see {@link TrigramPhraseStarts}.
+ * <p>
+ * The index is about as large as the indexed text, so it's disabled by default and enabled by {@code -Didea.trigram.positions=true}.
+ */
+public abstract class TrigramPositionIndex extends FileBasedIndexExtension<Integer, IntList> {
+    public static final ID<Integer, IntList> INDEX_ID = ID.create("Trigram.Positions");
+
+    public static final boolean ENABLED = SystemProperties.getBooleanProperty("idea.trigram.positions", false);
+
+    @Override
+    public ID<Integer, IntList> getName() {
+        return INDEX_ID;
+    }
+}
@@ -6,11 +6,14 @@ import consulo.index.io.data.DataInputOutputUtil;
 import consulo.index.io.data.IOUtil;
 import consulo.util.collection.primitive.objects.ObjectIntMap;
 import consulo.util.collection.primitive.objects.ObjectMaps;
+import consulo.util.io.UnsyncByteArrayInputStream;
 
 import org.jspecify.annotations.Nullable;
 import java.io.DataInput;
 import java.io.DataOutput;
+import java.io.EOFException;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.function.UnaryOperator;
 
@@ -18,6 +21,12 @@ class FileLocalStringEnumerator implements AbstractStringEnumerator {
   private final @Nullable ObjectIntMap<String> myEnumerates;
   private final ArrayList<String> myStrings = new ArrayList<>();
 
+  // strings read lazily from a serialized stub tree, see readEnumeratedStrings(FileLocalStringEnumerator, UnsyncByteArrayInputStream, ...)
+  private @Nullable String[] myLazyStrings;
+  private int[] myLazyOffsets;
+  private byte[] myLazyBytes;
+  private UnaryOperator<String> myInterner;
+
   FileLocalStringEnumerator(boolean forSavingStub) {
     myEnumerates = forSavingStub ? ObjectMaps.newObjectIntHashMap() : null;
   }
@@ -37,7 +46,17 @@ class FileLocalStringEnumerator implements AbstractStringEnumerator {
   @Override
   public @Nullable String valueOf(int idx) {
     if (idx == 0) return null;
-    return myStrings.get(idx - 1);
+    String[] lazyStrings = myLazyStrings;
+    if (lazyStrings == null) return myStrings.get(idx - 1);
+
+    String s = lazyStrings[idx - 1];
+    if (s == null) {
+      // a racing thread may decode the same string, both get equal ones
+      int offset = myLazyOffsets[idx - 1];
+      s = myInterner.apply(new String(myLazyBytes, offset + 1, myLazyBytes[offset] & 0xFF, StandardCharsets.ISO_8859_1));
+      lazyStrings[idx - 1] = s;
+    }
+    return s;
   }
 
   void write(DataOutput stream) throws IOException {
@@ -78,4 +97,40 @@ class FileLocalStringEnumerator implements AbstractStringEnumerator {
       ++i;
     }
   }
+
+  /**
+   * Reads the string table without copying: short ASCII strings (most of them) are only located in the source array
+   * and decoded on the first {@link #valueOf} call, so loading a stub tree doesn't create strings of stubs nobody looks at.
+   */
+  static void readEnumeratedStrings(FileLocalStringEnumerator enumerator,
+                                    UnsyncByteArrayInputStream source,
+                                    byte[] sourceBytes,
+                                    DataInput stream,
+                                    UnaryOperator<String> interner) throws IOException {
+    int numberOfStrings = DataInputOutputUtil.readINT(stream);
+    String[] strings = new String[numberOfStrings];
+    int[] offsets = new int[numberOfStrings];
+    byte[] buffer = null;
+
+    for (int i = 0; i < numberOfStrings; i++) {
+      if (source.available() == 0) throw new EOFException();
+      int position = source.getPosition();
+      int len = sourceBytes[position] & 0xFF;
+      if (len == 0xFF) {
+        // non-ASCII or long string, see IOUtil.writeUTFFast
+        if (buffer == null) buffer = IOUtil.allocReadWriteUTFBuffer();
+        strings[i] = interner.apply(IOUtil.readUTFFast(buffer, stream));
+      }
+      else {
+        if (source.available() <= len) throw new EOFException();
+        offsets[i] = position;
+        source.skip(len + 1);
+      }
+    }
+
+    enumerator.myLazyBytes = sourceBytes;
+    enumerator.myLazyOffsets = offsets;
+    enumerator.myInterner = interner;
+    enumerator.myLazyStrings = strings;
+  }
 }
@@ -14,6 +14,7 @@ import consulo.util.collection.primitive.ints.IntObjectMap;
 import consulo.util.collection.primitive.objects.ObjectIntMap;
 import consulo.util.collection.primitive.objects.ObjectMaps;
 import consulo.util.io.BufferExposingByteArrayOutputStream;
+import consulo.util.io.BufferExposingByteArrayInputStream;
 import consulo.util.io.StreamUtil;
 import consulo.util.lang.ObjectUtil;
 import org.jspecify.annotations.Nullable;
@@ -151,22 +152,32 @@ public class StubSerializationHelper {
 
   private static final ThreadLocal<ObjectStubSerializer> ourRootStubSerializer = new ThreadLocal<>();
 
+  /**
+   * A {@link BufferExposingByteArrayInputStream} is read without copying: the string table is decoded lazily and the data
+   * of lazy stubs refers to the array of the stream, so it must not be modified afterwards.
+   */
   public Stub deserialize(InputStream stream) throws IOException, SerializerNotFoundException {
     FileLocalStringEnumerator storage = new FileLocalStringEnumerator(false);
     StubInputStream inputStream = new StubInputStream(stream, storage);
     IntEnumerator serializerLocalEnumerator = IntEnumerator.read(inputStream);
-    FileLocalStringEnumerator.readEnumeratedStrings(storage, inputStream, this::intern);
+    BufferExposingByteArrayInputStream source = stream instanceof BufferExposingByteArrayInputStream ? (BufferExposingByteArrayInputStream)stream : null;
+    if (source != null) {
+      FileLocalStringEnumerator.readEnumeratedStrings(storage, source, source.getInternalBuffer(), inputStream, this::intern);
+    }
+    else {
+      FileLocalStringEnumerator.readEnumeratedStrings(storage, inputStream, this::intern);
+    }
 
     int stubFilesCount = DataInputOutputUtil.readINT(inputStream);
     if (stubFilesCount <= 0) {
       Logger.getInstance(getClass()).error("Incorrect stub files count during deserialization:" + stubFilesCount);
     }
 
-    Stub baseStub = deserializeRoot(inputStream, storage, serializerLocalEnumerator);
+    Stub baseStub = deserializeRoot(inputStream, source, storage, serializerLocalEnumerator);
     List<PsiFileStub> stubs = new ArrayList<>(stubFilesCount);
     if (baseStub instanceof PsiFileStub) stubs.add((PsiFileStub)baseStub);
     for (int j = 1; j < stubFilesCount; j++) {
-      Stub deserialize = deserializeRoot(inputStream, storage, serializerLocalEnumerator);
+      Stub deserialize = deserializeRoot(inputStream, source, storage, serializerLocalEnumerator);
       if (deserialize instanceof PsiFileStub) {
         PsiFileStub fileStub = (PsiFileStub)deserialize;
         stubs.add(fileStub);
@@ -184,13 +195,16 @@ public class StubSerializationHelper {
     return baseStub;
   }
 
-  private Stub deserializeRoot(StubInputStream inputStream, FileLocalStringEnumerator storage, IntEnumerator serializerLocalEnumerator) throws IOException, SerializerNotFoundException {
+  private Stub deserializeRoot(StubInputStream inputStream,
+                              @Nullable BufferExposingByteArrayInputStream source,
+                              FileLocalStringEnumerator storage,
+                              IntEnumerator serializerLocalEnumerator) throws IOException, SerializerNotFoundException {
     ObjectStubSerializer<?, Stub> serializer = getClassById(DataInputOutputUtil.readINT(inputStream), null, serializerLocalEnumerator);
     ourRootStubSerializer.set(serializer);
     try {
       Stub stub = serializer.deserialize(inputStream, null);
       if (stub instanceof StubBase) {
-        deserializeStubList((StubBase)stub, serializer, inputStream, storage, serializerLocalEnumerator);
+        deserializeStubList((StubBase)stub, serializer, inputStream, source, storage, serializerLocalEnumerator);
       }
       else {
         deserializeChildren(inputStream, stub, serializerLocalEnumerator);
@@ -216,8 +230,12 @@ public class StubSerializationHelper {
     }
   }
 
-  private void deserializeStubList(StubBase<?> root, ObjectStubSerializer rootType, StubInputStream inputStream, FileLocalStringEnumerator storage, IntEnumerator serializerLocalEnumerator)
-          throws IOException, SerializerNotFoundException {
+  private void deserializeStubList(StubBase<?> root,
+                                   ObjectStubSerializer rootType,
+                                   StubInputStream inputStream,
+                                   @Nullable BufferExposingByteArrayInputStream source,
+                                   FileLocalStringEnumerator storage,
+                                   IntEnumerator serializerLocalEnumerator) throws IOException, SerializerNotFoundException {
     int stubCount = DataInputOutputUtil.readINT(inputStream);
     LazyStubList stubList = new LazyStubList(stubCount, root, rootType);
 
@@ -259,8 +277,19 @@ public class StubSerializationHelper {
         deserializeChildren(0);
       }
     }.deserializeRoot();
-    byte[] serializedStubs = readByteArray(inputStream);
-    stubList.setStubData(new LazyStubData(storage, parentsAndStarts, serializedStubs, allStarts));
+    if (source != null) {
+      int length = DataInputOutputUtil.readINT(inputStream);
+      if (length > source.available()) {
+        throw new EOFException("Serialized stubs length mismatch: " + length + " > " + source.available());
+      }
+      int offset = source.getPosition();
+      source.skip(length);
+      stubList.setStubData(new LazyStubData(storage, parentsAndStarts, source.getInternalBuffer(), offset, length, allStarts));
+    }
+    else {
+      byte[] serializedStubs = readByteArray(inputStream);
+      stubList.setStubData(new LazyStubData(storage, parentsAndStarts, serializedStubs, 0, serializedStubs.length, allStarts));
+    }
   }
 
   private void serializeStubList(StubList stubList, DataOutput out, AbstractStringEnumerator storage, IntEnumerator serializerLocalEnumerator) throws IOException {
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.language.internal;
+
+import consulo.util.collection.primitive.ints.IntList;
+import consulo.util.collection.primitive.ints.IntLists;
+import consulo.util.lang.text.TrigramBuilder;
+import org.jspecify.annotations.Nullable;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TrigramPhraseStartsTest {
+    @Test
+    void testFirstTrigramShiftsOffsets() {
+        IntList starts = TrigramPhraseStarts.intersect(null, IntLists.newArrayList(new int[]{1, 5, 9}), 1);
+
+        assertThat(starts.toArray()).containsExactly(0, 4, 8);
+    }
+
+    @Test
+    void testOffsetsBeforeTextStartAreDropped() {
+        IntList starts = TrigramPhraseStarts.intersect(null, IntLists.newArrayList(new int[]{0, 1, 3}), 2);
+
+        assertThat(starts.toArray()).containsExactly(1);
+    }
+
+    @Test
+    void testIntersection() {
+        IntList starts = IntLists.newArrayList(new int[]{0, 4, 8, 20});
+
+        assertThat(TrigramPhraseStarts.intersect(starts, IntLists.newArrayList(new int[]{6, 10, 11, 30}), 2).toArray()).containsExactly(4, 8);
+        assertThat(TrigramPhraseStarts.intersect(starts, IntLists.newArrayList(new int[]{1, 2, 3}), 0).toArray()).isEmpty();
+        assertThat(TrigramPhraseStarts.intersect(starts, IntLists.newArrayList(), 0).toArray()).isEmpty();
+    }
+
+    @Test
+    void testPhraseStartsInRandomTexts() {
+        Random random = new Random(42);
+        for (int iteration = 0; iteration < 500; iteration++) {
+            String text = randomText(random, 1 + random.nextInt(300));
+            Map<Integer, IntList> index = indexTrigramPositions(text);
+
+            int phraseStart = random.nextInt(text.length());
+            String phrase = text.substring(phraseStart, Math.min(text.length(), phraseStart + 3 + random.nextInt(8)));
+            IntList starts = findPhraseStarts(index, phrase);
+            if (starts == null) {
+                // no trigrams in the phrase
+                continue;
+            }
+
+            List<Integer> actual = occurrences(text, phrase);
+            assertThat(toList(starts)).containsAll(actual);
+            if (phrase.chars().allMatch(Character::isLetter)) {
+                // all the windows of a single word phrase are trigrams, so its starts are exact
+                assertThat(toList(starts)).isEqualTo(actual);
+            }
+        }
+    }
+
+    // the same as the indexer of the trigram position index
+    private static Map<Integer, IntList> indexTrigramPositions(String text) {
+        Map<Integer, IntList> index = new HashMap<>();
+        TrigramBuilder.processTrigramOccurrences(text, (trigram, offset) -> {
+            index.computeIfAbsent(trigram, t -> IntLists.newArrayList(2)).add(offset);
+            return true;
+        });
+        return index;
+    }
+
+    // the same as the find in files search over the index for a single file
+    private static @Nullable IntList findPhraseStarts(Map<Integer, IntList> index, String phrase) {
+        Map<Integer, IntList> trigramOffsets = new LinkedHashMap<>();
+        TrigramBuilder.processTrigramOccurrences(phrase, (trigram, offset) -> {
+            trigramOffsets.computeIfAbsent(trigram, t -> IntLists.newArrayList(1)).add(offset);
+            return true;
+        });
+        if (trigramOffsets.isEmpty()) {
+            return null;
+        }
+
+        IntList starts = null;
+        for (Map.Entry<Integer, IntList> entry : trigramOffsets.entrySet()) {
+            IntList offsets = index.getOrDefault(entry.getKey(), IntLists.newArrayList());
+            IntList offsetsInPhrase = entry.getValue();
+            for (int i = 0; i < offsetsInPhrase.size(); i++) {
+                starts = TrigramPhraseStarts.intersect(starts, offsets, offsetsInPhrase.get(i));
+            }
+        }
+        return starts;
+    }
+
+    private static List<Integer> occurrences(String text, String phrase) {
+        List<Integer> result = new ArrayList<>();
+        for (int i = text.indexOf(phrase); i >= 0; i = text.indexOf(phrase, i + 1)) {
+            result.add(i);
+        }
+        return result;
+    }
+
+    private static List<Integer> toList(IntList list) {
+        List<Integer> result = new ArrayList<>(list.size());
+        for (int i = 0; i < list.size(); i++) {
+            result.add(list.get(i));
+        }
+        return result;
+    }
+
+    private static String randomText(Random random, int length) {
+        String chars = "aab  .";
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append(chars.charAt(random.nextInt(chars.length())));
+        }
+        return builder.toString();
+    }
+}
@@ -24,6 +24,7 @@ import consulo.language.lexer.Lexer;
 import consulo.language.psi.PsiDocumentManager;
 import consulo.language.psi.PsiFile;
 import consulo.language.psi.PsiManager;
+import consulo.language.psi.stub.FileContent;
 import consulo.logging.Logger;
 import consulo.project.Project;
 import consulo.util.dataholder.Key;
@@ -32,12 +33,17 @@ import consulo.virtualFileSystem.VirtualFile;
 import org.jspecify.annotations.Nullable;
 
 import java.lang.ref.WeakReference;
+import java.util.function.Supplier;
 
 /**
+ * Keeps lexed highlighters for caches building: the highlighter of some editor of a document and a detached highlighter
+ * lexed over the file content being indexed, so that indexers of the same content don't lex it again.
+ *
  * @author yole
  */
 public class EditorHighlighterCache {
     private static final Key<WeakReference<EditorHighlighter>> ourSomeEditorSyntaxHighlighter = Key.create("some editor highlighter");
+    private static final Key<EditorHighlighter> ourLexedTextHighlighter = Key.create("lexed text highlighter");
 
     private EditorHighlighterCache() {
     }
@@ -61,10 +67,51 @@ public class EditorHighlighterCache {
         return null;
     }
 
+    /**
+     * Returns a highlighter lexed over the text of the content being indexed. The highlighter is created for the project of the content
+     * and kept in the content, so it's shared by all indexers of the content, and must be used to iterate over tokens only,
+     * its text must not be changed.
+     */
+    public static EditorHighlighter getHighlighterForText(FileContent content) {
+        return getHighlighterForText(content, () -> EditorHighlighterFactory.getInstance().createEditorHighlighter(content.getProject(), content.getFile()));
+    }
+
+    /**
+     * @param factory creates a highlighter for the file when there is no highlighter lexed over the content yet
+     */
+    static EditorHighlighter getHighlighterForText(FileContent content, Supplier<? extends EditorHighlighter> factory) {
+        EditorHighlighter highlighter = content.getUserData(ourLexedTextHighlighter);
+        if (highlighter != null) {
+            return highlighter;
+        }
+
+        highlighter = factory.get();
+        highlighter.setText(content.getContentAsText());
+        if (highlighter instanceof LexerEditorHighlighter) {
+            content.putUserData(ourLexedTextHighlighter, highlighter);
+        }
+        return highlighter;
+    }
+
     public static @Nullable Lexer getLexerBasedOnLexerHighlighter(CharSequence text, VirtualFile virtualFile, Project project) {
+        return getLexerBasedOnLexerHighlighter(text, virtualFile, project, null);
+    }
+
+    /**
+     * Same as {@link #getLexerBasedOnLexerHighlighter(CharSequence, VirtualFile, Project)} for the content being indexed,
+     * the highlighter lexed over the content is shared with other indexers of it, see {@link #getHighlighterForText(FileContent)}.
+     */
+    public static @Nullable Lexer getLexerBasedOnLexerHighlighter(FileContent content) {
+        return getLexerBasedOnLexerHighlighter(content.getContentAsText(), content.getFile(), content.getProject(), content);
+    }
+
+    private static @Nullable Lexer getLexerBasedOnLexerHighlighter(CharSequence text,
+                                                                   VirtualFile virtualFile,
+                                                                   @Nullable Project project,
+                                                                   @Nullable FileContent content) {
         EditorHighlighter highlighter = null;
 
-        PsiFile psiFile = virtualFile != null ? PsiManager.getInstance(project).findFile(virtualFile) : null;
+        PsiFile psiFile = virtualFile != null && project != null ? PsiManager.getInstance(project).findFile(virtualFile) : null;
         Document document = psiFile != null ? PsiDocumentManager.getInstance(project).getDocument(psiFile) : null;
         EditorHighlighter cachedEditorHighlighter;
         boolean alreadyInitializedHighlighter = false;
@@ -75,6 +122,10 @@ public class EditorHighlighterCache {
             highlighter = cachedEditorHighlighter;
             alreadyInitializedHighlighter = true;
         }
+        else if (content != null) {
+            highlighter = getHighlighterForText(content);
+            alreadyInitializedHighlighter = true;
+        }
         else if (virtualFile != null) {
             highlighter = EditorHighlighterFactory.getInstance().createEditorHighlighter(project, virtualFile);
         }
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.language.editor.internal;
+
+import consulo.codeEditor.EditorHighlighter;
+import consulo.language.editor.highlight.LexerEditorHighlighter;
+import consulo.language.psi.stub.FileContent;
+import consulo.util.dataholder.Key;
+import consulo.util.dataholder.UserDataHolderBase;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Indexers of the same content share the highlighter lexed over it.
+ */
+public class EditorHighlighterCacheTest {
+    private static final String TEXT = "// TODO shared";
+
+    @Test
+    void testSecondConsumerReusesHighlighter() {
+        FileContent content = createContent();
+        LexerEditorHighlighter highlighter = mock(LexerEditorHighlighter.class);
+        AtomicInteger created = new AtomicInteger();
+        Supplier<EditorHighlighter> factory = () -> {
+            created.incrementAndGet();
+            return highlighter;
+        };
+
+        EditorHighlighter first = EditorHighlighterCache.getHighlighterForText(content, factory);
+        EditorHighlighter second = EditorHighlighterCache.getHighlighterForText(content, factory);
+
+        assertThat(second).isSameAs(first).isSameAs(highlighter);
+        assertThat(created.get()).isEqualTo(1);
+        verify(highlighter, times(1)).setText(TEXT);
+    }
+
+    @Test
+    void testNotLexerHighlighterIsNotShared() {
+        FileContent content = createContent();
+        AtomicInteger created = new AtomicInteger();
+        Supplier<EditorHighlighter> factory = () -> {
+            created.incrementAndGet();
+            return mock(EditorHighlighter.class);
+        };
+
+        EditorHighlighter first = EditorHighlighterCache.getHighlighterForText(content, factory);
+        EditorHighlighter second = EditorHighlighterCache.getHighlighterForText(content, factory);
+
+        assertThat(second).isNotSameAs(first);
+        assertThat(created.get()).isEqualTo(2);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static FileContent createContent() {
+        UserDataHolderBase userData = new UserDataHolderBase();
+        FileContent content = mock(FileContent.class);
+        when(content.getContentAsText()).thenReturn(TEXT);
+        when(content.getUserData(any())).thenAnswer(invocation -> userData.getUserData(invocation.<Key<Object>>getArgument(0)));
+        doAnswer(invocation -> {
+            userData.putUserData(invocation.<Key<Object>>getArgument(0), invocation.getArgument(1));
+            return null;
+        }).when(content).putUserData(any(), any());
+        return content;
+    }
+}
@@ -47,7 +47,7 @@ import consulo.util.lang.ref.SimpleReference;
 import org.jspecify.annotations.Nullable;
 
 import java.util.AbstractList;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
 import java.util.function.Function;
@@ -71,7 +71,7 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
     private IElementType[] myLexTypes;
     private int myCurrentLexeme;
 
-    private final MyList myProduction = new MyList();
+    private final MarkerProduction myProduction = new MarkerProduction();
 
     private final Lexer myLexer;
     private final TokenSet myWhitespaces;
@@ -109,19 +109,6 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
         }
     });
 
-    private final LimitedPool<DoneMarker> DONE_MARKERS = new LimitedPool<>(2000, new LimitedPool.ObjectFactory<DoneMarker>() {
-        
-        @Override
-        public DoneMarker create() {
-            return new DoneMarker();
-        }
-
-        @Override
-        public void cleanup(DoneMarker doneMarker) {
-            doneMarker.clean();
-        }
-    });
-
     public PsiBuilderImpl(
         @Nullable Project project,
         @Nullable PsiFile containingFile,
@@ -283,9 +270,8 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
     public @Nullable LighterASTNode getLatestDoneMarker() {
         int index = myProduction.size() - 1;
         while (index >= 0) {
-            ProductionMarker marker = myProduction.get(index);
-            if (marker instanceof DoneMarker doneMarker) {
-                return doneMarker.myStart;
+            if (myProduction.isDone(index)) {
+                return myProduction.get(index);
             }
             --index;
         }
@@ -323,7 +309,10 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
     private static class StartMarker extends ProductionMarker implements Marker {
         private PsiBuilderImpl myBuilder;
         private IElementType myType;
-        private DoneMarker myDoneMarker;
+        private int myDoneLexemeIndex = -1;
+        private WhitespacesAndCommentsBinder myDoneEdgeTokenBinder;
+        private boolean myCollapse;
+        private @Nullable LocalizeValue myDoneErrorMessage;
         private Throwable myDebugAllocationPosition;
         private ProductionMarker myFirstChild;
         private ProductionMarker myLastChild;
@@ -331,6 +320,7 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
 
         private StartMarker() {
             myEdgeTokenBinder = WhitespacesBinders.DEFAULT_LEFT_BINDER;
+            myDoneEdgeTokenBinder = WhitespacesBinders.DEFAULT_RIGHT_BINDER;
         }
 
         @Override
@@ -338,7 +328,10 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
             super.clean();
             myBuilder = null;
             myType = null;
-            myDoneMarker = null;
+            myDoneLexemeIndex = -1;
+            myDoneEdgeTokenBinder = WhitespacesBinders.DEFAULT_RIGHT_BINDER;
+            myCollapse = false;
+            myDoneErrorMessage = null;
             myDebugAllocationPosition = null;
             myFirstChild = myLastChild = null;
             myHC = -1;
@@ -363,12 +356,12 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
                     lexIdx = lastLeaf;
                     hc += child.hc();
                     if (child instanceof StartMarker startMarker) {
-                        lexIdx = startMarker.myDoneMarker.myLexemeIndex;
+                        lexIdx = startMarker.myDoneLexemeIndex;
                     }
                     child = child.myNext;
                 }
 
-                for (int i = builder.myLexStarts[lexIdx]; i < builder.myLexStarts[myDoneMarker.myLexemeIndex]; i++) {
+                for (int i = builder.myLexStarts[lexIdx]; i < builder.myLexStarts[myDoneLexemeIndex]; i++) {
                     hc += bufArray != null ? bufArray[i] : buf.charAt(i);
                 }
 
@@ -385,12 +378,16 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
 
         @Override
         public int getEndOffset() {
-            return myBuilder.myLexStarts[myDoneMarker.myLexemeIndex] + myBuilder.myOffset;
+            return myBuilder.myLexStarts[myDoneLexemeIndex] + myBuilder.myOffset;
         }
 
         @Override
         public int getEndIndex() {
-            return myDoneMarker.myLexemeIndex;
+            return myDoneLexemeIndex;
+        }
+
+        private boolean isDone() {
+            return myDoneLexemeIndex >= 0;
         }
 
         public void addChild(ProductionMarker node) {
@@ -441,8 +438,9 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
         public void doneBefore(IElementType type, Marker before, LocalizeValue errorMessage) {
             StartMarker marker = (StartMarker)before;
             myBuilder.myProduction.add(
-                myBuilder.myProduction.lastIndexOf(marker),
-                new ErrorItem(myBuilder, errorMessage, marker.myLexemeIndex)
+                myBuilder.myProduction.lastIndexOf(marker, false),
+                new ErrorItem(myBuilder, errorMessage, marker.myLexemeIndex),
+                false
             );
             doneBefore(type, before);
         }
@@ -477,10 +475,10 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
             }
 
             if (right != null) {
-                if (myDoneMarker == null) {
+                if (!isDone()) {
                     throw new IllegalArgumentException("Cannot set right-edge processor for unclosed marker");
                 }
-                myDoneMarker.myEdgeTokenBinder = right;
+                myDoneEdgeTokenBinder = right;
             }
         }
 
@@ -489,7 +487,7 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
             if (myBuilder == null) {
                 return "<dropped>";
             }
-            boolean isDone = myDoneMarker != null;
+            boolean isDone = isDone();
             CharSequence originalText = myBuilder.getOriginalText();
             int startOffset = getStartOffset() - myBuilder.myOffset;
             int endOffset = isDone ? getEndOffset() - myBuilder.myOffset : myBuilder.getCurrentOffset();
@@ -499,12 +497,12 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
     }
 
     private Marker precede(StartMarker marker) {
-        int idx = myProduction.lastIndexOf(marker);
+        int idx = myProduction.lastIndexOf(marker, false);
         if (idx < 0) {
             LOG.error("Cannot precede dropped or rolled-back marker");
         }
         StartMarker pre = createMarker(marker.myLexemeIndex);
-        myProduction.add(idx, pre);
+        myProduction.add(idx, pre, false);
         return pre;
     }
 
@@ -656,58 +654,6 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
         }
     }
 
-    private static class DoneMarker extends ProductionMarker {
-        private StartMarker myStart;
-        private boolean myCollapse;
-
-        DoneMarker() {
-            myEdgeTokenBinder = WhitespacesBinders.DEFAULT_RIGHT_BINDER;
-        }
-
-        DoneMarker(StartMarker marker, int currentLexeme) {
-            this();
-            myLexemeIndex = currentLexeme;
-            myStart = marker;
-        }
-
-        @Override
-        public void clean() {
-            super.clean();
-            myStart = null;
-            myEdgeTokenBinder = WhitespacesBinders.DEFAULT_RIGHT_BINDER;
-        }
-
-        @Override
-        public int hc() {
-            throw new UnsupportedOperationException("Shall not be called on this kind of markers");
-        }
-
-        @Override
-        public @Nullable IElementType getTokenType() {
-            throw new UnsupportedOperationException("Shall not be called on this kind of markers");
-        }
-
-        @Override
-        public int getEndOffset() {
-            throw new UnsupportedOperationException("Shall not be called on this kind of markers");
-        }
-
-        @Override
-        public int getStartOffset() {
-            throw new UnsupportedOperationException("Shall not be called on this kind of markers");
-        }
-    }
-
-    private static class DoneWithErrorMarker extends DoneMarker {
-        
-        private final LocalizeValue myMessage;
-
-        private DoneWithErrorMarker(StartMarker marker, int currentLexeme, LocalizeValue message) {
-            super(marker, currentLexeme);
-            myMessage = message;
-        }
-    }
-
     private static class ErrorItem extends ProductionMarker {
         private final PsiBuilderImpl myBuilder;
         private final LocalizeValue myMessage;
@@ -929,7 +875,7 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
         }
         StartMarker marker = createMarker(myCurrentLexeme);
 
-        myProduction.add(marker);
+        myProduction.add(marker, false);
         return marker;
     }
 
@@ -957,7 +903,7 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
     private void rollbackTo(Marker marker) {
         myCurrentLexeme = ((StartMarker)marker).myLexemeIndex;
         myTokenTypeChecked = true;
-        int idx = myProduction.lastIndexOf(marker);
+        int idx = myProduction.lastIndexOf((StartMarker)marker, false);
         if (idx < 0) {
             LOG.error("The marker must be added before rolled back to.");
         }
@@ -971,13 +917,13 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
      */
     public boolean hasErrorsAfter(Marker marker) {
         assert marker instanceof StartMarker;
-        int idx = myProduction.lastIndexOf(marker);
+        int idx = myProduction.lastIndexOf((StartMarker)marker, false);
         if (idx < 0) {
             LOG.error("The marker must be added before checked for errors.");
         }
         for (int i = idx + 1; i < myProduction.size(); ++i) {
             ProductionMarker m = myProduction.get(i);
-            if (m instanceof ErrorItem || m instanceof DoneWithErrorMarker) {
+            if (m instanceof ErrorItem || myProduction.isDone(i) && ((StartMarker)m).myDoneErrorMessage != null) {
                 return true;
             }
         }
@@ -985,12 +931,11 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
     }
 
     public void drop(Marker marker) {
-        DoneMarker doneMarker = ((StartMarker)marker).myDoneMarker;
-        if (doneMarker != null) {
-            myProduction.remove(myProduction.lastIndexOf(doneMarker));
-            DONE_MARKERS.recycle(doneMarker);
+        StartMarker startMarker = (StartMarker)marker;
+        if (startMarker.isDone()) {
+            myProduction.remove(myProduction.lastIndexOf(startMarker, true));
         }
-        boolean removed = myProduction.remove(myProduction.lastIndexOf(marker)) == marker;
+        boolean removed = myProduction.remove(myProduction.lastIndexOf(startMarker, false)) == marker;
         if (!removed) {
             LOG.error("The marker must be added before it is dropped.");
         }
@@ -1001,65 +946,59 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
         doValidityChecks(marker, null);
 
         StartMarker startMarker = (StartMarker)marker;
-        DoneWithErrorMarker doneMarker = new DoneWithErrorMarker(startMarker, myCurrentLexeme, message);
         boolean tieToTheLeft = isEmpty(startMarker.myLexemeIndex, myCurrentLexeme);
         if (tieToTheLeft) {
             startMarker.myEdgeTokenBinder = WhitespacesBinders.DEFAULT_RIGHT_BINDER;
         }
 
-        startMarker.myDoneMarker = doneMarker;
-        myProduction.add(doneMarker);
+        startMarker.myDoneLexemeIndex = myCurrentLexeme;
+        startMarker.myDoneErrorMessage = message;
+        myProduction.add(startMarker, true);
     }
 
     private void errorBefore(Marker marker, LocalizeValue message, Marker before) {
         doValidityChecks(marker, before);
 
-        @SuppressWarnings("SuspiciousMethodCalls") int beforeIndex = myProduction.lastIndexOf(before);
-
         StartMarker startMarker = (StartMarker)marker, beforeStartMarker = (StartMarker)before;
-        DoneWithErrorMarker doneMarker = new DoneWithErrorMarker(startMarker, beforeStartMarker.myLexemeIndex, message);
+        int beforeIndex = myProduction.lastIndexOf(beforeStartMarker, false);
+
         boolean tieToTheLeft = isEmpty(startMarker.myLexemeIndex, beforeStartMarker.myLexemeIndex);
         if (tieToTheLeft) {
             startMarker.myEdgeTokenBinder = WhitespacesBinders.DEFAULT_RIGHT_BINDER;
         }
 
-        startMarker.myDoneMarker = doneMarker;
-        myProduction.add(beforeIndex, doneMarker);
+        startMarker.myDoneLexemeIndex = beforeStartMarker.myLexemeIndex;
+        startMarker.myDoneErrorMessage = message;
+        myProduction.add(beforeIndex, startMarker, true);
     }
 
     public void done(Marker marker) {
         doValidityChecks(marker, null);
 
         StartMarker startMarker = (StartMarker)marker;
-        DoneMarker doneMarker = DONE_MARKERS.alloc();
-        doneMarker.myStart = startMarker;
-        doneMarker.myLexemeIndex = myCurrentLexeme;
-        boolean tieToTheLeft = doneMarker.myStart.myType.isLeftBound() && isEmpty(startMarker.myLexemeIndex, myCurrentLexeme);
+        boolean tieToTheLeft = startMarker.myType.isLeftBound() && isEmpty(startMarker.myLexemeIndex, myCurrentLexeme);
         if (tieToTheLeft) {
             startMarker.myEdgeTokenBinder = WhitespacesBinders.DEFAULT_RIGHT_BINDER;
         }
 
-        startMarker.myDoneMarker = doneMarker;
-        myProduction.add(doneMarker);
+        startMarker.myDoneLexemeIndex = myCurrentLexeme;
+        myProduction.add(startMarker, true);
     }
 
     public void doneBefore(Marker marker, Marker before) {
         doValidityChecks(marker, before);
 
-        @SuppressWarnings("SuspiciousMethodCalls") int beforeIndex = myProduction.lastIndexOf(before);
-
         StartMarker startMarker = (StartMarker)marker, beforeStartMarker = (StartMarker)before;
-        DoneMarker doneMarker = DONE_MARKERS.alloc();
-        doneMarker.myLexemeIndex = beforeStartMarker.myLexemeIndex;
-        doneMarker.myStart = startMarker;
+        int beforeIndex = myProduction.lastIndexOf(beforeStartMarker, false);
+
         boolean tieToTheLeft =
-            doneMarker.myStart.myType.isLeftBound() && isEmpty(startMarker.myLexemeIndex, beforeStartMarker.myLexemeIndex);
+            startMarker.myType.isLeftBound() && isEmpty(startMarker.myLexemeIndex, beforeStartMarker.myLexemeIndex);
         if (tieToTheLeft) {
             startMarker.myEdgeTokenBinder = WhitespacesBinders.DEFAULT_RIGHT_BINDER;
         }
 
-        startMarker.myDoneMarker = doneMarker;
-        myProduction.add(beforeIndex, doneMarker);
+        startMarker.myDoneLexemeIndex = beforeStartMarker.myLexemeIndex;
+        myProduction.add(beforeIndex, startMarker, true);
     }
 
     private boolean isEmpty(int startIdx, int endIdx) {
@@ -1074,14 +1013,13 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
 
     public void collapse(Marker marker) {
         done(marker);
-        ((StartMarker)marker).myDoneMarker.myCollapse = true;
+        ((StartMarker)marker).myCollapse = true;
     }
 
     @SuppressWarnings("ThrowableResultOfMethodCallIgnored")
     private void doValidityChecks(Marker marker, @Nullable Marker before) {
         StartMarker startMarker = (StartMarker)marker;
-        DoneMarker doneMarker = startMarker.myDoneMarker;
-        if (doneMarker != null) {
+        if (startMarker.isDone()) {
             LOG.error("Marker already done.");
         }
 
@@ -1089,15 +1027,14 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
             return;
         }
 
-        int idx = myProduction.lastIndexOf(marker);
+        int idx = myProduction.lastIndexOf(startMarker, false);
         if (idx < 0) {
             LOG.error("Marker has never been added.");
         }
 
         int endIdx = myProduction.size();
         if (before != null) {
-            //noinspection SuspiciousMethodCalls
-            endIdx = myProduction.lastIndexOf(before);
+            endIdx = myProduction.lastIndexOf((StartMarker)before, false);
             if (endIdx < 0) {
                 LOG.error("'Before' marker has never been added.");
             }
@@ -1108,7 +1045,7 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
 
         for (int i = endIdx - 1; i > idx; i--) {
             Object item = myProduction.get(i);
-            if (item instanceof StartMarker otherMarker && otherMarker.myDoneMarker == null) {
+            if (item instanceof StartMarker otherMarker && !otherMarker.isDone()) {
                 Throwable debugAllocOther = otherMarker.myDebugAllocationPosition;
                 Throwable debugAllocThis = startMarker.myDebugAllocationPosition;
                 if (debugAllocOther != null) {
@@ -1127,7 +1064,7 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
         if (lastMarker instanceof ErrorItem && lastMarker.myLexemeIndex == myCurrentLexeme) {
             return;
         }
-        myProduction.add(new ErrorItem(this, messageText, myCurrentLexeme));
+        myProduction.add(new ErrorItem(this, messageText, myCurrentLexeme), false);
     }
 
     @Override
@@ -1260,6 +1197,13 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
                 LOG.error("Unexpected end of the production");
             }
 
+            if (myProduction.isDone(i)) {
+                assertMarkersBalanced(item == curNode, item);
+                curNode = nodes.pop();
+                curDepth--;
+                continue;
+            }
+
             item.myParent = curNode;
             if (item instanceof StartMarker marker) {
                 marker.myFirstChild = marker.myLastChild = marker.myNext = null;
@@ -1271,11 +1215,6 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
                     maxDepth = curDepth;
                 }
             }
-            else if (item instanceof DoneMarker doneMarker) {
-                assertMarkersBalanced(doneMarker.myStart == curNode, item);
-                curNode = nodes.pop();
-                curDepth--;
-            }
             else if (item instanceof ErrorItem) {
                 int curToken = item.myLexemeIndex;
                 if (curToken == lastErrorIndex) {
@@ -1294,8 +1233,8 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
             );
         }
 
-        if (rootMarker.myDoneMarker.myLexemeIndex < myLexemeCount) {
-            List<IElementType> missed = ContainerUtil.newArrayList(myLexTypes, rootMarker.myDoneMarker.myLexemeIndex, myLexemeCount);
+        if (rootMarker.myDoneLexemeIndex < myLexemeCount) {
+            List<IElementType> missed = ContainerUtil.newArrayList(myLexTypes, rootMarker.myDoneLexemeIndex, myLexemeCount);
             LOG.error("Tokens " + missed + " are outside of root element \"" + rootMarker.myType + "\". Text:\n" + myText);
         }
 
@@ -1334,27 +1273,29 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
 
         for (int i = 1, size = myProduction.size() - 1; i < size; i++) {
             ProductionMarker item = myProduction.get(i);
-            if (item instanceof StartMarker startMarker) {
-                assertMarkersBalanced(startMarker.myDoneMarker != null, item);
+            if (item instanceof StartMarker startMarker && !myProduction.isDone(i)) {
+                assertMarkersBalanced(startMarker.isDone(), item);
             }
 
-            boolean recursive = item.myEdgeTokenBinder instanceof WhitespacesAndCommentsBinder.RecursiveBinder;
-            int prevProductionLexIndex = recursive ? 0 : myProduction.get(i - 1).myLexemeIndex;
-            int wsStartIndex = Math.max(item.myLexemeIndex, lastIndex);
+            WhitespacesAndCommentsBinder edgeTokenBinder = myProduction.getEdgeTokenBinder(i);
+            int lexemeIndex = myProduction.getLexemeIndex(i);
+            boolean recursive = edgeTokenBinder instanceof WhitespacesAndCommentsBinder.RecursiveBinder;
+            int prevProductionLexIndex = recursive ? 0 : myProduction.getLexemeIndex(i - 1);
+            int wsStartIndex = Math.max(lexemeIndex, lastIndex);
             while (wsStartIndex > prevProductionLexIndex && whitespaceOrComment(myLexTypes[wsStartIndex - 1])) wsStartIndex--;
-            int wsEndIndex = item.myLexemeIndex;
+            int wsEndIndex = lexemeIndex;
             while (wsEndIndex < myLexemeCount && whitespaceOrComment(myLexTypes[wsEndIndex])) wsEndIndex++;
 
             if (wsStartIndex != wsEndIndex) {
                 wsTokens.configure(wsStartIndex, wsEndIndex);
                 tokenTextGetter.configure(wsStartIndex);
                 boolean atEnd = wsStartIndex == 0 || wsEndIndex == myLexemeCount;
-                item.myLexemeIndex = wsStartIndex + item.myEdgeTokenBinder.getEdgePosition(wsTokens, atEnd, tokenTextGetter);
+                lexemeIndex = wsStartIndex + edgeTokenBinder.getEdgePosition(wsTokens, atEnd, tokenTextGetter);
+                myProduction.setLexemeIndex(i, lexemeIndex);
                 if (recursive) {
                     for (int k = i - 1; k > 1; k--) {
-                        ProductionMarker prev = myProduction.get(k);
-                        if (prev.myLexemeIndex >= item.myLexemeIndex) {
-                            prev.myLexemeIndex = item.myLexemeIndex;
+                        if (myProduction.getLexemeIndex(k) >= lexemeIndex) {
+                            myProduction.setLexemeIndex(k, lexemeIndex);
                         }
                         else {
                             break;
@@ -1362,11 +1303,12 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
                     }
                 }
             }
-            else if (item.myLexemeIndex < wsStartIndex) {
-                item.myLexemeIndex = wsStartIndex;
+            else if (lexemeIndex < wsStartIndex) {
+                lexemeIndex = wsStartIndex;
+                myProduction.setLexemeIndex(i, lexemeIndex);
             }
 
-            lastIndex = item.myLexemeIndex;
+            lastIndex = lexemeIndex;
         }
     }
 
@@ -1425,23 +1367,31 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
         CompositeElement curNode = rootNode;
 
         int lexIndex = rootMarker.myLexemeIndex;
-        ProductionMarker item = rootMarker.myFirstChild != null ? rootMarker.myFirstChild : rootMarker.myDoneMarker;
+        ProductionMarker item = rootMarker.myFirstChild;
         while (true) {
-            lexIndex = insertLeaves(lexIndex, item.myLexemeIndex, curNode);
-
-            if (item == rootMarker.myDoneMarker) {
-                break;
+            if (item == null) {
+                // all children of the current marker are bound, proceed after its end
+                lexIndex = insertLeaves(lexIndex, curMarker.myDoneLexemeIndex, curNode);
+                if (curMarker == rootMarker) {
+                    break;
+                }
+                item = curMarker.myNext;
+                curMarker = (StartMarker)curMarker.myParent;
+                curNode = curNode.getTreeParent();
+                continue;
             }
 
+            lexIndex = insertLeaves(lexIndex, item.myLexemeIndex, curNode);
+
             if (item instanceof StartMarker marker) {
-                if (!marker.myDoneMarker.myCollapse) {
+                if (!marker.myCollapse) {
                     curMarker = marker;
 
                     CompositeElement childNode = createComposite(marker);
                     curNode.rawAddChildrenWithoutNotifications(childNode);
                     curNode = childNode;
 
-                    item = marker.myFirstChild != null ? marker.myFirstChild : marker.myDoneMarker;
+                    item = marker.myFirstChild;
                     continue;
                 }
                 else {
@@ -1452,13 +1402,8 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
                 CompositeElement errorElement = Factory.createErrorElement(errorItem.myMessage);
                 curNode.rawAddChildrenWithoutNotifications(errorElement);
             }
-            else if (item instanceof DoneMarker doneMarker) {
-                curMarker = (StartMarker)doneMarker.myStart.myParent;
-                curNode = curNode.getTreeParent();
-                item = doneMarker.myStart;
-            }
 
-            item = item.myNext != null ? item.myNext : curMarker.myDoneMarker;
+            item = item.myNext;
         }
     }
 
@@ -1509,9 +1454,7 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
     private static CompositeElement createComposite(StartMarker marker) {
         IElementType type = marker.myType;
         if (type == TokenType.ERROR_ELEMENT) {
-            LocalizeValue message = marker.myDoneMarker instanceof DoneWithErrorMarker doneErrorMarker
-                ? doneErrorMarker.myMessage
-                : LocalizeValue.empty();
+            LocalizeValue message = marker.myDoneErrorMessage != null ? marker.myDoneErrorMessage : LocalizeValue.empty();
             return Factory.createErrorElement(message);
         }
 
@@ -1540,8 +1483,8 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
         }
         if (node instanceof StartMarker marker
             && marker.myType == TokenType.ERROR_ELEMENT
-            && marker.myDoneMarker instanceof DoneWithErrorMarker doneMarker) {
-            return doneMarker.myMessage;
+            && marker.myDoneErrorMessage != null) {
+            return marker.myDoneErrorMessage;
         }
 
         return LocalizeValue.empty();
@@ -1762,8 +1705,8 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
             while (child != null) {
                 lexIndex = insertLeaves(lexIndex, child.myLexemeIndex, marker.myBuilder, marker);
 
-                if (child instanceof StartMarker childStartMarker && childStartMarker.myDoneMarker.myCollapse) {
-                    int lastIndex = childStartMarker.myDoneMarker.myLexemeIndex;
+                if (child instanceof StartMarker childStartMarker && childStartMarker.myCollapse) {
+                    int lastIndex = childStartMarker.myDoneLexemeIndex;
                     insertLeaf(child.getTokenType(), marker.myBuilder, child.myLexemeIndex, lastIndex, true, marker);
                 }
                 else {
@@ -1772,12 +1715,12 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
                 }
 
                 if (child instanceof StartMarker childStartMarker) {
-                    lexIndex = childStartMarker.myDoneMarker.myLexemeIndex;
+                    lexIndex = childStartMarker.myDoneLexemeIndex;
                 }
                 child = child.myNext;
             }
 
-            insertLeaves(lexIndex, marker.myDoneMarker.myLexemeIndex, marker.myBuilder, marker);
+            insertLeaves(lexIndex, marker.myDoneLexemeIndex, marker.myBuilder, marker);
             into.set(nodes == null ? LighterASTNode.EMPTY_ARRAY : nodes);
             nodes = null;
 
@@ -1971,15 +1914,92 @@ public class PsiBuilderImpl extends UnprotectedUserDataHolder implements PsiBuil
         myFile = containingFile;
     }
 
-    private static class MyList extends ArrayList<ProductionMarker> {
-        // make removeRange method available.
-        @Override
-        protected void removeRange(int fromIndex, int toIndex) {
-            super.removeRange(fromIndex, toIndex);
+    /**
+     * Production of the parser: start markers, error items and done entries of start markers, in the order of their positions.
+     * A done entry refers to its start marker, whose done state is kept in the marker itself, so finishing a marker doesn't allocate.
+     */
+    private static final class MarkerProduction {
+        private ProductionMarker[] myMarkers = new ProductionMarker[256];
+        private boolean[] myDone = new boolean[256];
+        private int mySize;
+
+        int size() {
+            return mySize;
+        }
+
+        boolean isEmpty() {
+            return mySize == 0;
+        }
+
+        ProductionMarker get(int index) {
+            return myMarkers[index];
+        }
+
+        /**
+         * @return whether the entry is the done entry of a {@link StartMarker}
+         */
+        boolean isDone(int index) {
+            return myDone[index];
+        }
+
+        int getLexemeIndex(int index) {
+            return myDone[index] ? ((StartMarker)myMarkers[index]).myDoneLexemeIndex : myMarkers[index].myLexemeIndex;
+        }
+
+        void setLexemeIndex(int index, int lexemeIndex) {
+            if (myDone[index]) {
+                ((StartMarker)myMarkers[index]).myDoneLexemeIndex = lexemeIndex;
+            }
+            else {
+                myMarkers[index].myLexemeIndex = lexemeIndex;
+            }
+        }
+
+        WhitespacesAndCommentsBinder getEdgeTokenBinder(int index) {
+            return myDone[index] ? ((StartMarker)myMarkers[index]).myDoneEdgeTokenBinder : myMarkers[index].myEdgeTokenBinder;
         }
 
-        private MyList() {
-            super(256);
+        void add(ProductionMarker marker, boolean done) {
+            add(mySize, marker, done);
+        }
+
+        void add(int index, ProductionMarker marker, boolean done) {
+            if (mySize == myMarkers.length) {
+                int capacity = mySize * 3 / 2;
+                myMarkers = Arrays.copyOf(myMarkers, capacity);
+                myDone = Arrays.copyOf(myDone, capacity);
+            }
+            System.arraycopy(myMarkers, index, myMarkers, index + 1, mySize - index);
+            System.arraycopy(myDone, index, myDone, index + 1, mySize - index);
+            myMarkers[index] = marker;
+            myDone[index] = done;
+            mySize++;
+        }
+
+        ProductionMarker remove(int index) {
+            ProductionMarker marker = myMarkers[index];
+            removeRange(index, index + 1);
+            return marker;
+        }
+
+        void removeRange(int fromIndex, int toIndex) {
+            System.arraycopy(myMarkers, toIndex, myMarkers, fromIndex, mySize - toIndex);
+            System.arraycopy(myDone, toIndex, myDone, fromIndex, mySize - toIndex);
+            int newSize = mySize - (toIndex - fromIndex);
+            Arrays.fill(myMarkers, newSize, mySize, null);
+            mySize = newSize;
+        }
+
+        /**
+         * @return index of the start (or done) entry of the marker, -1 if the marker isn't in the production
+         */
+        int lastIndexOf(ProductionMarker marker, boolean done) {
+            for (int i = mySize - 1; i >= 0; i--) {
+                if (myMarkers[i] == marker && myDone[i] == done) {
+                    return i;
+                }
+            }
+            return -1;
         }
     }
 
@@ -0,0 +1,497 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.language.impl.internal.parser;
+
+import consulo.application.Application;
+import consulo.application.ApplicationManager;
+import consulo.application.progress.ProgressIndicator;
+import consulo.application.progress.ProgressIndicatorProvider;
+import consulo.component.extension.ExtensionPoint;
+import consulo.language.Language;
+import consulo.language.ast.ASTNode;
+import consulo.language.ast.IElementType;
+import consulo.language.ast.IFileElementType;
+import consulo.language.ast.LighterASTNode;
+import consulo.language.ast.TokenSet;
+import consulo.language.ast.TokenType;
+import consulo.language.file.FileViewProvider;
+import consulo.language.impl.ast.ASTCompositeFactory;
+import consulo.language.impl.ast.ASTLeafFactory;
+import consulo.language.impl.ast.CompositeElement;
+import consulo.language.impl.ast.LeafElement;
+import consulo.language.impl.internal.ast.DefaultASTCompositeFactory;
+import consulo.language.impl.psi.LeafPsiElement;
+import consulo.language.lexer.Lexer;
+import consulo.language.lexer.LexerBase;
+import consulo.language.parser.ParserDefinition;
+import consulo.language.parser.PsiBuilder;
+import consulo.language.parser.PsiParser;
+import consulo.language.parser.WhitespacesAndCommentsBinder;
+import consulo.language.parser.WhitespacesBinders;
+import consulo.language.psi.PsiFile;
+import consulo.language.util.FlyweightCapableTreeStructure;
+import consulo.language.version.LanguageVersion;
+import consulo.util.lang.ref.SimpleReference;
+import org.jspecify.annotations.Nullable;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.BiFunction;
+import java.util.function.Predicate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Builds random marker trees and checks that the AST bound from the production has the same shape and offsets
+ * as the light tree and as the trees the markers describe.
+ */
+public class PsiBuilderImplTest {
+    private static final int MAX_DEPTH = 5;
+
+    private static final Language LANGUAGE = new TestLanguage();
+    private static final LanguageVersion LANGUAGE_VERSION = new LanguageVersion("DEFAULT", "DEFAULT", LANGUAGE);
+
+    private static final IElementType WORD = new IElementType("WORD", LANGUAGE);
+    private static final IElementType COMMENT = new IElementType("COMMENT", LANGUAGE);
+    private static final IElementType ROOT = new IElementType("ROOT", LANGUAGE);
+    private static final IElementType NODE = new IElementType("NODE", LANGUAGE);
+    private static final IElementType COLLAPSED = new IElementType("COLLAPSED", LANGUAGE);
+
+    private static final WhitespacesAndCommentsBinder[] BINDERS = {
+        null,
+        WhitespacesBinders.GREEDY_LEFT_BINDER,
+        WhitespacesBinders.GREEDY_RIGHT_BINDER
+    };
+
+    @Test
+    void testRandomMarkerTrees() {
+        ApplicationManager.setApplication(createApplication());
+        try {
+            for (int seed = 0; seed < 3000; seed++) {
+                String text = generateText(new Random(seed));
+
+                PsiBuilder astBuilder = createBuilder(text);
+                Expected expected = new Generator(astBuilder, new Random(seed)).parseRoot();
+                ASTNode ast = astBuilder.getTreeBuilt();
+
+                PsiBuilder lightBuilder = createBuilder(text);
+                new Generator(lightBuilder, new Random(seed)).parseRoot();
+                FlyweightCapableTreeStructure<LighterASTNode> lightTree = lightBuilder.getLightTree();
+
+                assertThat(ast.getText()).as("seed %d", seed).isEqualTo(text);
+                assertThat(shape(ast)).as("seed %d", seed).isEqualTo(expected.toString());
+                assertSameTree(text, ast, lightTree, lightTree.getRoot(), seed);
+            }
+        }
+        finally {
+            ApplicationManager.setApplication(null);
+        }
+    }
+
+    private static void assertSameTree(
+        String text,
+        ASTNode node,
+        FlyweightCapableTreeStructure<LighterASTNode> lightTree,
+        LighterASTNode lightNode,
+        int seed
+    ) {
+        int start = node.getStartOffset();
+        int end = start + node.getTextLength();
+        assertThat(lightNode.getTokenType()).as("seed %d", seed).isEqualTo(node.getElementType());
+        assertThat(lightNode.getStartOffset()).as("seed %d, %s", seed, node).isEqualTo(start);
+        assertThat(lightNode.getEndOffset()).as("seed %d, %s", seed, node).isEqualTo(end);
+        assertThat(node.getText()).as("seed %d, %s", seed, node).isEqualTo(text.substring(start, end));
+
+        SimpleReference<LighterASTNode[]> lightChildren = SimpleReference.create();
+        int count = lightTree.getChildren(lightNode, lightChildren);
+        ASTNode[] children = node.getChildren(null);
+        assertThat(count).as("seed %d, %s", seed, node).isEqualTo(children.length);
+        for (int i = 0; i < count; i++) {
+            assertSameTree(text, children[i], lightTree, lightChildren.get()[i], seed);
+        }
+    }
+
+    /**
+     * Renders the composite and collapsed nodes of the AST, leaving out the plain tokens,
+     * in the same form as {@link Expected#toString()}.
+     */
+    private static String shape(ASTNode node) {
+        List<String> children = new ArrayList<>();
+        for (ASTNode child : node.getChildren(null)) {
+            if (child instanceof CompositeElement || child.getElementType() == COLLAPSED) {
+                children.add(shape(child));
+            }
+        }
+        return Expected.render(node.getElementType(), children);
+    }
+
+    private static String generateText(Random random) {
+        StringBuilder text = new StringBuilder();
+        int pieces = random.nextInt(40);
+        for (int i = 0; i < pieces; i++) {
+            switch (random.nextInt(4)) {
+                case 0 -> text.append(random.nextBoolean() ? " " : "\n ");
+                case 1 -> text.append("#c ");
+                default -> text.append((char)('a' + random.nextInt(3))).append(' ');
+            }
+        }
+        return text.toString();
+    }
+
+    private static PsiBuilder createBuilder(String text) {
+        return new PsiBuilderImpl(null, null, new TestParserDefinition(), new TestLexer(), LANGUAGE_VERSION, null, text, null, null);
+    }
+
+    private static Application createApplication() {
+        ProgressIndicatorProvider progressManager = new ProgressIndicatorProvider() {
+            @Override
+            public @Nullable ProgressIndicator getProgressIndicator() {
+                return null;
+            }
+
+            @Override
+            protected void doCheckCanceled() {
+            }
+        };
+        Map<Class<?>, Object> extensions = Map.of(
+            ASTCompositeFactory.class, new DefaultASTCompositeFactory(),
+            ASTLeafFactory.class, new TestLeafFactory()
+        );
+        return proxy(Application.class, (method, args) -> switch (method.getName()) {
+            case "getProgressManager" -> progressManager;
+            case "isReadAccessAllowed" -> true;
+            case "getExtensionPoint" -> extensionPoint(extensions.get(args[0]));
+            default -> method.getReturnType() == boolean.class ? Boolean.FALSE : unsupported(method);
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ExtensionPoint<Object> extensionPoint(Object extension) {
+        return proxy(ExtensionPoint.class, (method, args) -> switch (method.getName()) {
+            case "findFirstSafe" -> ((Predicate<Object>)args[0]).test(extension) ? extension : null;
+            default -> unsupported(method);
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, BiFunction<Method, Object[], Object> handler) {
+        return (T)Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> switch (method.getName()) {
+            case "hashCode" -> System.identityHashCode(proxy);
+            case "equals" -> proxy == args[0];
+            case "toString" -> type.getSimpleName();
+            default -> handler.apply(method, args);
+        });
+    }
+
+    private static Object unsupported(Method method) {
+        throw new UnsupportedOperationException(method.toString());
+    }
+
+    /**
+     * Drives the builder with random marker operations and records the composite nodes they should produce.
+     */
+    private static final class Generator {
+        private final PsiBuilder myBuilder;
+        private final Random myRandom;
+        private int myAdvanced;
+        private int myLastErrorAt = -1;
+
+        private Generator(PsiBuilder builder, Random random) {
+            myBuilder = builder;
+            myRandom = random;
+        }
+
+        Expected parseRoot() {
+            PsiBuilder.Marker root = myBuilder.mark();
+            List<Expected> children = new ArrayList<>();
+            while (!myBuilder.eof()) {
+                parseChildren(0, children);
+                advance();
+            }
+            root.done(ROOT);
+            return new Expected(ROOT, children, root);
+        }
+
+        private void parseChildren(int depth, List<Expected> into) {
+            while (!myBuilder.eof() && myRandom.nextInt(5) != 0) {
+                switch (myRandom.nextInt(depth < MAX_DEPTH ? 10 : 3)) {
+                    case 0, 1 -> advance();
+                    case 2 -> error(into);
+                    case 3, 4 -> done(depth, into);
+                    case 5 -> precede(depth, into);
+                    case 6 -> collapse(into);
+                    case 7 -> drop(depth, into);
+                    case 8 -> doneBefore(depth, into);
+                    default -> rollback(depth);
+                }
+            }
+        }
+
+        private void advance() {
+            if (!myBuilder.eof()) {
+                myBuilder.advanceLexer();
+                myAdvanced++;
+            }
+        }
+
+        private void error(List<Expected> into) {
+            // errors reported at the same token are merged by the builder
+            if (myLastErrorAt < myAdvanced) {
+                myLastErrorAt = myAdvanced;
+                myBuilder.error("error");
+                into.add(new Expected(TokenType.ERROR_ELEMENT, List.of(), null));
+            }
+        }
+
+        private void done(int depth, List<Expected> into) {
+            PsiBuilder.Marker marker = myBuilder.mark();
+            List<Expected> children = new ArrayList<>();
+            parseChildren(depth + 1, children);
+            if (myRandom.nextBoolean()) {
+                marker.done(NODE);
+                marker.setCustomEdgeTokenBinders(BINDERS[myRandom.nextInt(BINDERS.length)], BINDERS[myRandom.nextInt(BINDERS.length)]);
+                into.add(new Expected(NODE, children, marker));
+            }
+            else {
+                marker.error("error");
+                into.add(new Expected(TokenType.ERROR_ELEMENT, children, marker));
+            }
+        }
+
+        private void precede(int depth, List<Expected> into) {
+            Expected last = into.isEmpty() ? null : into.get(into.size() - 1);
+            if (last == null || last.myMarker == null) {
+                advance();
+                return;
+            }
+            PsiBuilder.Marker marker = last.myMarker.precede();
+            List<Expected> children = new ArrayList<>();
+            children.add(last);
+            parseChildren(depth + 1, children);
+            marker.done(NODE);
+            into.set(into.size() - 1, new Expected(NODE, children, marker));
+        }
+
+        private void collapse(List<Expected> into) {
+            PsiBuilder.Marker marker = myBuilder.mark();
+            for (int i = myRandom.nextInt(3); i > 0; i--) {
+                advance();
+            }
+            marker.collapse(COLLAPSED);
+            into.add(new Expected(COLLAPSED, List.of(), marker));
+        }
+
+        private void drop(int depth, List<Expected> into) {
+            PsiBuilder.Marker marker = myBuilder.mark();
+            List<Expected> children = new ArrayList<>();
+            parseChildren(depth + 1, children);
+            marker.drop();
+            into.addAll(children);
+        }
+
+        private void doneBefore(int depth, List<Expected> into) {
+            PsiBuilder.Marker marker = myBuilder.mark();
+            List<Expected> children = new ArrayList<>();
+            parseChildren(depth + 1, children);
+            PsiBuilder.Marker before = myBuilder.mark();
+            List<Expected> following = new ArrayList<>();
+            parseChildren(depth + 1, following);
+            if (myRandom.nextBoolean()) {
+                marker.doneBefore(NODE, before);
+                into.add(new Expected(NODE, children, marker));
+            }
+            else {
+                marker.errorBefore("error", before);
+                into.add(new Expected(TokenType.ERROR_ELEMENT, children, marker));
+            }
+            before.drop();
+            into.addAll(following);
+        }
+
+        private void rollback(int depth) {
+            int advanced = myAdvanced;
+            int lastErrorAt = myLastErrorAt;
+            PsiBuilder.Marker marker = myBuilder.mark();
+            parseChildren(depth + 1, new ArrayList<>());
+            marker.rollbackTo();
+            myAdvanced = advanced;
+            myLastErrorAt = lastErrorAt;
+        }
+    }
+
+    private static final class Expected {
+        private final IElementType myType;
+        private final List<Expected> myChildren;
+        private final PsiBuilder.@Nullable Marker myMarker;
+
+        private Expected(IElementType type, List<Expected> children, PsiBuilder.@Nullable Marker marker) {
+            myType = type;
+            myChildren = children;
+            myMarker = marker;
+        }
+
+        static String render(IElementType type, List<String> children) {
+            return children.isEmpty() ? type.toString() : type + "(" + String.join(" ", children) + ")";
+        }
+
+        @Override
+        public String toString() {
+            List<String> children = new ArrayList<>();
+            for (Expected child : myChildren) {
+                children.add(child.toString());
+            }
+            return render(myType, children);
+        }
+    }
+
+    private static final class TestLanguage extends Language {
+        private TestLanguage() {
+            super("PSI_BUILDER_TEST");
+        }
+    }
+
+    /**
+     * Single letter words, runs of whitespace and {@code #} comments up to the next whitespace.
+     */
+    private static final class TestLexer extends LexerBase {
+        private CharSequence myBuffer = "";
+        private int myEnd;
+        private int myTokenStart;
+        private int myTokenEnd;
+        private @Nullable IElementType myTokenType;
+
+        @Override
+        public void start(CharSequence buffer, int startOffset, int endOffset, int initialState) {
+            myBuffer = buffer;
+            myEnd = endOffset;
+            myTokenEnd = startOffset;
+            advance();
+        }
+
+        @Override
+        public int getState() {
+            return 0;
+        }
+
+        @Override
+        public @Nullable IElementType getTokenType() {
+            return myTokenType;
+        }
+
+        @Override
+        public int getTokenStart() {
+            return myTokenStart;
+        }
+
+        @Override
+        public int getTokenEnd() {
+            return myTokenEnd;
+        }
+
+        @Override
+        public void advance() {
+            myTokenStart = myTokenEnd;
+            if (myTokenStart >= myEnd) {
+                myTokenType = null;
+                return;
+            }
+            char c = myBuffer.charAt(myTokenStart);
+            myTokenEnd = myTokenStart + 1;
+            if (Character.isWhitespace(c)) {
+                while (myTokenEnd < myEnd && Character.isWhitespace(myBuffer.charAt(myTokenEnd))) {
+                    myTokenEnd++;
+                }
+                myTokenType = TokenType.WHITE_SPACE;
+            }
+            else if (c == '#') {
+                while (myTokenEnd < myEnd && !Character.isWhitespace(myBuffer.charAt(myTokenEnd))) {
+                    myTokenEnd++;
+                }
+                myTokenType = COMMENT;
+            }
+            else {
+                myTokenType = WORD;
+            }
+        }
+
+        @Override
+        public CharSequence getBufferSequence() {
+            return myBuffer;
+        }
+
+        @Override
+        public int getBufferEnd() {
+            return myEnd;
+        }
+    }
+
+    private static final class TestParserDefinition implements ParserDefinition {
+        @Override
+        public Language getLanguage() {
+            return LANGUAGE;
+        }
+
+        @Override
+        public Lexer createLexer(LanguageVersion languageVersion) {
+            return new TestLexer();
+        }
+
+        @Override
+        public PsiParser createParser(LanguageVersion languageVersion) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public IFileElementType getFileNodeType() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public TokenSet getCommentTokens(LanguageVersion languageVersion) {
+            return TokenSet.create(COMMENT);
+        }
+
+        @Override
+        public TokenSet getStringLiteralElements(LanguageVersion languageVersion) {
+            return TokenSet.EMPTY;
+        }
+
+        @Override
+        public PsiFile createFile(FileViewProvider viewProvider) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * The default leaf factory looks the parser definition up through the application, which is not needed here.
+     */
+    private static final class TestLeafFactory implements ASTLeafFactory {
+        @Override
+        public LeafElement createLeaf(IElementType type, LanguageVersion languageVersion, CharSequence text) {
+            return new LeafPsiElement(type, text);
+        }
+
+        @Override
+        public boolean test(IElementType elementType) {
+            return true;
+        }
+    }
+}
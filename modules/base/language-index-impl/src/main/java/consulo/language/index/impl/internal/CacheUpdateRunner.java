@@ -61,6 +61,10 @@ public class CacheUpdateRunner {
             waitForAll(futures);
         }
 
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Indexed " + files.size() + " files with " + workerCount + " workers, " + queue.getStatistics());
+        }
+
         if (project.isDisposed()) {
             indicator.cancel();
             indicator.checkCanceled();
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.language.index.impl.internal;
+
+import consulo.annotation.component.ActionImpl;
+import consulo.annotation.component.ActionParentRef;
+import consulo.annotation.component.ActionRef;
+import consulo.application.ui.internal.InternalActionGroup;
+import consulo.container.boot.ContainerPathManager;
+import consulo.index.io.IndexingMetrics;
+import consulo.localize.LocalizeValue;
+import consulo.project.Project;
+import consulo.project.ui.notification.NotificationService;
+import consulo.ui.annotation.RequiredUIAccess;
+import consulo.ui.ex.action.AnActionEvent;
+import consulo.ui.ex.action.DumbAwareAction;
+import jakarta.inject.Inject;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Saves per index {@link IndexingMetrics} collected since start as json into the log directory.
+ */
+@ActionImpl(id = "Internal.DumpIndexingMetrics", parents = @ActionParentRef(@ActionRef(type = InternalActionGroup.class)))
+public class DumpIndexingMetricsAction extends DumbAwareAction {
+    private final NotificationService myNotificationService;
+
+    @Inject
+    public DumpIndexingMetricsAction(NotificationService notificationService) {
+        super(LocalizeValue.localizeTODO("Dump Indexing Metrics"));
+        myNotificationService = notificationService;
+    }
+
+    @Override
+    @RequiredUIAccess
+    public void actionPerformed(AnActionEvent e) {
+        Path file = ContainerPathManager.get().getLogPath().toPath().resolve("indexing-metrics-" + System.currentTimeMillis() + ".json");
+        try {
+            Files.writeString(file, IndexingMetrics.toJson(IndexingMetrics.snapshot()));
+            myNotificationService.newInfo(FileBasedIndexImpl.NOTIFICATIONS)
+                .title(LocalizeValue.localizeTODO("Indexing metrics"))
+                .content(LocalizeValue.localizeTODO("Saved to " + file))
+                .notify(e.getData(Project.KEY));
+        }
+        catch (IOException ex) {
+            myNotificationService.newError(FileBasedIndexImpl.NOTIFICATIONS)
+                .title(LocalizeValue.localizeTODO("Indexing metrics"))
+                .content(LocalizeValue.localizeTODO("Can't save " + file + ": " + ex.getMessage()))
+                .notify(e.getData(Project.KEY));
+        }
+    }
+}
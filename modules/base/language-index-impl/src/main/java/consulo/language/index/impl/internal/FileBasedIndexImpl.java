@@ -96,6 +96,7 @@ import java.nio.charset.Charset;
 import java.util.Stack;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -371,6 +372,10 @@ public final class FileBasedIndexImpl extends FileBasedIndex {
     ) throws IOException {
         ID<K, V> name = extension.getName();
         int version = extension.getVersion();
+        if (!(extension instanceof CustomImplementationFileBasedIndexExtension) && VfsAwareMapReduceIndex.usesIntKeysForwardIndex(extension)) {
+            // forward index format differs, so switching the mode must rebuild the index
+            version = version * 31 + 1;
+        }
 
         File versionFile = IndexInfrastructure.getVersionFile(name);
 
@@ -1780,7 +1785,10 @@ public final class FileBasedIndexImpl extends FileBasedIndex {
 
                         if (IdIndex.ourSnapshotMappingsEnabled) {
                             FileType substituteFileType = SubstitutedFileType.substituteFileType(file, fileType, finalProject);
-                            byte[] hash = calculateHash(currentBytes, fc.getCharset(), fileType, substituteFileType);
+                            byte[] hash = content.getHash(substituteFileType, fileType.isBinary() ? null : fc.getCharset());
+                            if (hash == null) {
+                                hash = calculateHash(currentBytes, fc.getCharset(), fileType, substituteFileType);
+                            }
                             fc.setHash(hash);
                         }
 
@@ -2138,12 +2146,25 @@ public final class FileBasedIndexImpl extends FileBasedIndex {
     }
 
     private class UnindexedFilesFinder implements CollectingContentIterator {
+        // files are checked in batches to read their indexed states in bulk
+        private static final int BATCH_SIZE = 256;
+
         private final List<VirtualFile> myFiles = new ArrayList<>();
         private final boolean myDoTraceForFilesToBeIndexed = LOG.isTraceEnabled();
+        private final Queue<List<VirtualFile>> myBatches = new ConcurrentLinkedQueue<>();
+        private final ThreadLocal<List<VirtualFile>> myBatch = ThreadLocal.withInitial(() -> {
+            List<VirtualFile> batch = new ArrayList<>(BATCH_SIZE);
+            myBatches.add(batch);
+            return batch;
+        });
 
-        
         @Override
         public List<VirtualFile> getFiles() {
+            // called after iteration is finished, so pending batches of all iterating threads can be processed here
+            for (List<VirtualFile> batch : myBatches) {
+                processBatch(batch);
+            }
+
             List<VirtualFile> files;
             synchronized (myFiles) {
                 files = myFiles;
@@ -2177,7 +2198,38 @@ public final class FileBasedIndexImpl extends FileBasedIndex {
 
         @Override
         public boolean processFile(VirtualFile file) {
-            return AccessRule.read(() -> {
+            List<VirtualFile> batch = myBatch.get();
+            batch.add(file);
+            if (batch.size() >= BATCH_SIZE) {
+                processBatch(batch);
+            }
+            return true;
+        }
+
+        private void processBatch(List<VirtualFile> batch) {
+            int[] fileIds = new int[batch.size()];
+            int count = 0;
+            for (VirtualFile file : batch) {
+                if (file instanceof VirtualFileWithId fileWithId && !file.isDirectory()
+                    && !(file instanceof InternalNewVirtualFile newVirtualFile && newVirtualFile.isFileIndexed())) {
+                    int fileId = fileWithId.getId();
+                    if (fileId > 0) {
+                        fileIds[count++] = fileId;
+                    }
+                }
+            }
+            if (count > 0) {
+                IndexingStamp.preloadTimestamps(Arrays.copyOf(fileIds, count));
+            }
+
+            for (VirtualFile file : batch) {
+                checkFile(file);
+            }
+            batch.clear();
+        }
+
+        private void checkFile(VirtualFile file) {
+            AccessRule.read(() -> {
                 if (!file.isValid()) {
                     return true;
                 }
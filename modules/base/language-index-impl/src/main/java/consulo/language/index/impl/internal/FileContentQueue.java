@@ -3,6 +3,8 @@ package consulo.language.index.impl.internal;
 
 import consulo.application.progress.ProgressIndicator;
 import consulo.component.ProcessCanceledException;
+import consulo.language.internal.SubstitutedFileType;
+import consulo.language.internal.psi.stub.IdIndex;
 import consulo.logging.Logger;
 import consulo.project.Project;
 import consulo.project.ProjectLocator;
@@ -10,11 +12,13 @@ import consulo.util.concurrent.ConcurrencyUtil;
 import consulo.virtualFileSystem.InvalidVirtualFileAccessException;
 import consulo.virtualFileSystem.VFileProperty;
 import consulo.virtualFileSystem.VirtualFile;
+import consulo.virtualFileSystem.fileType.FileType;
 import consulo.virtualFileSystem.util.VirtualFileUtil;
 import org.jspecify.annotations.Nullable;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.charset.Charset;
 import java.util.Collection;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -24,24 +28,39 @@ import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
+ * Staged pipeline feeding indexing workers: contents are read by loader virtual threads (blocking disk reads don't hold
+ * platform threads), then content hashes for snapshot mappings are calculated by hasher threads, then loaded contents are
+ * handed off to {@link CacheUpdateRunner} workers.
+ * <p>
+ * Loaders stop when contents waiting for the workers occupy more than the byte budget, so memory use doesn't depend on
+ * the number of files in flight. Workers which find nothing ready load (and skip hashing) themselves.
+ *
  * @author peter
  */
 public class FileContentQueue {
     private static final Logger LOG = Logger.getInstance(FileContentQueue.class);
 
-    private static final long SOFT_LIMIT_OF_BYTES_PER_WORKER = 4 * 1024 * 1024;
-    private static final int MAX_LOADER_THREADS = 4;
+    private static final long SOFT_LIMIT_OF_BYTES_PER_WORKER =
+        Long.getLong("idea.indexing.queue.bytes.per.worker", 4 * 1024 * 1024);
+    private static final int MAX_LOADER_THREADS = Integer.getInteger("idea.indexing.loader.threads", 32);
     private static final long BUDGET_WAIT_MILLIS = 100;
 
     private final Project myProject;
     private final ProgressIndicator myProgressIndicator;
 
     private final @Nullable BlockingQueue<VirtualFile> myFilesQueue;
+    private final BlockingQueue<IndexFileContent> myContentsToHash = new LinkedBlockingQueue<>();
     private final BlockingQueue<IndexFileContent> myLoadedContents = new LinkedBlockingQueue<>();
+    // files which are not in myLoadedContents yet
     private final AtomicInteger myContentsToLoad = new AtomicInteger();
 
     private final long mySoftLimitOfBytes;
     private final int myLoaderThreads;
+    private final int myHasherThreads;
+
+    private final StageStatistics myLoadingStatistics = new StageStatistics("loading");
+    private final StageStatistics myHashingStatistics = new StageStatistics("hashing");
+    private final StageStatistics myHandoffStatistics = new StageStatistics("handoff");
 
     private final AtomicLong myBytesInMemory = new AtomicLong();
     private final Lock myBudgetLock = new ReentrantLock();
@@ -55,7 +74,9 @@ public class FileContentQueue {
         // ABQ is more memory efficient for significant number of files (e.g. 500K)
         myFilesQueue = numberOfFiles > 0 ? new ArrayBlockingQueue<>(numberOfFiles, false, files) : null;
         mySoftLimitOfBytes = SOFT_LIMIT_OF_BYTES_PER_WORKER * workerCount;
-        myLoaderThreads = Math.max(1, Math.min(workerCount, MAX_LOADER_THREADS));
+        // loaders mostly wait for the disk, so there may be more of them than workers
+        myLoaderThreads = Math.max(1, Math.min(Math.min(numberOfFiles, workerCount * 2), MAX_LOADER_THREADS));
+        myHasherThreads = IdIndex.ourSnapshotMappingsEnabled ? Math.max(1, workerCount / 4) : 0;
     }
 
     public void startLoading() {
@@ -63,9 +84,13 @@ public class FileContentQueue {
             return;
         }
 
+        Thread.Builder loaderBuilder = Thread.ofVirtual().name("Indexing content loader ", 0);
         for (int i = 0; i < myLoaderThreads; i++) {
+            loaderBuilder.start(this::loadUntilDrained);
+        }
+        for (int i = 0; i < myHasherThreads; i++) {
             myProject.getApplication()
-                .executeOnPooledThread(ConcurrencyUtil.underThreadNameRunnable("Indexing content loader", this::loadUntilDrained));
+                .executeOnPooledThread(ConcurrencyUtil.underThreadNameRunnable("Indexing content hasher", this::hashUntilDrained));
         }
     }
 
@@ -81,6 +106,51 @@ public class FileContentQueue {
         }
     }
 
+    private void hashUntilDrained() {
+        try {
+            while (myContentsToLoad.get() > 0 && !myProgressIndicator.isCanceled() && !myProject.isDisposedOrDisposeInProgress()) {
+                IndexFileContent content = myContentsToHash.poll(BUDGET_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+                if (content != null) {
+                    long started = System.nanoTime();
+                    try {
+                        calculateHash(content);
+                    }
+                    finally {
+                        myHashingStatistics.processed(content.getLength(), System.nanoTime() - started);
+                        handOff(content);
+                    }
+                }
+            }
+        }
+        catch (InterruptedException | ProcessCanceledException ignored) {
+        }
+    }
+
+    private void calculateHash(IndexFileContent content) {
+        VirtualFile file = content.getVirtualFile();
+        if (content.getLength() == 0 || !file.isValid()) {
+            return;
+        }
+        // the hash is only a hint for FileBasedIndexImpl, don't compete with write actions for it
+        myProject.getApplication().tryRunReadAction(() -> {
+            try {
+                byte[] bytes = content.getBytes();
+                FileType fileType = file.getFileType();
+                FileType substituteFileType = SubstitutedFileType.substituteFileType(file, fileType, myProject);
+                Charset charset = fileType.isBinary() ? null : file.getCharset();
+                content.setHash(FileBasedIndexImpl.calculateHash(bytes, charset, fileType, substituteFileType), substituteFileType, charset);
+            }
+            catch (IOException e) {
+                LOG.debug(e);
+            }
+        });
+    }
+
+    private void handOff(IndexFileContent content) {
+        myLoadedContents.offer(content);
+        myContentsToLoad.decrementAndGet();
+    }
+
     private boolean awaitBudget() {
         myBudgetLock.lock();
         try {
@@ -101,24 +171,35 @@ public class FileContentQueue {
     }
 
     private boolean loadNextContent() {
-        // Contract: if file is taken from myFilesQueue then it will be loaded to myLoadedContents and myContentsToLoad will be decremented
+        return loadNextContent(myHasherThreads > 0);
+    }
+
+    private boolean loadNextContent(boolean hash) {
+        // Contract: if file is taken from myFilesQueue then it will be loaded to myLoadedContents (possibly through myContentsToHash)
+        // and myContentsToLoad will be decremented
         VirtualFile file = myFilesQueue == null ? null : myFilesQueue.poll();
         if (file == null) {
             return false;
         }
 
+        IndexFileContent content = new IndexFileContent(file);
+        long started = System.nanoTime();
         try {
-            IndexFileContent content = new IndexFileContent(file);
             if (!isValidFile(file) || !doLoadContent(content)) {
                 content.setEmptyContent();
             }
-            myBytesInMemory.addAndGet(content.getLength());
-            myLoadedContents.offer(content);
-            return true;
         }
         finally {
-            myContentsToLoad.decrementAndGet();
+            myBytesInMemory.addAndGet(content.getLength());
+            myLoadingStatistics.processed(content.getLength(), System.nanoTime() - started);
+            if (hash) {
+                myContentsToHash.offer(content);
+            }
+            else {
+                handOff(content);
+            }
         }
+        return true;
     }
 
     private static boolean isValidFile(VirtualFile file) {
@@ -152,6 +233,15 @@ public class FileContentQueue {
     }
 
     public @Nullable IndexFileContent take(ProgressIndicator indicator) throws ProcessCanceledException {
+        long started = System.nanoTime();
+        IndexFileContent content = doTake(indicator);
+        if (content != null) {
+            myHandoffStatistics.processed(content.getLength(), System.nanoTime() - started);
+        }
+        return content;
+    }
+
+    private @Nullable IndexFileContent doTake(ProgressIndicator indicator) throws ProcessCanceledException {
         while (true) {
             indicator.checkCanceled();
 
@@ -166,17 +256,27 @@ public class FileContentQueue {
                 return null;
             }
 
-            if (!loadNextContent()) {
-                try {
-                    content = myLoadedContents.poll(BUDGET_WAIT_MILLIS, TimeUnit.MILLISECONDS);
-                }
-                catch (InterruptedException e) {
-                    throw new ProcessCanceledException(e);
-                }
+            // nothing is ready: rather load the next file than wait, the worker will calculate the hash itself
+            if (loadNextContent(false)) {
+                continue;
+            }
 
-                if (content != null) {
-                    return content;
-                }
+            // all files are taken by loaders, pick up a content waiting for a hasher
+            content = myContentsToHash.poll();
+            if (content != null) {
+                myContentsToLoad.decrementAndGet();
+                return content;
+            }
+
+            try {
+                content = myLoadedContents.poll(BUDGET_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException e) {
+                throw new ProcessCanceledException(e);
+            }
+
+            if (content != null) {
+                return content;
             }
         }
     }
@@ -192,4 +292,67 @@ public class FileContentQueue {
             myBudgetLock.unlock();
         }
     }
+
+    public String getStatistics() {
+        return myLoadingStatistics + " (" + myLoaderThreads + " loaders), " + myHashingStatistics + " (" + myHasherThreads + " hashers), " +
+            myHandoffStatistics + " (time includes waiting)";
+    }
+
+    public StageStatistics getLoadingStatistics() {
+        return myLoadingStatistics;
+    }
+
+    public StageStatistics getHashingStatistics() {
+        return myHashingStatistics;
+    }
+
+    public StageStatistics getHandoffStatistics() {
+        return myHandoffStatistics;
+    }
+
+    public static class StageStatistics {
+        private final String myName;
+        private final AtomicInteger myFiles = new AtomicInteger();
+        private final AtomicLong myBytes = new AtomicLong();
+        private final AtomicLong myNanos = new AtomicLong();
+
+        StageStatistics(String name) {
+            myName = name;
+        }
+
+        void processed(long bytes, long nanos) {
+            myFiles.incrementAndGet();
+            myBytes.addAndGet(bytes);
+            myNanos.addAndGet(nanos);
+        }
+
+        public int getFileCount() {
+            return myFiles.get();
+        }
+
+        public long getByteCount() {
+            return myBytes.get();
+        }
+
+        /**
+         * @return time spent in the stage summed over its threads
+         */
+        public long getTimeNanos() {
+            return myNanos.get();
+        }
+
+        /**
+         * @return bytes processed per second of a single stage thread
+         */
+        public double getBytesPerSecond() {
+            long nanos = getTimeNanos();
+            return nanos == 0 ? 0 : getByteCount() * 1e9 / nanos;
+        }
+
+        @Override
+        public String toString() {
+            return myName + ": " + getFileCount() + " files, " + (getByteCount() >> 10) + "KB in " + (getTimeNanos() / 1_000_000) + "ms, " +
+                (long)(getBytesPerSecond() / 1024) + "KB/s per thread";
+        }
+    }
 }
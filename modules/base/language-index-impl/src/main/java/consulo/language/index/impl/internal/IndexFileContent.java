@@ -19,8 +19,11 @@ package consulo.language.index.impl.internal;
 import consulo.util.collection.ArrayUtil;
 import consulo.util.dataholder.UserDataHolderBase;
 import consulo.virtualFileSystem.VirtualFile;
+import consulo.virtualFileSystem.fileType.FileType;
+import org.jspecify.annotations.Nullable;
 
 import java.io.IOException;
+import java.nio.charset.Charset;
 import java.util.Objects;
 
 /**
@@ -33,6 +36,10 @@ public class IndexFileContent extends UserDataHolderBase {
   private long myCachedTimeStamp = -1;
   private Boolean myCachedWritable;
 
+  private volatile byte @Nullable [] myHash;
+  private @Nullable String myHashFileTypeId;
+  private @Nullable Charset myHashCharset;
+
   public IndexFileContent(VirtualFile virtualFile) {
     myVirtualFile = virtualFile;
   }
@@ -55,6 +62,27 @@ public class IndexFileContent extends UserDataHolderBase {
   public void setEmptyContent() {
     myCachedBytes = ArrayUtil.EMPTY_BYTE_ARRAY;
     myCachedLength = 0;
+    myHash = null;
+  }
+
+  /**
+   * Remembers content hash calculated ahead of indexing, see {@link FileBasedIndexImpl#calculateHash}
+   */
+  void setHash(byte[] hash, FileType substituteFileType, @Nullable Charset charset) {
+    myHashFileTypeId = substituteFileType.getId();
+    myHashCharset = charset;
+    myHash = hash;
+  }
+
+  /**
+   * @return hash calculated ahead of indexing if it was calculated for the same file type and charset
+   */
+  byte @Nullable [] getHash(FileType substituteFileType, @Nullable Charset charset) {
+    byte[] hash = myHash;
+    if (hash == null || !substituteFileType.getId().equals(myHashFileTypeId) || !Objects.equals(charset, myHashCharset)) {
+      return null;
+    }
+    return hash;
   }
 
   public VirtualFile getVirtualFile() {
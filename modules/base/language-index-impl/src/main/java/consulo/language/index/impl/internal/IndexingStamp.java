@@ -24,6 +24,7 @@ import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -161,6 +162,13 @@ public class IndexingStamp {
         return false;
     }
 
+    /**
+     * @return version of the index as it was written by {@link #rewriteVersion}, -1 if the index has no version yet
+     */
+    static int getIndexVersionNumber(ID<?, ?> indexName) {
+        return getIndexVersion(indexName).myIndexVersion;
+    }
+
     public static long getIndexCreationStamp(ID<?, ?> indexName) {
         IndexVersion version = getIndexVersion(indexName);
         return version.myModificationCount;
@@ -395,6 +403,39 @@ public class IndexingStamp {
         return timestamps;
     }
 
+    /**
+     * Reads indexed states of the given files in bulk and caches them until the files are {@link #flushCache flushed},
+     * so checks of the files don't read their states one by one.
+     */
+    public static void preloadTimestamps(int[] fileIds) {
+        long[] writeCounts = new long[ourLocks.length];
+        for (int i = 0; i < writeCounts.length; i++) {
+            writeCounts[i] = ourTimestampWrites.get(i);
+        }
+
+        FSRecordsProxy fsRecordsProxy = FSRecordsProxy.getInstance();
+        DataInputStream[] streams = fsRecordsProxy.readAttributesWithLock(fileIds, Timestamps.PERSISTENCE);
+        for (int i = 0; i < fileIds.length; i++) {
+            int fileId = fileIds[i];
+            int stripe = getStripeIndex(fileId);
+            Lock writeLock = ourLocks[stripe].writeLock();
+            writeLock.lock();
+            try (DataInputStream stream = streams[i]) {
+                // states written after the bulk read are newer than the read ones
+                if (ourTimestampWrites.get(stripe) == writeCounts[stripe] && myTimestampsCache.get(fileId) == null) {
+                    myTimestampsCache.put(fileId, new Timestamps(stream));
+                }
+            }
+            catch (IOException e) {
+                fsRecordsProxy.handleError(e);
+                throw new RuntimeException(e);
+            }
+            finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
     public static void update(int fileId, ID<?, ?> indexName, long indexCreationStamp) {
         if (fileId < 0 || fileId == INVALID_FILE_ID) {
             return;
@@ -464,6 +505,10 @@ public class IndexingStamp {
                             try (DataOutputStream sink = FSRecordsProxy.getInstance().writeAttribute(file, Timestamps.PERSISTENCE)) {
                                 timestamp.writeToStream(sink);
                             }
+                            finally {
+                                // counted once the attribute is written, so a preload which read it before sees a changed counter
+                                ourTimestampWrites.incrementAndGet(getStripeIndex(file));
+                            }
                         }
                     }
                     catch (IOException e) {
@@ -484,14 +529,21 @@ public class IndexingStamp {
     private static final ReadWriteLock[] ourLocks =
         new ReadWriteLock[Math.max(16, Math.min(256, Runtime.getRuntime().availableProcessors() * 4))];
 
+    // number of completed writes of indexed states per lock stripe, see preloadTimestamps
+    private static final AtomicLongArray ourTimestampWrites = new AtomicLongArray(ourLocks.length);
+
     static {
         for (int i = 0; i < ourLocks.length; ++i) ourLocks[i] = new ReentrantReadWriteLock();
     }
 
     private static ReadWriteLock getStripedLock(int fileId) {
+        return ourLocks[getStripeIndex(fileId)];
+    }
+
+    private static int getStripeIndex(int fileId) {
         if (fileId < 0) {
             fileId = -fileId;
         }
-        return ourLocks[(fileId & 0xFF) % ourLocks.length];
+        return (fileId & 0xFF) % ourLocks.length;
     }
 }
\ No newline at end of file
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.language.index.impl.internal;
+
+import consulo.index.io.InlineKeyDescriptor;
+import consulo.index.io.StorageException;
+import consulo.index.io.forward.EmptyInputDataDiffBuilder;
+import consulo.index.io.forward.InputDataDiffBuilder;
+import consulo.index.io.forward.KeyValueUpdateProcessor;
+import consulo.index.io.forward.RemovedKeyProcessor;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+
+/**
+ * Diffs the sorted key ids stored by {@link consulo.language.index.impl.internal.forward.IntKeysForwardIndexAccessor}
+ * against new scalar index data. Keys present in both are left untouched, so only real additions and removals
+ * reach the index storage.
+ */
+public class IntKeysInputDataDiffBuilder<Key> extends InputDataDiffBuilder<Key, Void> {
+  private final int[] myKeyIds;
+  private final InlineKeyDescriptor<Key> myKeyDescriptor;
+
+  public IntKeysInputDataDiffBuilder(int inputId, int[] sortedKeyIds, InlineKeyDescriptor<Key> keyDescriptor) {
+    super(inputId);
+    myKeyIds = sortedKeyIds;
+    myKeyDescriptor = keyDescriptor;
+  }
+
+  @Override
+  public boolean differentiate(Map<Key, Void> newData,
+                               KeyValueUpdateProcessor<? super Key, ? super Void> addProcessor,
+                               KeyValueUpdateProcessor<? super Key, ? super Void> updateProcessor,
+                               RemovedKeyProcessor<? super Key> removeProcessor) throws StorageException {
+    if (myKeyIds.length == 0) {
+      return EmptyInputDataDiffBuilder.processKeys(newData, addProcessor, myInputId);
+    }
+
+    BitSet retained = new BitSet(myKeyIds.length);
+    boolean changed = false;
+    for (Key key : newData.keySet()) {
+      int idx = Arrays.binarySearch(myKeyIds, myKeyDescriptor.toInt(key));
+      if (idx >= 0) {
+        retained.set(idx);
+      }
+      else {
+        addProcessor.process(key, null, myInputId);
+        changed = true;
+      }
+    }
+
+    for (int idx = retained.nextClearBit(0); idx < myKeyIds.length; idx = retained.nextClearBit(idx + 1)) {
+      removeProcessor.process(myKeyDescriptor.fromInt(myKeyIds[idx]), myInputId);
+      changed = true;
+    }
+    return changed;
+  }
+}
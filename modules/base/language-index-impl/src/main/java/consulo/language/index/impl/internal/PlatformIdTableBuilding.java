@@ -23,7 +23,6 @@ import consulo.language.Language;
 import consulo.language.ast.IElementType;
 import consulo.language.ast.TokenSet;
 import consulo.language.custom.CustomSyntaxTableFileType;
-import consulo.language.editor.highlight.HighlighterFactory;
 import consulo.language.editor.internal.EditorHighlighterCache;
 import consulo.language.file.LanguageFileType;
 import consulo.language.internal.SubstitutedFileType;
@@ -174,8 +173,8 @@ public class PlatformIdTableBuilding {
           highlighter = editorHighlighter;
         }
         else {
-          highlighter = HighlighterFactory.createHighlighter(null, myFile);
-          highlighter.setText(chars);
+          // shared with other indexers of the content, created for its project like the one of getLexerBasedOnLexerHighlighter
+          highlighter = EditorHighlighterCache.getHighlighterForText(inputData);
         }
 
         int documentLength = chars.length();
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.language.index.impl.internal;
+
+import consulo.index.io.ContentHashesUtil;
+import consulo.index.io.data.DataInputOutputUtil;
+import consulo.util.io.ByteArraySequence;
+import org.jspecify.annotations.Nullable;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Portable data of a single file based index keyed by content hashes (see {@link ContentHashesUtil}), so it doesn't depend
+ * on file ids of the installation which produced it.
+ * <p>
+ * File layout: magic, format version, index name, index version, entry count, entries sorted by hash
+ * (hash, length, serialized input map of the index), CRC32 of everything before.
+ */
+final class SharedIndexChunk {
+  static final String FILE_EXTENSION = ".sic";
+
+  private static final int MAGIC = 0x53494331;
+  private static final int FORMAT_VERSION = 1;
+  private static final int HASH_LENGTH = ContentHashesUtil.SIGNATURE_LENGTH;
+
+  private final String myIndexName;
+  private final int myIndexVersion;
+  private final byte[] myHashes;
+  private final int[] myOffsets;
+  private final byte[] myData;
+
+  private SharedIndexChunk(String indexName, int indexVersion, byte[] hashes, int[] offsets, byte[] data) {
+    myIndexName = indexName;
+    myIndexVersion = indexVersion;
+    myHashes = hashes;
+    myOffsets = offsets;
+    myData = data;
+  }
+
+  String getIndexName() {
+    return myIndexName;
+  }
+
+  int getIndexVersion() {
+    return myIndexVersion;
+  }
+
+  int size() {
+    return myOffsets.length - 1;
+  }
+
+  @Nullable ByteArraySequence get(byte[] hash) {
+    if (hash.length != HASH_LENGTH) return null;
+    int low = 0;
+    int high = size() - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int cmp = Arrays.compareUnsigned(myHashes, mid * HASH_LENGTH, (mid + 1) * HASH_LENGTH, hash, 0, HASH_LENGTH);
+      if (cmp < 0) {
+        low = mid + 1;
+      }
+      else if (cmp > 0) {
+        high = mid - 1;
+      }
+      else {
+        return new ByteArraySequence(myData, myOffsets[mid], myOffsets[mid + 1] - myOffsets[mid]);
+      }
+    }
+    return null;
+  }
+
+  static SharedIndexChunk read(File file) throws IOException {
+    try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+      return read(in);
+    }
+  }
+
+  static SharedIndexChunk read(InputStream stream) throws IOException {
+    CheckedInputStream checked = new CheckedInputStream(stream, new CRC32());
+    DataInputStream in = new DataInputStream(checked);
+    if (in.readInt() != MAGIC) throw new IOException("Not a shared index chunk");
+    int formatVersion = in.readInt();
+    if (formatVersion != FORMAT_VERSION) throw new IOException("Unsupported shared index chunk format " + formatVersion);
+
+    String indexName = in.readUTF();
+    int indexVersion = in.readInt();
+    int count = DataInputOutputUtil.readINT(in);
+
+    byte[] hashes = new byte[count * HASH_LENGTH];
+    int[] offsets = new int[count + 1];
+    ByteArrayOutputStream data = new ByteArrayOutputStream();
+    byte[] buffer = new byte[4096];
+    for (int i = 0; i < count; i++) {
+      in.readFully(hashes, i * HASH_LENGTH, HASH_LENGTH);
+      if (i > 0 && Arrays.compareUnsigned(hashes, (i - 1) * HASH_LENGTH, i * HASH_LENGTH, hashes, i * HASH_LENGTH, (i + 1) * HASH_LENGTH) >= 0) {
+        throw new IOException("Shared index chunk entries are not sorted");
+      }
+      int length = DataInputOutputUtil.readINT(in);
+      while (length > 0) {
+        int read = Math.min(length, buffer.length);
+        in.readFully(buffer, 0, read);
+        data.write(buffer, 0, read);
+        length -= read;
+      }
+      offsets[i + 1] = data.size();
+    }
+
+    long expectedCrc = checked.getChecksum().getValue();
+    long crc = new DataInputStream(stream).readLong();
+    if (crc != expectedCrc) throw new IOException("Shared index chunk is corrupted");
+
+    return new SharedIndexChunk(indexName, indexVersion, hashes, offsets, data.toByteArray());
+  }
+
+  static class Writer {
+    private final String myIndexName;
+    private final int myIndexVersion;
+    private final Map<byte[], ByteArraySequence> myEntries = new TreeMap<>(Arrays::compareUnsigned);
+
+    Writer(String indexName, int indexVersion) {
+      myIndexName = indexName;
+      myIndexVersion = indexVersion;
+    }
+
+    void add(byte[] hash, ByteArraySequence data) {
+      if (hash.length != HASH_LENGTH) throw new IllegalArgumentException("Unexpected content hash length " + hash.length);
+      myEntries.put(hash, data);
+    }
+
+    int size() {
+      return myEntries.size();
+    }
+
+    void write(File file) throws IOException {
+      try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+        write(out);
+      }
+    }
+
+    void write(OutputStream stream) throws IOException {
+      CheckedOutputStream checked = new CheckedOutputStream(stream, new CRC32());
+      DataOutputStream out = new DataOutputStream(checked);
+      out.writeInt(MAGIC);
+      out.writeInt(FORMAT_VERSION);
+      out.writeUTF(myIndexName);
+      out.writeInt(myIndexVersion);
+      DataInputOutputUtil.writeINT(out, myEntries.size());
+      for (Map.Entry<byte[], ByteArraySequence> entry : myEntries.entrySet()) {
+        ByteArraySequence data = entry.getValue();
+        out.write(entry.getKey());
+        DataInputOutputUtil.writeINT(out, data.getLength());
+        out.write(data.getBytes(), data.getOffset(), data.getLength());
+      }
+      out.flush();
+      new DataOutputStream(stream).writeLong(checked.getChecksum().getValue());
+      stream.flush();
+    }
+  }
+}
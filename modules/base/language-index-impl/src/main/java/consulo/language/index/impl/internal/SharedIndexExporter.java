@@ -0,0 +1,108 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.language.index.impl.internal;
+
+import consulo.index.io.ByteSequenceDataExternalizer;
+import consulo.index.io.ContentHashesUtil;
+import consulo.index.io.EnumeratorIntegerDescriptor;
+import consulo.index.io.PersistentHashMap;
+import consulo.util.io.ByteArraySequence;
+import consulo.util.lang.StringUtil;
+
+import java.io.*;
+
+/**
+ * Produces {@link SharedIndexChunk}s from snapshot mappings of an existing index directory
+ * (an index root of an installation which has indexed the SDKs and libraries to share, with snapshot mappings enabled).
+ * <p>
+ * {@code SharedIndexExporter <index root> <output directory> <index id>...}
+ */
+public class SharedIndexExporter {
+  private final File myIndexRoot;
+  private final ContentHashesUtil.HashEnumerator myHashes;
+
+  public SharedIndexExporter(File indexRoot) throws IOException {
+    myIndexRoot = indexRoot;
+    myHashes = new ContentHashesUtil.HashEnumerator(new File(new File(indexRoot, ".persistent"), "hashesWithFileType"));
+  }
+
+  /**
+   * @return number of exported entries
+   */
+  public int export(String indexName, File outputDirectory) throws IOException {
+    String dirName = StringUtil.toLowerCase(indexName);
+    File versionFile = new File(new File(myIndexRoot, dirName), indexName + ".ver");
+    int indexVersion;
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(versionFile)))) {
+      indexVersion = new IndexingStamp.IndexVersion(in).myIndexVersion;
+    }
+
+    File valuesFile = new File(new File(new File(myIndexRoot, ".persistent"), dirName), "values");
+    if (!valuesFile.exists()) {
+      throw new FileNotFoundException("No snapshot mappings for " + indexName + " in " + myIndexRoot);
+    }
+
+    SharedIndexChunk.Writer writer = new SharedIndexChunk.Writer(indexName, indexVersion);
+    PersistentHashMap<Integer, ByteArraySequence> values =
+      new PersistentHashMap<>(valuesFile, EnumeratorIntegerDescriptor.INSTANCE, ByteSequenceDataExternalizer.INSTANCE) {
+        @Override
+        protected boolean isReadOnly() {
+          return true;
+        }
+      };
+    try {
+      for (Integer hashId : values.getAllKeysWithExistingMapping()) {
+        ByteArraySequence data = values.get(hashId);
+        if (data == null || hashId <= 0) continue;
+        byte[] hash = myHashes.valueOf(hashId);
+        if (hash == null || hash.length != ContentHashesUtil.SIGNATURE_LENGTH || myHashes.tryEnumerate(hash) != hashId) {
+          throw new IOException("Content hash " + hashId + " of " + indexName + " doesn't match the hash enumerator");
+        }
+        writer.add(hash, data);
+      }
+    }
+    finally {
+      values.close();
+    }
+
+    //noinspection ResultOfMethodCallIgnored
+    outputDirectory.mkdirs();
+    writer.write(new File(outputDirectory, dirName + SharedIndexChunk.FILE_EXTENSION));
+    return writer.size();
+  }
+
+  public void close() throws IOException {
+    myHashes.close();
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 3) {
+      System.err.println("Usage: SharedIndexExporter <index root> <output directory> <index id>...");
+      System.exit(1);
+    }
+
+    SharedIndexExporter exporter = new SharedIndexExporter(new File(args[0]));
+    try {
+      for (int i = 2; i < args.length; i++) {
+        int count = exporter.export(args[i], new File(args[1]));
+        System.out.println(args[i] + ": " + count + " entries");
+      }
+    }
+    finally {
+      exporter.close();
+    }
+  }
+}
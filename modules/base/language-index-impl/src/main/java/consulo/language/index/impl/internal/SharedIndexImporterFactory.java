@@ -0,0 +1,212 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.language.index.impl.internal;
+
+import consulo.annotation.component.ExtensionImpl;
+import consulo.application.util.concurrent.AppExecutorUtil;
+import consulo.container.boot.ContainerPathManager;
+import consulo.document.Document;
+import consulo.document.FileDocumentManager;
+import consulo.index.io.ID;
+import consulo.index.io.IndexExtension;
+import consulo.index.io.InputData;
+import consulo.index.io.forward.AbstractForwardIndexAccessor;
+import consulo.language.impl.internal.psi.stub.FileContentImpl;
+import consulo.language.psi.PsiDocumentManager;
+import consulo.language.psi.stub.FileContent;
+import consulo.language.psi.stub.SingleEntryFileBasedIndexExtension;
+import consulo.logging.Logger;
+import consulo.util.io.ByteArraySequence;
+import consulo.util.lang.StringUtil;
+import consulo.util.lang.SystemProperties;
+import consulo.virtualFileSystem.fileType.FileType;
+import org.jspecify.annotations.Nullable;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URLConnection;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+
+/**
+ * Imports indexed data of files whose content hash is found in a {@link SharedIndexChunk} produced by {@link SharedIndexExporter},
+ * so SDK and library files already indexed elsewhere are not mapped again.
+ * <p>
+ * Chunks are looked up by {@code -Didea.shared.indexes.location}: a local directory or a http(s) url of a directory.
+ * Remote chunks are downloaded in background (with {@code -Didea.shared.indexes.timeout} ms connect and read timeouts)
+ * and cached under the index root; until a chunk is available files are indexed as usual.
+ * A chunk is used only when it was produced by the same index version.
+ * <p>
+ * Single entry indices (stubs among them) are not imported: their values are keyed by file id, and serialized stub trees
+ * reference serializer ids of the installation which produced them.
+ */
+@ExtensionImpl
+public class SharedIndexImporterFactory implements IndexImporterFactory {
+  private static final Logger LOG = Logger.getInstance(SharedIndexImporterFactory.class);
+
+  private static final String LOCATION_PROPERTY = "idea.shared.indexes.location";
+  private static final int TIMEOUT = SystemProperties.getIntProperty("idea.shared.indexes.timeout", 10000);
+
+  @Override
+  public <Key, Value, Input> @Nullable SnapshotInputMappingIndex<Key, Value, Input> createImporter(IndexExtension<Key, Value, Input> extension) {
+    String location = System.getProperty(LOCATION_PROPERTY);
+    if (location == null || extension instanceof SingleEntryFileBasedIndexExtension || !(extension.getName() instanceof ID)) {
+      return null;
+    }
+
+    ID<Key, Value> indexId = (ID<Key, Value>)extension.getName();
+    int indexVersion = IndexingStamp.getIndexVersionNumber(indexId);
+    String fileName = StringUtil.toLowerCase(indexId.getName()) + SharedIndexChunk.FILE_EXTENSION;
+    if (!location.startsWith("http://") && !location.startsWith("https://")) {
+      File chunkFile = new File(location, fileName);
+      SharedIndexChunk chunk = chunkFile.exists() ? loadChunk(indexId, indexVersion, chunkFile, location) : null;
+      return chunk == null ? null : new Importer<>(extension, chunk);
+    }
+
+    // the download must not hold up index initialization: files are indexed locally until the chunk is available,
+    // a previously downloaded chunk is used meanwhile
+    File cached = new File(new File(ContainerPathManager.get().getIndexRoot(), "shared"), fileName);
+    long cachedStamp = cached.lastModified();
+    Importer<Key, Value, Input> importer =
+      new Importer<>(extension, cachedStamp != 0 ? loadChunk(indexId, indexVersion, cached, location) : null);
+    AppExecutorUtil.getAppExecutorService().execute(() -> {
+      try {
+        if (!download(location, fileName, cached)) {
+          importer.setChunk(null);
+        }
+        else if (cached.lastModified() != cachedStamp) {
+          importer.setChunk(loadChunk(indexId, indexVersion, cached, location));
+        }
+      }
+      catch (IOException e) {
+        LOG.warn("Can't download shared index " + indexId + " from " + location, e);
+      }
+    });
+    return importer;
+  }
+
+  private static @Nullable SharedIndexChunk loadChunk(ID<?, ?> indexId, int indexVersion, File chunkFile, String location) {
+    SharedIndexChunk chunk;
+    try {
+      chunk = SharedIndexChunk.read(chunkFile);
+    }
+    catch (IOException e) {
+      LOG.warn("Can't load shared index " + indexId + " from " + location, e);
+      return null;
+    }
+
+    if (!chunk.getIndexName().equals(indexId.getName()) || chunk.getIndexVersion() != indexVersion) {
+      LOG.info("Shared index " + indexId + " from " + location + " is built for version " + chunk.getIndexVersion() + " instead of " + indexVersion);
+      return null;
+    }
+
+    LOG.info("Using shared index " + indexId + " with " + chunk.size() + " entries from " + location);
+    return chunk;
+  }
+
+  /**
+   * Brings {@code cached} up to date with the chunk on the server.
+   *
+   * @return false if the server has no such chunk
+   */
+  private static boolean download(String location, String fileName, File cached) throws IOException {
+    URLConnection connection = URI.create(StringUtil.trimEnd(location, "/") + "/" + fileName).toURL().openConnection();
+    connection.setConnectTimeout(TIMEOUT);
+    connection.setReadTimeout(TIMEOUT);
+    if (cached.exists()) {
+      connection.setIfModifiedSince(cached.lastModified());
+    }
+    if (connection instanceof HttpURLConnection httpConnection) {
+      int code = httpConnection.getResponseCode();
+      if (code == HttpURLConnection.HTTP_NOT_MODIFIED) return true;
+      if (code == HttpURLConnection.HTTP_NOT_FOUND) return false;
+      if (code != HttpURLConnection.HTTP_OK) throw new IOException("Unexpected response " + code + " for " + connection.getURL());
+    }
+
+    //noinspection ResultOfMethodCallIgnored
+    cached.getParentFile().mkdirs();
+    File temp = new File(cached.getPath() + ".download");
+    try (InputStream in = connection.getInputStream()) {
+      Files.copy(in, temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+    catch (FileNotFoundException e) {
+      return false;
+    }
+    Files.move(temp.toPath(), cached.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    return true;
+  }
+
+  private static class Importer<Key, Value, Input> implements SnapshotInputMappingIndex<Key, Value, Input> {
+    private volatile @Nullable SharedIndexChunk myChunk;
+    private final InputMapExternalizer<Key, Value> myExternalizer;
+    private final boolean myIsPsiBackedIndex;
+
+    Importer(IndexExtension<Key, Value, Input> extension, @Nullable SharedIndexChunk chunk) {
+      myChunk = chunk;
+      myExternalizer = new InputMapExternalizer<>(extension);
+      myIsPsiBackedIndex = FileBasedIndexImpl.isPsiDependentIndex(extension);
+    }
+
+    void setChunk(@Nullable SharedIndexChunk chunk) {
+      myChunk = chunk;
+    }
+
+    @Override
+    public @Nullable InputData<Key, Value> readData(Input input) throws IOException {
+      SharedIndexChunk chunk = myChunk;
+      if (chunk == null || !(input instanceof FileContentImpl content) || myIsPsiBackedIndex && hasUncommittedDocument(content)) {
+        return null;
+      }
+
+      ByteArraySequence bytes = chunk.get(getHash(content));
+      if (bytes == null) {
+        return null;
+      }
+      Map<Key, Value> data = AbstractForwardIndexAccessor.deserializeFromByteSeq(bytes, myExternalizer);
+      return new InputData<>(data) {
+      };
+    }
+
+    private static byte[] getHash(FileContentImpl content) {
+      byte[] hash = content.getHash();
+      if (hash != null) {
+        return hash;
+      }
+      // the same hash as snapshot mappings, see SnapshotInputMappings.getHashOfContent
+      FileType fileType = content.getFileType();
+      if (fileType.isBinary()) {
+        return ContentHashesSupport.calcContentHash(content.getContent(), fileType);
+      }
+      Charset charset = content.getCharset();
+      return ContentHashesSupport.calcContentHashWithFileType(content.getContent(), charset, fileType);
+    }
+
+    private static boolean hasUncommittedDocument(FileContent content) {
+      Document document = FileDocumentManager.getInstance().getCachedDocument(content.getFile());
+      return document != null && content.getProject() != null && PsiDocumentManager.getInstance(content.getProject()).isUncommited(document);
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.language.index.impl.internal;
+
+import consulo.annotation.component.ExtensionImpl;
+import consulo.index.io.DataIndexer;
+import consulo.index.io.EnumeratorIntegerDescriptor;
+import consulo.index.io.KeyDescriptor;
+import consulo.index.io.data.DataExternalizer;
+import consulo.index.io.data.DataInputOutputUtil;
+import consulo.language.internal.TrigramIndex;
+import consulo.language.internal.TrigramPositionIndex;
+import consulo.language.psi.stub.DocumentChangeDependentIndex;
+import consulo.language.psi.stub.FileBasedIndex;
+import consulo.language.psi.stub.FileContent;
+import consulo.util.collection.primitive.ints.IntList;
+import consulo.util.collection.primitive.ints.IntLists;
+import consulo.util.lang.text.TrigramBuilder;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+@ExtensionImpl
+public class TrigramPositionIndexImpl extends TrigramPositionIndex implements DocumentChangeDependentIndex {
+    private static final FileBasedIndex.InputFilter INPUT_FILTER = (project, file) -> ENABLED && TrigramIndex.isIndexable(file.getFileType());
+
+    // offsets are sorted, so they are stored as deltas
+    private static final DataExternalizer<IntList> OFFSETS_EXTERNALIZER = new DataExternalizer<>() {
+        @Override
+        public void save(DataOutput out, IntList offsets) throws IOException {
+            DataInputOutputUtil.writeINT(out, offsets.size());
+            int prev = 0;
+            for (int i = 0; i < offsets.size(); i++) {
+                int offset = offsets.get(i);
+                DataInputOutputUtil.writeINT(out, offset - prev);
+                prev = offset;
+            }
+        }
+
+        @Override
+        public IntList read(DataInput in) throws IOException {
+            int size = DataInputOutputUtil.readINT(in);
+            IntList offsets = IntLists.newArrayList(size);
+            int prev = 0;
+            while (size-- > 0) {
+                prev += DataInputOutputUtil.readINT(in);
+                offsets.add(prev);
+            }
+            return offsets;
+        }
+    };
+
+    @Override
+    public DataIndexer<Integer, IntList, FileContent> getIndexer() {
+        return inputData -> {
+            Map<Integer, IntList> map = new HashMap<>();
+            // occurrences come in the order of offsets, so the lists are sorted
+            TrigramBuilder.processTrigramOccurrences(inputData.getContentAsText(), (trigram, offset) -> {
+                map.computeIfAbsent(trigram, t -> IntLists.newArrayList(2)).add(offset);
+                return true;
+            });
+            return map;
+        };
+    }
+
+    @Override
+    public KeyDescriptor<Integer> getKeyDescriptor() {
+        return EnumeratorIntegerDescriptor.INSTANCE;
+    }
+
+    @Override
+    public DataExternalizer<IntList> getValueExternalizer() {
+        return OFFSETS_EXTERNALIZER;
+    }
+
+    @Override
+    public FileBasedIndex.InputFilter getInputFilter() {
+        return INPUT_FILTER;
+    }
+
+    @Override
+    public boolean dependsOnFileContent() {
+        return true;
+    }
+
+    @Override
+    public int getVersion() {
+        // switching the index on or off rebuilds it
+        return ENABLED ? 1 : 0;
+    }
+}
@@ -7,6 +7,7 @@ import consulo.application.progress.ProgressIndicator;
 import consulo.component.ProcessCanceledException;
 import consulo.component.messagebus.MessageBusConnection;
 import consulo.content.CollectingContentIterator;
+import consulo.index.io.IndexingMetrics;
 import consulo.language.index.impl.internal.localize.IndexingLocalize;
 import consulo.language.psi.stub.FileBasedIndex;
 import consulo.logging.Logger;
@@ -23,6 +24,10 @@ import consulo.virtualFileSystem.RefreshQueue;
 import consulo.virtualFileSystem.VirtualFile;
 import consulo.virtualFileSystem.VirtualFileManager;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
@@ -94,10 +99,13 @@ public class UnindexedFilesUpdater extends DumbModeTask {
         indicator.setIndeterminate(false);
         indicator.setText(IndexingLocalize.progressIndexingUpdating());
 
+        List<IndexingMetrics.Snapshot> metricsBefore = IndexingMetrics.snapshot();
         long startedAt = System.nanoTime();
         indexFiles(indicator, files);
         long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
 
+        reportMetrics(IndexingMetrics.difference(metricsBefore, IndexingMetrics.snapshot()), files.size(), elapsedMillis);
+
         if (trackResponsiveness) {
             LOG.info("Unindexed files update finished: " + files.size() + " files in " + elapsedMillis + " ms on "
                 + CacheUpdateRunner.indexingThreadCount() + " threads ("
@@ -107,6 +115,30 @@ public class UnindexedFilesUpdater extends DumbModeTask {
         }
     }
 
+    /**
+     * Writes per index metrics of the run as json to the file given by {@code -Didea.indexing.metrics.report}
+     * (overwritten by every run), so that indexing runs can be compared on CI.
+     */
+    private static void reportMetrics(List<IndexingMetrics.Snapshot> metrics, int fileCount, long elapsedMillis) {
+        String reportPath = System.getProperty("idea.indexing.metrics.report");
+        if (!IndexingMetrics.ENABLED || reportPath == null && !LOG.isDebugEnabled()) {
+            return;
+        }
+
+        String json = "{\"files\":" + fileCount + ",\"elapsedMs\":" + elapsedMillis + ",\"threads\":" +
+            CacheUpdateRunner.indexingThreadCount() + "," + IndexingMetrics.toJson(metrics).substring(1);
+        LOG.debug("Indexing metrics: " + json);
+
+        if (reportPath != null) {
+            try {
+                Files.writeString(Path.of(reportPath), json);
+            }
+            catch (IOException | InvalidPathException e) {
+                LOG.warn("Can't write indexing metrics to " + reportPath, e);
+            }
+        }
+    }
+
     private void scheduleInitialVfsRefresh() {
         ProjectRootManagerEx.getInstanceEx(myProject).markRootsForRefresh();
 
@@ -290,6 +290,10 @@ public class VfsAwareMapReduceIndex<Key, Value, Input> extends MapReduceIndex<Ke
         (AbstractMapForwardIndexAccessor<Key, Value, ?>)getForwardIndexAccessor();
       return forwardIndexAccessor.convertToInputDataMap(serializedInputData);
     }
+    if (getForwardIndexAccessor() instanceof IntKeysForwardIndexAccessor<?> intKeysAccessor) {
+      //noinspection unchecked
+      return (Map<Key, Value>)intKeysAccessor.convertToInputDataMap(getForwardIndex().get(fileId));
+    }
     // in future we will get rid of forward index for SingleEntryFileBasedIndexExtension
     if (myExtension instanceof SingleEntryFileBasedIndexExtension) {
       Key key = (Key)(Object)fileId;
@@ -353,9 +357,24 @@ public class VfsAwareMapReduceIndex<Key, Value, Input> extends MapReduceIndex<Ke
   private static @Nullable <Key, Value> ForwardIndexAccessor<Key, Value> getForwardIndexAccessor(IndexExtension<Key, Value, ?> indexExtension) {
     if (!shouldCreateForwardIndex(indexExtension)) return null;
     if (indexExtension instanceof SingleEntryFileBasedIndexExtension) return new SingleEntryIndexForwardIndexAccessor(indexExtension);
+    if (usesIntKeysForwardIndex(indexExtension)) {
+      //noinspection unchecked
+      return (ForwardIndexAccessor<Key, Value>)new IntKeysForwardIndexAccessor<>((InlineKeyDescriptor<Key>)indexExtension.getKeyDescriptor());
+    }
     return new MapForwardIndexAccessor<>(new InputMapExternalizer<>(indexExtension));
   }
 
+  /**
+   * @return true if the index created by {@link #VfsAwareMapReduceIndex(IndexExtension, IndexStorage)} keeps its forward index
+   * with {@link IntKeysForwardIndexAccessor}
+   */
+  static boolean usesIntKeysForwardIndex(IndexExtension<?, ?, ?> indexExtension) {
+    return !hasSnapshotMapping(indexExtension) &&
+           !(indexExtension instanceof CustomInputsIndexFileBasedIndexExtension) &&
+           !(indexExtension instanceof SingleEntryFileBasedIndexExtension) &&
+           IntKeysForwardIndexAccessor.isApplicable(indexExtension);
+  }
+
   private static @Nullable ForwardIndex getForwardIndexMap(IndexExtension<?, ?, ?> indexExtension) throws IOException {
     if (!shouldCreateForwardIndex(indexExtension)) return null;
     if (indexExtension instanceof SingleEntryFileBasedIndexExtension<?>)
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.language.index.impl.internal.forward;
+
+import consulo.index.io.IndexExtension;
+import consulo.index.io.InlineKeyDescriptor;
+import consulo.index.io.InputData;
+import consulo.index.io.VoidDataExternalizer;
+import consulo.index.io.data.DataExternalizer;
+import consulo.index.io.data.DataInputOutputUtil;
+import consulo.index.io.forward.AbstractForwardIndexAccessor;
+import consulo.index.io.forward.InputDataDiffBuilder;
+import consulo.language.index.impl.internal.IntKeysInputDataDiffBuilder;
+import consulo.util.collection.ArrayUtil;
+import consulo.util.io.ByteArraySequence;
+import consulo.util.lang.SystemProperties;
+import org.jspecify.annotations.Nullable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Forward index accessor for scalar indices with {@link InlineKeyDescriptor int-like keys}.
+ * Keys of a file are stored as a sorted, delta-encoded sequence of ints instead of a serialized key map,
+ * and are diffed with {@link IntKeysInputDataDiffBuilder} without materializing the old key collection.
+ */
+public class IntKeysForwardIndexAccessor<Key> extends AbstractForwardIndexAccessor<Key, Void, int[]> {
+  private static final boolean ourEnabled = SystemProperties.getBooleanProperty("idea.index.int.keys.forward.index", false);
+
+  private final InlineKeyDescriptor<Key> myKeyDescriptor;
+
+  public IntKeysForwardIndexAccessor(InlineKeyDescriptor<Key> keyDescriptor) {
+    super(SortedIntsExternalizer.INSTANCE);
+    myKeyDescriptor = keyDescriptor;
+  }
+
+  public static boolean isApplicable(IndexExtension<?, ?, ?> extension) {
+    return ourEnabled && extension.getKeyDescriptor() instanceof InlineKeyDescriptor && extension.getValueExternalizer() instanceof VoidDataExternalizer;
+  }
+
+  @Override
+  protected InputDataDiffBuilder<Key, Void> createDiffBuilder(int inputId, int @Nullable [] keyIds) {
+    return new IntKeysInputDataDiffBuilder<>(inputId, keyIds == null ? ArrayUtil.EMPTY_INT_ARRAY : keyIds, myKeyDescriptor);
+  }
+
+  @Override
+  public int @Nullable [] convertToDataType(InputData<Key, Void> data) {
+    Map<Key, Void> keyValues = data.getKeyValues();
+    if (keyValues.isEmpty()) return null;
+    int[] keyIds = new int[keyValues.size()];
+    int i = 0;
+    for (Key key : keyValues.keySet()) {
+      keyIds[i++] = myKeyDescriptor.toInt(key);
+    }
+    Arrays.sort(keyIds);
+    return keyIds;
+  }
+
+  public @Nullable Map<Key, Void> convertToInputDataMap(@Nullable ByteArraySequence sequence) throws IOException {
+    int[] keyIds = deserializeData(sequence);
+    if (keyIds == null) return null;
+    Map<Key, Void> map = new HashMap<>(keyIds.length);
+    for (int keyId : keyIds) {
+      map.put(myKeyDescriptor.fromInt(keyId), null);
+    }
+    return map;
+  }
+
+  @Override
+  protected int getBufferInitialSize(int[] keyIds) {
+    return 2 * keyIds.length + 4;
+  }
+
+  private static class SortedIntsExternalizer implements DataExternalizer<int[]> {
+    static final SortedIntsExternalizer INSTANCE = new SortedIntsExternalizer();
+
+    @Override
+    public void save(DataOutput out, int[] keyIds) throws IOException {
+      DataInputOutputUtil.writeINT(out, keyIds.length);
+      int prev = 0;
+      for (int keyId : keyIds) {
+        // ids are sorted as signed ints, so the difference always fits into an unsigned int
+        DataInputOutputUtil.writeINT(out, keyId - prev);
+        prev = keyId;
+      }
+    }
+
+    @Override
+    public int[] read(DataInput in) throws IOException {
+      int size = DataInputOutputUtil.readINT(in);
+      int[] keyIds = new int[size];
+      int prev = 0;
+      for (int i = 0; i < size; i++) {
+        prev += DataInputOutputUtil.readINT(in);
+        keyIds[i] = prev;
+      }
+      return keyIds;
+    }
+  }
+}
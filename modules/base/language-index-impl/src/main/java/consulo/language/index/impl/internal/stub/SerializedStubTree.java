@@ -20,6 +20,7 @@ import consulo.language.internal.SerializationManagerEx;
 import consulo.language.psi.stub.*;
 import consulo.logging.Logger;
 import consulo.util.collection.ArrayUtil;
+import consulo.util.io.BufferExposingByteArrayInputStream;
 import consulo.util.io.BufferExposingByteArrayOutputStream;
 import consulo.util.io.DigestUtil;
 import consulo.util.io.UnsyncByteArrayInputStream;
@@ -125,7 +126,8 @@ public class SerializedStubTree {
   }
 
   <K> StubIdList restoreIndexedStubs(StubForwardIndexExternalizer<?> dataExternalizer, StubIndexKey<K, ?> indexKey, K key) throws IOException {
-    Map<StubIndexKey, Map<Object, StubIdList>> incompleteMap = dataExternalizer.doRead(new DataInputStream(new ByteArrayInputStream(myIndexedStubBytes, 0, myIndexedStubByteLength)), indexKey, key);
+    Map<StubIndexKey, Map<Object, StubIdList>> incompleteMap =
+      dataExternalizer.doRead(new DataInputStream(new UnsyncByteArrayInputStream(myIndexedStubBytes, 0, myIndexedStubByteLength)), indexKey, key);
     if (incompleteMap == null) return null;
     Map<Object, StubIdList> map = incompleteMap.get(indexKey);
     return map == null ? null : map.get(key);
@@ -166,7 +168,8 @@ public class SerializedStubTree {
 
   
   Stub retrieveStubFromBytes(SerializationManagerEx serializationManager) throws SerializerNotFoundException {
-    return serializationManager.deserialize(new UnsyncByteArrayInputStream(myTreeBytes, 0, myTreeByteLength));
+    // read in place, lazy stubs keep referring to myTreeBytes
+    return serializationManager.deserialize(new BufferExposingByteArrayInputStream(myTreeBytes, myTreeByteLength));
   }
 
   @Override
@@ -1,9 +1,11 @@
 // Copyright 2000-2019 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
 package consulo.language.index.impl.internal.stub;
 
+import consulo.index.io.CompressingDataExternalizer;
+import consulo.index.io.CompressionCodec;
+import consulo.index.io.CompressionCodecs;
 import consulo.index.io.CompressionUtil;
 import consulo.index.io.PersistentHashMapValueStorage;
-import consulo.index.io.data.DataExternalizer;
 import consulo.index.io.data.DataInputOutputUtil;
 import consulo.language.internal.SerializationManagerEx;
 import consulo.util.collection.ArrayUtil;
@@ -12,7 +14,13 @@ import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 
-public class SerializedStubTreeDataExternalizer implements DataExternalizer<SerializedStubTree> {
+public class SerializedStubTreeDataExternalizer implements CompressingDataExternalizer<SerializedStubTree> {
+  /**
+   * Name for {@link CompressionCodecs#forStorage}: with a codec configured, stub trees are compressed record by record
+   * with it instead of relying on the block compression of the value storage, see {@link #isCompressing()}.
+   */
+  static final String STORAGE_NAME = "stubs";
+
   private final boolean myIncludeInputs;
   private final SerializationManagerEx mySerializationManager;
 
@@ -25,9 +33,19 @@ public class SerializedStubTreeDataExternalizer implements DataExternalizer<Seri
     mySerializationManager = manager;
   }
 
+  @Override
+  public boolean isCompressing() {
+    return CompressionCodecs.forStorage(STORAGE_NAME) != null;
+  }
+
   @Override
   public final void save(DataOutput out, SerializedStubTree tree) throws IOException {
-    if (PersistentHashMapValueStorage.COMPRESSION_ENABLED) {
+    CompressionCodec codec = CompressionCodecs.forStorage(STORAGE_NAME);
+    if (codec != null) {
+      CompressionUtil.writeCompressed(out, tree.myTreeBytes, 0, tree.myTreeByteLength, codec);
+      if (myIncludeInputs) CompressionUtil.writeCompressed(out, tree.myIndexedStubBytes, 0, tree.myIndexedStubByteLength, codec);
+    }
+    else if (PersistentHashMapValueStorage.COMPRESSION_ENABLED) {
       DataInputOutputUtil.writeINT(out, tree.myTreeByteLength);
       out.write(tree.myTreeBytes, 0, tree.myTreeByteLength);
       if (myIncludeInputs) {
@@ -44,6 +62,14 @@ public class SerializedStubTreeDataExternalizer implements DataExternalizer<Seri
   
   @Override
   public final SerializedStubTree read(DataInput in) throws IOException {
+    CompressionCodec codec = CompressionCodecs.forStorage(STORAGE_NAME);
+    if (codec != null) {
+      byte[] treeBytes = CompressionUtil.readCompressed(in, codec);
+      byte[] indexedStubBytes = myIncludeInputs ? CompressionUtil.readCompressed(in, codec) : ArrayUtil.EMPTY_BYTE_ARRAY;
+      SerializedStubTree tree = new SerializedStubTree(treeBytes, treeBytes.length, null, indexedStubBytes, indexedStubBytes.length, null);
+      if (mySerializationManager != null) tree.setSerializationManager(mySerializationManager);
+      return tree;
+    }
     if (PersistentHashMapValueStorage.COMPRESSION_ENABLED) {
       int serializedStubsLength = DataInputOutputUtil.readINT(in);
       byte[] bytes = new byte[serializedStubsLength];
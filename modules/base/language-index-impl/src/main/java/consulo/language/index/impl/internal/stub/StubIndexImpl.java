@@ -5,6 +5,7 @@ import consulo.annotation.component.ServiceImpl;
 import consulo.application.Application;
 import consulo.application.impl.internal.ModalityStateImpl;
 import consulo.application.progress.ProgressManager;
+import consulo.application.util.concurrent.AppExecutorUtil;
 import consulo.application.util.function.Processors;
 import consulo.component.persist.PersistentStateComponent;
 import consulo.component.persist.RoamingType;
@@ -38,6 +39,7 @@ import consulo.util.io.BufferExposingByteArrayOutputStream;
 import consulo.util.io.FileUtil;
 import consulo.util.io.UnsyncByteArrayInputStream;
 import consulo.util.lang.StringUtil;
+import consulo.util.lang.SystemProperties;
 import consulo.util.lang.lazy.LazyValue;
 import consulo.virtualFileSystem.ManagingFS;
 import consulo.virtualFileSystem.VirtualFile;
@@ -48,13 +50,24 @@ import jakarta.inject.Singleton;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
 
 /**
+ * Updates of stub indices are applied file by file under the write lock of {@link StubUpdatingIndex}, which stub indices share,
+ * unless {@code -Didea.stub.index.update.batch.size=N} (N > 1) is set. Then every stub index has its own lock, and updates made while
+ * indexing files are queued per index and applied in batches of N, in parallel for different indices. Queues are flushed before
+ * an index is read, under the read lock of {@link StubUpdatingIndex}, so readers see stub indices consistent with stub trees.
+ *
  * @author max
  */
 @ServiceImpl
@@ -64,6 +77,13 @@ public final class StubIndexImpl extends StubIndex implements PersistentStateCom
     private static final AtomicReference<Boolean> ourForcedClean = new AtomicReference<>(null);
     private static final Logger LOG = Logger.getInstance(StubIndexImpl.class);
 
+    private static final int UPDATE_BATCH_SIZE = SystemProperties.getIntProperty("idea.stub.index.update.batch.size", 0);
+    private static final boolean BATCHED_UPDATES = UPDATE_BATCH_SIZE > 1;
+    private static final ExecutorService ourUpdateFlushExecutor = AppExecutorUtil.createBoundedApplicationPoolExecutor(
+        "StubIndexImpl Update Flusher",
+        SystemProperties.getIntProperty("idea.stub.index.update.flush.threads", Math.min(4, Runtime.getRuntime().availableProcessors()))
+    );
+
     private static class AsyncState {
         private final Map<StubIndexKey<?, ?>, UpdatableIndex<?, Void, FileContent>> myIndices = new HashMap<>();
         private final Map<StubIndexKey<?, ?>, HashingStrategy<?>> myKeyHashingStrategies = new HashMap<>();
@@ -87,6 +107,9 @@ public final class StubIndexImpl extends StubIndex implements PersistentStateCom
 
     private StubIndexState myPreviouslyRegistered;
 
+    private final Map<StubIndexKey<?, ?>, PendingUpdates<?>> myPendingUpdates = new ConcurrentHashMap<>();
+    private volatile boolean myDataBufferingEnabled;
+
     public StubIndexImpl() {
         myStubProcessingHelper = new StubProcessingHelper();
     }
@@ -218,7 +241,7 @@ public final class StubIndexImpl extends StubIndex implements PersistentStateCom
                 );
                 MemoryIndexStorage<K, Void> memStorage = new MemoryIndexStorage<>(storage, indexKey);
                 UpdatableIndex<K, Void, FileContent> index =
-                    new VfsAwareMapReduceIndex<>(wrappedExtension, memStorage, null, null, null, lock);
+                    new VfsAwareMapReduceIndex<>(wrappedExtension, memStorage, null, null, null, BATCHED_UPDATES ? null : lock);
 
                 if (stubUpdatingIndex instanceof MergedInvertedIndex) {
                     ProvidedIndexExtension<Integer, SerializedStubTree> ex =
@@ -285,6 +308,7 @@ public final class StubIndexImpl extends StubIndex implements PersistentStateCom
         UpdatableIndex<?, Void, FileContent> index = getAsyncState().myIndices.get(indexId);
         if (index != null) {
             FileBasedIndex.getInstance().ensureUpToDate(StubUpdatingIndex.INDEX_ID, project, GlobalSearchScope.allScope(project));
+            flushPendingUpdates(indexId);
             return index.getModificationStamp();
         }
         return -1;
@@ -294,6 +318,7 @@ public final class StubIndexImpl extends StubIndex implements PersistentStateCom
         if (!myInitialized) {
             return;
         }
+        flushPendingUpdates();
         for (UpdatableIndex<?, Void, FileContent> index : getAsyncState().myIndices.values()) {
             index.flush();
         }
@@ -336,6 +361,13 @@ public final class StubIndexImpl extends StubIndex implements PersistentStateCom
             }
             return new StubIdList(result, size);
         }
+
+        void skip(DataInput in) throws IOException {
+            int size = DataInputOutputUtil.readINT(in);
+            for (int i = size; i < 0; i++) {
+                DataInputOutputUtil.readINT(in);
+            }
+        }
     }
 
     <K> void serializeIndexValue(
@@ -369,12 +401,26 @@ public final class StubIndexImpl extends StubIndex implements PersistentStateCom
         KeyDescriptor<K> keyDescriptor = index.getExtension().getKeyDescriptor();
 
         int bufferSize = DataInputOutputUtil.readINT(in);
+        HashingStrategy<K> hashingStrategy = getKeyHashingStrategy(stubIndexKey);
+        Map<K, StubIdList> result = Maps.newHashMap(hashingStrategy);
+        if (requestedKey != null && in instanceof DataInputStream stream) {
+            // single key lookup (see SerializedStubTree) reads an in-memory stream in place, skipping id lists of other keys
+            int end = stream.available() - bufferSize;
+            while (stream.available() > end) {
+                K key = keyDescriptor.read(stream);
+                if (hashingStrategy.equals(requestedKey, key)) {
+                    result.put(key, StubIdExternalizer.INSTANCE.read(stream));
+                    return result;
+                }
+                StubIdExternalizer.INSTANCE.skip(stream);
+            }
+            return result;
+        }
+
         byte[] buffer = new byte[bufferSize];
         in.readFully(buffer);
         UnsyncByteArrayInputStream indexIs = new UnsyncByteArrayInputStream(buffer);
         DataInputStream indexDis = new DataInputStream(indexIs);
-        HashingStrategy<K> hashingStrategy = getKeyHashingStrategy(stubIndexKey);
-        Map<K, StubIdList> result = Maps.newHashMap(hashingStrategy);
         while (indexDis.available() > 0) {
             K key = keyDescriptor.read(indexDis);
             StubIdList read = StubIdExternalizer.INSTANCE.read(indexDis);
@@ -510,6 +556,7 @@ public final class StubIndexImpl extends StubIndex implements PersistentStateCom
             return true;
         }
         FileBasedIndex.getInstance().ensureUpToDate(StubUpdatingIndex.INDEX_ID, scope.getProject(), scope);
+        flushPendingUpdates(indexKey);
 
         try {
             return myAccessValidator.validate(
@@ -571,6 +618,7 @@ public final class StubIndexImpl extends StubIndex implements PersistentStateCom
                 try {
                     // disable up-to-date check to avoid locks on attempt to acquire index write lock while holding at the same time the readLock for this index
                     return FileBasedIndexImpl.disableUpToDateCheckIn(() -> ConcurrencyUtil.withLock(stubUpdatingIndex.getReadLock(), () -> {
+                        flushPendingUpdates(indexKey);
                         return index.getData(dataKey).forEach((id, value) -> {
                             if (finalIdFilter == null || finalIdFilter.containsFileId(id)) {
                                 result.add(id);
@@ -642,12 +690,16 @@ public final class StubIndexImpl extends StubIndex implements PersistentStateCom
     }
 
     public void dispose() {
+        flushPendingUpdates();
         for (UpdatableIndex<?, ?, ?> index : getAsyncState().myIndices.values()) {
             index.dispose();
         }
     }
 
     void setDataBufferingEnabled(boolean enabled) {
+        // queued updates are persistent ones, they must be applied before indices start buffering
+        myDataBufferingEnabled = enabled;
+        flushPendingUpdates();
         for (UpdatableIndex<?, ?, ?> index : getAsyncState().myIndices.values()) {
             index.setBufferingEnabled(enabled);
         }
@@ -671,6 +723,9 @@ public final class StubIndexImpl extends StubIndex implements PersistentStateCom
         if (!myInitialized) {
             return;
         }
+        for (PendingUpdates<?> pending : myPendingUpdates.values()) {
+            pending.clear();
+        }
         for (UpdatableIndex<?, ?, ?> index : getAsyncState().myIndices.values()) {
             try {
                 index.clear();
@@ -683,6 +738,7 @@ public final class StubIndexImpl extends StubIndex implements PersistentStateCom
     }
 
     <K> void removeTransientDataForFile(StubIndexKey<K, ?> key, int inputId, Collection<? extends K> keys) {
+        flushPendingUpdates(key);
         UpdatableIndex<K, Void, FileContent> index = getIndex(key);
         index.removeTransientDataForKeys(inputId, keys);
     }
@@ -727,12 +783,23 @@ public final class StubIndexImpl extends StubIndex implements PersistentStateCom
         int fileId,
         Map<K, StubIdList> oldInputData,
         Map<K, StubIdList> newInputData
+    ) {
+        if (BATCHED_UPDATES && queueUpdate(key, fileId, oldInputData, newInputData)) {
+            return;
+        }
+        UpdatableIndex<K, Void, FileContent> index = getIndex(key);
+        if (index != null) {
+            applyUpdate(index, fileId, oldInputData, newInputData);
+        }
+    }
+
+    private <K> void applyUpdate(
+        UpdatableIndex<K, Void, FileContent> index,
+        int fileId,
+        Map<K, StubIdList> oldInputData,
+        Map<K, StubIdList> newInputData
     ) {
         try {
-            UpdatableIndex<K, Void, FileContent> index = getIndex(key);
-            if (index == null) {
-                return;
-            }
             index.updateWithMap(new AbstractUpdateData<>(fileId) {
                 @Override
                 protected boolean iterateKeys(
@@ -775,6 +842,132 @@ public final class StubIndexImpl extends StubIndex implements PersistentStateCom
         }
     }
 
+    private <K> boolean queueUpdate(StubIndexKey<K, ?> key, int fileId, Map<K, StubIdList> oldInputData, Map<K, StubIdList> newInputData) {
+        @SuppressWarnings("unchecked")
+        PendingUpdates<K> pending = (PendingUpdates<K>)myPendingUpdates.computeIfAbsent(key, PendingUpdates::new);
+        int size;
+        synchronized (pending) {
+            // checked under the same lock as the queue is swapped in flush, see setDataBufferingEnabled
+            if (myDataBufferingEnabled) {
+                return false;
+            }
+            pending.myUpdates.add(new PendingUpdate<>(fileId, oldInputData, newInputData));
+            size = pending.myUpdates.size();
+        }
+        if (size >= UPDATE_BATCH_SIZE * 4) {
+            // flushing falls behind, don't let the queue grow
+            flushPendingUpdates(pending);
+        }
+        else if (size >= UPDATE_BATCH_SIZE && pending.myFlushScheduled.compareAndSet(false, true)) {
+            ourUpdateFlushExecutor.execute(() -> {
+                pending.myFlushScheduled.set(false);
+                flushPendingUpdates(pending);
+            });
+        }
+        return true;
+    }
+
+    /**
+     * Applies queued updates of all stub indices, one task per index.
+     */
+    private void flushPendingUpdates() {
+        if (!BATCHED_UPDATES) {
+            return;
+        }
+        List<Future<?>> futures = new ArrayList<>();
+        for (PendingUpdates<?> pending : myPendingUpdates.values()) {
+            if (!pending.isEmpty()) {
+                futures.add(ourUpdateFlushExecutor.submit(() -> flushPendingUpdates(pending)));
+            }
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+            catch (ExecutionException e) {
+                LOG.error(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Applies queued updates of the index under the read lock of {@link StubUpdatingIndex}, so no updates are queued meanwhile
+     * and the index becomes consistent with stub trees.
+     */
+    private void flushPendingUpdates(StubIndexKey<?, ?> key) {
+        if (!BATCHED_UPDATES) {
+            return;
+        }
+        PendingUpdates<?> pending = myPendingUpdates.get(key);
+        if (pending != null && !pending.isEmpty()) {
+            ConcurrencyUtil.withLock(getStubUpdatingIndex().getReadLock(), () -> flushPendingUpdates(pending));
+        }
+    }
+
+    private <K> void flushPendingUpdates(PendingUpdates<K> pending) {
+        pending.myFlushLock.lock();
+        try {
+            List<PendingUpdate<K>> updates;
+            synchronized (pending) {
+                updates = pending.myUpdates;
+                if (updates.isEmpty()) {
+                    return;
+                }
+                pending.myUpdates = new ArrayList<>();
+            }
+            UpdatableIndex<K, Void, FileContent> index = getIndex(pending.myKey);
+            if (index == null) {
+                return;
+            }
+
+            Lock lock = index.getWriteLock();
+            long started = System.nanoTime();
+            lock.lock();
+            try {
+                if (IndexingMetrics.ENABLED) {
+                    IndexingMetrics.forIndex(pending.myKey).lockAcquired(System.nanoTime() - started);
+                }
+                for (PendingUpdate<K> update : updates) {
+                    applyUpdate(index, update.fileId(), update.oldInputData(), update.newInputData());
+                }
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+        finally {
+            pending.myFlushLock.unlock();
+        }
+    }
+
+    private record PendingUpdate<K>(int fileId, Map<K, StubIdList> oldInputData, Map<K, StubIdList> newInputData) {
+    }
+
+    private static final class PendingUpdates<K> {
+        private final StubIndexKey<K, ?> myKey;
+        // serializes flushes, so updates of a file are applied in order
+        private final ReentrantLock myFlushLock = new ReentrantLock();
+        private final AtomicBoolean myFlushScheduled = new AtomicBoolean();
+        private List<PendingUpdate<K>> myUpdates = new ArrayList<>(); // guarded by this
+
+        @SuppressWarnings("unchecked")
+        private PendingUpdates(StubIndexKey<?, ?> key) {
+            myKey = (StubIndexKey<K, ?>)key;
+        }
+
+        private synchronized boolean isEmpty() {
+            return myUpdates.isEmpty();
+        }
+
+        private synchronized void clear() {
+            myUpdates = new ArrayList<>();
+        }
+    }
+
     private class StubIndexInitialization extends IndexInfrastructure.DataInitialization<AsyncState> {
         private final AsyncState state = new AsyncState();
         private final IndicesRegistrationResult indicesRegistrationSink = new IndicesRegistrationResult();
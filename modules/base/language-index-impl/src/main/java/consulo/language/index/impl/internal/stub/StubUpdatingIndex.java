@@ -18,8 +18,10 @@ package consulo.language.index.impl.internal.stub;
 import consulo.annotation.component.ExtensionImpl;
 import consulo.application.ReadAction;
 import consulo.component.ProcessCanceledException;
+import consulo.index.io.CompressionCodecs;
 import consulo.index.io.ID;
 import consulo.index.io.IndexStorage;
+import consulo.index.io.IndexingMetrics;
 import consulo.index.io.PersistentHashMapValueStorage;
 import consulo.index.io.StorageException;
 import consulo.index.io.data.DataExternalizer;
@@ -57,10 +59,11 @@ import java.util.Map;
 public class StubUpdatingIndex extends SingleEntryFileBasedIndexExtension<SerializedStubTree>
     implements CustomImplementationFileBasedIndexExtension<Integer, SerializedStubTree> {
     static final Logger LOG = Logger.getInstance(StubUpdatingIndex.class);
-    private static final int VERSION = 43 + (PersistentHashMapValueStorage.COMPRESSION_ENABLED ? 1 : 0);
+    private static final int VERSION = 43 + (PersistentHashMapValueStorage.COMPRESSION_ENABLED ? 1 : 0) +
+        31 * CompressionCodecs.storageVersion(SerializedStubTreeDataExternalizer.STORAGE_NAME);
 
     // todo remove once we don't need this for stub-ast mismatch debug info
-    private static final FileAttribute INDEXED_STAMP = new FileAttribute("stubIndexStamp", 3, true);
+    private static final FileAttribute INDEXED_STAMP = new FileAttribute("stubIndexStamp", 4, 32);
 
     public static final ID<Integer, SerializedStubTree> INDEX_ID = ID.create("Stubs");
 
@@ -141,11 +144,18 @@ public class StubUpdatingIndex extends SingleEntryFileBasedIndexExtension<Serial
                         if (serializedStubTree == null) {
                             Stub rootStub = StubTreeBuilder.buildStubTree(inputData);
                             if (rootStub != null) {
+                                long started = System.nanoTime();
                                 serializedStubTree = new SerializedStubTree(
                                     rootStub,
                                     SerializationManagerEx.getInstanceEx(),
                                     StubForwardIndexExternalizer.IdeStubForwardIndexesExternalizer.INSTANCE
                                 );
+                                if (IndexingMetrics.ENABLED) {
+                                    IndexingMetrics.forIndex(INDEX_ID).serialized(
+                                        serializedStubTree.myTreeByteLength + serializedStubTree.myIndexedStubByteLength,
+                                        System.nanoTime() - started
+                                    );
+                                }
                                 if (DebugAssertions.DEBUG) {
                                     Stub deserialized = serializedStubTree.retrieveStubFromBytes(SerializationManagerEx.getInstanceEx());
                                     check(deserialized, rootStub);
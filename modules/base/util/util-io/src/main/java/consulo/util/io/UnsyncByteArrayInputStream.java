@@ -79,6 +79,13 @@ public class UnsyncByteArrayInputStream extends InputStream {
     return myCount - myPosition;
   }
 
+  /**
+   * @return index of the next byte to read in the underlying array
+   */
+  public int getPosition() {
+    return myPosition;
+  }
+
   @Override
   public boolean markSupported() {
     return true;
@@ -29,6 +29,19 @@ public class TrigramBuilder {
 
     public static boolean processTrigrams(CharSequence text, TrigramProcessor consumer) {
         AddonlyIntSet set = new AddonlyIntSet();
+        processTrigramOccurrences(text, (trigram, offset) -> {
+            set.add(trigram);
+            return true;
+        });
+
+        return consumer.consumeTrigramsCount(set.size()) && set.forEach(consumer);
+    }
+
+    /**
+     * Reports every occurrence of every trigram, duplicates included, in the order of their offsets.
+     * Trigrams are the same as the ones of {@link #processTrigrams(CharSequence, TrigramProcessor)}.
+     */
+    public static boolean processTrigramOccurrences(CharSequence text, TrigramOccurrenceProcessor processor) {
         int index = 0;
         char[] fileTextArray = CharArrayUtil.fromSequenceWithoutCopying(text);
 
@@ -69,13 +82,20 @@ public class TrigramBuilder {
                 tc2 = (tc1 << 8) + c;
                 tc1 = c;
 
-                if (iters >= 2) {
-                    set.add(tc3);
+                if (iters >= 2 && !processor.process(tc3, i - 2)) {
+                    return false;
                 }
             }
         }
+        return true;
+    }
 
-        return consumer.consumeTrigramsCount(set.size()) && set.forEach(consumer);
+    @FunctionalInterface
+    public interface TrigramOccurrenceProcessor {
+        /**
+         * @param offset offset of the first char of the trigram in the text
+         */
+        boolean process(int trigram, int offset);
     }
 
     public static abstract class TrigramProcessor implements IntPredicate {
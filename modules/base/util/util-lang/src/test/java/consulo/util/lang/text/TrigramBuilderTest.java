@@ -0,0 +1,105 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.util.lang.text;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TrigramBuilderTest {
+    @Test
+    void testOccurrenceOffsets() {
+        List<String> occurrences = new ArrayList<>();
+        TrigramBuilder.processTrigramOccurrences("ab Cde_f1 (xyz)", (trigram, offset) -> {
+            occurrences.add(toString(trigram) + "@" + offset);
+            return true;
+        });
+
+        // trigrams are lowercased and don't cross words, words shorter than 3 chars have none
+        assertThat(occurrences).containsExactly("cde@3", "de_@4", "e_f@5", "_f1@6", "xyz@11");
+    }
+
+    @Test
+    void testRepeatedTrigramIsReportedAtEveryOffset() {
+        List<Integer> offsets = new ArrayList<>();
+        TrigramBuilder.processTrigramOccurrences("aaaaa aaa", (trigram, offset) -> {
+            assertThat(toString(trigram)).isEqualTo("aaa");
+            offsets.add(offset);
+            return true;
+        });
+
+        assertThat(offsets).containsExactly(0, 1, 2, 6);
+    }
+
+    @Test
+    void testStopsWhenProcessorReturnsFalse() {
+        List<Integer> offsets = new ArrayList<>();
+        boolean completed = TrigramBuilder.processTrigramOccurrences("abcdef", (trigram, offset) -> {
+            offsets.add(offset);
+            return offset < 1;
+        });
+
+        assertThat(completed).isFalse();
+        assertThat(offsets).containsExactly(0, 1);
+    }
+
+    @Test
+    void testOccurrencesAgreeWithTrigrams() {
+        Random random = new Random(42);
+        for (int iteration = 0; iteration < 200; iteration++) {
+            String text = randomText(random, random.nextInt(200));
+
+            Set<Integer> occurred = new HashSet<>();
+            int[] lastOffset = {-1};
+            TrigramBuilder.processTrigramOccurrences(text, (trigram, offset) -> {
+                assertThat(offset).isGreaterThan(lastOffset[0]);
+                assertThat(toString(trigram)).isEqualTo(text.substring(offset, offset + 3).toLowerCase());
+                lastOffset[0] = offset;
+                occurred.add(trigram);
+                return true;
+            });
+
+            Set<Integer> trigrams = new HashSet<>();
+            TrigramBuilder.processTrigrams(text, new TrigramBuilder.TrigramProcessor() {
+                @Override
+                public boolean test(int value) {
+                    trigrams.add(value);
+                    return true;
+                }
+            });
+            assertThat(occurred).isEqualTo(trigrams);
+        }
+    }
+
+    private static String randomText(Random random, int length) {
+        String chars = "abAB1_ .";
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append(chars.charAt(random.nextInt(chars.length())));
+        }
+        return builder.toString();
+    }
+
+    private static String toString(int trigram) {
+        return new String(new char[]{(char)((trigram >> 16) & 0xFF), (char)((trigram >> 8) & 0xFF), (char)(trigram & 0xFF)});
+    }
+}
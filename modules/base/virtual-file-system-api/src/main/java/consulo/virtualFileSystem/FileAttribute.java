@@ -30,9 +30,11 @@ import java.util.Set;
 public class FileAttribute {
   private static final Set<String> ourRegisteredIds = Sets.newConcurrentHashSet();
   private static final int UNDEFINED_VERSION = -1;
+  public static final int MAX_COLUMN_SIZE = 128;
   private final String myId;
   private final int myVersion;
   private final boolean myFixedSize;
+  private final int myColumnSize;
 
   public FileAttribute(String id) {
     this(id, UNDEFINED_VERSION, false);
@@ -47,15 +49,29 @@ public class FileAttribute {
   }
 
   public FileAttribute(String id, int version, boolean fixedSize) {
-    this(version, fixedSize, id);
+    this(id, version, fixedSize, 0);
+  }
+
+  /**
+   * Creates an attribute whose value never exceeds {@code columnSize} bytes. Such attributes are kept in a column with a slot
+   * for every file, so reading them for many files at once is a sequential scan.
+   */
+  public FileAttribute(String id, int version, int columnSize) {
+    this(id, version, true, columnSize);
+    assert columnSize > 0 && columnSize <= MAX_COLUMN_SIZE : "Attribute id='" + id + "' has invalid column size " + columnSize;
+  }
+
+  private FileAttribute(String id, int version, boolean fixedSize, int columnSize) {
+    this(version, fixedSize, columnSize, id);
     boolean added = ourRegisteredIds.add(id);
     assert added : "Attribute id='" + id+ "' is not unique";
   }
 
-  private FileAttribute(int version, boolean fixedSize,String id) {
+  private FileAttribute(int version, boolean fixedSize, int columnSize, String id) {
     myId = id;
     myVersion = version;
     myFixedSize = fixedSize;
+    myColumnSize = columnSize;
   }
 
   public @Nullable DataInputStream readAttribute(VirtualFile file) {
@@ -98,8 +114,15 @@ public class FileAttribute {
     return myFixedSize;
   }
 
+  /**
+   * @return maximal size of the attribute value if it's stored in a column, 0 otherwise
+   */
+  public int getColumnSize() {
+    return myColumnSize;
+  }
+
   public FileAttribute newVersion(int newVersion) {
-    return new FileAttribute(newVersion, myFixedSize, myId);
+    return new FileAttribute(newVersion, myFixedSize, myColumnSize, myId);
   }
 
   public int getVersion() {
@@ -41,4 +41,11 @@ public interface FSRecordsProxy {
     DataOutputStream writeAttribute(int fileId, FileAttribute att);
 
     @Nullable DataInputStream readAttributeWithLock(int fileId, FileAttribute att);
+
+    /**
+     * Reads the attribute of many files at once, see {@link #readAttributeWithLock}.
+     *
+     * @return attribute values in the order of {@code fileIds}, {@code null} for files without the attribute
+     */
+    @Nullable DataInputStream[] readAttributesWithLock(int[] fileIds, FileAttribute att);
 }
@@ -50,6 +50,13 @@ public abstract class ArchiveFileSystemViaArchiveFile extends BaseArchiveFileSys
     
     public abstract ArchiveFile createArchiveFile(String filePath) throws IOException;
 
+    /**
+     * @return true if archives of this file system are zip files, which central directory can be read without {@link #createArchiveFile}
+     */
+    public boolean isZipArchive() {
+        return false;
+    }
+
     
     @Override
     public final String getProtocol() {
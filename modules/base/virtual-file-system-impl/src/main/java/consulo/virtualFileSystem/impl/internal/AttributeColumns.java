@@ -0,0 +1,252 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.virtualFileSystem.impl.internal;
+
+import consulo.index.io.PagedFileStorage;
+import consulo.index.io.ResizeableMappedFile;
+import consulo.index.io.data.IOUtil;
+import consulo.virtualFileSystem.FileAttribute;
+import org.jspecify.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Storage of attributes with {@link FileAttribute#getColumnSize() column size}: every such attribute has its own memory mapped file
+ * with a slot of the same size for each file id, so the attribute of many files is read by a sequential scan without looking up
+ * attribute directory records.
+ * <p>
+ * Slot layout: length of the value plus one (0 when the attribute isn't set), value bytes (with the attribute version if it's versioned).
+ * Column file name contains the attribute id and the slot size, so changing the column size of an attribute starts a new column.
+ * <p>
+ * Columns are used under the read lock of {@link #myColumnsLock} and replaced under its write lock, so a replaced column is closed
+ * only when nobody can use it anymore.
+ */
+final class AttributeColumns {
+    private static final String COLUMN_EXTENSION = ".col";
+
+    private final File myDirectory;
+    private final PagedFileStorage.StorageLockContext myLockContext;
+    private final Map<Integer, Column> myColumns = new ConcurrentHashMap<>();
+    private final ReadWriteLock myColumnsLock = new ReentrantReadWriteLock();
+
+    AttributeColumns(File directory, PagedFileStorage.StorageLockContext lockContext) throws IOException {
+        myDirectory = directory;
+        myLockContext = lockContext;
+
+        if (!(directory.isDirectory() || directory.mkdirs())) {
+            throw new IOException("Cannot create attribute columns directory: " + directory);
+        }
+        // existing columns are opened eagerly, so slots of deleted files are cleared in all of them
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(COLUMN_EXTENSION));
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                int separator = name.indexOf('_');
+                if (separator < 0) {
+                    continue;
+                }
+                try {
+                    int attributeId = Integer.parseInt(name.substring(0, separator));
+                    int slotSize = Integer.parseInt(name.substring(separator + 1, name.length() - COLUMN_EXTENSION.length()));
+                    myColumns.put(attributeId, new Column(file, slotSize));
+                }
+                catch (NumberFormatException ignored) {
+                }
+            }
+        }
+    }
+
+    static int getSlotSize(FileAttribute attribute) {
+        // versioned attributes are prefixed with the version, see FSRecords.writeAttribute
+        return 1 + attribute.getColumnSize() + (attribute.isVersioned() ? 5 : 0);
+    }
+
+    byte @Nullable [] read(int fileId, int attributeId, FileAttribute attribute) {
+        myColumnsLock.readLock().lock();
+        try {
+            Column column = myColumns.get(attributeId);
+            if (column == null || column.mySlotSize != getSlotSize(attribute)) {
+                return null;
+            }
+            synchronized (column) {
+                return column.read(fileId);
+            }
+        }
+        finally {
+            myColumnsLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param fileIds sorted ids of files
+     */
+    void read(int[] fileIds, int attributeId, FileAttribute attribute, byte[][] result) {
+        myColumnsLock.readLock().lock();
+        try {
+            Column column = myColumns.get(attributeId);
+            if (column == null || column.mySlotSize != getSlotSize(attribute)) {
+                return;
+            }
+            synchronized (column) {
+                for (int i = 0; i < fileIds.length; i++) {
+                    result[i] = column.read(fileIds[i]);
+                }
+            }
+        }
+        finally {
+            myColumnsLock.readLock().unlock();
+        }
+    }
+
+    void write(int fileId, int attributeId, FileAttribute attribute, byte[] bytes, int offset, int length) throws IOException {
+        int slotSize = getSlotSize(attribute);
+        if (length >= slotSize) {
+            throw new IOException("Value of attribute " + attribute.getId() + " doesn't fit into its column: " + length + " bytes");
+        }
+        myColumnsLock.readLock().lock();
+        try {
+            Column column = myColumns.get(attributeId);
+            if (column != null && column.mySlotSize == slotSize) {
+                column.write(fileId, bytes, offset, length);
+                return;
+            }
+        }
+        finally {
+            myColumnsLock.readLock().unlock();
+        }
+
+        myColumnsLock.writeLock().lock();
+        try {
+            Column column = myColumns.get(attributeId);
+            if (column == null || column.mySlotSize != slotSize) {
+                column = replaceColumn(attributeId, column, slotSize);
+            }
+            column.write(fileId, bytes, offset, length);
+        }
+        finally {
+            myColumnsLock.writeLock().unlock();
+        }
+    }
+
+    void clear(int fileId) {
+        myColumnsLock.readLock().lock();
+        try {
+            for (Column column : myColumns.values()) {
+                synchronized (column) {
+                    long address = (long) fileId * column.mySlotSize;
+                    if (address < column.myFile.length()) {
+                        column.myFile.put(address, (byte) 0);
+                    }
+                }
+            }
+        }
+        finally {
+            myColumnsLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Must be called under the write lock of {@link #myColumnsLock}: no reader can hold {@code oldColumn} then, so it's safe to delete it.
+     */
+    private Column replaceColumn(int attributeId, @Nullable Column oldColumn, int slotSize) throws IOException {
+        Column column = new Column(new File(myDirectory, attributeId + "_" + slotSize + COLUMN_EXTENSION), slotSize);
+        myColumns.put(attributeId, column);
+        if (oldColumn != null) {
+            oldColumn.myFile.close();
+            IOUtil.deleteAllFilesStartingWith(oldColumn.myPath);
+        }
+        return column;
+    }
+
+    boolean isDirty() {
+        myColumnsLock.readLock().lock();
+        try {
+            for (Column column : myColumns.values()) {
+                if (column.myFile.isDirty()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        finally {
+            myColumnsLock.readLock().unlock();
+        }
+    }
+
+    void force() {
+        myColumnsLock.readLock().lock();
+        try {
+            for (Column column : myColumns.values()) {
+                synchronized (column) {
+                    column.myFile.force();
+                }
+            }
+        }
+        finally {
+            myColumnsLock.readLock().unlock();
+        }
+    }
+
+    void close() {
+        myColumnsLock.writeLock().lock();
+        try {
+            for (Column column : myColumns.values()) {
+                column.myFile.close();
+            }
+            myColumns.clear();
+        }
+        finally {
+            myColumnsLock.writeLock().unlock();
+        }
+    }
+
+    private final class Column {
+        private final File myPath;
+        private final int mySlotSize;
+        private final ResizeableMappedFile myFile;
+
+        private Column(File path, int slotSize) throws IOException {
+            myPath = path;
+            mySlotSize = slotSize;
+            myFile = new ResizeableMappedFile(path, 64 * slotSize, myLockContext, PagedFileStorage.BUFFER_SIZE, false);
+        }
+
+        private synchronized void write(int fileId, byte[] bytes, int offset, int length) {
+            long address = (long) fileId * mySlotSize;
+            myFile.put(address, (byte) (length + 1));
+            myFile.put(address + 1, bytes, offset, length);
+        }
+
+        private byte @Nullable [] read(int fileId) {
+            long address = (long) fileId * mySlotSize;
+            if (address >= myFile.length()) {
+                return null;
+            }
+            int length = (myFile.get(address) & 0xFF) - 1;
+            if (length < 0) {
+                return null;
+            }
+            byte[] bytes = new byte[length];
+            myFile.get(address + 1, bytes, 0, length);
+            return bytes;
+        }
+    }
+}
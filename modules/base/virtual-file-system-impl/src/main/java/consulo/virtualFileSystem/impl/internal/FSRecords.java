@@ -44,6 +44,9 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
@@ -115,7 +118,17 @@ public class FSRecords {
     private static final ReentrantReadWriteLock.ReadLock r;
     private static final ReentrantReadWriteLock.WriteLock w;
 
-    private static volatile int ourLocalModificationCount;
+    // Content store and attribute storage have their own locks which are taken together with the read lock of the records table,
+    // so writing file contents and attributes doesn't block readers. Attribute locks are striped by file id.
+    private static final ReentrantLock contentLock;
+    private static final int ATTRIBUTE_LOCK_STRIPES = 16;
+    private static final ReentrantReadWriteLock[] attributeLocks;
+    // Such writes also pass storageWriteGate which DbConnection.doForce() closes, and their records table updates are serialized
+    // by recordsUpdateLock.
+    private static final StorageWriteGate storageWriteGate = new StorageWriteGate();
+    private static final Object recordsUpdateLock = new Object();
+
+    private static final AtomicInteger ourLocalModificationCount = new AtomicInteger();
     private static volatile boolean ourIsDisposed;
 
     private static final int FREE_RECORD_FLAG = 0x100;
@@ -129,6 +142,12 @@ public class FSRecords {
         lock = new ReentrantReadWriteLock();
         r = lock.readLock();
         w = lock.writeLock();
+
+        contentLock = new ReentrantLock();
+        attributeLocks = new ReentrantReadWriteLock[ATTRIBUTE_LOCK_STRIPES];
+        for (int i = 0; i < attributeLocks.length; i++) {
+            attributeLocks[i] = new ReentrantReadWriteLock();
+        }
     }
 
     static void writeAttributesToRecord(int id, int parentId, FileAttributes attributes, String name) {
@@ -163,6 +182,7 @@ public class FSRecords {
         private static Storage myAttributes;
         private static RefCountingStorage myContents;
         private static ResizeableMappedFile myRecords;
+        private static AttributeColumns myAttributeColumns;
         private static PersistentBTreeEnumerator<byte[]> myContentHashesEnumerator;
         private static File myRootsFile;
         private static final VfsDependentEnum<String> myAttributesList =
@@ -253,6 +273,7 @@ public class FSRecords {
             final File contentsFile = new File(basePath, "content" + VFS_FILES_EXTENSION);
             File contentsHashesFile = new File(basePath, "contentHashes" + VFS_FILES_EXTENSION);
             File recordsFile = new File(basePath, "records" + VFS_FILES_EXTENSION);
+            File attributeColumnsDir = new File(basePath, "attrib_columns");
             myRootsFile = ourStoreRootsSeparately ? new File(basePath, "roots" + VFS_FILES_EXTENSION) : null;
 
             File vfsDependentEnumBaseFile = VfsDependentEnum.getBaseFile();
@@ -287,6 +308,8 @@ public class FSRecords {
                         }
                     };
 
+                myAttributeColumns = new AttributeColumns(attributeColumnsDir, storageLockContext);
+
                 // sources usually zipped with 4x ratio
                 myContentHashesEnumerator =
                     WE_HAVE_CONTENT_HASHES ? new ContentHashesUtil.HashEnumerator(contentsHashesFile, storageLockContext) : null;
@@ -338,6 +361,7 @@ public class FSRecords {
                     deleted &= AbstractStorage.deleteFiles(contentsFile.getPath());
                     deleted &= IOUtil.deleteAllFilesStartingWith(contentsHashesFile);
                     deleted &= IOUtil.deleteAllFilesStartingWith(recordsFile);
+                    deleted &= FileUtil.delete(attributeColumnsDir);
                     deleted &= IOUtil.deleteAllFilesStartingWith(vfsDependentEnumBaseFile);
                     deleted &= myRootsFile == null || IOUtil.deleteAllFilesStartingWith(myRootsFile);
 
@@ -403,11 +427,16 @@ public class FSRecords {
             return dir == null ? ContainerPathManager.get().getSystemPath() + "/caches/" : dir;
         }
 
+        // either called under write lock, or under read lock together with content or attribute lock
         private static void markDirty() {
-            assert lock.isWriteLocked();
+            assert lock.isWriteLocked() || lock.getReadHoldCount() != 0;
             if (!myDirty) {
-                myDirty = true;
-                myRecords.putInt(HEADER_CONNECTION_STATUS_OFFSET, CONNECTED_MAGIC);
+                synchronized (recordsUpdateLock) {
+                    if (!myDirty) {
+                        myDirty = true;
+                        myRecords.putInt(HEADER_CONNECTION_STATUS_OFFSET, CONNECTED_MAGIC);
+                    }
+                }
             }
         }
 
@@ -421,10 +450,11 @@ public class FSRecords {
 
                 @Override
                 public void run() {
-                    if (lastModCount == ourLocalModificationCount) {
+                    int modCount = ourLocalModificationCount.get();
+                    if (lastModCount == modCount) {
                         flush();
                     }
-                    lastModCount = ourLocalModificationCount;
+                    lastModCount = modCount;
                 }
             });
         }
@@ -432,14 +462,22 @@ public class FSRecords {
         private static void doForce() {
             // avoid NPE when close has already taken place
             if (myNames != null && myFlushingFuture != null) {
-                myNames.force();
-                myAttributes.force();
-                myContents.force();
-                if (myContentHashesEnumerator != null) {
-                    myContentHashesEnumerator.force();
+                // under read lock content and attribute writes may be in progress, wait for them to complete
+                storageWriteGate.close();
+                try {
+                    myNames.force();
+                    myAttributes.force();
+                    myAttributeColumns.force();
+                    myContents.force();
+                    if (myContentHashesEnumerator != null) {
+                        myContentHashesEnumerator.force();
+                    }
+                    markClean();
+                    myRecords.force();
+                }
+                finally {
+                    storageWriteGate.open();
                 }
-                markClean();
-                myRecords.force();
             }
         }
 
@@ -457,6 +495,7 @@ public class FSRecords {
             return myDirty
                 || myNames.isDirty()
                 || myAttributes.isDirty()
+                || myAttributeColumns.isDirty()
                 || myContents.isDirty()
                 || myRecords.isDirty()
                 || myContentHashesEnumerator != null && myContentHashesEnumerator.isDirty();
@@ -507,6 +546,11 @@ public class FSRecords {
                 myAttributes = null;
             }
 
+            if (myAttributeColumns != null) {
+                myAttributeColumns.close();
+                myAttributeColumns = null;
+            }
+
             if (myContents != null) {
                 myContents.close();
                 myContents = null;
@@ -525,9 +569,9 @@ public class FSRecords {
             ourInitialized = false;
         }
 
-        // either called from FlushingDaemon thread under read lock, or from handleError under write lock
+        // either called from FlushingDaemon thread under read lock with storageWriteGate closed, or under write lock
         private static void markClean() {
-            assert lock.isWriteLocked() || lock.getReadHoldCount() != 0;
+            assert lock.isWriteLocked() || storageWriteGate.isClosedByCurrentThread();
             if (myDirty) {
                 myDirty = false;
                 // writing here under read lock is safe because no-one else read or write at this offset (except at startup)
@@ -564,11 +608,12 @@ public class FSRecords {
         }
 
         private static class AttrPageAwareCapacityAllocationPolicy extends CapacityAllocationPolicy {
-            boolean myAttrPageRequested;
+            // attributes of different files are written concurrently
+            final ThreadLocal<Boolean> myAttrPageRequested = ThreadLocal.withInitial(() -> Boolean.FALSE);
 
             @Override
             public int calculateCapacity(int requiredLength) {   // 20% for growth
-                return Math.max(myAttrPageRequested ? 8 : 32, Math.min((int) (requiredLength * 1.2), (requiredLength / 1024 + 1) * 1024));
+                return Math.max(myAttrPageRequested.get() ? 8 : 32, Math.min((int) (requiredLength * 1.2), (requiredLength / 1024 + 1) * 1024));
             }
         }
     }
@@ -684,6 +729,8 @@ public class FSRecords {
     }
 
     private static void deleteContentAndAttributes(int id) throws IOException {
+        DbConnection.myAttributeColumns.clear(id);
+
         int content_page = getContentRecordId(id);
         if (content_page != 0) {
             if (WE_HAVE_CONTENT_HASHES) {
@@ -966,7 +1013,16 @@ public class FSRecords {
     }
 
     static boolean wereChildrenAccessed(int id) {
-        return readAndHandleErrors(() -> findAttributePage(id, ourChildrenAttr, false) != 0);
+        return readAndHandleErrors(() -> {
+            Lock attributeLock = getAttributeLock(id).readLock();
+            attributeLock.lock();
+            try {
+                return findAttributePage(id, ourChildrenAttr, false) != 0;
+            }
+            finally {
+                attributeLock.unlock();
+            }
+        });
     }
 
     private static <T> T readAndHandleErrors(ThrowableComputable<T, ?> action) {
@@ -1014,6 +1070,46 @@ public class FSRecords {
         }
     }
 
+    // for modifications of the content store or attribute storage which only read the records table
+    private static <T> T readAndHandleErrors(Lock storageLock, ThrowableComputable<T, ?> action) {
+        try {
+            r.lock();
+            try {
+                storageWriteGate.enter();
+                try {
+                    storageLock.lock();
+                    try {
+                        return action.compute();
+                    }
+                    finally {
+                        storageLock.unlock();
+                    }
+                }
+                finally {
+                    storageWriteGate.exit();
+                }
+            }
+            finally {
+                r.unlock();
+            }
+        }
+        catch (Throwable e) {
+            DbConnection.handleError(e); // requires all read locks to be released
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void readAndHandleErrors(Lock storageLock, ThrowableRunnable<?> action) {
+        readAndHandleErrors(storageLock, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    private static ReentrantReadWriteLock getAttributeLock(int fileId) {
+        return attributeLocks[fileId & (ATTRIBUTE_LOCK_STRIPES - 1)];
+    }
+
     static void updateList(int id, int[] childIds) {
         assert id > 0 : id;
         Arrays.sort(childIds);
@@ -1074,13 +1170,12 @@ public class FSRecords {
 
     private static void incLocalModCount() {
         DbConnection.markDirty();
-        //noinspection NonAtomicOperationOnVolatileField
-        ourLocalModificationCount++;
+        ourLocalModificationCount.incrementAndGet();
         CachedFileType.clearCache();
     }
 
     static int getLocalModCount() {
-        return ourLocalModificationCount; // This is volatile, only modified under Application.runWriteAction() lock.
+        return ourLocalModificationCount.get();
     }
 
     static int getModCount() {
@@ -1285,8 +1380,11 @@ public class FSRecords {
         return getRecordInt(id, ATTR_REF_OFFSET);
     }
 
+    // attributes of different files are written concurrently under read lock
     private static void setAttributeRecordId(int id, int value) {
-        putRecordInt(id, ATTR_REF_OFFSET, value);
+        synchronized (recordsUpdateLock) {
+            putRecordInt(id, ATTR_REF_OFFSET, value);
+        }
     }
 
     private static int getRecordInt(int id, int offset) {
@@ -1343,25 +1441,90 @@ public class FSRecords {
 
     public static @Nullable DataInputStream readAttributeWithLock(int fileId, FileAttribute att) {
         return readAndHandleErrors(() -> {
+            if (att.getColumnSize() > 0) {
+                checkFileIsValid(fileId);
+                byte[] bytes = DbConnection.myAttributeColumns.read(fileId, DbConnection.getAttributeId(att.getId()), att);
+                return bytes == null ? null : checkAttributeVersion(new DataInputStream(new UnsyncByteArrayInputStream(bytes)), att);
+            }
             try (DataInputStream stream = readAttribute(fileId, att)) {
-                if (stream != null && att.isVersioned()) {
-                    try {
-                        int actualVersion = DataInputOutputUtil.readINT(stream);
-                        if (actualVersion != att.getVersion()) {
-                            return null;
-                        }
+                return checkAttributeVersion(stream, att);
+            }
+        });
+    }
+
+    /**
+     * Reads the attribute of many files under a single lock acquisition. Files are visited in order of attribute storage location,
+     * attributes with {@link FileAttribute#getColumnSize() column size} are read by a sequential scan of their column.
+     *
+     * @return attribute values in the order of {@code fileIds}, {@code null} for files without the attribute (of the current version)
+     */
+    public static @Nullable DataInputStream[] readAttributesWithLock(int[] fileIds, FileAttribute att) {
+        DataInputStream[] result = new DataInputStream[fileIds.length];
+        if (fileIds.length == 0) {
+            return result;
+        }
+        return readAndHandleErrors(() -> {
+            boolean columnar = att.getColumnSize() > 0;
+            long[] order = new long[fileIds.length];
+            for (int i = 0; i < fileIds.length; i++) {
+                int location = columnar ? fileIds[i] : getAttributeRecordId(fileIds[i]);
+                order[i] = ((long) location << 32) | i;
+            }
+            Arrays.sort(order);
+
+            if (columnar) {
+                int[] sortedIds = new int[fileIds.length];
+                for (int i = 0; i < order.length; i++) {
+                    sortedIds[i] = fileIds[(int) order[i]];
+                }
+                byte[][] values = new byte[fileIds.length][];
+                DbConnection.myAttributeColumns.read(sortedIds, DbConnection.getAttributeId(att.getId()), att, values);
+                for (int i = 0; i < order.length; i++) {
+                    if (values[i] != null) {
+                        result[(int) order[i]] = checkAttributeVersion(new DataInputStream(new UnsyncByteArrayInputStream(values[i])), att);
                     }
-                    catch (IOException e) {
-                        return null;
+                }
+            }
+            else {
+                for (long entry : order) {
+                    int index = (int) entry;
+                    if (entry >>> 32 != 0) {
+                        result[index] = checkAttributeVersion(readAttribute(fileIds[index], att), att);
                     }
                 }
-                return stream;
             }
+            return result;
         });
     }
 
+    private static @Nullable DataInputStream checkAttributeVersion(@Nullable DataInputStream stream, FileAttribute att) {
+        if (stream != null && att.isVersioned()) {
+            try {
+                int actualVersion = DataInputOutputUtil.readINT(stream);
+                if (actualVersion != att.getVersion()) {
+                    return null;
+                }
+            }
+            catch (IOException e) {
+                return null;
+            }
+        }
+        return stream;
+    }
+
     // must be called under r or w lock
     private static @Nullable DataInputStream readAttribute(int fileId, FileAttribute attribute) throws IOException {
+        Lock attributeLock = getAttributeLock(fileId).readLock();
+        attributeLock.lock();
+        try {
+            return doReadAttribute(fileId, attribute);
+        }
+        finally {
+            attributeLock.unlock();
+        }
+    }
+
+    private static @Nullable DataInputStream doReadAttribute(int fileId, FileAttribute attribute) throws IOException {
         checkFileIsValid(fileId);
 
         int recordId = getAttributeRecordId(fileId);
@@ -1472,11 +1635,11 @@ public class FSRecords {
                 DataInputOutputUtil.writeINT(appender, encodedAttrId);
                 int attrAddress = storage.createNewRecord();
                 DataInputOutputUtil.writeINT(appender, inlineAttributes ? attrAddress + MAX_SMALL_ATTR_SIZE : attrAddress);
-                DbConnection.REASONABLY_SMALL.myAttrPageRequested = true;
+                DbConnection.REASONABLY_SMALL.myAttrPageRequested.set(Boolean.TRUE);
                 return attrAddress;
             }
             finally {
-                DbConnection.REASONABLY_SMALL.myAttrPageRequested = false;
+                DbConnection.REASONABLY_SMALL.myAttrPageRequested.set(Boolean.FALSE);
             }
         }
 
@@ -1504,7 +1667,7 @@ public class FSRecords {
     }
 
     static int acquireFileContent(int fileId) {
-        return writeAndHandleErrors(() -> {
+        return readAndHandleErrors(contentLock, () -> {
             int record = getContentRecordId(fileId);
             if (record > 0) {
                 getContentStorage().acquireRecord(record);
@@ -1514,7 +1677,7 @@ public class FSRecords {
     }
 
     static void releaseContent(int contentId) {
-        writeAndHandleErrors(() -> getContentStorage().releaseRecord(contentId, !WE_HAVE_CONTENT_HASHES));
+        readAndHandleErrors(contentLock, () -> getContentStorage().releaseRecord(contentId, !WE_HAVE_CONTENT_HASHES));
     }
 
     static int getContentId(int fileId) {
@@ -1533,7 +1696,7 @@ public class FSRecords {
     }
 
     static int storeUnlinkedContent(byte[] bytes) {
-        return writeAndHandleErrors(() -> {
+        return readAndHandleErrors(contentLock, () -> {
             int recordId;
             if (WE_HAVE_CONTENT_HASHES) {
                 recordId = findOrCreateContentRecord(bytes, 0, bytes.length);
@@ -1584,52 +1747,57 @@ public class FSRecords {
         }
 
         private void writeBytes(ByteArraySequence bytes) {
-            writeAndHandleErrors(() -> {
-                RefCountingStorage contentStorage = getContentStorage();
-                checkFileIsValid(myFileId);
-
-                int page;
-                boolean fixedSize;
-                if (WE_HAVE_CONTENT_HASHES) {
-                    page = findOrCreateContentRecord(bytes.getBytes(), bytes.getOffset(), bytes.getLength());
-
-                    if (page < 0 || getContentId(myFileId) != page) {
-                        incModCount(myFileId);
-                        setContentRecordId(myFileId, page > 0 ? page : -page);
+            if (WE_HAVE_CONTENT_HASHES) {
+                // new content record is filled before it's linked to the file, only linking requires the write lock
+                int page = readAndHandleErrors(contentLock, () -> {
+                    checkFileIsValid(myFileId);
+                    int contentRecord = findOrCreateContentRecord(bytes.getBytes(), bytes.getOffset(), bytes.getLength());
+                    if (contentRecord < 0) {
+                        getContentStorage().writeBytes(-contentRecord, compress(bytes), true);
                     }
+                    return contentRecord;
+                });
 
-                    setContentRecordId(myFileId, page > 0 ? page : -page);
-
-                    if (page > 0) {
+                writeAndHandleErrors(() -> {
+                    int contentId = page > 0 ? page : -page;
+                    if (BitUtil.isSet(doGetFlags(myFileId), FREE_RECORD_FLAG)) {
+                        // the file was deleted since the content record was acquired, nothing will release it later
+                        getContentStorage().releaseRecord(contentId, false);
                         return;
                     }
-                    page = -page;
-                    fixedSize = true;
-                }
-                else {
-                    incModCount(myFileId);
-                    page = getContentRecordId(myFileId);
-                    if (page == 0 || contentStorage.getRefCount(page) > 1) {
-                        page = contentStorage.acquireNewRecord();
-                        setContentRecordId(myFileId, page);
+                    checkFileIsValid(myFileId);
+                    if (page < 0 || getContentRecordId(myFileId) != contentId) {
+                        incModCount(myFileId);
                     }
-                    fixedSize = myFixedSize;
-                }
+                    setContentRecordId(myFileId, contentId);
+                });
+                return;
+            }
 
-                ByteArraySequence newBytes;
-                if (useCompressionUtil) {
-                    BufferExposingByteArrayOutputStream out = new BufferExposingByteArrayOutputStream();
-                    try (DataOutputStream outputStream = new DataOutputStream(out)) {
-                        CompressionUtil.writeCompressed(outputStream, bytes.getBytes(), bytes.getOffset(), bytes.getLength());
-                    }
-                    newBytes = out.toByteArraySequence();
-                }
-                else {
-                    newBytes = bytes;
+            writeAndHandleErrors(() -> {
+                RefCountingStorage contentStorage = getContentStorage();
+                checkFileIsValid(myFileId);
+
+                incModCount(myFileId);
+                int page = getContentRecordId(myFileId);
+                if (page == 0 || contentStorage.getRefCount(page) > 1) {
+                    page = contentStorage.acquireNewRecord();
+                    setContentRecordId(myFileId, page);
                 }
-                contentStorage.writeBytes(page, newBytes, fixedSize);
+                contentStorage.writeBytes(page, compress(bytes), myFixedSize);
             });
         }
+
+        private static ByteArraySequence compress(ByteArraySequence bytes) throws IOException {
+            if (!useCompressionUtil) {
+                return bytes;
+            }
+            BufferExposingByteArrayOutputStream out = new BufferExposingByteArrayOutputStream();
+            try (DataOutputStream outputStream = new DataOutputStream(out)) {
+                CompressionUtil.writeCompressed(outputStream, bytes.getBytes(), bytes.getOffset(), bytes.getLength());
+            }
+            return out.toByteArraySequence();
+        }
     }
 
     private static final boolean DUMP_STATISTICS = WE_HAVE_CONTENT_HASHES;  // TODO: remove once not needed
@@ -1689,10 +1857,16 @@ public class FSRecords {
         @Override
         public void close() throws IOException {
             super.close();
-            writeAndHandleErrors(() -> {
+            readAndHandleErrors(getAttributeLock(myFileId).writeLock(), () -> {
                 BufferExposingByteArrayOutputStream _out = (BufferExposingByteArrayOutputStream) out;
 
-                if (inlineAttributes && _out.size() < MAX_SMALL_ATTR_SIZE) {
+                if (myAttribute.getColumnSize() > 0) {
+                    checkFileIsValid(myFileId);
+                    int attributeId = DbConnection.getAttributeId(myAttribute.getId());
+                    DbConnection.myAttributeColumns.write(myFileId, attributeId, myAttribute, _out.getInternalBuffer(), 0, _out.size());
+                    incLocalModCount();
+                }
+                else if (inlineAttributes && _out.size() < MAX_SMALL_ATTR_SIZE) {
                     rewriteDirectoryRecordWithAttrContent(_out);
                     incLocalModCount();
                 }
@@ -46,4 +46,9 @@ public class FSRecordsProxyImpl implements FSRecordsProxy {
     public @Nullable DataInputStream readAttributeWithLock(int fileId, FileAttribute att) {
         return FSRecords.readAttributeWithLock(fileId, att);
     }
+
+    @Override
+    public @Nullable DataInputStream[] readAttributesWithLock(int[] fileIds, FileAttribute att) {
+        return FSRecords.readAttributesWithLock(fileIds, att);
+    }
 }
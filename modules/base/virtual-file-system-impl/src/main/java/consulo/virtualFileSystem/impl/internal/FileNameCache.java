@@ -15,38 +15,90 @@
  */
 package consulo.virtualFileSystem.impl.internal;
 
+import consulo.application.util.concurrent.AppExecutorUtil;
 import consulo.platform.Platform;
 import consulo.util.lang.ByteArrayCharSequence;
 import consulo.util.lang.StringUtil;
-import consulo.virtualFileSystem.impl.internal.util.IntObjectLRUMap;
-import consulo.virtualFileSystem.impl.internal.util.IntSLRUCache;
+import consulo.util.lang.SystemProperties;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
+ * Lock-free cache of file names by name id.
+ * <p>
+ * Every name enters a small direct-mapped window. A name pushed out of the window moves to a 4-way set-associative main table:
+ * into a free slot, or instead of the least frequently used name of its set if it is used more often (W-TinyLFU admission,
+ * frequencies are estimated by {@link FrequencySketch}). So one-off names (e.g. met by a single refresh) don't evict names
+ * used all the time. Slots hold immutable entries, so readers never see torn ones.
+ * <p>
+ * To keep window hits cheap, only every {@code WINDOW_HIT_SAMPLING}-th of them (on average) is counted by the sketch,
+ * accesses missing the window are always counted.
+ * <p>
+ * The main table size is set by {@code -Didea.vfs.name.cache.size}. Misses are served by the name enumerator of {@link FSRecords}.
+ * Cache statistics are logged on VFS dispose.
+ *
  * @author peter
  */
 public class FileNameCache {
+  private static final int WINDOW_SIZE = 1024;
+  private static final int WAYS = 4;
+  private static final int WINDOW_HIT_SAMPLING = 16;
+  private static final int MAIN_SIZE = Integer.highestOneBit(Math.max(WINDOW_SIZE, SystemProperties.getIntProperty("idea.vfs.name.cache.size", 131072)));
+
+  private static final AtomicReferenceArray<Entry> ourWindow = new AtomicReferenceArray<>(WINDOW_SIZE);
+  private static final AtomicReferenceArray<Entry> ourMain = new AtomicReferenceArray<>(MAIN_SIZE);
+  private static final FrequencySketch ourSketch = new FrequencySketch(MAIN_SIZE);
+
+  private static final LongAdder ourWindowHits = new LongAdder();
+  private static final LongAdder ourMainHits = new LongAdder();
+  private static final LongAdder ourMisses = new LongAdder();
+  private static final LongAdder ourRejections = new LongAdder();
 
-  @SuppressWarnings("unchecked")
-  private static final IntSLRUCache<CharSequence>[] ourNameCache = new IntSLRUCache[16];
+  private static final String FS_SEPARATORS = "/" + (File.separatorChar == '/' ? "" : File.separatorChar);
+
+  private static final class Entry {
+    final int id;
+    final CharSequence value;
 
-  static {
-    int protectedSize = 40000 / ourNameCache.length;
-    int probationalSize = 20000 / ourNameCache.length;
-    for (int i = 0; i < ourNameCache.length; ++i) {
-      ourNameCache[i] = new IntSLRUCache<>(protectedSize, probationalSize);
+    Entry(int id, CharSequence value) {
+      this.id = id;
+      this.value = value;
     }
   }
 
-  private static final String FS_SEPARATORS = "/" + (File.separatorChar == '/' ? "" : File.separatorChar);
+  /**
+   * @param windowHits names found in the window
+   * @param mainHits   names found in the main table
+   * @param misses     names loaded from the name enumerator
+   * @param rejections names which weren't admitted to the main table because they are used less often than the names there
+   */
+  public record Statistics(long windowHits, long mainHits, long misses, long rejections) {
+    public double getHitRate() {
+      long total = windowHits + mainHits + misses;
+      return total == 0 ? 0 : (double)(windowHits + mainHits) / total;
+    }
+
+    @Override
+    public String toString() {
+      return "window hits: " + windowHits + ", main hits: " + mainHits + ", misses: " + misses + ", rejections: " + rejections +
+             ", hit rate: " + String.format("%.1f%%", getHitRate() * 100);
+    }
+  }
+
+  public static Statistics getStatistics() {
+    return new Statistics(ourWindowHits.sum(), ourMainHits.sum(), ourMisses.sum(), ourRejections.sum());
+  }
 
   public static int storeName(String name) {
     assertShortFileName(name);
     int idx = FSRecords.getNameId(name);
-    cacheData(name, idx, calcStripeIdFromNameId(idx));
+    cacheData(name, idx);
     return idx;
   }
 
@@ -62,84 +114,95 @@ public class FileNameCache {
     }
   }
 
-  
-  private static IntObjectLRUMap.MapEntry<CharSequence> cacheData(String name, int id, int stripe) {
+  private static Entry cacheData(String name, int id) {
     if (name == null) {
       FSRecords.handleError(new RuntimeException("VFS name enumerator corrupted"));
     }
 
-    CharSequence rawName = ByteArrayCharSequence.convertToBytesIfPossible(name);
-    IntSLRUCache<CharSequence> cache = ourNameCache[stripe];
-    //noinspection SynchronizationOnLocalVariableOrMethodParameter
-    synchronized (cache) {
-      return cache.cacheEntry(id, rawName);
+    Entry entry = new Entry(id, ByteArrayCharSequence.convertToBytesIfPossible(name));
+    putToWindow(entry);
+    return entry;
+  }
+
+  private static void putToWindow(Entry entry) {
+    Entry evicted = ourWindow.getAndSet(entry.id & (WINDOW_SIZE - 1), entry);
+    if (evicted != null && evicted.id != entry.id) {
+      offerToMain(evicted);
     }
   }
 
-  private static int calcStripeIdFromNameId(int id) {
-    int h = id;
-    h -= h << 6;
-    h ^= h >> 17;
-    h -= h << 9;
-    h ^= h << 4;
-    h -= h << 3;
-    h ^= h << 10;
-    h ^= h >> 15;
-    return h % ourNameCache.length;
+  private static void offerToMain(Entry candidate) {
+    int set = setIndex(candidate.id);
+    int victimSlot = -1;
+    Entry victim = null;
+    int victimFrequency = Integer.MAX_VALUE;
+    for (int i = set; i < set + WAYS; i++) {
+      Entry entry = ourMain.get(i);
+      if (entry == null) {
+        ourMain.compareAndSet(i, null, candidate);
+        return;
+      }
+      if (entry.id == candidate.id) {
+        return;
+      }
+      int frequency = ourSketch.frequency(entry.id);
+      if (frequency < victimFrequency) {
+        victimSlot = i;
+        victim = entry;
+        victimFrequency = frequency;
+      }
+    }
+
+    if (ourSketch.frequency(candidate.id) > victimFrequency) {
+      ourMain.compareAndSet(victimSlot, victim, candidate);
+    }
+    else {
+      ourRejections.increment();
+    }
   }
 
-  private static final boolean ourTrackStats = false;
-  private static final int ourLOneSize = 1024;
-  @SuppressWarnings("unchecked")
-  private static final IntObjectLRUMap.MapEntry<CharSequence>[] ourArrayCache = new IntObjectLRUMap.MapEntry[ourLOneSize];
+  private static int setIndex(int id) {
+    return (mix(id) & (MAIN_SIZE - 1)) & -WAYS;
+  }
 
-  private static final AtomicInteger ourQueries = new AtomicInteger();
-  private static final AtomicInteger ourMisses = new AtomicInteger();
+  private static int mix(int id) {
+    int h = id * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
 
   @FunctionalInterface
   public interface NameComputer {
     String compute(int id) throws IOException;
   }
 
-  
   public static CharSequence getVFileName(int nameId, NameComputer computeName) throws IOException {
     assert nameId > 0 : nameId;
 
-    if (ourTrackStats) {
-      int frequency = 10000000;
-      int queryCount = ourQueries.incrementAndGet();
-      if (queryCount >= frequency && ourQueries.compareAndSet(queryCount, 0)) {
-        double misses = ourMisses.getAndSet(0);
-        //noinspection UseOfSystemOutOrSystemErr
-        System.out.println("Misses: " + misses / frequency);
-        ourQueries.set(0);
+    Entry entry = ourWindow.get(nameId & (WINDOW_SIZE - 1));
+    if (entry != null && entry.id == nameId) {
+      ourWindowHits.increment();
+      // window hits are sampled, otherwise names living in the window would look rarely used once they are pushed out of it
+      if (ThreadLocalRandom.current().nextInt(WINDOW_HIT_SAMPLING) == 0) {
+        ourSketch.increment(nameId);
       }
-    }
-
-    int l1 = nameId % ourLOneSize;
-    IntObjectLRUMap.MapEntry<CharSequence> entry = ourArrayCache[l1];
-    if (entry != null && entry.key == nameId) {
       return entry.value;
     }
+    ourSketch.increment(nameId);
 
-    if (ourTrackStats) {
-      ourMisses.incrementAndGet();
+    int set = setIndex(nameId);
+    for (int i = set; i < set + WAYS; i++) {
+      entry = ourMain.get(i);
+      if (entry != null && entry.id == nameId) {
+        ourMainHits.increment();
+        putToWindow(entry);
+        return entry.value;
+      }
     }
 
-    int stripe = calcStripeIdFromNameId(nameId);
-    IntSLRUCache<CharSequence> cache = ourNameCache[stripe];
-    //noinspection SynchronizationOnLocalVariableOrMethodParameter
-    synchronized (cache) {
-      entry = cache.getCachedEntry(nameId);
-    }
-    if (entry == null) {
-      entry = cacheData(computeName.compute(nameId), nameId, stripe);
-    }
-    ourArrayCache[l1] = entry;
-    return entry.value;
+    ourMisses.increment();
+    return cacheData(computeName.compute(nameId), nameId).value;
   }
 
-  
   public static CharSequence getVFileName(int nameId) {
     try {
       return getVFileName(nameId, FSRecords::getNameByNameId);
@@ -148,4 +211,70 @@ public class FileNameCache {
       throw new RuntimeException(e); // actually will be caught in getNameByNameId
     }
   }
+
+  /**
+   * Count-min sketch of 4-bit counters, four per name, halved after every {@code 10 * capacity} increments so old popularity fades.
+   * Counters are updated by CAS, so a saturated counter never carries over into its neighbour; increments of names with all counters
+   * saturated aren't counted. Halving goes over the whole table, so it runs in background instead of the thread which reached
+   * the sample size. Increments racing with halving may be lost, which only makes an estimate slightly lower.
+   */
+  private static final class FrequencySketch {
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int[] SEEDS = {0x97CB3127, 0xB7E15163, 0x3C6EF372, 0xA54FF53A};
+
+    private final AtomicLongArray myTable;
+    private final int myMask;
+    private final int mySampleSize;
+    private final AtomicInteger myAdditions = new AtomicInteger();
+
+    FrequencySketch(int capacity) {
+      // 16 counters per long
+      myTable = new AtomicLongArray(Math.max(16, capacity / 4));
+      myMask = myTable.length() - 1;
+      mySampleSize = 10 * capacity;
+    }
+
+    int frequency(int id) {
+      int frequency = Integer.MAX_VALUE;
+      for (int seed : SEEDS) {
+        int h = hash(id, seed);
+        int offset = (h & 15) << 2;
+        frequency = Math.min(frequency, (int)((myTable.get((h >>> 4) & myMask) >>> offset) & 15));
+      }
+      return frequency;
+    }
+
+    void increment(int id) {
+      boolean added = false;
+      for (int seed : SEEDS) {
+        int h = hash(id, seed);
+        int index = (h >>> 4) & myMask;
+        int offset = (h & 15) << 2;
+        long value;
+        do {
+          value = myTable.get(index);
+          if (((value >>> offset) & 15) == 15) break;
+        }
+        while (!myTable.compareAndSet(index, value, value + (1L << offset)));
+        added |= ((value >>> offset) & 15) != 15;
+      }
+      if (added && myAdditions.incrementAndGet() == mySampleSize) {
+        AppExecutorUtil.getAppExecutorService().execute(this::halve);
+      }
+    }
+
+    private void halve() {
+      for (int i = 0; i < myTable.length(); i++) {
+        myTable.updateAndGet(i, value -> (value >>> 1) & RESET_MASK);
+      }
+      myAdditions.addAndGet(-mySampleSize);
+    }
+
+    private static int hash(int id, int seed) {
+      int h = (id ^ seed) * 0x85EBCA6B;
+      h ^= h >>> 13;
+      h *= 0xC2B2AE35;
+      return h ^ (h >>> 16);
+    }
+  }
 }
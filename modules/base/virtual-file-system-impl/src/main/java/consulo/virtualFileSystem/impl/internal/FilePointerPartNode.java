@@ -31,10 +31,7 @@ import consulo.virtualFileSystem.pointer.VirtualFilePointer;
 import consulo.virtualFileSystem.util.VirtualFileUtil;
 import org.jspecify.annotations.Nullable;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collection;
-import java.util.List;
+import java.util.*;
 
 /**
  * Trie data structure for succinct storage and fast retrieval of file pointers.
@@ -142,7 +139,11 @@ class FilePointerPartNode {
         return file == null ? -1 : ((VirtualFileSystemEntry) file).getNameId();
     }
 
-    private FilePointerPartNode findByExistingNameId(@Nullable VirtualFile parent, int childNameId, @Nullable List<? super FilePointerPartNode> outDirs, VirtualFileSystem fs) {
+    private FilePointerPartNode findByExistingNameId(@Nullable VirtualFile parent,
+                                                     int childNameId,
+                                                     @Nullable List<? super FilePointerPartNode> outDirs,
+                                                     VirtualFileSystem fs,
+                                                     @Nullable BatchLookup lookup) {
         if (childNameId <= 0) {
             throw new IllegalArgumentException("invalid argument childNameId: " + childNameId);
         }
@@ -150,11 +151,23 @@ class FilePointerPartNode {
         if (parent == null) {
             leaf = this;
         }
+        else if (lookup != null) {
+            ParentMatch match = lookup.myMatches.computeIfAbsent(this, __ -> new HashMap<>()).get(parent);
+            if (match == null) {
+                List<FilePointerPartNode> dirs = new ArrayList<>();
+                match = new ParentMatch(matchParent(parent, dirs, fs), dirs);
+                lookup.myMatches.get(this).put(parent, match);
+            }
+            if (outDirs != null) {
+                outDirs.addAll(match.recursiveDirs());
+            }
+            leaf = match.node();
+            if (leaf == null) {
+                return null;
+            }
+        }
         else {
-            int nameId = getNameId(parent);
-            VirtualFile gParent = getParentThroughJars(parent, fs);
-            int gParentNameId = getNameId(gParent);
-            leaf = matchById(gParent, gParentNameId, nameId, outDirs, false, fs);
+            leaf = matchParent(parent, outDirs, fs);
             if (leaf == null) {
                 return null;
             }
@@ -164,6 +177,24 @@ class FilePointerPartNode {
         return leaf.findChildByNameId(childNameId, false);
     }
 
+    private @Nullable FilePointerPartNode matchParent(VirtualFile parent, @Nullable List<? super FilePointerPartNode> outDirs, VirtualFileSystem fs) {
+        int nameId = getNameId(parent);
+        VirtualFile gParent = getParentThroughJars(parent, fs);
+        int gParentNameId = getNameId(gParent);
+        return matchById(gParent, gParentNameId, nameId, outDirs, false, fs);
+    }
+
+    /**
+     * Nodes of parent directories matched while a single batch of events is processed, so events in the same directory
+     * don't walk the trie from the root again. Valid only while no nodes are added or removed.
+     */
+    static final class BatchLookup {
+        private final Map<FilePointerPartNode, Map<VirtualFile, ParentMatch>> myMatches = new HashMap<>();
+    }
+
+    private record ParentMatch(@Nullable FilePointerPartNode node, List<FilePointerPartNode> recursiveDirs) {
+    }
+
     // returns start index of the name (i.e. path[return..length) is considered a name)
     private static int extractName(CharSequence path, int length) {
         if (length == 1 && path.charAt(0) == '/') {
@@ -228,11 +259,16 @@ class FilePointerPartNode {
      * ({@code (parent != null ? parent.getPath() : "") + (separator ? "/" : "") + childName}) and all nodes under this node with recursive directory pointers whose
      * path is ancestor of the given path.
      */
-    void addRelevantPointersFrom(@Nullable VirtualFile parent, int childNameId, List<? super FilePointerPartNode> out, boolean addSubdirectoryPointers, VirtualFileSystem fs) {
+    void addRelevantPointersFrom(@Nullable VirtualFile parent,
+                                 int childNameId,
+                                 List<? super FilePointerPartNode> out,
+                                 boolean addSubdirectoryPointers,
+                                 VirtualFileSystem fs,
+                                 @Nullable BatchLookup lookup) {
         if (childNameId <= 0) {
             throw new IllegalArgumentException("invalid argument childNameId: " + childNameId);
         }
-        FilePointerPartNode node = findByExistingNameId(parent, childNameId, out, fs);
+        FilePointerPartNode node = findByExistingNameId(parent, childNameId, out, fs, lookup);
         if (node != null) {
             if (node.leaves != null) {
                 out.add(node);
@@ -109,6 +109,7 @@ public final class PersistentFSImpl extends PersistentFS implements Disposable {
     private void performShutdown() {
         if (myShutDown.compareAndSet(false, true)) {
             LOG.info("VFS dispose started");
+            LOG.info("File name cache: " + FileNameCache.getStatistics());
             FSRecords.dispose();
             LOG.info("VFS dispose completed");
         }
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.virtualFileSystem.impl.internal;
+
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Separates {@link FSRecords} content and attribute writes, which hold only the read lock of the records table and so may run
+ * concurrently with each other, from flushing, which marks the storages safely closed. Writes {@link #enter} and {@link #exit}
+ * the gate, flushing {@link #close}s it: that waits for writes in progress and keeps new ones out until the gate is
+ * {@link #open}ed again, so the safely closed marker is never written while a write is half done.
+ * <p>
+ * Writes may enter the gate again while they are inside, even when flushing is already waiting for it.
+ */
+final class StorageWriteGate {
+    private final ReentrantReadWriteLock myLock = new ReentrantReadWriteLock();
+
+    void enter() {
+        myLock.readLock().lock();
+    }
+
+    void exit() {
+        myLock.readLock().unlock();
+    }
+
+    void close() {
+        myLock.writeLock().lock();
+    }
+
+    void open() {
+        myLock.writeLock().unlock();
+    }
+
+    boolean isClosedByCurrentThread() {
+        return myLock.isWriteLockedByCurrentThread();
+    }
+}
@@ -117,7 +117,7 @@ public final class VirtualFilePointerManagerImpl extends SimpleModificationTrack
     synchronized List<VirtualFilePointer> getPointersUnder(VirtualFile parent, String childName) {
         assert !StringUtil.isEmptyOrSpaces(childName);
         MultiMap<VirtualFilePointerListener, FilePointerPartNode> nodes = MultiMap.create();
-        addRelevantPointers(parent, toNameId(childName), nodes, true, parent.getFileSystem());
+        addRelevantPointers(parent, toNameId(childName), nodes, true, parent.getFileSystem(), null);
         List<VirtualFilePointer> pointers = new ArrayList<>();
         for (FilePointerPartNode node : nodes.values()) {
             node.addAllPointersTo(pointers);
@@ -130,7 +130,8 @@ public final class VirtualFilePointerManagerImpl extends SimpleModificationTrack
         int childNameId,
         MultiMap<VirtualFilePointerListener, FilePointerPartNode> out,
         boolean addSubdirectoryPointers,
-        VirtualFileSystem fs
+        VirtualFileSystem fs,
+        FilePointerPartNode.@Nullable BatchLookup lookup
     ) {
         if (childNameId <= 0) {
             throw new IllegalArgumentException("invalid argument childNameId: " + childNameId);
@@ -141,7 +142,7 @@ public final class VirtualFilePointerManagerImpl extends SimpleModificationTrack
                 FilePointerPartNode root = entry.getValue();
                 VirtualFilePointerListener listener = entry.getKey();
                 List<FilePointerPartNode> outNodes = (List<FilePointerPartNode>) out.getModifiable(listener);
-                root.addRelevantPointersFrom(parent, childNameId, outNodes, addSubdirectoryPointers, fs);
+                root.addRelevantPointersFrom(parent, childNameId, outNodes, addSubdirectoryPointers, fs, lookup);
             }
         }
         if (fs instanceof LocalFileSystem) {
@@ -149,7 +150,7 @@ public final class VirtualFilePointerManagerImpl extends SimpleModificationTrack
             for (Map.Entry<VirtualFileSystem, Map<VirtualFilePointerListener, FilePointerPartNode>> entry : myRoots.entrySet()) {
                 VirtualFileSystem rootFS = entry.getKey();
                 if (rootFS instanceof BaseArchiveFileSystem) {
-                    addRelevantPointers(parent, childNameId, out, addSubdirectoryPointers, rootFS);
+                    addRelevantPointers(parent, childNameId, out, addSubdirectoryPointers, rootFS, lookup);
                 }
             }
         }
@@ -484,6 +485,8 @@ public final class VirtualFilePointerManagerImpl extends SimpleModificationTrack
         //noinspection SynchronizeOnThis
         synchronized (this) {
             startModCount = myPointerSetModCount;
+            // the tries aren't modified until after(), so parent directory nodes can be shared by all events of the batch
+            FilePointerPartNode.BatchLookup lookup = new FilePointerPartNode.BatchLookup();
             for (VFileEvent event : events) {
                 ProgressManager.checkCanceled();
                 VirtualFileSystem fs = event.getFileSystem();
@@ -492,7 +495,7 @@ public final class VirtualFilePointerManagerImpl extends SimpleModificationTrack
                 }
                 if (event instanceof VFileDeleteEvent deleteEvent) {
                     VirtualFile file = deleteEvent.getFile();
-                    addRelevantPointers(file.getParent(), ((VirtualFileSystemEntry) file).getNameId(), toFireEvents, true, fs);
+                    addRelevantPointers(file.getParent(), ((VirtualFileSystemEntry) file).getNameId(), toFireEvents, true, fs, lookup);
                 }
                 else if (event instanceof VFileCreateEvent createEvent) {
                     boolean fireSubdirectoryPointers;
@@ -507,21 +510,24 @@ public final class VirtualFilePointerManagerImpl extends SimpleModificationTrack
                         FileType fileType = FileTypeRegistry.getInstance().getFileTypeByExtension(FileUtil.getExtension(createdFileName));
                         fireSubdirectoryPointers = fileType instanceof ArchiveFileType;
                     }
-                    addRelevantPointers(createEvent.getParent(), createEvent.getChildNameId(), toFireEvents, fireSubdirectoryPointers, fs);
+                    MultiMap<VirtualFilePointerListener, FilePointerPartNode> nodes = MultiMap.create();
+                    addRelevantPointers(createEvent.getParent(), createEvent.getChildNameId(), nodes, fireSubdirectoryPointers, fs, lookup);
+                    toFireEvents.putAllValues(nodes);
                     // when new file created its UrlPartNode should be converted to id-based FilePointerPartNode to save memory
-                    toUpdateUrl.putAllValues(toFireEvents);
+                    // (only nodes of this event, copying all nodes found so far makes large batches quadratic)
+                    toUpdateUrl.putAllValues(nodes);
 
                 }
                 else if (event instanceof VFileCopyEvent copyEvent) {
-                    addRelevantPointers(copyEvent.getNewParent(), toNameId(copyEvent.getNewChildName()), toFireEvents, true, fs);
+                    addRelevantPointers(copyEvent.getNewParent(), toNameId(copyEvent.getNewChildName()), toFireEvents, true, fs, lookup);
                 }
                 else if (event instanceof VFileMoveEvent moveEvent) {
                     VirtualFile eventFile = moveEvent.getFile();
                     int newNameId = ((VirtualFileSystemEntry) eventFile).getNameId();
-                    addRelevantPointers(moveEvent.getNewParent(), newNameId, toFireEvents, true, fs);
+                    addRelevantPointers(moveEvent.getNewParent(), newNameId, toFireEvents, true, fs, lookup);
 
                     MultiMap<VirtualFilePointerListener, FilePointerPartNode> nodes = MultiMap.create();
-                    addRelevantPointers(eventFile.getParent(), newNameId, nodes, true, fs);
+                    addRelevantPointers(eventFile.getParent(), newNameId, nodes, true, fs, lookup);
                     toFireEvents.putAllValues(nodes); // files deleted from eventFile and created in moveEvent.getNewParent()
                     collectNodes(nodes, toUpdateUrl);
                 }
@@ -530,10 +536,10 @@ public final class VirtualFilePointerManagerImpl extends SimpleModificationTrack
                         VirtualFile eventFile = change.getFile();
                         VirtualFile parent = eventFile.getParent(); // e.g. for LightVirtualFiles
                         int newNameId = toNameId(change.getNewValue().toString());
-                        addRelevantPointers(parent, newNameId, toFireEvents, true, fs);
+                        addRelevantPointers(parent, newNameId, toFireEvents, true, fs, lookup);
 
                         MultiMap<VirtualFilePointerListener, FilePointerPartNode> nodes = MultiMap.create();
-                        addRelevantPointers(parent, ((VirtualFileSystemEntry) eventFile).getNameId(), nodes, true, fs);
+                        addRelevantPointers(parent, ((VirtualFileSystemEntry) eventFile).getNameId(), nodes, true, fs, lookup);
                         collectNodes(nodes, toUpdateUrl);
                     }
                 }
@@ -545,7 +551,9 @@ public final class VirtualFilePointerManagerImpl extends SimpleModificationTrack
                 if (listener == NULL_LISTENER) {
                     continue;
                 }
-                Collection<FilePointerPartNode> values = entry.getValue();
+                // nodes of recursive directory pointers are collected once per event
+                Collection<FilePointerPartNode> values = Sets.newLinkedHashSet(ContainerUtil.identityStrategy());
+                values.addAll(entry.getValue());
                 VirtualFilePointer[] toFirePointers = toPointers(values);
                 if (toFirePointers.length != 0) {
                     eventList.add(new EventDescriptor(listener, toFirePointers));
@@ -648,7 +656,9 @@ public final class VirtualFilePointerManagerImpl extends SimpleModificationTrack
 
         //noinspection SynchronizeOnThis
         synchronized (this) {
-            for (FilePointerPartNode node : toUpdateUrls.values()) {
+            Set<FilePointerPartNode> nodesToUpdate = Sets.newLinkedHashSet(ContainerUtil.identityStrategy());
+            nodesToUpdate.addAll(toUpdateUrls.values());
+            for (FilePointerPartNode node : nodesToUpdate) {
                 Pair<VirtualFile, String> pairBefore = node.myFileAndUrl;
                 if (pairBefore == null) {
                     continue; // disposed in the meantime
@@ -684,7 +694,9 @@ public final class VirtualFilePointerManagerImpl extends SimpleModificationTrack
                 }
             }
         }
-        for (FilePointerPartNode node : toFireEvents.values()) {
+        Set<FilePointerPartNode> nodesToFire = Sets.newHashSet(ContainerUtil.identityStrategy());
+        nodesToFire.addAll(toFireEvents.values());
+        for (FilePointerPartNode node : nodesToFire) {
             node.update();
         }
 
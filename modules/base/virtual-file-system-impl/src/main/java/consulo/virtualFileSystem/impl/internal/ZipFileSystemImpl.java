@@ -44,4 +44,9 @@ public class ZipFileSystemImpl extends ArchiveFileSystemViaArchiveFile implement
   public ArchiveFile createArchiveFile(String filePath) throws IOException {
     return new ZipArchiveFile(filePath);
   }
+
+  @Override
+  public boolean isZipArchive() {
+    return true;
+  }
 }
@@ -12,6 +12,7 @@ import consulo.util.dataholder.internal.keyFMap.KeyFMap;
 import consulo.util.lang.BitUtil;
 import consulo.util.lang.ByteArrayCharSequence;
 import consulo.util.lang.ObjectUtil;
+import consulo.util.lang.SystemProperties;
 import consulo.util.lang.function.Functions;
 import consulo.virtualFileSystem.InvalidVirtualFileAccessException;
 import consulo.virtualFileSystem.NewVirtualFileSystem;
@@ -21,6 +22,10 @@ import consulo.virtualFileSystem.impl.internal.PersistentFSImpl;
 import consulo.virtualFileSystem.internal.PersistentFS;
 import org.jspecify.annotations.Nullable;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicIntegerArray;
 import java.util.concurrent.atomic.AtomicReferenceArray;
@@ -35,7 +40,11 @@ import static consulo.virtualFileSystem.impl.internal.entry.VirtualFileSystemEnt
  * when there are hundreds of thousands of files.
  * <p>
  * The data is stored per-id in blocks of {@link #SEGMENT_SIZE}. File ids in one project tend to cluster together,
- * so the overhead for non-loaded id should not be large in most cases.
+ * so the overhead for non-loaded id should not be large in most cases. Segments are found by id in a two-level array of shards,
+ * without hashing or boxing.
+ * <p>
+ * Fixed-width data (name ids, flags and modification stamps) is kept off-heap, in direct memory slabs shared by many segments
+ * (unless {@code -Didea.vfs.off.heap.data=false} or direct memory is exhausted); only user data and {@link DirectoryData} stay on heap.
  * <p>
  * File objects are still created if needed. There might be several objects for the same file, so equals() should be used instead of ==.
  * <p>
@@ -62,10 +71,25 @@ public class VfsData {
   private static final int SEGMENT_BITS = 9;
   private static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
   private static final int OFFSET_MASK = SEGMENT_SIZE - 1;
+  private static final int SHARD_BITS = 10;
+  private static final int SHARD_SIZE = 1 << SHARD_BITS;
+  private static final int SHARD_COUNT = 1 << (31 - SEGMENT_BITS - SHARD_BITS);
+
+  private static final boolean OFF_HEAP = SystemProperties.getBooleanProperty("idea.vfs.off.heap.data", true);
+  // <nameId, flags> pairs
+  private static final int SEGMENT_BYTES = SEGMENT_SIZE * 2 * Integer.BYTES;
+  private static final int SLAB_BYTES = SEGMENT_BYTES * 256;
+  private static final VarHandle INT_HANDLE = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
 
   private final Object myDeadMarker = ObjectUtil.sentinel("dead file");
 
-  private final ConcurrentIntObjectMap<Segment> mySegments = IntMaps.newConcurrentIntObjectHashMap();
+  private final AtomicReferenceArray<AtomicReferenceArray<Segment>> mySegmentShards = new AtomicReferenceArray<>(SHARD_COUNT);
+  // guards segment creation and the slab fields below
+  private final Object mySegmentLock = new Object();
+  private @Nullable ByteBuffer myCurrentSlab;
+  private int myCurrentSlabOffset = SLAB_BYTES;
+  private boolean myOffHeapExhausted = !OFF_HEAP;
+
   private final ConcurrentBitSet myInvalidatedIds = new ConcurrentBitSet();
   private IntSet myDyingIds = IntSets.newHashSet();
 
@@ -136,9 +160,45 @@ public class VfsData {
   @Contract("_,true->!null")
   public @Nullable Segment getSegment(int id, boolean create) {
     int key = id >>> SEGMENT_BITS;
-    Segment segment = mySegments.get(key);
+    AtomicReferenceArray<Segment> shard = mySegmentShards.get(key >>> SHARD_BITS);
+    Segment segment = shard == null ? null : shard.get(key & (SHARD_SIZE - 1));
     if (segment != null || !create) return segment;
-    return mySegments.cacheOrGet(key, new Segment(this));
+
+    // segments are created rarely (once per SEGMENT_SIZE ids), so a lock keeps slab space from being wasted by racing creators
+    synchronized (mySegmentLock) {
+      shard = mySegmentShards.get(key >>> SHARD_BITS);
+      if (shard == null) {
+        shard = new AtomicReferenceArray<>(SHARD_SIZE);
+        mySegmentShards.set(key >>> SHARD_BITS, shard);
+      }
+      segment = shard.get(key & (SHARD_SIZE - 1));
+      if (segment == null) {
+        segment = createSegment();
+        shard.set(key & (SHARD_SIZE - 1), segment);
+      }
+      return segment;
+    }
+  }
+
+  // under mySegmentLock
+  private Segment createSegment() {
+    if (!myOffHeapExhausted && myCurrentSlabOffset == SLAB_BYTES) {
+      try {
+        myCurrentSlab = ByteBuffer.allocateDirect(SLAB_BYTES + Long.BYTES).alignedSlice(Long.BYTES).order(ByteOrder.nativeOrder());
+        myCurrentSlabOffset = 0;
+      }
+      catch (OutOfMemoryError e) {
+        LOG.warn("Cannot allocate off-heap VFS data, falling back to heap: " + e.getMessage());
+        myOffHeapExhausted = true;
+        myCurrentSlab = null;
+      }
+    }
+    if (myOffHeapExhausted) {
+      return new Segment(this, null, 0);
+    }
+    Segment segment = new Segment(this, myCurrentSlab, myCurrentSlabOffset);
+    myCurrentSlabOffset += SEGMENT_BYTES;
+    return segment;
   }
 
   public boolean hasLoadedFile(int id) {
@@ -204,23 +264,50 @@ public class VfsData {
     // user data for files, DirectoryData for folders
     private final AtomicReferenceArray<Object> myObjectArray = new AtomicReferenceArray<>(SEGMENT_SIZE);
 
-    // <nameId, flags> pairs, "flags" part containing flags per se and modification stamp
-    private final AtomicIntegerArray myIntArray = new AtomicIntegerArray(SEGMENT_SIZE * 2);
+    // <nameId, flags> pairs, "flags" part containing flags per se and modification stamp;
+    // stored at mySlabOffset of a direct memory slab shared with other segments, or in myIntArray when there's no slab
+    private final @Nullable ByteBuffer mySlab;
+    private final int mySlabOffset;
+    private final @Nullable AtomicIntegerArray myIntArray;
 
-    
     final VfsData vfsData;
 
-    Segment(VfsData vfsData) {
+    Segment(VfsData vfsData, @Nullable ByteBuffer slab, int slabOffset) {
       this.vfsData = vfsData;
+      mySlab = slab;
+      mySlabOffset = slabOffset;
+      myIntArray = slab == null ? new AtomicIntegerArray(SEGMENT_SIZE * 2) : null;
+    }
+
+    private int getInt(int index) {
+      ByteBuffer slab = mySlab;
+      return slab != null ? (int)INT_HANDLE.getVolatile(slab, mySlabOffset + index * Integer.BYTES) : myIntArray.get(index);
+    }
+
+    private void setInt(int index, int value) {
+      ByteBuffer slab = mySlab;
+      if (slab != null) {
+        INT_HANDLE.setVolatile(slab, mySlabOffset + index * Integer.BYTES, value);
+      }
+      else {
+        myIntArray.set(index, value);
+      }
+    }
+
+    private boolean compareAndSetInt(int index, int expected, int value) {
+      ByteBuffer slab = mySlab;
+      return slab != null
+             ? INT_HANDLE.compareAndSet(slab, mySlabOffset + index * Integer.BYTES, expected, value)
+             : myIntArray.compareAndSet(index, expected, value);
     }
 
     int getNameId(int fileId) {
-      return myIntArray.get(getOffset(fileId) * 2);
+      return getInt(getOffset(fileId) * 2);
     }
 
     void setNameId(int fileId, int nameId) {
       if (fileId <= 0 || nameId <= 0) throw new IllegalArgumentException("invalid arguments id: " + fileId + "; nameId: " + nameId);
-      myIntArray.set(getOffset(fileId) * 2, nameId);
+      setInt(getOffset(fileId) * 2, nameId);
     }
 
     void setUserMap(int fileId, KeyFMap map) {
@@ -241,7 +328,7 @@ public class VfsData {
 
     boolean getFlag(int id, int mask) {
       assert (mask & ~ALL_FLAGS_MASK) == 0 : "Unexpected flag";
-      return (myIntArray.get(getOffset(id) * 2 + 1) & mask) != 0;
+      return (getInt(getOffset(id) * 2 + 1) & mask) != 0;
     }
 
     void setFlag(int id, int mask, boolean value) {
@@ -251,29 +338,28 @@ public class VfsData {
       assert (mask & ~ALL_FLAGS_MASK) == 0 : "Unexpected flag";
       int offset = getOffset(id) * 2 + 1;
       while (true) {
-        int oldInt = myIntArray.get(offset);
+        int oldInt = getInt(offset);
         int updated = BitUtil.set(oldInt, mask, value);
-        if (myIntArray.compareAndSet(offset, oldInt, updated)) {
+        if (compareAndSetInt(offset, oldInt, updated)) {
           return;
         }
       }
     }
 
     long getModificationStamp(int id) {
-      return myIntArray.get(getOffset(id) * 2 + 1) & ~ALL_FLAGS_MASK;
+      return getInt(getOffset(id) * 2 + 1) & ~ALL_FLAGS_MASK;
     }
 
     void setModificationStamp(int id, long stamp) {
       int offset = getOffset(id) * 2 + 1;
       while (true) {
-        int oldInt = myIntArray.get(offset);
+        int oldInt = getInt(offset);
         int updated = (oldInt & ALL_FLAGS_MASK) | ((int)stamp & ~ALL_FLAGS_MASK);
-        if (myIntArray.compareAndSet(offset, oldInt, updated)) {
+        if (compareAndSetInt(offset, oldInt, updated)) {
           return;
         }
       }
     }
-
   }
 
   // non-final field accesses are synchronized on this instance, but this happens in VirtualDirectoryImpl
@@ -64,8 +64,9 @@ public class FileWatcher {
     FileWatcher(Application application, ManagingFS managingFS) {
         myManagingFS = managingFS;
         myNotificationSink = new MyFileWatcherNotificationSink();
-        myWatchers =
-            new PluggableFileWatcher[]{new NativeFileWatcherImpl(application)};
+        // the java watcher is initialized after the native one and stays inactive while the native one is operational
+        NativeFileWatcherImpl nativeWatcher = new NativeFileWatcherImpl(application);
+        myWatchers = new PluggableFileWatcher[]{nativeWatcher, new JavaFileWatcherImpl(application, nativeWatcher)};
 
         myFileWatcherExecutor.execute(() -> {
             try {
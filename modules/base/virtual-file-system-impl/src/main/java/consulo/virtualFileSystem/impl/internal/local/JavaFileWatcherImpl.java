@@ -0,0 +1,527 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.virtualFileSystem.impl.internal.local;
+
+import consulo.application.Application;
+import consulo.logging.Logger;
+import consulo.platform.Platform;
+import consulo.virtualFileSystem.ManagingFS;
+import org.jspecify.annotations.Nullable;
+import org.jetbrains.annotations.TestOnly;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * File watcher built on {@link WatchService}, used when the native watcher is unavailable
+ * ({@code -Dconsulo.filewatcher.java=true} forces it, {@code false} disables it).
+ * <p>
+ * {@link WatchService} isn't recursive, so every directory under recursive roots gets its own key. Directories are registered
+ * in batches by the watcher thread after {@link #setWatchRoots} returns, and directories created later are registered when
+ * their creation is reported. Keys of directories which are still watched after a roots change are reused.
+ * <p>
+ * Overflown keys are turned into dirty directory notifications for their directories only; a recursive notification is sent
+ * for a root only when all its directories have overflown. Children of overflown recursive directories which aren't watched yet
+ * are registered, as their creation could be among the lost events. Roots which can't be watched (e.g. when inotify watches are exhausted)
+ * are reported as manual watch roots.
+ */
+public class JavaFileWatcherImpl extends PluggableFileWatcher {
+  private static final Logger LOG = Logger.getInstance(JavaFileWatcherImpl.class);
+
+  private static final String PROPERTY_JAVA_WATCHER = "consulo.filewatcher.java";
+  private static final int REGISTRATION_BATCH_SIZE = 256;
+  private static final long POLL_TIMEOUT_MS = 100;
+
+  private final Application myApplication;
+  private final PluggableFileWatcher myNativeWatcher;
+  private FileWatcherNotificationSink myNotificationSink;
+
+  private final Object myLock = new Object();
+  private volatile @Nullable WatchService myWatchService;
+  private volatile @Nullable Thread myThread;
+  private volatile boolean myIsShuttingDown;
+  private volatile boolean mySettingRoots;
+
+  // guarded by myLock
+  private final Map<WatchKey, WatchedDirectory> myKeys = new HashMap<>();
+  private final Map<Path, WatchedDirectory> myDirectories = new HashMap<>();
+  private final Map<Path, WatchedDirectory> myStaleDirectories = new HashMap<>();
+  private final Deque<Registration> myPendingRegistrations = new ArrayDeque<>();
+  private final Set<String> myUnwatchableRoots = new HashSet<>();
+  private final Map<String, Integer> myRootDirectoryCounts = new HashMap<>();
+  private List<String> myRecursiveWatchRoots = Collections.emptyList();
+  private List<String> myFlatWatchRoots = Collections.emptyList();
+  // changed with the roots, children listed outside the lock are dropped when the roots changed meanwhile
+  private int myRootsGeneration;
+
+  public JavaFileWatcherImpl(Application application, PluggableFileWatcher nativeWatcher) {
+    myApplication = application;
+    myNativeWatcher = nativeWatcher;
+  }
+
+  @Override
+  public void initialize(ManagingFS managingFS, FileWatcherNotificationSink notificationSink) {
+    myNotificationSink = notificationSink;
+
+    String property = System.getProperty(PROPERTY_JAVA_WATCHER);
+    if (property != null ? !Boolean.parseBoolean(property) : myNativeWatcher.isOperational() || Platform.current().os().isMac()) {
+      // on macOS the JDK WatchService polls, which is no better than the refresh on frame activation
+      return;
+    }
+
+    try {
+      startupService();
+      LOG.info("Java file watcher is operational.");
+    }
+    catch (IOException e) {
+      LOG.warn("Java file watcher failed to start: " + e.getMessage());
+    }
+  }
+
+  @Override
+  public void dispose() {
+    myIsShuttingDown = true;
+    shutdownService();
+  }
+
+  @Override
+  public boolean isOperational() {
+    return myWatchService != null;
+  }
+
+  @Override
+  public boolean isSettingRoots() {
+    return isOperational() && mySettingRoots;
+  }
+
+  @Override
+  public void setWatchRoots(List<String> recursive, List<String> flat) {
+    if (!isOperational()) return;
+
+    if (myApplication.isDisposeInProgress()) {
+      recursive = flat = Collections.emptyList();
+    }
+
+    synchronized (myLock) {
+      if (myRecursiveWatchRoots.equals(recursive) && myFlatWatchRoots.equals(flat)) {
+        return;
+      }
+      myRecursiveWatchRoots = recursive;
+      myFlatWatchRoots = flat;
+      myRootsGeneration++;
+
+      // keys of directories registered again are kept, the rest are cancelled once the registration is finished
+      myStaleDirectories.putAll(myDirectories);
+      myDirectories.clear();
+      myPendingRegistrations.clear();
+      myUnwatchableRoots.clear();
+      myRootDirectoryCounts.clear();
+
+      for (String root : recursive) {
+        addRoot(root, true);
+      }
+      for (String root : flat) {
+        addRoot(root, false);
+      }
+      mySettingRoots = true;
+    }
+  }
+
+  /**
+   * @return number of directories registered in the watch service
+   */
+  public int getWatchCount() {
+    synchronized (myLock) {
+      return myKeys.size();
+    }
+  }
+
+  /**
+   * @return number of directories waiting for registration
+   */
+  public int getPendingWatchCount() {
+    synchronized (myLock) {
+      return myPendingRegistrations.size();
+    }
+  }
+
+  private void addRoot(String root, boolean recursive) {
+    Path path = Path.of(root);
+    if (Files.isDirectory(path)) {
+      myPendingRegistrations.add(new Registration(path, root, recursive, null));
+    }
+    else if (path.getParent() != null) {
+      // files are watched through their parent directory
+      myPendingRegistrations.add(new Registration(path.getParent(), root, false, path.getFileName().toString()));
+    }
+  }
+
+  private void startupService() throws IOException {
+    WatchService watchService = FileSystems.getDefault().newWatchService();
+    myWatchService = watchService;
+
+    Thread thread = new Thread(() -> run(watchService), "Java File Watcher");
+    thread.setDaemon(true);
+    myThread = thread;
+    thread.start();
+  }
+
+  private void shutdownService() {
+    WatchService watchService = myWatchService;
+    myWatchService = null;
+    if (watchService != null) {
+      try {
+        watchService.close();
+      }
+      catch (IOException e) {
+        LOG.warn(e);
+      }
+    }
+    synchronized (myLock) {
+      myKeys.clear();
+      myDirectories.clear();
+      myStaleDirectories.clear();
+      myPendingRegistrations.clear();
+      myRecursiveWatchRoots = Collections.emptyList();
+      myFlatWatchRoots = Collections.emptyList();
+      myRootsGeneration++;
+    }
+  }
+
+  private void run(WatchService watchService) {
+    try {
+      while (!myIsShuttingDown) {
+        boolean pending = registerPending(watchService);
+
+        WatchKey key = watchService.poll(pending ? 0 : POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        Map<Path, WatchedDirectory> overflown = new HashMap<>();
+        while (key != null) {
+          processKey(key, overflown);
+          key = watchService.poll();
+        }
+        if (!overflown.isEmpty()) {
+          notifyOverflow(overflown);
+        }
+      }
+    }
+    catch (ClosedWatchServiceException | InterruptedException ignored) {
+    }
+    catch (RuntimeException | Error e) {
+      LOG.error(e);
+    }
+  }
+
+  /**
+   * @return true if there are more directories to register
+   */
+  private boolean registerPending(WatchService watchService) {
+    List<String> newDirectories = new ArrayList<>();
+    List<Registration> recursiveRegistrations = new ArrayList<>();
+    Collection<String> unwatchableRoots = null;
+    List<WatchKey> staleKeys = null;
+    boolean hasMore;
+    int generation;
+
+    synchronized (myLock) {
+      if (myPendingRegistrations.isEmpty()) {
+        return false;
+      }
+
+      generation = myRootsGeneration;
+      for (int i = 0; i < REGISTRATION_BATCH_SIZE && !myPendingRegistrations.isEmpty(); i++) {
+        Registration registration = myPendingRegistrations.poll();
+        if (register(watchService, registration, recursiveRegistrations) && registration.myNotify) {
+          newDirectories.add(registration.myPath.toString());
+        }
+      }
+    }
+
+    // directories are listed without the lock, so the roots can be changed meanwhile
+    List<Registration> children = new ArrayList<>();
+    for (Registration registration : recursiveRegistrations) {
+      for (Path child : listChildDirectories(registration.myPath)) {
+        children.add(new Registration(child, registration.myRoot, true, null));
+      }
+    }
+
+    synchronized (myLock) {
+      if (generation == myRootsGeneration) {
+        myPendingRegistrations.addAll(children);
+      }
+
+      if (myPendingRegistrations.isEmpty() && mySettingRoots) {
+        staleKeys = new ArrayList<>();
+        for (WatchedDirectory directory : myStaleDirectories.values()) {
+          myKeys.remove(directory.myKey);
+          staleKeys.add(directory.myKey);
+        }
+        myStaleDirectories.clear();
+        unwatchableRoots = new ArrayList<>(myUnwatchableRoots);
+        mySettingRoots = false;
+        LOG.info("Java file watcher: " + myKeys.size() + " directories watched, " + unwatchableRoots.size() + " roots unwatchable");
+      }
+      hasMore = !myPendingRegistrations.isEmpty();
+    }
+
+    for (String directory : newDirectories) {
+      // events in the directory could be missed before it was registered
+      myNotificationSink.notifyDirtyPathRecursive(directory);
+    }
+    if (staleKeys != null) {
+      for (WatchKey key : staleKeys) {
+        key.cancel();
+      }
+    }
+    if (unwatchableRoots != null) {
+      myNotificationSink.notifyManualWatchRoots(unwatchableRoots);
+    }
+    return hasMore;
+  }
+
+  /**
+   * @param recursiveRegistrations collects registrations whose child directories are still to be registered
+   */
+  private boolean register(WatchService watchService, Registration registration, List<Registration> recursiveRegistrations) {
+    Path path = registration.myPath;
+    WatchedDirectory directory = myDirectories.get(path);
+    if (directory != null) {
+      if (registration.myFileName == null) {
+        directory.myFileNames = null;
+      }
+      else if (directory.myFileNames != null) {
+        directory.myFileNames.add(registration.myFileName);
+      }
+      if (registration.myRecursive && !directory.myRecursive) {
+        directory.myRecursive = true;
+        recursiveRegistrations.add(registration);
+      }
+      return false;
+    }
+
+    WatchKey key;
+    try {
+      key = path.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+    }
+    catch (NoSuchFileException | NotDirectoryException e) {
+      return false;
+    }
+    catch (IOException e) {
+      if (myUnwatchableRoots.add(registration.myRoot)) {
+        LOG.info("Can't watch " + path + ": " + e.getMessage());
+      }
+      return false;
+    }
+
+    directory = new WatchedDirectory(path, registration.myRoot, registration.myRecursive, key);
+    if (registration.myFileName != null) {
+      directory.myFileNames = new HashSet<>();
+      directory.myFileNames.add(registration.myFileName);
+    }
+    myStaleDirectories.remove(path);
+    myDirectories.put(path, directory);
+    myKeys.put(key, directory);
+    myRootDirectoryCounts.merge(registration.myRoot, 1, Integer::sum);
+
+    if (registration.myRecursive) {
+      recursiveRegistrations.add(registration);
+    }
+    return true;
+  }
+
+  private static List<Path> listChildDirectories(Path directory) {
+    List<Path> result = new ArrayList<>();
+    try (DirectoryStream<Path> children = Files.newDirectoryStream(directory)) {
+      for (Path child : children) {
+        BasicFileAttributes attributes = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        if (attributes.isDirectory()) {
+          result.add(child);
+        }
+      }
+    }
+    catch (IOException e) {
+      LOG.debug("Can't list " + directory, e);
+    }
+    return result;
+  }
+
+  private void processKey(WatchKey key, Map<Path, WatchedDirectory> overflown) {
+    WatchedDirectory directory;
+    synchronized (myLock) {
+      directory = myKeys.get(key);
+    }
+
+    List<WatchEvent<?>> events = key.pollEvents();
+    if (directory != null) {
+      for (WatchEvent<?> event : events) {
+        WatchEvent.Kind<?> kind = event.kind();
+        if (kind == OVERFLOW) {
+          overflown.put(directory.myPath, directory);
+          continue;
+        }
+
+        Path child = directory.myPath.resolve((Path)event.context());
+        String name = child.getFileName().toString();
+        if (directory.myFileNames != null && !directory.myFileNames.contains(name)) {
+          continue;
+        }
+
+        if (kind == ENTRY_MODIFY) {
+          myNotificationSink.notifyDirtyPath(child.toString());
+        }
+        else {
+          if (kind == ENTRY_CREATE && directory.myRecursive && Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+            synchronized (myLock) {
+              myPendingRegistrations.add(new Registration(child, directory.myRoot, true, null).notifyWhenRegistered());
+            }
+          }
+          myNotificationSink.notifyPathCreatedOrDeleted(child.toString());
+        }
+      }
+    }
+
+    if (!key.reset()) {
+      synchronized (myLock) {
+        WatchedDirectory removed = myKeys.remove(key);
+        if (removed != null && myDirectories.remove(removed.myPath, removed)) {
+          myRootDirectoryCounts.merge(removed.myRoot, -1, Integer::sum);
+        }
+        else if (removed != null) {
+          myStaleDirectories.remove(removed.myPath, removed);
+        }
+      }
+    }
+  }
+
+  private void notifyOverflow(Map<Path, WatchedDirectory> overflown) {
+    Map<String, List<WatchedDirectory>> byRoot = new HashMap<>();
+    for (WatchedDirectory directory : overflown.values()) {
+      byRoot.computeIfAbsent(directory.myRoot, it -> new ArrayList<>()).add(directory);
+      if (directory.myRecursive) {
+        registerMissedDirectories(directory);
+      }
+    }
+
+    for (Map.Entry<String, List<WatchedDirectory>> entry : byRoot.entrySet()) {
+      String root = entry.getKey();
+      List<WatchedDirectory> directories = entry.getValue();
+      int rootDirectoryCount;
+      synchronized (myLock) {
+        rootDirectoryCount = myRootDirectoryCounts.getOrDefault(root, 0);
+      }
+
+      if (directories.size() > 1 && directories.size() >= rootDirectoryCount) {
+        LOG.debug("Overflow of all directories of " + root);
+        myNotificationSink.notifyDirtyPathRecursive(root);
+        continue;
+      }
+
+      for (WatchedDirectory directory : directories) {
+        Set<String> fileNames = directory.myFileNames;
+        if (fileNames == null) {
+          myNotificationSink.notifyDirtyDirectory(directory.myPath.toString());
+        }
+        else {
+          for (String name : fileNames) {
+            myNotificationSink.notifyDirtyPath(directory.myPath.resolve(name).toString());
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Creation of child directories could be lost with the overflown events, so children which aren't watched yet are registered.
+   * Directories created deeper are registered with them.
+   */
+  private void registerMissedDirectories(WatchedDirectory directory) {
+    List<Path> children = listChildDirectories(directory.myPath);
+    synchronized (myLock) {
+      if (myDirectories.get(directory.myPath) != directory) {
+        return;
+      }
+      for (Path child : children) {
+        if (!myDirectories.containsKey(child)) {
+          myPendingRegistrations.add(new Registration(child, directory.myRoot, true, null).notifyWhenRegistered());
+        }
+      }
+    }
+  }
+
+  private static class WatchedDirectory {
+    private final Path myPath;
+    private final String myRoot;
+    private final WatchKey myKey;
+    private volatile boolean myRecursive;
+    // names of watched files, null when all children are watched
+    private volatile @Nullable Set<String> myFileNames;
+
+    private WatchedDirectory(Path path, String root, boolean recursive, WatchKey key) {
+      myPath = path;
+      myRoot = root;
+      myRecursive = recursive;
+      myKey = key;
+    }
+  }
+
+  private static class Registration {
+    private final Path myPath;
+    private final String myRoot;
+    private final boolean myRecursive;
+    private final @Nullable String myFileName;
+    private boolean myNotify;
+
+    private Registration(Path path, String root, boolean recursive, @Nullable String fileName) {
+      myPath = path;
+      myRoot = root;
+      myRecursive = recursive;
+      myFileName = fileName;
+    }
+
+    private Registration notifyWhenRegistered() {
+      myNotify = true;
+      return this;
+    }
+  }
+
+  @Override
+  @TestOnly
+  public void startup() throws IOException {
+    if (myWatchService == null && !Boolean.FALSE.toString().equals(System.getProperty(PROPERTY_JAVA_WATCHER)) && !myNativeWatcher.isOperational()) {
+      myIsShuttingDown = false;
+      startupService();
+    }
+  }
+
+  @Override
+  @TestOnly
+  public void shutdown() throws InterruptedException {
+    Thread thread = myThread;
+    myIsShuttingDown = true;
+    shutdownService();
+    if (thread != null) {
+      thread.join(5000);
+      if (thread.isAlive()) {
+        throw new InterruptedException("Timed out waiting watcher thread to terminate");
+      }
+      myThread = null;
+    }
+  }
+}
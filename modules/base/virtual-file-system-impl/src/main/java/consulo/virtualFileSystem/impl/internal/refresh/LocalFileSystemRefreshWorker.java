@@ -12,6 +12,7 @@ import consulo.util.collection.Queue;
 import consulo.util.collection.Sets;
 import consulo.util.io.FileAttributes;
 import consulo.util.lang.Pair;
+import consulo.virtualFileSystem.FileAttribute;
 import consulo.virtualFileSystem.NewVirtualFile;
 import consulo.virtualFileSystem.NewVirtualFileSystem;
 import consulo.virtualFileSystem.VFileProperty;
@@ -24,6 +25,8 @@ import consulo.virtualFileSystem.util.VirtualFileUtil;
 import org.jspecify.annotations.Nullable;
 import org.jetbrains.annotations.TestOnly;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.nio.file.*;
 import java.nio.file.attribute.*;
@@ -36,14 +39,36 @@ import static consulo.util.lang.Pair.pair;
 import static consulo.virtualFileSystem.impl.internal.refresh.VfsEventGenerationHelper.LOG;
 
 public class LocalFileSystemRefreshWorker {
+    /**
+     * Modification time and number of children of a directory at the moment of its last full refresh,
+     * see {@link #isUnchangedSinceLastRefresh}.
+     */
+    private static final FileAttribute DIRECTORY_SNAPSHOT = new FileAttribute("refresh.directory.snapshot", 1, 12);
+    // directories modified less than this before their listing may change again without a visible timestamp change
+    private static final long FS_TIME_RESOLUTION = 2000;
+
     private final boolean myIsRecursive;
     private final NewVirtualFile myRefreshRoot;
     private final VfsEventGenerationHelper myHelper = new VfsEventGenerationHelper();
+    private final boolean myTrustDirectoryTimestamps;
+    private final @Nullable Consumer<? super List<VFileEvent>> myEventPublisher;
+    private final int myPublishBatchSize;
     private volatile boolean myCancelled;
 
     public LocalFileSystemRefreshWorker(NewVirtualFile refreshRoot, boolean isRecursive) {
+        this(refreshRoot, isRecursive, null);
+    }
+
+    /**
+     * @param eventPublisher receives events found so far each time their number reaches {@code vfs.refresh.incremental.events.batch};
+     *                       events passed to it aren't returned by {@link #getEvents()}
+     */
+    public LocalFileSystemRefreshWorker(NewVirtualFile refreshRoot, boolean isRecursive, @Nullable Consumer<? super List<VFileEvent>> eventPublisher) {
         myIsRecursive = isRecursive;
         myRefreshRoot = refreshRoot;
+        myTrustDirectoryTimestamps = isRecursive && Registry.is("vfs.refresh.trust.directory.timestamps");
+        myPublishBatchSize = Registry.intValue("vfs.refresh.incremental.events.batch", 0);
+        myEventPublisher = myPublishBatchSize > 0 ? eventPublisher : null;
     }
 
     
@@ -74,7 +99,7 @@ public class LocalFileSystemRefreshWorker {
         }
 
         RefreshContext context = createRefreshContext(fs, PersistentFS.getInstance(), FilePathHashingStrategy.create(fs.isCaseSensitive()));
-        context.submitRefreshRequest(() -> processFile(root, context));
+        context.submitRefreshRequest(() -> processFile(root, rootAttributes.lastModified, context));
         context.waitForRefreshToFinish();
     }
 
@@ -88,14 +113,20 @@ public class LocalFileSystemRefreshWorker {
         return new SequentialRefreshContext(fs, persistentFS, strategy);
     }
 
-    private void processFile(NewVirtualFile file, RefreshContext refreshContext) {
+    /**
+     * @param lastModified modification time of the file obtained before its refresh
+     */
+    private void processFile(NewVirtualFile file, long lastModified, RefreshContext refreshContext) {
         if (!VfsEventGenerationHelper.checkDirty(file) || isCancelled(file, refreshContext)) {
             return;
         }
 
         if (file.isDirectory()) {
             boolean fullSync = ((VirtualDirectoryImpl) file).allChildrenLoaded();
-            if (fullSync) {
+            if (fullSync && myTrustDirectoryTimestamps) {
+                trustingDirRefresh((VirtualDirectoryImpl) file, lastModified, refreshContext);
+            }
+            else if (fullSync) {
                 fullDirRefresh((VirtualDirectoryImpl) file, refreshContext);
             }
             else {
@@ -149,15 +180,111 @@ public class LocalFileSystemRefreshWorker {
     private void addAllEventsFrom(RefreshingFileVisitor refreshingFileVisitor) {
         synchronized (myHelper) {
             myHelper.addAllEventsFrom(refreshingFileVisitor.getHelper());
+            List<VFileEvent> events = myHelper.getEvents();
+            if (myEventPublisher != null && events.size() >= myPublishBatchSize) {
+                List<VFileEvent> batch = new ArrayList<>(events);
+                events.clear();
+                // publishing only queues the batch after the previous ones, so it's done under the lock to keep their order
+                myEventPublisher.accept(batch);
+            }
+        }
+    }
+
+    /**
+     * Directory which modification time and number of children match its snapshot has the same children as on its last full refresh,
+     * so only its subdirectories are checked (with their attributes read relative to the directory when the file system supports it).
+     * In-place modifications of files in such directories don't change the directory, so its files are refreshed only when they are dirty,
+     * e.g. marked by the file watcher; attributes of all dirty files are read by one visitor in this task.
+     */
+    private void trustingDirRefresh(VirtualDirectoryImpl dir, long lastModified, RefreshContext refreshContext) {
+        Pair<String[], VirtualFile[]> snapshot = getDirectorySnapshot(refreshContext.persistence, dir);
+        if (snapshot == null) {
+            return;
+        }
+
+        if (!isUnchangedSinceLastRefresh(dir, lastModified, snapshot.getFirst().length)) {
+            int childCount = fullDirRefresh(dir, refreshContext);
+            if (childCount >= 0 && !myCancelled && System.currentTimeMillis() - lastModified > FS_TIME_RESOLUTION) {
+                storeDirectorySnapshot(dir, lastModified, childCount);
+            }
+            return;
+        }
+
+        Path path = Paths.get(dir.getPath());
+        List<VirtualFile> dirtyFiles = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
+            for (VirtualFile child : snapshot.getSecond()) {
+                NewVirtualFile dirtyChild = (NewVirtualFile) child;
+                if (!dirtyChild.isDirty()) {
+                    continue;
+                }
+                if (isCancelled(dirtyChild, refreshContext)) {
+                    return;
+                }
+
+                if (!child.isDirectory()) {
+                    dirtyFiles.add(child);
+                    continue;
+                }
+
+                BasicFileAttributes attributes;
+                if (child.is(VFileProperty.SYMLINK)) {
+                    attributes = Files.readAttributes(path.resolve(child.getName()), BasicFileAttributes.class);
+                }
+                else if (stream instanceof SecureDirectoryStream<Path> secureStream) {
+                    Path name = path.getFileSystem().getPath(child.getName());
+                    attributes = secureStream.getFileAttributeView(name, BasicFileAttributeView.class, LinkOption.NOFOLLOW_LINKS).readAttributes();
+                }
+                else {
+                    attributes = Files.readAttributes(path.resolve(child.getName()), BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                }
+                long childLastModified = attributes.lastModifiedTime().toMillis();
+                refreshContext.submitRefreshRequest(() -> processFile(dirtyChild, childLastModified, refreshContext));
+            }
+        }
+        catch (IOException e) {
+            // the directory has changed after all
+            LOG.debug(e);
+            fullDirRefresh(dir, refreshContext);
+            return;
+        }
+
+        if (!dirtyFiles.isEmpty()) {
+            // the visitor is interested in the given existing children only
+            RefreshingFileVisitor refreshingFileVisitor = new RefreshingFileVisitor(dir, refreshContext, Collections.emptyList(), dirtyFiles);
+            refreshingFileVisitor.visit(dir);
+            addAllEventsFrom(refreshingFileVisitor);
+        }
+    }
+
+    private static boolean isUnchangedSinceLastRefresh(VirtualDirectoryImpl dir, long lastModified, int childCount) {
+        try (DataInputStream stream = DIRECTORY_SNAPSHOT.readAttribute(dir)) {
+            return stream != null && stream.readLong() == lastModified && stream.readInt() == childCount;
+        }
+        catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static void storeDirectorySnapshot(VirtualDirectoryImpl dir, long lastModified, int childCount) {
+        try (DataOutputStream stream = DIRECTORY_SNAPSHOT.writeAttribute(dir)) {
+            stream.writeLong(lastModified);
+            stream.writeInt(childCount);
+        }
+        catch (IOException e) {
+            LOG.debug(e);
         }
     }
 
-    private void fullDirRefresh(VirtualDirectoryImpl dir, RefreshContext refreshContext) {
+    /**
+     * @return number of children found in the directory, or -1 if the refresh was cancelled
+     */
+    private int fullDirRefresh(VirtualDirectoryImpl dir, RefreshContext refreshContext) {
         while (true) {
             // obtaining directory snapshot
             Pair<String[], VirtualFile[]> result = getDirectorySnapshot(refreshContext.persistence, dir);
             if (result == null) {
-                return;
+                return -1;
             }
             String[] persistedNames = result.getFirst();
             VirtualFile[] children = result.getSecond();
@@ -166,7 +293,7 @@ public class LocalFileSystemRefreshWorker {
             refreshingFileVisitor.visit(dir);
             if (myCancelled) {
                 addAllEventsFrom(refreshingFileVisitor);
-                break;
+                return -1;
             }
 
             // generating events unless a directory was changed in between
@@ -185,7 +312,7 @@ public class LocalFileSystemRefreshWorker {
                 return true;
             });
             if (hasEvents) {
-                break;
+                return refreshingFileVisitor.getVisitedCount();
             }
         }
     }
@@ -324,6 +451,7 @@ public class LocalFileSystemRefreshWorker {
 
         private final NewVirtualFile myFileOrDir;
         private final RefreshContext myRefreshContext;
+        private int myVisitedCount;
 
         /**
          * @param fileOrDir
@@ -356,6 +484,7 @@ public class LocalFileSystemRefreshWorker {
             if (!acceptsFileName(name)) {
                 return FileVisitResult.CONTINUE;
             }
+            myVisitedCount++;
 
             NewVirtualFile child = (NewVirtualFile) myPersistentChildren.remove(name);
             boolean isDirectory = attributes.isDirectory();
@@ -453,11 +582,16 @@ public class LocalFileSystemRefreshWorker {
                 child.markClean();
             }
             else if (myIsRecursive) {
-                myRefreshContext.submitRefreshRequest(() -> processFile(child, myRefreshContext));
+                long lastModified = attributes.lastModifiedTime().toMillis();
+                myRefreshContext.submitRefreshRequest(() -> processFile(child, lastModified, myRefreshContext));
             }
             return FileVisitResult.CONTINUE;
         }
 
+        int getVisitedCount() {
+            return myVisitedCount;
+        }
+
         boolean acceptsFileName(String name) {
             return !VirtualFileUtil.isBadName(name);
         }
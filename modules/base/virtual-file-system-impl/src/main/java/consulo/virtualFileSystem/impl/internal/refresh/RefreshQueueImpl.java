@@ -35,6 +35,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
 import java.util.concurrent.RejectedExecutionException;
 
@@ -109,16 +110,26 @@ public class RefreshQueueImpl extends RefreshQueue implements Disposable {
 
   protected void scheduleAsynchronousPreprocessing(RefreshSessionImpl session, ModalityState modality) {
     if (modality == ModalityState.nonModal()) {
-      fireEventsInBackgroundWriteAction(session);
+      // after the intermediate events of the session, if any
+      session.fireAfterPreviousEvents(() -> fireEventsInBackgroundWriteAction(session));
     }
     else {
       fireEventsOnUiThread(session, modality);
     }
   }
 
-  private void fireEventsInBackgroundWriteAction(RefreshSessionImpl session) {
+  /**
+   * Fires events already found by a running asynchronous session in a separate session, so listeners don't wait for the whole scan.
+   * Batches of the session are fired in order, each one is prepared by async listeners only after the previous one was applied.
+   */
+  void fireIntermediateEvents(RefreshSessionImpl session, List<? extends VFileEvent> events) {
+    RefreshSessionImpl batch = new RefreshSessionImpl(events);
+    session.fireAfterPreviousEvents(() -> fireEventsInBackgroundWriteAction(batch));
+  }
+
+  private CompletableFuture<?> fireEventsInBackgroundWriteAction(RefreshSessionImpl session) {
     UIAccess uiAccess = myApplication.getLastUIAccess();
-    myProgressBuilderFactory.newProgressBuilder(null, VirtualFileSystemLocalize.fileSynchronizeProgress())
+    return myProgressBuilderFactory.newProgressBuilder(null, VirtualFileSystemLocalize.fileSynchronizeProgress())
       .execute(uiAccess, () -> Coroutine.<Void, Pair<List<? extends VFileEvent>, List<AsyncFileListener.ChangeApplier>>>first(
           ReadLock.<Void, Pair<List<? extends VFileEvent>, List<AsyncFileListener.ChangeApplier>>>apply((input, continuation) -> {
             List<? extends VFileEvent> events = ContainerUtil.filter(session.getEvents(), e -> {
@@ -24,7 +24,10 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 /**
  * @author max
@@ -47,6 +50,8 @@ public class RefreshSessionImpl extends RefreshSession {
   private volatile boolean myCancelled;
   private final ModalityState myModality;
   private boolean myLaunched;
+  // intermediate batches and the final events of the session are applied one after another, guarded by this
+  private CompletableFuture<?> myEventsFired = CompletableFuture.completedFuture(null);
 
   public RefreshSessionImpl(boolean async, boolean recursive, @Nullable Runnable finishRunnable, ModalityState modality) {
     myIsAsync = async;
@@ -150,7 +155,7 @@ public class RefreshSessionImpl extends RefreshSession {
             continue;
           }
 
-          RefreshWorker worker = new RefreshWorker(nvf, myIsRecursive);
+          RefreshWorker worker = new RefreshWorker(nvf, myIsRecursive, getIntermediateEventPublisher());
           myWorker = worker;
           worker.scan();
           myEvents.addAll(worker.getEvents());
@@ -170,6 +175,24 @@ public class RefreshSessionImpl extends RefreshSession {
     myWorker = null;
   }
 
+  /**
+   * Events of long asynchronous recursive refreshes are fired in batches while the scan goes on,
+   * when they are fired in a background write action anyway.
+   */
+  private @Nullable Consumer<List<VFileEvent>> getIntermediateEventPublisher() {
+    if (!myIsAsync || !myIsRecursive || myModality != ModalityState.nonModal()) {
+      return null;
+    }
+    return events -> ((RefreshQueueImpl)RefreshQueue.getInstance()).fireIntermediateEvents(this, events);
+  }
+
+  /**
+   * Starts {@code firing} once the events passed to the previous call were fired, even when that failed.
+   */
+  synchronized void fireAfterPreviousEvents(Supplier<? extends CompletableFuture<?>> firing) {
+    myEventsFired = myEventsFired.handle((result, throwable) -> null).thenCompose(it -> firing.get());
+  }
+
   void cancel() {
     myCancelled = true;
 
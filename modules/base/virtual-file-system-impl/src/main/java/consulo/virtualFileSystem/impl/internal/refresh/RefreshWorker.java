@@ -45,8 +45,15 @@ public class RefreshWorker {
   private final LocalFileSystemRefreshWorker myLocalFileSystemRefreshWorker;
 
   public RefreshWorker(NewVirtualFile refreshRoot, boolean isRecursive) {
+    this(refreshRoot, isRecursive, null);
+  }
+
+  /**
+   * @param eventPublisher receives intermediate batches of events, supported by the nio-based refresher only
+   */
+  public RefreshWorker(NewVirtualFile refreshRoot, boolean isRecursive, @Nullable Consumer<? super List<VFileEvent>> eventPublisher) {
     boolean canUseNioRefresher = refreshRoot.isInLocalFileSystem() && !(refreshRoot.getFileSystem() instanceof TempFileSystem) && Registry.is("vfs.use.nio-based.local.refresh.worker");
-    myLocalFileSystemRefreshWorker = canUseNioRefresher ? new LocalFileSystemRefreshWorker(refreshRoot, isRecursive) : null;
+    myLocalFileSystemRefreshWorker = canUseNioRefresher ? new LocalFileSystemRefreshWorker(refreshRoot, isRecursive, eventPublisher) : null;
     myIsRecursive = isRecursive;
     myRefreshQueue.addLast(refreshRoot);
   }
@@ -70,6 +70,11 @@ public class JarHandler extends ZipHandler {
     return myFileSystem.createArchiveFile(path);
   }
 
+  @Override
+  protected boolean isZipArchive() {
+    return myFileSystem.isZipArchive();
+  }
+
   
   @Override
   protected File getFileToUse() {
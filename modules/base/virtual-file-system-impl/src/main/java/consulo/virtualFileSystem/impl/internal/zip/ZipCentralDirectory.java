@@ -0,0 +1,501 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.virtualFileSystem.impl.internal.zip;
+
+import consulo.container.boot.ContainerPathManager;
+import consulo.logging.Logger;
+import consulo.util.lang.SystemProperties;
+import consulo.virtualFileSystem.archive.ArchiveEntry;
+import consulo.virtualFileSystem.archive.ArchiveFile;
+import org.jspecify.annotations.Nullable;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Parsed central directory of a zip archive. Entry data is read by positional reads from the {@link FileChannel} of the owning
+ * {@link ZipHandler} (see {@link #read}), so no open {@link java.util.zip.ZipFile} is needed.
+ * <p>
+ * Parsed directories are cached on disk keyed by archive path, length and timestamp (see {@link #load}) and survive restarts.
+ * The cache keeps at most {@link #MAX_CACHED_DIRECTORIES} least recently used directories, entries of removed archives are
+ * evicted by {@link #evict}.
+ */
+final class ZipCentralDirectory implements ArchiveFile {
+  private static final Logger LOG = Logger.getInstance(ZipCentralDirectory.class);
+
+  private static final String CACHE_FOLDER = "zip-directories";
+  private static final int CACHE_MAGIC = 0x5a434431;
+  private static final int CACHE_VERSION = 1;
+  private static final int MAX_CACHED_DIRECTORIES = SystemProperties.getIntProperty("idea.zip.central.directory.cache.size", 2000);
+
+  private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+  private static final int ZIP64_END_OF_CENTRAL_DIRECTORY = 0x06064b50;
+  private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR = 0x07064b50;
+  private static final int CENTRAL_DIRECTORY_HEADER = 0x02014b50;
+  private static final int LOCAL_FILE_HEADER = 0x04034b50;
+  private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+  private static final int LOCAL_FILE_HEADER_SIZE = 30;
+  private static final int MAX_COMMENT_LENGTH = 0xFFFF;
+
+  private static final int STORED = 0;
+  private static final int DEFLATED = 8;
+
+  private final File myArchive;
+  private final long myArchiveLength;
+  private final long myArchiveTimestamp;
+  private final String[] myNames;
+  private final int[] myMethods;
+  private final int[] myDosTimes;
+  private final boolean[] myEncrypted;
+  private final long[] myCompressedSizes;
+  private final long[] mySizes;
+  private final long[] myLocalHeaderOffsets;
+  private final Map<String, Integer> myIndices;
+
+  private ZipCentralDirectory(File archive, long archiveLength, long archiveTimestamp, int count) {
+    myArchive = archive;
+    myArchiveLength = archiveLength;
+    myArchiveTimestamp = archiveTimestamp;
+    myNames = new String[count];
+    myMethods = new int[count];
+    myDosTimes = new int[count];
+    myEncrypted = new boolean[count];
+    myCompressedSizes = new long[count];
+    mySizes = new long[count];
+    myLocalHeaderOffsets = new long[count];
+    myIndices = new HashMap<>(count * 4 / 3 + 1);
+  }
+
+  static ZipCentralDirectory load(File archive, long length, long timestamp) throws IOException {
+    File cacheFile = getCacheFile(archive);
+    if (cacheFile.exists()) {
+      try {
+        ZipCentralDirectory cached = readCache(cacheFile, archive, length, timestamp);
+        if (cached != null) {
+          // the timestamp of the cache file is the last use, see prune()
+          cacheFile.setLastModified(System.currentTimeMillis());
+          return cached;
+        }
+      }
+      catch (IOException | RuntimeException e) {
+        LOG.debug("Can't read cached central directory of " + archive, e);
+      }
+    }
+
+    ZipCentralDirectory directory;
+    try (FileChannel channel = FileChannel.open(archive.toPath(), StandardOpenOption.READ)) {
+      directory = parse(channel, archive, length, timestamp);
+    }
+
+    try {
+      directory.writeCache(cacheFile);
+      prune(cacheFile.getParentFile());
+    }
+    catch (IOException e) {
+      LOG.debug("Can't cache central directory of " + archive, e);
+    }
+    return directory;
+  }
+
+  /**
+   * Removes the cached directory of the archive, e.g. when the archive is deleted.
+   */
+  static void evict(File archive) {
+    File cacheFile = getCacheFile(archive);
+    if (cacheFile.exists() && !cacheFile.delete()) {
+      LOG.debug("Can't delete cached central directory " + cacheFile);
+    }
+  }
+
+  /**
+   * Deletes least recently used cached directories when there are more than {@link #MAX_CACHED_DIRECTORIES} of them.
+   * A quarter of the limit is freed at once, so the cache folder isn't listed after every write.
+   */
+  private static void prune(File cacheFolder) {
+    File[] files = cacheFolder.listFiles();
+    if (files == null || files.length <= MAX_CACHED_DIRECTORIES) {
+      return;
+    }
+    long[] timestamps = new long[files.length];
+    Integer[] order = new Integer[files.length];
+    for (int i = 0; i < files.length; i++) {
+      timestamps[i] = files[i].lastModified();
+      order[i] = i;
+    }
+    Arrays.sort(order, Comparator.comparingLong(i -> timestamps[i]));
+    for (int i = 0; i < files.length - MAX_CACHED_DIRECTORIES * 3 / 4; i++) {
+      File file = files[order[i]];
+      if (!file.delete()) {
+        LOG.debug("Can't delete cached central directory " + file);
+      }
+    }
+  }
+
+  boolean isUpToDate(long length, long timestamp) {
+    return myArchiveLength == length && myArchiveTimestamp == timestamp;
+  }
+
+  long getArchiveTimestamp() {
+    return myArchiveTimestamp;
+  }
+
+  /**
+   * @return false for entries which data can't be read without {@link java.util.zip.ZipFile} (encrypted or compressed by other methods)
+   */
+  boolean canRead(String name) {
+    Integer index = myIndices.get(name);
+    return index == null || !myEncrypted[index] && (myMethods[index] == STORED || myMethods[index] == DEFLATED);
+  }
+
+  /**
+   * @param channel channel of the archive, it's used only by positional reads, so it may be shared by concurrent readers
+   */
+  byte @Nullable [] read(FileChannel channel, String name) throws IOException {
+    Integer index = myIndices.get(name);
+    if (index == null) {
+      return null;
+    }
+    return read(channel, index);
+  }
+
+  private byte[] read(FileChannel channel, int index) throws IOException {
+    long compressedSize = myCompressedSizes[index];
+    long size = mySizes[index];
+    if (compressedSize > Integer.MAX_VALUE || size > Integer.MAX_VALUE) {
+      throw new ZipException("Entry is too large: " + myNames[index]);
+    }
+
+    ByteBuffer header = readFully(channel, myLocalHeaderOffsets[index], LOCAL_FILE_HEADER_SIZE);
+    if (header.getInt(0) != LOCAL_FILE_HEADER) {
+      throw new ZipException("Invalid local file header of " + myNames[index] + " in " + myArchive);
+    }
+    long dataOffset = myLocalHeaderOffsets[index] + LOCAL_FILE_HEADER_SIZE + getUnsignedShort(header, 26) + getUnsignedShort(header, 28);
+    ByteBuffer data = readFully(channel, dataOffset, (int)compressedSize);
+
+    if (myMethods[index] == STORED) {
+      return data.array();
+    }
+
+    byte[] result = new byte[(int)size];
+    Inflater inflater = new Inflater(true);
+    try {
+      inflater.setInput(data.array());
+      int offset = 0;
+      while (offset < result.length) {
+        int inflated = inflater.inflate(result, offset, result.length - offset);
+        if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+          break;
+        }
+        offset += inflated;
+      }
+      if (offset != result.length) {
+        throw new ZipException("Unexpected size of " + myNames[index] + " in " + myArchive + ": " + offset);
+      }
+    }
+    catch (DataFormatException e) {
+      throw new ZipException("Corrupted entry " + myNames[index] + " in " + myArchive + ": " + e.getMessage());
+    }
+    finally {
+      inflater.end();
+    }
+    return result;
+  }
+
+  private static ZipCentralDirectory parse(FileChannel channel, File archive, long length, long timestamp) throws IOException {
+    long fileSize = channel.size();
+    int tailSize = (int)Math.min(fileSize, END_OF_CENTRAL_DIRECTORY_SIZE + MAX_COMMENT_LENGTH);
+    ByteBuffer tail = readFully(channel, fileSize - tailSize, tailSize);
+
+    int end = -1;
+    for (int i = tailSize - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; i--) {
+      if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY) {
+        end = i;
+        break;
+      }
+    }
+    if (end < 0) {
+      throw new ZipException("End of central directory not found in " + archive);
+    }
+
+    long count = getUnsignedShort(tail, end + 10);
+    long directorySize = getUnsignedInt(tail, end + 12);
+    long directoryOffset = getUnsignedInt(tail, end + 16);
+
+    if (count == 0xFFFF || directorySize == 0xFFFFFFFFL || directoryOffset == 0xFFFFFFFFL) {
+      long locatorPosition = fileSize - tailSize + end - 20;
+      ByteBuffer locator = readFully(channel, locatorPosition, 20);
+      if (locator.getInt(0) != ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR) {
+        throw new ZipException("ZIP64 end of central directory locator not found in " + archive);
+      }
+      ByteBuffer zip64End = readFully(channel, locator.getLong(8), 56);
+      if (zip64End.getInt(0) != ZIP64_END_OF_CENTRAL_DIRECTORY) {
+        throw new ZipException("ZIP64 end of central directory not found in " + archive);
+      }
+      count = zip64End.getLong(32);
+      directorySize = zip64End.getLong(40);
+      directoryOffset = zip64End.getLong(48);
+    }
+    if (count > Integer.MAX_VALUE || directorySize > Integer.MAX_VALUE || directoryOffset + directorySize > fileSize) {
+      throw new ZipException("Unsupported central directory in " + archive);
+    }
+
+    ByteBuffer directory = readFully(channel, directoryOffset, (int)directorySize);
+    ZipCentralDirectory result = new ZipCentralDirectory(archive, length, timestamp, (int)count);
+    int position = 0;
+    for (int i = 0; i < count; i++) {
+      if (directory.getInt(position) != CENTRAL_DIRECTORY_HEADER) {
+        throw new ZipException("Invalid central directory header in " + archive);
+      }
+      int flags = getUnsignedShort(directory, position + 8);
+      int nameLength = getUnsignedShort(directory, position + 28);
+      int extraLength = getUnsignedShort(directory, position + 30);
+      int commentLength = getUnsignedShort(directory, position + 32);
+
+      long size = getUnsignedInt(directory, position + 24);
+      long compressedSize = getUnsignedInt(directory, position + 20);
+      long localHeaderOffset = getUnsignedInt(directory, position + 42);
+
+      int extra = position + 46 + nameLength;
+      int extraEnd = extra + extraLength;
+      while (extra + 4 <= extraEnd) {
+        int id = getUnsignedShort(directory, extra);
+        int dataSize = getUnsignedShort(directory, extra + 2);
+        if (id == 0x0001) { // ZIP64 extended information, only overflowed values are present
+          int field = extra + 4;
+          if (size == 0xFFFFFFFFL) {
+            size = directory.getLong(field);
+            field += 8;
+          }
+          if (compressedSize == 0xFFFFFFFFL) {
+            compressedSize = directory.getLong(field);
+            field += 8;
+          }
+          if (localHeaderOffset == 0xFFFFFFFFL) {
+            localHeaderOffset = directory.getLong(field);
+          }
+          break;
+        }
+        extra += 4 + dataSize;
+      }
+
+      byte[] name = new byte[nameLength];
+      directory.get(position + 46, name);
+      result.set(i, new String(name, StandardCharsets.UTF_8), getUnsignedShort(directory, position + 10), directory.getInt(position + 12),
+                 (flags & 1) != 0, compressedSize, size, localHeaderOffset);
+
+      position += 46 + nameLength + extraLength + commentLength;
+    }
+    return result;
+  }
+
+  private void set(int index, String name, int method, int dosTime, boolean encrypted, long compressedSize, long size, long localHeaderOffset) {
+    myNames[index] = name;
+    myMethods[index] = method;
+    myDosTimes[index] = dosTime;
+    myEncrypted[index] = encrypted;
+    myCompressedSizes[index] = compressedSize;
+    mySizes[index] = size;
+    myLocalHeaderOffsets[index] = localHeaderOffset;
+    myIndices.putIfAbsent(name, index); // the first entry wins as in ZipFile
+  }
+
+  private static @Nullable ZipCentralDirectory readCache(File cacheFile, File archive, long length, long timestamp) throws IOException {
+    try (FileChannel channel = FileChannel.open(cacheFile.toPath(), StandardOpenOption.READ)) {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (buffer.getInt() != CACHE_MAGIC || buffer.getInt() != CACHE_VERSION) {
+        return null;
+      }
+      byte[] path = new byte[buffer.getInt()];
+      buffer.get(path);
+      if (!new String(path, StandardCharsets.UTF_8).equals(archive.getPath()) || buffer.getLong() != length || buffer.getLong() != timestamp) {
+        return null;
+      }
+
+      int count = buffer.getInt();
+      ZipCentralDirectory result = new ZipCentralDirectory(archive, length, timestamp, count);
+      for (int i = 0; i < count; i++) {
+        byte[] name = new byte[buffer.getInt()];
+        buffer.get(name);
+        int method = buffer.getShort() & 0xFFFF;
+        boolean encrypted = buffer.get() != 0;
+        result.set(i, new String(name, StandardCharsets.UTF_8), method, buffer.getInt(), encrypted, buffer.getLong(), buffer.getLong(),
+                   buffer.getLong());
+      }
+      return result;
+    }
+  }
+
+  private void writeCache(File cacheFile) throws IOException {
+    File directory = cacheFile.getParentFile();
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Can't create " + directory);
+    }
+
+    File temp = new File(directory, cacheFile.getName() + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+      out.writeInt(CACHE_MAGIC);
+      out.writeInt(CACHE_VERSION);
+      byte[] path = myArchive.getPath().getBytes(StandardCharsets.UTF_8);
+      out.writeInt(path.length);
+      out.write(path);
+      out.writeLong(myArchiveLength);
+      out.writeLong(myArchiveTimestamp);
+      out.writeInt(myNames.length);
+      for (int i = 0; i < myNames.length; i++) {
+        byte[] name = myNames[i].getBytes(StandardCharsets.UTF_8);
+        out.writeInt(name.length);
+        out.write(name);
+        out.writeShort(myMethods[i]);
+        out.writeByte(myEncrypted[i] ? 1 : 0);
+        out.writeInt(myDosTimes[i]);
+        out.writeLong(myCompressedSizes[i]);
+        out.writeLong(mySizes[i]);
+        out.writeLong(myLocalHeaderOffsets[i]);
+      }
+    }
+    Files.move(temp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private static File getCacheFile(File archive) {
+    String path = archive.getPath();
+    String name = archive.getName() + "." + Integer.toHexString(path.hashCode());
+    return new File(ContainerPathManager.get().getSystemPath() + File.separatorChar + CACHE_FOLDER, name);
+  }
+
+  private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, position + buffer.position());
+      if (read < 0) {
+        throw new EOFException("Unexpected end of archive at " + (position + buffer.position()));
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  private static int getUnsignedShort(ByteBuffer buffer, int index) {
+    return buffer.getShort(index) & 0xFFFF;
+  }
+
+  private static long getUnsignedInt(ByteBuffer buffer, int index) {
+    return buffer.getInt(index) & 0xFFFFFFFFL;
+  }
+
+  private static long toJavaTime(int dosTime) {
+    try {
+      LocalDateTime time = LocalDateTime.of(((dosTime >> 25) & 0x7f) + 1980, (dosTime >> 21) & 0x0f, (dosTime >> 16) & 0x1f,
+                                            (dosTime >> 11) & 0x1f, (dosTime >> 5) & 0x3f, (dosTime << 1) & 0x3e);
+      return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+    catch (DateTimeException e) {
+      return -1;
+    }
+  }
+
+  @Override
+  public String getName() {
+    return myArchive.getPath();
+  }
+
+  @Override
+  public @Nullable ArchiveEntry getEntry(String name) {
+    Integer index = myIndices.get(name);
+    return index == null ? null : new Entry(index);
+  }
+
+  @Override
+  public @Nullable InputStream getInputStream(ArchiveEntry entry) throws IOException {
+    // entry data is read from the channel of the owning handler, see read(FileChannel, String)
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public Iterator<? extends ArchiveEntry> entries() {
+    return new Iterator<Entry>() {
+      private int myNext;
+
+      @Override
+      public boolean hasNext() {
+        return myNext < myNames.length;
+      }
+
+      @Override
+      public Entry next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return new Entry(myNext++);
+      }
+    };
+  }
+
+  @Override
+  public int getSize() {
+    return myNames.length;
+  }
+
+  @Override
+  public void close() {
+  }
+
+  private class Entry implements ArchiveEntry {
+    private final int myIndex;
+
+    private Entry(int index) {
+      myIndex = index;
+    }
+
+    @Override
+    public String getName() {
+      return myNames[myIndex];
+    }
+
+    @Override
+    public long getSize() {
+      return mySizes[myIndex];
+    }
+
+    @Override
+    public long getTime() {
+      return toJavaTime(myDosTimes[myIndex]);
+    }
+
+    @Override
+    public boolean isDirectory() {
+      return myNames[myIndex].endsWith("/");
+    }
+  }
+}
@@ -22,6 +22,8 @@ import consulo.util.io.FileUtil;
 import consulo.util.lang.ByteArrayCharSequence;
 import consulo.util.lang.Pair;
 import consulo.util.lang.StringUtil;
+import consulo.util.lang.SystemProperties;
+import consulo.util.lang.ref.SoftReference;
 import consulo.virtualFileSystem.archive.ArchiveEntry;
 import consulo.virtualFileSystem.archive.ArchiveFile;
 import consulo.virtualFileSystem.archive.ArchiveHandler;
@@ -32,10 +34,17 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.Iterator;
 import java.util.Map;
 
 public abstract class ZipHandler extends ArchiveHandler {
+  private static final Logger LOG = Logger.getInstance(ZipHandler.class);
+
+  private static final boolean USE_CENTRAL_DIRECTORY_CACHE = SystemProperties.getBooleanProperty("idea.zip.central.directory.cache", true);
+
   private static final FileAccessorCache<ZipHandler, ArchiveFile> ourZipFileFileAccessorCache = new FileAccessorCache<ZipHandler, ArchiveFile>(20, 10) {
     @Override
     protected ArchiveFile createAccessor(ZipHandler key) throws IOException {
@@ -59,17 +68,45 @@ public abstract class ZipHandler extends ArchiveHandler {
     }
   };
 
+  // channels for reading entries via ZipCentralDirectory, one per open handler
+  private static final FileAccessorCache<ZipHandler, FileChannel> ourChannelCache = new FileAccessorCache<ZipHandler, FileChannel>(20, 10) {
+    @Override
+    protected FileChannel createAccessor(ZipHandler key) throws IOException {
+      return FileChannel.open(Paths.get(key.getCanonicalPathToZip()), StandardOpenOption.READ);
+    }
+
+    @Override
+    protected void disposeAccessor(FileChannel fileAccessor) throws IOException {
+      fileAccessor.close();
+    }
+
+    @Override
+    public boolean equals(ZipHandler val1, ZipHandler val2) {
+      return val1 == val2;
+    }
+  };
+
   private volatile String myCanonicalPathToZip;
   private volatile long myFileStamp;
 
   private volatile long myFileLength;
 
+  private volatile SoftReference<ZipCentralDirectory> myCentralDirectory;
+  private volatile boolean myCentralDirectoryUnsupported;
+
   public ZipHandler(String path) {
     super(path);
   }
 
   public abstract ArchiveFile createArchiveFile(String path) throws IOException;
 
+  /**
+   * @return true if {@link #createArchiveFile} opens zip files, so their central directory can be parsed and cached without it
+   */
+  protected boolean isZipArchive() {
+    return false;
+  }
+
   
   private String getCanonicalPathToZip() throws IOException {
     String value = myCanonicalPathToZip;
@@ -82,23 +119,66 @@ public abstract class ZipHandler extends ArchiveHandler {
   
   @Override
   protected Map<String, EntryInfo> createEntriesMap() throws IOException {
+    ZipCentralDirectory directory = getCentralDirectory();
+    if (directory != null) {
+      return createEntriesMap(directory, directory.getArchiveTimestamp());
+    }
+
     FileAccessorCache.Handle<ArchiveFile> zipRef = getZipFileHandle();
     try {
-      ArchiveFile zip = zipRef.get();
+      return createEntriesMap(zipRef.get(), myFileStamp);
+    }
+    finally {
+      zipRef.release();
+    }
+  }
 
-      Map<String, EntryInfo> map = new ZipEntryMap(zip.getSize());
-      map.put("", createRootEntry());
+  private Map<String, EntryInfo> createEntriesMap(ArchiveFile zip, long timestamp) {
+    Map<String, EntryInfo> map = new ZipEntryMap(zip.getSize());
+    map.put("", createRootEntry());
 
-      Iterator<? extends ArchiveEntry> entries = zip.entries();
-      while (entries.hasNext()) {
-        getOrCreate(entries.next(), map, zip);
-      }
+    Iterator<? extends ArchiveEntry> entries = zip.entries();
+    while (entries.hasNext()) {
+      getOrCreate(entries.next(), map, zip, timestamp);
+    }
+
+    return map;
+  }
 
-      return map;
+  /**
+   * Central directory of the archive parsed without opening it with {@link #createArchiveFile}, cached on disk between sessions.
+   * Returns null for non-zip archives and archives which directory can't be parsed, those use {@link ArchiveFile} instead.
+   */
+  private @Nullable ZipCentralDirectory getCentralDirectory() throws IOException {
+    if (!USE_CENTRAL_DIRECTORY_CACHE || myCentralDirectoryUnsupported || !isZipArchive()) {
+      return null;
     }
-    finally {
-      zipRef.release();
+
+    String canonicalPathToZip = getCanonicalPathToZip();
+    FileAttributes attributes = FileSystemUtil.getAttributes(canonicalPathToZip);
+    if (attributes == null) {
+      ourChannelCache.remove(this);
+      ZipCentralDirectory.evict(new File(canonicalPathToZip));
+      throw new FileNotFoundException(canonicalPathToZip);
     }
+
+    ZipCentralDirectory directory = SoftReference.dereference(myCentralDirectory);
+    if (directory != null && directory.isUpToDate(attributes.length, attributes.lastModified)) {
+      return directory;
+    }
+    // the archive was changed, its entries are read from a new channel
+    ourChannelCache.remove(this);
+
+    try {
+      directory = ZipCentralDirectory.load(new File(canonicalPathToZip), attributes.length, attributes.lastModified);
+    }
+    catch (IOException e) {
+      LOG.info("Can't read central directory of " + canonicalPathToZip + ": " + e.getMessage());
+      myCentralDirectoryUnsupported = true;
+      return null;
+    }
+    myCentralDirectory = new SoftReference<>(directory);
+    return directory;
   }
 
   
@@ -124,8 +204,21 @@ public abstract class ZipHandler extends ArchiveHandler {
     return handle;
   }
 
+  private FileAccessorCache.Handle<FileChannel> getChannelHandle() throws IOException {
+    try {
+      return ourChannelCache.get(this);
+    }
+    catch (RuntimeException ex) {
+      if (ex.getCause() instanceof IOException ioe) {
+        throw ioe;
+      }
+      throw ex;
+    }
+  }
+
   private void removeZipHandlerFromCache() {
     ourZipFileFileAccessorCache.remove(this);
+    ourChannelCache.remove(this);
   }
 
   
@@ -140,7 +233,7 @@ public abstract class ZipHandler extends ArchiveHandler {
   }
 
   
-  private EntryInfo getOrCreate(ArchiveEntry entry, Map<String, EntryInfo> map, ArchiveFile zip) {
+  private EntryInfo getOrCreate(ArchiveEntry entry, Map<String, EntryInfo> map, ArchiveFile zip, long timestamp) {
     boolean isDirectory = entry.isDirectory();
     String entryName = entry.getName();
     if (StringUtil.endsWithChar(entryName, '/')) {
@@ -152,11 +245,11 @@ public abstract class ZipHandler extends ArchiveHandler {
     if (info != null) return info;
 
     Pair<String, String> path = splitPath(entryName);
-    EntryInfo parentInfo = getOrCreate(path.first, map, zip);
+    EntryInfo parentInfo = getOrCreate(path.first, map, zip, timestamp);
     if (".".equals(path.second)) {
       return parentInfo;
     }
-    info = store(map, parentInfo, path.second, isDirectory, entry.getSize(), myFileStamp, entryName);
+    info = store(map, parentInfo, path.second, isDirectory, entry.getSize(), timestamp, entryName);
     return info;
   }
 
@@ -175,17 +268,17 @@ public abstract class ZipHandler extends ArchiveHandler {
   }
 
   
-  private EntryInfo getOrCreate(String entryName, Map<String, EntryInfo> map, ArchiveFile zip) {
+  private EntryInfo getOrCreate(String entryName, Map<String, EntryInfo> map, ArchiveFile zip, long timestamp) {
     EntryInfo info = map.get(entryName);
 
     if (info == null) {
       ArchiveEntry entry = zip.getEntry(entryName + "/");
       if (entry != null) {
-        return getOrCreate(entry, map, zip);
+        return getOrCreate(entry, map, zip, timestamp);
       }
 
       Pair<String, String> path = splitPath(entryName);
-      EntryInfo parentInfo = getOrCreate(path.first, map, zip);
+      EntryInfo parentInfo = getOrCreate(path.first, map, zip, timestamp);
       info = store(map, parentInfo, path.second, true, DEFAULT_LENGTH, DEFAULT_TIMESTAMP, entryName);
     }
 
@@ -200,6 +293,22 @@ public abstract class ZipHandler extends ArchiveHandler {
   
   @Override
   public byte[] contentsToByteArray(String relativePath) throws IOException {
+    ZipCentralDirectory directory = getCentralDirectory();
+    if (directory != null && directory.canRead(relativePath)) {
+      byte[] bytes;
+      FileAccessorCache.Handle<FileChannel> channelRef = getChannelHandle();
+      try {
+        bytes = directory.read(channelRef.get(), relativePath);
+      }
+      finally {
+        channelRef.release();
+      }
+      if (bytes != null) {
+        return bytes;
+      }
+      throw new FileNotFoundException(getFile() + "!/" + relativePath);
+    }
+
     FileAccessorCache.Handle<ArchiveFile> zipRef;
 
     try {
@@ -239,5 +348,6 @@ public abstract class ZipHandler extends ArchiveHandler {
   // also used in Kotlin
   public static void clearFileAccessorCache() {
     ourZipFileFileAccessorCache.clear();
+    ourChannelCache.clear();
   }
 }
\ No newline at end of file
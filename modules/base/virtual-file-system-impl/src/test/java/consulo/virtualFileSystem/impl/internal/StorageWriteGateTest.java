@@ -0,0 +1,166 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.virtualFileSystem.impl.internal;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Concurrent writes against flushing through the {@link StorageWriteGate} used by {@link FSRecords}.
+ */
+public class StorageWriteGateTest {
+    private static final int WRITERS = 8;
+    private static final int WRITES_PER_WRITER = 20000;
+
+    @Test
+    void testCloseWaitsForWriteInProgress() throws Exception {
+        StorageWriteGate gate = new StorageWriteGate();
+        ExecutorService flusher = Executors.newSingleThreadExecutor();
+        try {
+            gate.enter();
+            Future<?> flush = flusher.submit(() -> {
+                gate.close();
+                gate.open();
+            });
+            assertThatNotDone(flush);
+
+            gate.exit();
+            flush.get(10, TimeUnit.SECONDS);
+        }
+        finally {
+            flusher.shutdownNow();
+        }
+    }
+
+    @Test
+    void testNestedEnterWhileCloseIsWaiting() throws Exception {
+        StorageWriteGate gate = new StorageWriteGate();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            CountDownLatch entered = new CountDownLatch(1);
+            CountDownLatch flushQueued = new CountDownLatch(1);
+            Future<?> write = executor.submit(() -> {
+                gate.enter();
+                try {
+                    entered.countDown();
+                    flushQueued.await();
+                    // e.g. a content write which stores an attribute on the way
+                    gate.enter();
+                    gate.exit();
+                }
+                finally {
+                    gate.exit();
+                }
+                return null;
+            });
+            entered.await();
+            Future<?> flush = executor.submit(() -> {
+                gate.close();
+                gate.open();
+            });
+            assertThatNotDone(flush);
+            flushQueued.countDown();
+
+            write.get(10, TimeUnit.SECONDS);
+            flush.get(10, TimeUnit.SECONDS);
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void testFlushNeverSeesHalfDoneWrite() throws Exception {
+        StorageWriteGate gate = new StorageWriteGate();
+        // every write updates both halves of its slot, a flush must never see them differ
+        int[] firstHalves = new int[WRITERS];
+        int[] secondHalves = new int[WRITERS];
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicInteger flushes = new AtomicInteger();
+        AtomicInteger tornWrites = new AtomicInteger();
+
+        ExecutorService executor = Executors.newFixedThreadPool(WRITERS + 1);
+        try {
+            Future<?> flusher = executor.submit(() -> {
+                while (writing.get()) {
+                    gate.close();
+                    try {
+                        for (int i = 0; i < WRITERS; i++) {
+                            if (firstHalves[i] != secondHalves[i]) {
+                                tornWrites.incrementAndGet();
+                            }
+                        }
+                        flushes.incrementAndGet();
+                    }
+                    finally {
+                        gate.open();
+                    }
+                    Thread.yield();
+                }
+            });
+
+            List<Future<?>> writers = new ArrayList<>();
+            for (int w = 0; w < WRITERS; w++) {
+                int slot = w;
+                writers.add(executor.submit(() -> {
+                    for (int n = 1; n <= WRITES_PER_WRITER; n++) {
+                        gate.enter();
+                        try {
+                            firstHalves[slot] = n;
+                            Thread.yield();
+                            secondHalves[slot] = n;
+                        }
+                        finally {
+                            gate.exit();
+                        }
+                    }
+                }));
+            }
+            for (Future<?> writer : writers) {
+                writer.get(60, TimeUnit.SECONDS);
+            }
+            writing.set(false);
+            flusher.get(10, TimeUnit.SECONDS);
+        }
+        finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(tornWrites.get()).isZero();
+        assertThat(flushes.get()).isPositive();
+        for (int i = 0; i < WRITERS; i++) {
+            assertThat(firstHalves[i]).isEqualTo(WRITES_PER_WRITER);
+            assertThat(secondHalves[i]).isEqualTo(WRITES_PER_WRITER);
+        }
+    }
+
+    private static void assertThatNotDone(Future<?> future) throws Exception {
+        try {
+            future.get(200, TimeUnit.MILLISECONDS);
+        }
+        catch (TimeoutException e) {
+            return;
+        }
+        throw new AssertionError("close() didn't wait for the write in progress");
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2013-2026 consulo.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package consulo.virtualFileSystem.impl.internal.entry;
+
+import consulo.application.Application;
+import consulo.application.ApplicationManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Segments of {@link VfsData} keep their fixed-width data in shared off-heap slabs.
+ */
+public class VfsDataTest {
+    // VfsData.SEGMENT_SIZE
+    private static final int SEGMENT_SIZE = 512;
+    // more than one slab of 256 segments
+    private static final int SEGMENTS = 4096;
+
+    @BeforeEach
+    void setUp() {
+        ApplicationManager.setApplication((Application)Proxy.newProxyInstance(Application.class.getClassLoader(), new Class<?>[]{Application.class}, (proxy, method, args) -> switch (method.getName()) {
+            case "addApplicationListener" -> null;
+            case "hashCode" -> System.identityHashCode(proxy);
+            case "equals" -> proxy == args[0];
+            default -> throw new UnsupportedOperationException(method.toString());
+        }));
+    }
+
+    @AfterEach
+    void tearDown() {
+        ApplicationManager.setApplication(null);
+    }
+
+    @Test
+    void testSegmentsSharingSlabKeepTheirData() {
+        VfsData data = new VfsData();
+        for (int i = 0; i < SEGMENTS; i++) {
+            int first = Math.max(1, i * SEGMENT_SIZE);
+            int last = i * SEGMENT_SIZE + SEGMENT_SIZE - 1;
+            VfsData.Segment segment = data.getSegment(first, true);
+            assertThat(data.getSegment(last, true)).isSameAs(segment);
+
+            segment.setNameId(first, first);
+            segment.setNameId(last, last);
+            segment.setFlag(first, VirtualFileSystemEntry.IS_SPECIAL_FLAG, true);
+            segment.setModificationStamp(last, i);
+        }
+
+        for (int i = 0; i < SEGMENTS; i++) {
+            int first = Math.max(1, i * SEGMENT_SIZE);
+            int last = i * SEGMENT_SIZE + SEGMENT_SIZE - 1;
+            VfsData.Segment segment = data.getSegment(first, false);
+            assertThat(segment.getNameId(first)).isEqualTo(first);
+            assertThat(segment.getNameId(last)).isEqualTo(last);
+            assertThat(segment.getFlag(first, VirtualFileSystemEntry.IS_SPECIAL_FLAG)).isTrue();
+            assertThat(segment.getFlag(last, VirtualFileSystemEntry.IS_SPECIAL_FLAG)).isFalse();
+            assertThat(segment.getModificationStamp(first)).isZero();
+            assertThat(segment.getModificationStamp(last)).isEqualTo(i);
+        }
+    }
+
+    @Test
+    void testSegmentIntsAreNotOnHeap() throws InterruptedException {
+        long before = usedHeap();
+        VfsData data = new VfsData();
+        for (int i = 0; i < SEGMENTS; i++) {
+            data.getSegment(i * SEGMENT_SIZE + 1, true);
+        }
+        long perSegment = (usedHeap() - before) / SEGMENTS;
+
+        // the object array of a segment takes up to 8 bytes per file, the ints of two more per file would take as much again on heap
+        assertThat(perSegment).isLessThan(SEGMENT_SIZE * 8 + 1024);
+        assertThat(data.getSegment(1, false)).isNotNull();
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}